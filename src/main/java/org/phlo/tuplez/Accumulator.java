@@ -0,0 +1,19 @@
+package org.phlo.tuplez;
+
+/**
+ * Accumulator for the output rows of fold().
+ * <p>
+ * Rows are passed to {@link #accumulate(Object, Object)} as
+ * they are read from the {@link java.sql.ResultSet}, without
+ * creating an output object per row. The row passed is a
+ * view of the result set's current row, and is re-filled
+ * with the next row's values once accumulate() returns.
+ * Accumulators must therefore extract the values they
+ * need, and must not retain the row itself.
+ *
+ * @param <AccType> the accumulated value's type
+ * @param <OutputType> type representing result rows
+ */
+public interface Accumulator<AccType, OutputType> {
+	public AccType accumulate(AccType accumulated, OutputType row);
+}
@@ -0,0 +1,192 @@
+package org.phlo.tuplez;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+
+import com.googlecode.gentyref.GenericTypeReflector;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Executes the set-based companion of a single-row lookup,
+ * declared by {@link BatchLookup}, and matches the returned
+ * rows to the inputs.
+ * <p>
+ * Keys are normalized (see {@link #normalizeKey(Object)}) so
+ * that the lookup's input and the output's key property need
+ * not have exactly the same type.
+ */
+final class BatchLookupFetcher {
+	private static final ClassCache<BatchLookupFetcher> s_fetchers = new ClassCache<BatchLookupFetcher>() {
+		@SuppressWarnings("unchecked")
+		@Override protected BatchLookupFetcher create(final Class<?> opClass, final Class<?> key, final Object context) {
+			final BatchLookup batchLookup = opClass.getAnnotation(BatchLookup.class);
+			if (batchLookup == null)
+				return null;
+			
+			return new BatchLookupFetcher((Class<? extends Operation<?,?>>)opClass, batchLookup);
+		}
+	};
+	
+	/* Marks keys for which the companion returned more than one row */
+	private static final Object s_duplicateRow = new Object();
+	
+	/**
+	 * Returns the fetcher of an operation annotated with
+	 * {@link BatchLookup}, or null if it isn't annotated.
+	 * 
+	 * @param opClass the lookup's defining class/interface
+	 * @return the fetcher or null
+	 */
+	static BatchLookupFetcher getInstance(final Class<? extends Operation<?,?>> opClass) {
+		return s_fetchers.get(opClass);
+	}
+	
+	private final Class<? extends Operation<?,?>> m_opClass;
+	private final Class<? extends Operation<?,?>> m_batchClass;
+	private final String m_key;
+	private final int m_chunkSize;
+	
+	/* Component type of the companion operation's input array */
+	private final Class<?> m_batchInputComponentType;
+	
+	/* Getter of the key property, looked up on the first row */
+	private volatile PropertyGetter m_keyGetter = null;
+	
+	private BatchLookupFetcher(final Class<? extends Operation<?,?>> opClass, final BatchLookup batchLookup) {
+		if (!OperationReturnsSingleRow.class.isAssignableFrom(opClass)) {
+			throw new InvalidOperationDefinitionException(
+				"@BatchLookup requires the operation to be a " + OperationReturnsSingleRow.class.getSimpleName(),
+				opClass
+			);
+		}
+		if (batchLookup.chunkSize() <= 0) {
+			throw new InvalidOperationDefinitionException(
+				"@BatchLookup chunk size must be positive",
+				opClass
+			);
+		}
+		
+		m_opClass = opClass;
+		m_batchClass = batchLookup.value();
+		m_key = batchLookup.key();
+		m_chunkSize = batchLookup.chunkSize();
+		
+		final Type batchInputType = GenericTypeReflector.getTypeParameter(m_batchClass, OperationInput.class.getTypeParameters()[0]);
+		if (!(batchInputType instanceof Class) || !((Class<?>)batchInputType).isArray()) {
+			throw new InvalidOperationDefinitionException(
+				"@BatchLookup companion " + m_batchClass.getName() + " must take an array as input",
+				opClass
+			);
+		}
+		m_batchInputComponentType = ((Class<?>)batchInputType).getComponentType();
+	}
+	
+	/**
+	 * Returns the maximal number of keys to pass to one
+	 * call of {@link #fetch(Executor, List)}.
+	 * 
+	 * @return the chunk size
+	 */
+	int getChunkSize() {
+		return m_chunkSize;
+	}
+	
+	/**
+	 * Executes the companion operation once.
+	 * 
+	 * @param executor the executor to execute the companion with
+	 * @param keys the distinct normalized keys to look up
+	 * @return the rows by normalized key, to be read with {@link #getRow(Map, Object)}
+	 */
+	Map<Object, Object> fetch(final Executor executor, final List<Object> keys) {
+		@SuppressWarnings("unchecked")
+		final Operation<Object, Object> batchOp = (Operation<Object, Object>)executor.with(m_batchClass);
+		
+		final Object batchInput = Array.newInstance(m_batchInputComponentType, keys.size());
+		for(int i=0; i < keys.size(); ++i)
+			Array.set(batchInput, i, denormalizeKey(keys.get(i)));
+		
+		final Map<Object, Object> rows = new HashMap<Object, Object>(keys.size() * 2);
+		for(final Object row: batchOp.collection(batchInput)) {
+			if (row == null)
+				continue;
+			
+			final Object key = normalizeKey(getKey(row));
+			rows.put(key, rows.containsKey(key) ? s_duplicateRow : row);
+		}
+		return rows;
+	}
+	
+	/**
+	 * Returns the row of a key from the result of
+	 * {@link #fetch(Executor, List)}, or null.
+	 * 
+	 * @param rows the fetched rows
+	 * @param key the normalized key
+	 * @return the key's row or null
+	 */
+	Object getRow(final Map<Object, Object> rows, final Object key) {
+		final Object row = rows.get(key);
+		if (row == s_duplicateRow) {
+			throw new IncorrectResultSizeDataAccessException(
+				"Statement " + m_opClass.getName() + " " +
+				"was declared as " + OperationReturnsSingleRow.class.getSimpleName() + " " +
+				"but returned more than one row",
+				1,
+				-1 /* Actual size unknown */
+			);
+		}
+		return row;
+	}
+	
+	private Object getKey(final Object row) {
+		if (m_key.length() == 0)
+			return row;
+		
+		PropertyGetter keyGetter = m_keyGetter;
+		if (keyGetter == null) {
+			keyGetter = new PropertyGetter(row.getClass(), m_key, "@BatchLookup key", m_opClass);
+			m_keyGetter = keyGetter;
+		}
+		
+		return keyGetter.get(row);
+	}
+	
+	/**
+	 * Makes integral keys of different types compare equal, since
+	 * the lookup's input and the output's key property need not
+	 * have the same type (e.g. Integer and Long).
+	 * 
+	 * @param key the key to normalize
+	 * @return the normalized key
+	 */
+	static Object normalizeKey(final Object key) {
+		if ((key instanceof Integer) || (key instanceof Short) || (key instanceof Byte))
+			return Long.valueOf(((Number)key).longValue());
+		return key;
+	}
+	
+	/**
+	 * Reverts {@link #normalizeKey(Object)} for keys stored
+	 * into an array of the companion's input type.
+	 */
+	private Object denormalizeKey(final Object key) {
+		if (!(key instanceof Long))
+			return key;
+		
+		final long value = (Long)key;
+		if ((m_batchInputComponentType == Integer.class) || (m_batchInputComponentType == int.class))
+			return Integer.valueOf((int)value);
+		else if ((m_batchInputComponentType == Short.class) || (m_batchInputComponentType == short.class))
+			return Short.valueOf((short)value);
+		else if ((m_batchInputComponentType == Byte.class) || (m_batchInputComponentType == byte.class))
+			return Byte.valueOf((byte)value);
+		return key;
+	}
+}
@@ -0,0 +1,412 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * The Bloom filter of a lookup annotated with {@link ExistenceFilter}.
+ * <p>
+ * The filter's bits are set atomically, so keys may be added while
+ * lookups test others. Rebuilds build a new set of bits and replace
+ * the old one once complete. Keys added since the start of the
+ * previous rebuild are added to the new bits as well, so that keys
+ * whose rows were committed only after the rebuild read the keys
+ * aren't lost. Only the first build blocks lookups. If it fails,
+ * lookups aren't filtered.
+ * <p>
+ * Instances are created per executor and operation by
+ * {@link Executor#getExistenceFilter(Class)}.
+ */
+final class BloomFilter {
+	/**
+	 * A set of bits, sized for an expected number of keys
+	 */
+	private static final class Bits {
+		final AtomicLongArray words;
+		final int bitCount;
+		final int hashCount;
+		final AtomicLong keyCount = new AtomicLong();
+
+		Bits(final long expectedKeys, final double falsePositiveRate) {
+			final double ln2 = Math.log(2);
+			final long bits = (long)Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (ln2 * ln2));
+			words = new AtomicLongArray((int)((Math.max(64, Math.min(bits, Integer.MAX_VALUE - 63)) + 63) / 64));
+			bitCount = words.length() * 64;
+			hashCount = Math.max(1, (int)Math.round((double)bitCount / expectedKeys * ln2));
+		}
+
+		void add(final Object key) {
+			final long hash = hash(key);
+			for(int i=0; i < hashCount; ++i) {
+				final int bit = bit(hash, i);
+				final int word = bit >>> 6;
+				final long mask = 1L << (bit & 63);
+				while (true) {
+					final long value = words.get(word);
+					if (((value & mask) != 0) || words.compareAndSet(word, value, value | mask))
+						break;
+				}
+			}
+			keyCount.incrementAndGet();
+		}
+
+		boolean mightContain(final Object key) {
+			final long hash = hash(key);
+			for(int i=0; i < hashCount; ++i) {
+				final int bit = bit(hash, i);
+				if ((words.get(bit >>> 6) & (1L << (bit & 63))) == 0)
+					return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Returns the i-th of the key's bits, derived from the
+		 * two halves of the key's hash (double hashing)
+		 */
+		private int bit(final long hash, final int i) {
+			int combined = (int)hash + i * (int)(hash >>> 32);
+			if (combined < 0)
+				combined = ~combined;
+			return combined % bitCount;
+		}
+
+		/**
+		 * Returns the expected rate of false positives
+		 * for the number of keys added so far
+		 */
+		double getExpectedFalsePositiveRate() {
+			return Math.pow(1 - Math.exp(-(double)hashCount * keyCount.get() / bitCount), hashCount);
+		}
+	}
+
+	/**
+	 * Spreads a normalized key's hash code over 64 bits (SplitMix64's
+	 * finalizer). Long keys are hashed by value.
+	 */
+	private static long hash(final Object key) {
+		long h = (key instanceof Long) ? (Long)key : key.hashCode();
+		h += 0x9e3779b97f4a7c15L;
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+	private final Executor m_executor;
+	private final Class<? extends Operation<?,?>> m_opClass;
+	private final Class<? extends Operation<?,?>> m_companionClass;
+	private final String m_key;
+	private final long m_rebuildMillis;
+	private final double m_falsePositiveRate;
+
+	/* The current bits, null until the first build completed */
+	private volatile Bits m_bits = null;
+
+	/* Serializes builds, guards the fields below */
+	private final Object m_loadLock = new Object();
+	private PropertyGetter m_keyGetter = null;
+	private ScheduledFuture<?> m_rebuild = null;
+	private long m_loads = 0;
+	private long m_failedLoads = 0;
+	private long m_lastLoadNanos = 0;
+	private long m_lastLoadedAt = 0;
+
+	/* Guards the replacement of m_bits and the lists of added keys */
+	private final Object m_addLock = new Object();
+
+	/* Keys added since the start of the current (or last) build, null before the first build */
+	private List<Object> m_added = null;
+
+	/* Keys added between the start of the previous and the current build, while building */
+	private List<Object> m_previousAdded = null;
+
+	/* Input key getters of operations annotated with @AddsKeys */
+	private final ConcurrentMap<Class<?>, PropertyGetter> m_inputKeyGetters = new ConcurrentHashMap<Class<?>, PropertyGetter>();
+
+	private final AtomicLong m_lookups = new AtomicLong();
+	private final AtomicLong m_rejected = new AtomicLong();
+	private final AtomicLong m_falsePositives = new AtomicLong();
+
+	BloomFilter(final Executor executor, final Class<? extends Operation<?,?>> opClass, final ExistenceFilter existenceFilter) {
+		if (!OperationReturnsSingleRow.class.isAssignableFrom(opClass)) {
+			throw new InvalidOperationDefinitionException(
+				"@ExistenceFilter requires the operation to be a " + OperationReturnsSingleRow.class.getSimpleName(),
+				opClass
+			);
+		}
+		if ((existenceFilter.rebuildMillis() < 0) || !(existenceFilter.falsePositiveRate() > 0) || !(existenceFilter.falsePositiveRate() < 1)) {
+			throw new InvalidOperationDefinitionException(
+				"@ExistenceFilter requires a non-negative rebuildMillis and a falsePositiveRate between 0 and 1",
+				opClass
+			);
+		}
+
+		m_executor = executor;
+		m_opClass = opClass;
+		m_companionClass = existenceFilter.value();
+		m_key = existenceFilter.key();
+		m_rebuildMillis = existenceFilter.rebuildMillis();
+		m_falsePositiveRate = existenceFilter.falsePositiveRate();
+	}
+
+	/**
+	 * Returns whether a row with the given key might exist,
+	 * building the filter first if necessary.
+	 *
+	 * @param input the lookup's input, not null
+	 * @return false if no row with that key exists
+	 */
+	boolean mightContain(final Object input) {
+		Bits bits = m_bits;
+		if (bits == null) {
+			try {
+				bits = load(false);
+			}
+			catch (RuntimeException e) {
+				/* Counted by load(), the lookup executes unfiltered */
+				return true;
+			}
+		}
+
+		m_lookups.incrementAndGet();
+		if (bits.mightContain(BatchLookupFetcher.normalizeKey(input)))
+			return true;
+
+		m_rejected.incrementAndGet();
+		return false;
+	}
+
+	/**
+	 * Returns the inputs which might exist, without nulls
+	 * and with one input per key.
+	 *
+	 * @param inputs the lookup's inputs
+	 * @return the inputs which passed the filter
+	 */
+	List<Object> retainPossible(final Iterable<?> inputs) {
+		final Map<Object, Object> passed = new LinkedHashMap<Object, Object>();
+		for(final Object input: inputs) {
+			if (input == null)
+				continue;
+			final Object key = BatchLookupFetcher.normalizeKey(input);
+			if (!passed.containsKey(key) && mightContain(input))
+				passed.put(key, input);
+		}
+		return new ArrayList<Object>(passed.values());
+	}
+
+	/**
+	 * Counts lookups which passed the filter, but found no row
+	 *
+	 * @param falsePositives number of such lookups
+	 */
+	void countFalsePositives(final int falsePositives) {
+		if (falsePositives > 0)
+			m_falsePositives.addAndGet(falsePositives);
+	}
+
+	/**
+	 * Adds a key to the filter, e.g. before inserting its row.
+	 *
+	 * @param key the key, ignored if null
+	 */
+	void add(final Object key) {
+		if (key == null)
+			return;
+
+		final Object normalized = BatchLookupFetcher.normalizeKey(key);
+		synchronized (m_addLock) {
+			if (m_bits != null)
+				m_bits.add(normalized);
+			if (m_added != null)
+				m_added.add(normalized);
+		}
+	}
+
+	/**
+	 * Adds the key contained in an input of an operation
+	 * annotated with {@link AddsKeys}.
+	 *
+	 * @param writerClass the inserting operation's class
+	 * @param property the input property containing the key
+	 * @param input the input, ignored if null
+	 */
+	@SuppressWarnings({"rawtypes", "unchecked"})
+	void addInputKey(final Class<? extends Operation<?,?>> writerClass, final String property, final Object input) {
+		if ((input == null) || (property.length() == 0)) {
+			add(input);
+			return;
+		}
+
+		PropertyGetter getter = m_inputKeyGetters.get(writerClass);
+		if (getter == null) {
+			getter = new PropertyGetter(OperationMetaData.getInputClass((Class)writerClass), property, "@AddsKeys key", writerClass);
+			m_inputKeyGetters.put(writerClass, getter);
+		}
+
+		add(getter.get(input));
+	}
+
+	/**
+	 * Builds the filter, unless it was built already and force
+	 * is false. Schedules the periodic rebuilds after the first
+	 * build.
+	 *
+	 * @param force whether to rebuild a built filter
+	 * @return the current bits
+	 */
+	private Bits load(final boolean force) {
+		synchronized (m_loadLock) {
+			if (!force && (m_bits != null))
+				return m_bits;
+
+			final long start = System.nanoTime();
+			synchronized (m_addLock) {
+				m_previousAdded = m_added;
+				m_added = new ArrayList<Object>();
+			}
+
+			final List<Object> keys;
+			try {
+				keys = fetchKeys();
+			}
+			catch (RuntimeException e) {
+				synchronized (m_addLock) {
+					if (m_previousAdded != null)
+						m_added.addAll(0, m_previousAdded);
+					m_previousAdded = null;
+				}
+				m_failedLoads += 1;
+				throw e;
+			}
+
+			final Bits bits = new Bits(Math.max(1024, 2L * keys.size()), m_falsePositiveRate);
+			for(final Object key: keys)
+				bits.add(key);
+
+			/* Publish the new bits, including the keys added meanwhile */
+			synchronized (m_addLock) {
+				if (m_previousAdded != null) {
+					for(final Object key: m_previousAdded)
+						bits.add(key);
+				}
+				for(final Object key: m_added)
+					bits.add(key);
+				m_previousAdded = null;
+
+				/* Without rebuilds, there's nothing to replay the added keys into */
+				if (m_rebuildMillis == 0)
+					m_added = null;
+				m_bits = bits;
+			}
+			m_loads += 1;
+			m_lastLoadNanos = System.nanoTime() - start;
+			m_lastLoadedAt = System.currentTimeMillis();
+
+			if ((m_rebuild == null) && (m_rebuildMillis > 0)) {
+				m_rebuild = m_executor.getRefreshScheduler().scheduleWithFixedDelay(new Runnable() {
+					@Override public void run() {
+						try {
+							load(true);
+						}
+						catch (RuntimeException e) {
+							/* Counted by load(), the previous bits stay in place */
+						}
+					}
+				}, m_rebuildMillis, m_rebuildMillis, TimeUnit.MILLISECONDS);
+			}
+
+			return bits;
+		}
+	}
+
+	/**
+	 * Rebuilds the filter now
+	 */
+	void rebuild() {
+		load(true);
+	}
+
+	/**
+	 * Stops the periodic rebuilds
+	 */
+	void cancel() {
+		synchronized (m_loadLock) {
+			if (m_rebuild != null) {
+				m_rebuild.cancel(false);
+				m_rebuild = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the filter's counters.
+	 *
+	 * @return the filter's statistics
+	 */
+	ExistenceFilterStatistics getStatistics() {
+		final Bits bits = m_bits;
+		synchronized (m_loadLock) {
+			return new ExistenceFilterStatistics(
+				(bits != null) ? bits.keyCount.get() : 0,
+				(bits != null) ? bits.bitCount : 0,
+				(bits != null) ? bits.hashCount : 0,
+				(bits != null) ? bits.getExpectedFalsePositiveRate() : 0,
+				m_loads,
+				m_failedLoads,
+				m_lastLoadNanos,
+				m_lastLoadedAt,
+				m_lookups.get(),
+				m_rejected.get(),
+				m_falsePositives.get()
+			);
+		}
+	}
+
+	/**
+	 * Executes the companion operation and collects the keys
+	 *
+	 * @return the normalized keys
+	 */
+	private List<Object> fetchKeys() {
+		@SuppressWarnings("unchecked")
+		final Operation<Object, Object> companion = (Operation<Object, Object>)m_executor.with(m_companionClass);
+
+		return companion.iterate(new IteratorProcessor<Object, List<Object>>() {
+			@Override public List<Object> processIterator(final Iterator<Object> iterator) {
+				final List<Object> keys = new ArrayList<Object>();
+				while (iterator.hasNext()) {
+					final Object row = iterator.next();
+					if (row == null)
+						continue;
+
+					final Object key = getKey(row);
+					if (key != null)
+						keys.add(BatchLookupFetcher.normalizeKey(key));
+				}
+				return keys;
+			}
+		});
+	}
+
+	private Object getKey(final Object row) {
+		if (m_key.length() == 0)
+			return row;
+
+		if (m_keyGetter == null)
+			m_keyGetter = new PropertyGetter(row.getClass(), m_key, "@ExistenceFilter key", m_opClass);
+
+		return m_keyGetter.get(row);
+	}
+}
@@ -0,0 +1,29 @@
+package org.phlo.tuplez;
+
+import org.springframework.dao.NonTransientDataAccessException;
+
+/**
+ * Thrown if a bulk load was aborted since more rows failed
+ * than tolerated. Rows committed before remain committed.
+ * 
+ * @see BulkLoader#setMaxErrors(long)
+ */
+@SuppressWarnings("serial")
+public class BulkLoadAbortedException extends NonTransientDataAccessException {
+	private final BulkLoadStatistics m_statistics;
+	
+	public BulkLoadAbortedException(final String msg, final BulkLoadStatistics statistics) {
+		super(msg);
+		m_statistics = statistics;
+	}
+	
+	/**
+	 * Returns the statistics of the aborted load, including
+	 * the errors of the failed rows.
+	 * 
+	 * @return the load's statistics
+	 */
+	public BulkLoadStatistics getStatistics() {
+		return m_statistics;
+	}
+}
@@ -0,0 +1,39 @@
+package org.phlo.tuplez;
+
+/**
+ * A row which failed to load, see {@link BulkLoader}.
+ */
+public final class BulkLoadError {
+	private final long m_row;
+	private final RuntimeException m_cause;
+
+	BulkLoadError(final long row, final RuntimeException cause) {
+		m_row = row;
+		m_cause = cause;
+	}
+
+	/**
+	 * Returns the row's number, counting the rows following
+	 * the file's header from one
+	 *
+	 * @return the row's number
+	 */
+	public long getRow() {
+		return m_row;
+	}
+
+	/**
+	 * Returns why the row failed, e.g. because a value couldn't
+	 * be converted, or the execution violated a constraint
+	 *
+	 * @return the failure
+	 */
+	public RuntimeException getCause() {
+		return m_cause;
+	}
+
+	@Override
+	public String toString() {
+		return "row " + m_row + ": " + m_cause.getMessage();
+	}
+}
@@ -0,0 +1,447 @@
+package org.phlo.tuplez;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A file in one of the {@link ExportFormat}s, split into slices
+ * which can be parsed independently, see {@link BulkLoader}.
+ * <p>
+ * CSV files are split at line breaks outside of quoted fields,
+ * columnar files at chunk boundaries. Each slice is mapped into
+ * memory by the worker parsing it, and is at most about
+ * {@link #s_maxSliceBytes} long, so that it fits into a single
+ * mapping.
+ */
+final class BulkLoadFile {
+	/* Maximal length of a slice, besides the record which straddles the limit */
+	static final long s_maxSliceBytes = 1L << 30;
+
+	private static final Charset s_utf8 = Charset.forName("UTF-8");
+
+	/**
+	 * A range of a file holding complete records
+	 */
+	static final class Slice {
+		/* First byte of the slice */
+		final long start;
+
+		/* End of the slice, exclusive */
+		final long end;
+
+		/* Number of the slice's first row, counting from one */
+		final long firstRow;
+
+		Slice(final long _start, final long _end, final long _firstRow) {
+			start = _start;
+			end = _end;
+			firstRow = _firstRow;
+		}
+	}
+
+	/**
+	 * Parses the rows of a slice
+	 */
+	static interface RowReader {
+		/**
+		 * Reads the next row's values, in column order. The returned
+		 * array is re-filled by the next call. CSV values are strings,
+		 * columnar values are of their column's type.
+		 *
+		 * @return the row's values, or null after the last row
+		 */
+		Object[] next();
+
+		/**
+		 * Returns the number of bytes of the slice parsed so far
+		 *
+		 * @return the offset of the next row within the slice
+		 */
+		int getPosition();
+	}
+
+	private final FileChannel m_channel;
+	private final ExportFormat m_format;
+	private final List<String> m_columnNames = new ArrayList<String>();
+	private final List<Byte> m_columnTypes = new ArrayList<Byte>();
+	private final List<Slice> m_slices = new ArrayList<Slice>();
+
+	/**
+	 * Reads the file's header, and splits the rest into about
+	 * the given number of slices.
+	 *
+	 * @param channel the file
+	 * @param format the file's format
+	 * @param slices the desired number of slices
+	 * @throws IOException if reading the file fails, or it's malformed
+	 */
+	BulkLoadFile(final FileChannel channel, final ExportFormat format, final int slices) throws IOException {
+		m_channel = channel;
+		m_format = format;
+		switch (format) {
+			case CSV:
+				splitCsv(slices);
+				break;
+
+			case COLUMNAR:
+				splitColumnar(slices);
+				break;
+		}
+	}
+
+	/**
+	 * Returns the column names listed in the file's header
+	 *
+	 * @return the column names
+	 */
+	List<String> getColumnNames() {
+		return m_columnNames;
+	}
+
+	/**
+	 * Returns the file's slices, in file order
+	 *
+	 * @return the slices
+	 */
+	List<Slice> getSlices() {
+		return m_slices;
+	}
+
+	/**
+	 * Maps a slice into memory and returns a reader for its rows.
+	 *
+	 * @param slice the slice
+	 * @return a reader for the slice's rows
+	 * @throws IOException if mapping the slice fails
+	 */
+	RowReader open(final Slice slice) throws IOException {
+		final MappedByteBuffer buffer = m_channel.map(FileChannel.MapMode.READ_ONLY, slice.start, slice.end - slice.start);
+		switch (m_format) {
+			case CSV:
+				return new CsvReader(buffer, m_columnNames.size());
+
+			default:
+				return new ColumnarReader(buffer, m_columnTypes);
+		}
+	}
+
+	/**
+	 * Parses the header line, then scans the file once, tracking
+	 * whether the current position is within a quoted field, to
+	 * find the line break after each slice's target end.
+	 */
+	private void splitCsv(final int slices) throws IOException {
+		final long size = m_channel.size();
+
+		/* The header is parsed from the first mapping window */
+		final MappedByteBuffer first = m_channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, s_maxSliceBytes));
+		final CsvReader header = new CsvReader(first, 0);
+		final Object[] names = header.next();
+		if (names == null)
+			throw new EOFException("file has no header line");
+		for(final Object name: names)
+			m_columnNames.add((String)name);
+
+		final long dataStart = first.position();
+		final long sliceBytes = Math.max(1, Math.min(s_maxSliceBytes, (size - dataStart + slices - 1) / Math.max(1, slices)));
+
+		long sliceStart = dataStart;
+		long sliceFirstRow = 1;
+		long target = sliceStart + sliceBytes;
+		long rows = 0;
+		boolean quoted = false;
+		for(long windowStart = dataStart; windowStart < size; windowStart += s_maxSliceBytes) {
+			final long windowSize = Math.min(size - windowStart, s_maxSliceBytes);
+			final MappedByteBuffer window = m_channel.map(FileChannel.MapMode.READ_ONLY, windowStart, windowSize);
+			for(int i = 0; i < windowSize; ++i) {
+				final byte b = window.get(i);
+				if (b == '"') {
+					quoted = !quoted;
+				}
+				else if ((b == '\n') && !quoted) {
+					rows += 1;
+
+					final long position = windowStart + i + 1;
+					if (position >= target) {
+						m_slices.add(new Slice(sliceStart, position, sliceFirstRow));
+						sliceStart = position;
+						sliceFirstRow = rows + 1;
+						target = sliceStart + sliceBytes;
+					}
+				}
+			}
+		}
+
+		/* The last line may lack its line break */
+		if (sliceStart < size)
+			m_slices.add(new Slice(sliceStart, size, sliceFirstRow));
+	}
+
+	/**
+	 * Parses the header, then hops from chunk to chunk using
+	 * the column blocks' lengths, without reading the values.
+	 */
+	private void splitColumnar(final int slices) throws IOException {
+		final long size = m_channel.size();
+		long position = 0;
+
+		if (readInt(position) != ResultSetExporter.s_columnarMagic)
+			throw new IOException("file isn't in the columnar export format");
+		if (readInt(position + 4) != ResultSetExporter.s_columnarVersion)
+			throw new IOException("unsupported version of the columnar export format");
+		final int columns = readInt(position + 8);
+		position += 12;
+		for(int colIdx = 0; colIdx < columns; ++colIdx) {
+			final ByteBuffer type = read(position, 1);
+			m_columnTypes.add(type.get());
+			final int length = readInt(position + 1);
+			m_columnNames.add(s_utf8.decode(read(position + 5, length)).toString());
+			position += 5 + length;
+		}
+
+		final long sliceBytes = Math.max(1, Math.min(s_maxSliceBytes, (size - position + slices - 1) / Math.max(1, slices)));
+		long sliceStart = position;
+		long sliceFirstRow = 1;
+		long rows = 0;
+		while (true) {
+			final int chunkRows = readInt(position);
+			if (chunkRows == 0)
+				break;
+
+			position += 4;
+			for(int colIdx = 0; colIdx < columns; ++colIdx)
+				position += 4 + readInt(position);
+			if (position > size)
+				throw new EOFException("truncated chunk at offset " + position);
+			rows += chunkRows;
+
+			if (position - sliceStart >= sliceBytes) {
+				m_slices.add(new Slice(sliceStart, position, sliceFirstRow));
+				sliceStart = position;
+				sliceFirstRow = rows + 1;
+			}
+		}
+		if (position > sliceStart)
+			m_slices.add(new Slice(sliceStart, position, sliceFirstRow));
+	}
+
+	private int readInt(final long position) throws IOException {
+		return read(position, 4).getInt();
+	}
+
+	private ByteBuffer read(final long position, final int length) throws IOException {
+		final ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			if (m_channel.read(buffer, position + buffer.position()) < 0)
+				throw new EOFException("unexpected end of file at offset " + (position + buffer.position()));
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Parses RFC 4180 records. Empty fields are returned as null.
+	 * Lines may end with CRLF or LF.
+	 */
+	static final class CsvReader implements RowReader {
+		private final ByteBuffer m_buffer;
+		private Object[] m_values;
+		private byte[] m_field = new byte[256];
+
+		/**
+		 * Creates a reader
+		 *
+		 * @param buffer the records
+		 * @param columns the number of fields per record, or zero if it's not known yet
+		 */
+		CsvReader(final ByteBuffer buffer, final int columns) {
+			m_buffer = buffer;
+			m_values = new Object[columns];
+		}
+
+		@Override
+		public Object[] next() {
+			/* Skip empty lines */
+			while (m_buffer.hasRemaining()) {
+				final byte b = m_buffer.get(m_buffer.position());
+				if ((b != '\r') && (b != '\n'))
+					break;
+				m_buffer.get();
+			}
+			if (!m_buffer.hasRemaining())
+				return null;
+
+			final List<Object> grown = (m_values.length == 0) ? new ArrayList<Object>() : null;
+			int field = 0;
+			while (true) {
+				final Object value = readField();
+				if (grown != null)
+					grown.add(value);
+				else if (field < m_values.length)
+					m_values[field] = value;
+				++field;
+
+				if (!m_buffer.hasRemaining())
+					break;
+				final byte separator = m_buffer.get();
+				if (separator == '\n')
+					break;
+			}
+
+			if (grown != null)
+				m_values = grown.toArray();
+			else if (field != m_values.length)
+				throw new IllegalArgumentException("record has " + field + " fields instead of " + m_values.length);
+			return m_values;
+		}
+
+		/**
+		 * Reads a field, leaving the buffer at the separator following it
+		 */
+		private String readField() {
+			int length = 0;
+			boolean quoted = false;
+			boolean wasQuoted = false;
+			while (m_buffer.hasRemaining()) {
+				final byte b = m_buffer.get(m_buffer.position());
+				if (quoted) {
+					m_buffer.get();
+					if (b == '"') {
+						if (m_buffer.hasRemaining() && (m_buffer.get(m_buffer.position()) == '"'))
+							m_buffer.get();
+						else {
+							quoted = false;
+							continue;
+						}
+					}
+				}
+				else if ((b == ',') || (b == '\n')) {
+					break;
+				}
+				else if (b == '"') {
+					m_buffer.get();
+					quoted = true;
+					wasQuoted = true;
+					continue;
+				}
+				else {
+					m_buffer.get();
+					/* Drop the CR of CRLF */
+					if ((b == '\r') && (!m_buffer.hasRemaining() || (m_buffer.get(m_buffer.position()) == '\n')))
+						continue;
+				}
+
+				if (length == m_field.length)
+					m_field = Arrays.copyOf(m_field, 2 * length);
+				m_field[length++] = b;
+			}
+
+			if ((length == 0) && !wasQuoted)
+				return null;
+			return new String(m_field, 0, length, s_utf8);
+		}
+
+		@Override
+		public int getPosition() {
+			return m_buffer.position();
+		}
+	}
+
+	/**
+	 * Decodes the chunks of a columnar file, one chunk at a time
+	 */
+	static final class ColumnarReader implements RowReader {
+		private final ByteBuffer m_buffer;
+		private final byte[] m_types;
+		private final Object[] m_values;
+		private Object[][] m_columns = new Object[0][];
+		private int m_rows = 0;
+		private int m_row = 0;
+
+		ColumnarReader(final ByteBuffer buffer, final List<Byte> types) {
+			m_buffer = buffer;
+			m_types = new byte[types.size()];
+			for(int colIdx = 0; colIdx < m_types.length; ++colIdx)
+				m_types[colIdx] = types.get(colIdx);
+			m_values = new Object[m_types.length];
+		}
+
+		@Override
+		public Object[] next() {
+			if (m_row == m_rows) {
+				if (!m_buffer.hasRemaining())
+					return null;
+				decodeChunk();
+			}
+
+			for(int colIdx = 0; colIdx < m_values.length; ++colIdx)
+				m_values[colIdx] = m_columns[colIdx][m_row];
+			m_row += 1;
+			return m_values;
+		}
+
+		@Override
+		public int getPosition() {
+			return m_buffer.position();
+		}
+
+		private void decodeChunk() {
+			m_rows = m_buffer.getInt();
+			m_row = 0;
+			if ((m_columns.length != m_types.length) || (m_columns.length > 0 && m_columns[0].length < m_rows))
+				m_columns = new Object[m_types.length][m_rows];
+
+			for(int colIdx = 0; colIdx < m_types.length; ++colIdx) {
+				m_buffer.getInt();
+				final Object[] column = m_columns[colIdx];
+				final int bitmap = m_buffer.position();
+				m_buffer.position(bitmap + (m_rows + 7) / 8);
+				for(int row = 0; row < m_rows; ++row) {
+					final boolean isNull = (m_buffer.get(bitmap + row / 8) & (1 << (row % 8))) != 0;
+					column[row] = isNull ? null : decodeValue(m_types[colIdx]);
+				}
+			}
+		}
+
+		private Object decodeValue(final byte type) {
+			switch (type) {
+				case ResultSetExporter.s_typeBoolean:
+					return m_buffer.get() != 0;
+				case ResultSetExporter.s_typeByte:
+					return m_buffer.get();
+				case ResultSetExporter.s_typeShort:
+					return m_buffer.getShort();
+				case ResultSetExporter.s_typeInt:
+					return m_buffer.getInt();
+				case ResultSetExporter.s_typeLong:
+					return m_buffer.getLong();
+				case ResultSetExporter.s_typeFloat:
+					return m_buffer.getFloat();
+				case ResultSetExporter.s_typeDouble:
+					return m_buffer.getDouble();
+				case ResultSetExporter.s_typeTimestamp: {
+					final java.sql.Timestamp timestamp = new java.sql.Timestamp(m_buffer.getLong());
+					timestamp.setNanos(timestamp.getNanos() + m_buffer.getInt());
+					return timestamp;
+				}
+				case ResultSetExporter.s_typeBytes: {
+					final byte[] bytes = new byte[m_buffer.getInt()];
+					m_buffer.get(bytes);
+					return bytes;
+				}
+				default: {
+					final byte[] bytes = new byte[m_buffer.getInt()];
+					m_buffer.get(bytes);
+					return new String(bytes, s_utf8);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package org.phlo.tuplez;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Snapshot of the progress of a bulk load.
+ *
+ * @see BulkLoader#getStatistics()
+ */
+public final class BulkLoadStatistics {
+	private final boolean m_running;
+	private final boolean m_aborted;
+	private final long m_bytes;
+	private final long m_bytesParsed;
+	private final long m_loadedRows;
+	private final long m_failedRows;
+	private final long m_commits;
+	private final long m_elapsedNanos;
+	private final List<BulkLoadError> m_errors;
+
+	BulkLoadStatistics(
+		final boolean running,
+		final boolean aborted,
+		final long bytes,
+		final long bytesParsed,
+		final long loadedRows,
+		final long failedRows,
+		final long commits,
+		final long elapsedNanos,
+		final List<BulkLoadError> errors
+	) {
+		m_running = running;
+		m_aborted = aborted;
+		m_bytes = bytes;
+		m_bytesParsed = bytesParsed;
+		m_loadedRows = loadedRows;
+		m_failedRows = failedRows;
+		m_commits = commits;
+		m_elapsedNanos = elapsedNanos;
+		m_errors = errors;
+	}
+
+	/**
+	 * Returns whether the load is still running
+	 *
+	 * @return whether the load is running
+	 */
+	public boolean isRunning() {
+		return m_running;
+	}
+
+	/**
+	 * Returns whether the load was aborted since too many rows failed
+	 *
+	 * @return whether the load was aborted
+	 */
+	public boolean isAborted() {
+		return m_aborted;
+	}
+
+	/**
+	 * Returns the size of the file in bytes
+	 *
+	 * @return the file's size
+	 */
+	public long getBytes() {
+		return m_bytes;
+	}
+
+	/**
+	 * Returns the number of bytes of rows parsed so far,
+	 * excluding the header
+	 *
+	 * @return number of bytes parsed
+	 */
+	public long getBytesParsed() {
+		return m_bytesParsed;
+	}
+
+	/**
+	 * Returns the fraction of the file parsed so far
+	 *
+	 * @return progress between zero and one
+	 */
+	public double getProgress() {
+		return (m_bytes > 0) ? Math.min(1.0, (double)m_bytesParsed / m_bytes) : 0;
+	}
+
+	/**
+	 * Returns the number of rows executed and committed
+	 *
+	 * @return number of loaded rows
+	 */
+	public long getLoadedRows() {
+		return m_loadedRows;
+	}
+
+	/**
+	 * Returns the number of rows which couldn't be parsed,
+	 * converted or executed
+	 *
+	 * @return number of failed rows
+	 */
+	public long getFailedRows() {
+		return m_failedRows;
+	}
+
+	/**
+	 * Returns the number of commits of all workers
+	 *
+	 * @return number of commits
+	 */
+	public long getCommits() {
+		return m_commits;
+	}
+
+	/**
+	 * Returns the time since the load started, or the
+	 * duration of a completed load, in nanoseconds
+	 *
+	 * @return elapsed time
+	 */
+	public long getElapsedNanos() {
+		return m_elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of rows loaded per second
+	 *
+	 * @return rows per second, or zero if no time elapsed
+	 */
+	public double getRowsPerSecond() {
+		return (m_elapsedNanos > 0) ? (double)m_loadedRows * TimeUnit.SECONDS.toNanos(1) / m_elapsedNanos : 0;
+	}
+
+	/**
+	 * Returns the errors of the first 100 failed rows
+	 *
+	 * @return the errors
+	 */
+	public List<BulkLoadError> getErrors() {
+		return m_errors;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{running: " + m_running + "; " +
+			"aborted: " + m_aborted + "; " +
+			"bytes: " + m_bytes + "; " +
+			"bytesParsed: " + m_bytesParsed + "; " +
+			"loadedRows: " + m_loadedRows + "; " +
+			"failedRows: " + m_failedRows + "; " +
+			"commits: " + m_commits + "; " +
+			"elapsedNanos: " + m_elapsedNanos + "; " +
+			"rowsPerSecond: " + getRowsPerSecond() + "; " +
+			"errors: " + m_errors + "}";
+	}
+}
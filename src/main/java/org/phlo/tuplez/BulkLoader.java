@@ -0,0 +1,674 @@
+package org.phlo.tuplez;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.util.Assert;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Loads the rows of a file written by
+ * {@link Operation#exportTo(Object, java.nio.channels.WritableByteChannel, ExportFormat)}
+ * (or any CSV file with a header line) by executing an operation
+ * once per row, e.g. an INSERT.
+ * <p>
+ * The file is split into slices at record boundaries (see
+ * {@link ExportFormat}), which worker threads map into memory and
+ * parse. Each worker executes the operation on its own
+ * {@link Session}, in JDBC batches (see
+ * {@link Operation#executeBatch(java.util.Collection)}), and commits
+ * after a configurable number of rows. The data source must thus
+ * hand out a separate connection per worker, e.g. from a pool.
+ * <p>
+ * The file's columns are bound by name to the getters of the
+ * operation's input type, which must be an interface. Names are
+ * matched like output columns (see {@link Operation}), and values
+ * are converted to the getters' return types. Empty CSV fields are
+ * bound as null. Getters without a column return null.
+ * <p>
+ * If a batch fails, the worker rolls back the rows executed since
+ * its last commit, and re-executes them one at a time, committing
+ * each, to find the rows which fail. Failed rows (including rows
+ * which can't be parsed or converted) are counted and reported by
+ * {@link #getStatistics()}. Once more rows than the maximal number
+ * of errors failed, the load is aborted, see {@link BulkLoadAbortedException}.
+ * Rows committed before remain committed.
+ * <p>
+ * Loaders are obtained from {@link Executor#bulkLoader(Class)}.
+ * A loader runs one load at a time, but may be re-used. Its
+ * statistics may be read by other threads while a load runs.
+ *
+ * @param <InputType> the operation's input type
+ */
+public final class BulkLoader<InputType> {
+	/* Number of failed rows whose errors are kept */
+	private static final int s_maxReportedErrors = 100;
+
+	/* Numbers the worker threads of all loaders */
+	private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+	private final Executor m_executor;
+	private final Class<? extends Operation<InputType,?>> m_opClass;
+	private final Class<?> m_inputClass;
+
+	private volatile int m_parallelism = 4;
+	private volatile int m_batchSize = 500;
+	private volatile int m_commitRows = 10000;
+	private volatile long m_maxErrors = 0;
+
+	private final AtomicBoolean m_running = new AtomicBoolean(false);
+
+	/* Progress of the running or the last load */
+	private volatile long m_bytes = 0;
+	private final AtomicLong m_bytesParsed = new AtomicLong();
+	private final AtomicLong m_loaded = new AtomicLong();
+	private final AtomicLong m_failed = new AtomicLong();
+	private final AtomicLong m_commits = new AtomicLong();
+	private volatile long m_startNanos = 0;
+	private volatile long m_endNanos = 0;
+	private volatile boolean m_aborted = false;
+	private final List<BulkLoadError> m_errors = new ArrayList<BulkLoadError>();
+
+	BulkLoader(final Executor executor, final Class<? extends Operation<InputType,?>> opClass) {
+		m_executor = executor;
+		m_opClass = opClass;
+		m_inputClass = OperationMetaData.getInputClass(opClass);
+		if (!m_inputClass.isInterface()) {
+			throw new InvalidOperationDefinitionException(
+				"bulk loads require the input type to be an interface",
+				opClass
+			);
+		}
+	}
+
+	/**
+	 * Sets the number of worker threads, each executing on its
+	 * own connection. Defaults to 4.
+	 *
+	 * @param parallelism number of workers
+	 */
+	public void setParallelism(final int parallelism) {
+		Assert.isTrue(parallelism > 0, "Parallelism must be positive");
+		m_parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the number of worker threads.
+	 *
+	 * @return number of workers
+	 */
+	public int getParallelism() {
+		return m_parallelism;
+	}
+
+	/**
+	 * Sets the number of rows per JDBC batch. Defaults to 500.
+	 *
+	 * @param batchSize rows per batch
+	 */
+	public void setBatchSize(final int batchSize) {
+		Assert.isTrue(batchSize > 0, "BatchSize must be positive");
+		m_batchSize = batchSize;
+	}
+
+	/**
+	 * Returns the number of rows per JDBC batch.
+	 *
+	 * @return rows per batch
+	 */
+	public int getBatchSize() {
+		return m_batchSize;
+	}
+
+	/**
+	 * Sets the number of rows each worker executes between
+	 * commits. Rounded up to a multiple of the batch size.
+	 * Defaults to 10000.
+	 *
+	 * @param commitRows rows per commit
+	 */
+	public void setCommitRows(final int commitRows) {
+		Assert.isTrue(commitRows > 0, "CommitRows must be positive");
+		m_commitRows = commitRows;
+	}
+
+	/**
+	 * Returns the number of rows each worker executes between commits.
+	 *
+	 * @return rows per commit
+	 */
+	public int getCommitRows() {
+		return m_commitRows;
+	}
+
+	/**
+	 * Sets the number of rows which may fail before the load
+	 * is aborted. Defaults to zero, i.e. the first failed row
+	 * aborts the load.
+	 *
+	 * @param maxErrors number of failed rows tolerated
+	 */
+	public void setMaxErrors(final long maxErrors) {
+		Assert.isTrue(maxErrors >= 0, "MaxErrors must not be negative");
+		m_maxErrors = maxErrors;
+	}
+
+	/**
+	 * Returns the number of rows which may fail before the load is aborted.
+	 *
+	 * @return number of failed rows tolerated
+	 */
+	public long getMaxErrors() {
+		return m_maxErrors;
+	}
+
+	/**
+	 * Loads a file, and returns once all its rows were executed
+	 * and committed, or failed.
+	 *
+	 * @param file the file to load
+	 * @param format the file's format
+	 * @return the load's statistics
+	 * @throws BulkLoadAbortedException if more rows failed than tolerated
+	 * @throws IllegalStateException if the loader is already running a load
+	 */
+	public BulkLoadStatistics load(final File file, final ExportFormat format) {
+		if (!m_running.compareAndSet(false, true))
+			throw new IllegalStateException("bulk loader of " + m_opClass.getName() + " is already running a load");
+		try {
+			start();
+
+			final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+			try {
+				final FileInputStream in = new FileInputStream(file);
+				try {
+					m_bytes = in.getChannel().size();
+					final BulkLoadFile loadFile = new BulkLoadFile(in.getChannel(), format, 4 * m_parallelism);
+					final Binder binder = new Binder(loadFile.getColumnNames());
+					final Queue<BulkLoadFile.Slice> slices = new ConcurrentLinkedQueue<BulkLoadFile.Slice>(loadFile.getSlices());
+
+					final List<Thread> workers = new ArrayList<Thread>();
+					for(int i = 0; i < Math.min(m_parallelism, slices.size()); ++i) {
+						final Thread worker = new Thread(new Runnable() {
+							@Override public void run() {
+								try {
+									work(loadFile, slices, binder);
+								}
+								catch (RuntimeException e) {
+									failure.compareAndSet(null, e);
+									m_aborted = true;
+								}
+							}
+						}, "tuplez-bulk-load-" + s_threadCount.incrementAndGet());
+						worker.setDaemon(true);
+						worker.start();
+						workers.add(worker);
+					}
+					join(workers);
+				}
+				finally {
+					in.close();
+				}
+			}
+			catch (IOException e) {
+				throw new DataAccessResourceFailureException("unable to read " + file, e);
+			}
+			finally {
+				m_endNanos = System.nanoTime();
+			}
+
+			if (failure.get() != null)
+				throw failure.get();
+
+			final BulkLoadStatistics statistics = getStatistics();
+			if (m_aborted) {
+				throw new BulkLoadAbortedException(
+					"bulk load of " + file + " by " + m_opClass.getName() + " was aborted after " +
+					statistics.getFailedRows() + " failed rows",
+					statistics
+				);
+			}
+			return statistics;
+		}
+		finally {
+			m_running.set(false);
+		}
+	}
+
+	/**
+	 * Returns the progress of the running load, or the
+	 * result of the last load.
+	 *
+	 * @return the load's statistics
+	 */
+	public BulkLoadStatistics getStatistics() {
+		final List<BulkLoadError> errors;
+		synchronized (m_errors) {
+			errors = Collections.unmodifiableList(new ArrayList<BulkLoadError>(m_errors));
+		}
+		final boolean running = m_running.get() && (m_endNanos == 0);
+		final long end = running ? System.nanoTime() : m_endNanos;
+		return new BulkLoadStatistics(
+			running,
+			m_aborted,
+			m_bytes,
+			m_bytesParsed.get(),
+			m_loaded.get(),
+			m_failed.get(),
+			m_commits.get(),
+			(m_startNanos > 0) ? end - m_startNanos : 0,
+			errors
+		);
+	}
+
+	private void start() {
+		m_bytes = 0;
+		m_bytesParsed.set(0);
+		m_loaded.set(0);
+		m_failed.set(0);
+		m_commits.set(0);
+		m_aborted = false;
+		synchronized (m_errors) {
+			m_errors.clear();
+		}
+		m_endNanos = 0;
+		m_startNanos = System.nanoTime();
+	}
+
+	private static void join(final List<Thread> workers) {
+		boolean interrupted = false;
+		for(final Thread worker: workers) {
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Parses and executes slices until there are none left
+	 */
+	private void work(final BulkLoadFile file, final Queue<BulkLoadFile.Slice> slices, final Binder binder) {
+		final Session session = m_executor.openSession();
+		try {
+			session.setAutoCommit(false);
+			final Operation<InputType,?> op = session.with(m_opClass);
+
+			/* Rows executed since the last commit, and the number of those already sent */
+			final List<InputType> pending = new ArrayList<InputType>();
+			final List<Long> pendingRows = new ArrayList<Long>();
+			int sent = 0;
+
+			BulkLoadFile.Slice slice;
+			while (!m_aborted && ((slice = slices.poll()) != null)) {
+				final BulkLoadFile.RowReader reader;
+				try {
+					reader = file.open(slice);
+				}
+				catch (IOException e) {
+					throw new DataAccessResourceFailureException("unable to map slice at offset " + slice.start, e);
+				}
+
+				long row = slice.firstRow;
+				int parsed = 0;
+				while (!m_aborted) {
+					final Object[] values;
+					try {
+						values = reader.next();
+						if (values == null)
+							break;
+						pending.add(binder.bind(values));
+						pendingRows.add(row);
+					}
+					catch (RuntimeException e) {
+						fail(row, e);
+					}
+					row += 1;
+
+					if (pending.size() - sent >= m_batchSize) {
+						sent = executeBatch(session, op, pending, pendingRows, sent);
+						m_bytesParsed.addAndGet(reader.getPosition() - parsed);
+						parsed = reader.getPosition();
+					}
+					if (sent >= m_commitRows) {
+						commit(session, op, pending, pendingRows);
+						sent = 0;
+					}
+				}
+				m_bytesParsed.addAndGet(reader.getPosition() - parsed);
+			}
+
+			if (!m_aborted) {
+				executeBatch(session, op, pending, pendingRows, sent);
+				commit(session, op, pending, pendingRows);
+			}
+		}
+		finally {
+			/* Rolls back what an aborted load didn't commit */
+			session.close();
+		}
+	}
+
+	/**
+	 * Executes the pending rows which weren't sent yet, and returns the
+	 * number of rows sent. If the batch fails, the pending rows are
+	 * re-executed one at a time.
+	 */
+	private int executeBatch(
+		final Session session,
+		final Operation<InputType,?> op,
+		final List<InputType> pending,
+		final List<Long> pendingRows,
+		final int sent
+	) {
+		if (pending.size() == sent)
+			return sent;
+
+		try {
+			op.executeBatch(pending.subList(sent, pending.size()));
+			return pending.size();
+		}
+		catch (RuntimeException e) {
+			recover(session, op, pending, pendingRows);
+			return 0;
+		}
+	}
+
+	private void commit(
+		final Session session,
+		final Operation<InputType,?> op,
+		final List<InputType> pending,
+		final List<Long> pendingRows
+	) {
+		if (pending.isEmpty())
+			return;
+
+		try {
+			session.commit();
+			m_commits.incrementAndGet();
+			m_loaded.addAndGet(pending.size());
+			pending.clear();
+			pendingRows.clear();
+		}
+		catch (RuntimeException e) {
+			recover(session, op, pending, pendingRows);
+		}
+	}
+
+	/**
+	 * Rolls back the pending rows, and re-executes and commits
+	 * them one at a time to find those which fail.
+	 */
+	private void recover(
+		final Session session,
+		final Operation<InputType,?> op,
+		final List<InputType> pending,
+		final List<Long> pendingRows
+	) {
+		session.rollback();
+		for(int i = 0; (i < pending.size()) && !m_aborted; ++i) {
+			try {
+				op.execute(pending.get(i));
+				session.commit();
+				m_commits.incrementAndGet();
+				m_loaded.incrementAndGet();
+			}
+			catch (RuntimeException e) {
+				session.rollback();
+				fail(pendingRows.get(i), e);
+			}
+		}
+		pending.clear();
+		pendingRows.clear();
+	}
+
+	private void fail(final long row, final RuntimeException e) {
+		if (m_failed.incrementAndGet() > m_maxErrors)
+			m_aborted = true;
+
+		synchronized (m_errors) {
+			if (m_errors.size() < s_maxReportedErrors)
+				m_errors.add(new BulkLoadError(row, e));
+		}
+	}
+
+	/**
+	 * Binds the values of a file's columns to the getters of
+	 * the operation's input type
+	 */
+	private final class Binder {
+		/* Getter name and return type of each column */
+		private final String[] m_getterNames;
+		private final Class<?>[] m_getterTypes;
+
+		/* Getters without a column, which return null */
+		private final List<String> m_unboundGetters = new ArrayList<String>();
+
+		/* Getter order of toString() */
+		private final List<String> m_getterOrder = new ArrayList<String>();
+
+		Binder(final List<String> columnNames) {
+			final Map<String, Method> getters = new HashMap<String, Method>();
+			for(final Method method: m_inputClass.getMethods()) {
+				if ((method.getParameterTypes().length > 0) || Modifier.isStatic(method.getModifiers()) || (method.getReturnType() == Void.TYPE))
+					continue;
+				getters.put(normalize(method.getName()), method);
+			}
+
+			m_getterNames = new String[columnNames.size()];
+			m_getterTypes = new Class<?>[columnNames.size()];
+			for(int colIdx = 0; colIdx < m_getterNames.length; ++colIdx) {
+				final Method getter = getters.remove(normalize("get" + columnNames.get(colIdx)));
+				if (getter == null) {
+					throw new InvalidOperationExecutionException(
+						"no getter was found for column " + columnNames.get(colIdx),
+						m_opClass
+					);
+				}
+				m_getterNames[colIdx] = getter.getName();
+				m_getterTypes[colIdx] = getter.getReturnType();
+				m_getterOrder.add(getter.getName());
+			}
+
+			for(final Method getter: getters.values()) {
+				if (getter.getDeclaringClass() != Object.class)
+					m_unboundGetters.add(getter.getName());
+			}
+		}
+
+		private String normalize(final String name) {
+			return ResultSetMapper.s_patternNonAlphaNumeric.matcher(name.toLowerCase(Locale.ENGLISH)).replaceAll("");
+		}
+
+		InputType bind(final Object[] values) {
+			final Map<String, Object> results = new HashMap<String, Object>(2 * (values.length + m_unboundGetters.size()));
+			for(final String getterName: m_unboundGetters)
+				results.put(getterName, null);
+			for(int colIdx = 0; colIdx < values.length; ++colIdx)
+				results.put(m_getterNames[colIdx], convert(values[colIdx], m_getterTypes[colIdx], colIdx));
+
+			@SuppressWarnings("unchecked")
+			final InputType input = (InputType)Proxy.newProxyInstance(
+				m_inputClass.getClassLoader(),
+				new Class<?>[] {m_inputClass},
+				new OutputProxyInvocationHandler(results, m_getterOrder)
+			);
+			return input;
+		}
+
+		private Object convert(final Object value, final Class<?> type, final int colIdx) {
+			if (value == null) {
+				if (type.isPrimitive())
+					throw new IllegalArgumentException("null value for primitive getter " + m_getterNames[colIdx]);
+				return null;
+			}
+
+			try {
+				return BulkLoader.convert(value, type);
+			}
+			catch (IllegalArgumentException e) {
+				throw new IllegalArgumentException(
+					"value '" + value + "' can't be converted to " + type.getName() + " " +
+					"for getter " + m_getterNames[colIdx] + ": " + e.getMessage(),
+					e
+				);
+			}
+		}
+	}
+
+	/**
+	 * Converts a value read from a file to a getter's type
+	 *
+	 * @param value the value, a string for CSV files
+	 * @param type the getter's return type
+	 * @return the converted value
+	 * @throws IllegalArgumentException if the value can't be converted
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static Object convert(final Object value, final Class<?> type) {
+		final Class<?> boxed = type.isPrimitive() ? boxedClass(type) : type;
+		if (boxed.isInstance(value))
+			return value;
+
+		if (value instanceof String) {
+			final String text = (String)value;
+			if (boxed == Long.class)
+				return Long.valueOf(text.trim());
+			else if (boxed == Integer.class)
+				return Integer.valueOf(text.trim());
+			else if (boxed == Short.class)
+				return Short.valueOf(text.trim());
+			else if (boxed == Byte.class)
+				return Byte.valueOf(text.trim());
+			else if (boxed == Double.class)
+				return Double.valueOf(text.trim());
+			else if (boxed == Float.class)
+				return Float.valueOf(text.trim());
+			else if (boxed == BigDecimal.class)
+				return new BigDecimal(text.trim());
+			else if (boxed == BigInteger.class)
+				return new BigInteger(text.trim());
+			else if (boxed == Boolean.class) {
+				if (text.trim().equalsIgnoreCase("true"))
+					return Boolean.TRUE;
+				else if (text.trim().equalsIgnoreCase("false"))
+					return Boolean.FALSE;
+				throw new IllegalArgumentException("not a boolean");
+			}
+			else if (boxed == Character.class) {
+				if (text.length() != 1)
+					throw new IllegalArgumentException("not a single character");
+				return text.charAt(0);
+			}
+			else if (boxed == java.sql.Timestamp.class)
+				return java.sql.Timestamp.valueOf(text.trim());
+			else if (boxed == java.sql.Date.class)
+				return java.sql.Date.valueOf(text.trim());
+			else if (boxed == java.sql.Time.class)
+				return java.sql.Time.valueOf(text.trim());
+			else if (boxed == java.util.Date.class)
+				return (text.trim().length() == 10) ? java.sql.Date.valueOf(text.trim()) : java.sql.Timestamp.valueOf(text.trim());
+			else if (boxed == byte[].class)
+				return parseHex(text);
+			else if (boxed.isEnum())
+				return Enum.valueOf((Class)boxed, text);
+		}
+		else if (value instanceof Number) {
+			final Number number = (Number)value;
+			if (boxed == Long.class)
+				return number.longValue();
+			else if (boxed == Integer.class)
+				return number.intValue();
+			else if (boxed == Short.class)
+				return number.shortValue();
+			else if (boxed == Byte.class)
+				return number.byteValue();
+			else if (boxed == Double.class)
+				return number.doubleValue();
+			else if (boxed == Float.class)
+				return number.floatValue();
+			else if (boxed == Character.class)
+				return (char)number.shortValue();
+			else if ((boxed == BigDecimal.class) || (boxed == BigInteger.class) || (boxed == String.class))
+				return convert(number.toString(), boxed);
+		}
+		else if (value instanceof java.util.Date) {
+			final long millis = ((java.util.Date)value).getTime();
+			if (boxed == java.sql.Timestamp.class)
+				return new java.sql.Timestamp(millis);
+			else if (boxed == java.sql.Date.class)
+				return new java.sql.Date(millis);
+			else if (boxed == java.sql.Time.class)
+				return new java.sql.Time(millis);
+			else if (boxed == Long.class)
+				return millis;
+			else if (boxed == String.class)
+				return value.toString();
+		}
+		else if (boxed == String.class) {
+			return value.toString();
+		}
+
+		throw new IllegalArgumentException("unsupported conversion from " + value.getClass().getName());
+	}
+
+	private static Class<?> boxedClass(final Class<?> primitive) {
+		if (primitive == Boolean.TYPE)
+			return Boolean.class;
+		else if (primitive == Character.TYPE)
+			return Character.class;
+		else if (primitive == Byte.TYPE)
+			return Byte.class;
+		else if (primitive == Short.TYPE)
+			return Short.class;
+		else if (primitive == Integer.TYPE)
+			return Integer.class;
+		else if (primitive == Long.TYPE)
+			return Long.class;
+		else if (primitive == Float.TYPE)
+			return Float.class;
+		else
+			return Double.class;
+	}
+
+	private static byte[] parseHex(final String text) {
+		if ((text.length() % 2) != 0)
+			throw new IllegalArgumentException("odd number of hex digits");
+
+		final byte[] bytes = new byte[text.length() / 2];
+		for(int i = 0; i < bytes.length; ++i) {
+			final int high = Character.digit(text.charAt(2 * i), 16);
+			final int low = Character.digit(text.charAt(2 * i + 1), 16);
+			if ((high < 0) || (low < 0))
+				throw new IllegalArgumentException("not a hex string");
+			bytes[i] = (byte)((high << 4) | low);
+		}
+		return bytes;
+	}
+}
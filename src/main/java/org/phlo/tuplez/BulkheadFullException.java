@@ -0,0 +1,30 @@
+package org.phlo.tuplez;
+
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Thrown if an execution waited longer than the executor's
+ * queue timeout for a concurrency limit set by a bulkhead.
+ * 
+ * @see Executor#setQueueTimeoutMillis(long)
+ * @see org.phlo.tuplez.operation.Bulkhead
+ */
+@SuppressWarnings("serial")
+public class BulkheadFullException extends TransientDataAccessResourceException {
+	private final String m_bulkhead;
+	
+	public BulkheadFullException(final String msg, final String bulkhead) {
+		super(msg);
+		m_bulkhead = bulkhead;
+	}
+	
+	/**
+	 * Returns the name of the bulkhead whose limit was reached,
+	 * i.e. a group name, "lane:BATCH" or "total".
+	 * 
+	 * @return the bulkhead's name
+	 */
+	public String getBulkhead() {
+		return m_bulkhead;
+	}
+}
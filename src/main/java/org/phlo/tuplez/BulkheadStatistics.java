@@ -0,0 +1,124 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of a bulkhead's counters.
+ *
+ * @see Executor#getBulkheadStatistics(String)
+ */
+public final class BulkheadStatistics {
+	private final int m_limit;
+	private final int m_active;
+	private final int m_queueDepth;
+	private final long m_acquisitions;
+	private final long m_waits;
+	private final long m_waitNanos;
+	private final long m_maxWaitNanos;
+	private final long m_rejections;
+	
+	BulkheadStatistics(
+		final int limit,
+		final int active,
+		final int queueDepth,
+		final long acquisitions,
+		final long waits,
+		final long waitNanos,
+		final long maxWaitNanos,
+		final long rejections
+	) {
+		m_limit = limit;
+		m_active = active;
+		m_queueDepth = queueDepth;
+		m_acquisitions = acquisitions;
+		m_waits = waits;
+		m_waitNanos = waitNanos;
+		m_maxWaitNanos = maxWaitNanos;
+		m_rejections = rejections;
+	}
+	
+	/**
+	 * Returns the maximal number of concurrent executions
+	 *
+	 * @return the bulkhead's limit
+	 */
+	public int getLimit() {
+		return m_limit;
+	}
+	
+	/**
+	 * Returns the number of executions currently in progress
+	 *
+	 * @return number of active executions
+	 */
+	public int getActive() {
+		return m_active;
+	}
+	
+	/**
+	 * Returns the (approximate) number of executions currently waiting
+	 *
+	 * @return number of waiting executions
+	 */
+	public int getQueueDepth() {
+		return m_queueDepth;
+	}
+	
+	/**
+	 * Returns the number of executions admitted so far
+	 *
+	 * @return number of admitted executions
+	 */
+	public long getAcquisitions() {
+		return m_acquisitions;
+	}
+	
+	/**
+	 * Returns the number of admitted or rejected executions
+	 * which had to wait
+	 *
+	 * @return number of executions which waited
+	 */
+	public long getWaits() {
+		return m_waits;
+	}
+	
+	/**
+	 * Returns the total time executions spent waiting, in nanoseconds
+	 *
+	 * @return total wait time
+	 */
+	public long getWaitNanos() {
+		return m_waitNanos;
+	}
+	
+	/**
+	 * Returns the longest time an execution spent waiting, in nanoseconds
+	 *
+	 * @return maximal wait time
+	 */
+	public long getMaxWaitNanos() {
+		return m_maxWaitNanos;
+	}
+	
+	/**
+	 * Returns the number of executions rejected with a
+	 * {@link BulkheadFullException}
+	 *
+	 * @return number of rejected executions
+	 */
+	public long getRejections() {
+		return m_rejections;
+	}
+	
+	@Override
+	public String toString() {
+		return
+			"{limit: " + m_limit + "; " +
+			"active: " + m_active + "; " +
+			"queueDepth: " + m_queueDepth + "; " +
+			"acquisitions: " + m_acquisitions + "; " +
+			"waits: " + m_waits + "; " +
+			"waitNanos: " + m_waitNanos + "; " +
+			"maxWaitNanos: " + m_maxWaitNanos + "; " +
+			"rejections: " + m_rejections + "}";
+	}
+}
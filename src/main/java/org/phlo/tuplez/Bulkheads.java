@@ -0,0 +1,296 @@
+package org.phlo.tuplez;
+
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phlo.tuplez.operation.Bulkhead;
+import org.phlo.tuplez.operation.Lane;
+
+/**
+ * Concurrency limits of an {@link Executor}, see {@link Bulkhead}.
+ * <p>
+ * Each limit is a fair {@link Semaphore}, whose uncontended
+ * acquisitions and releases are single compare-and-set operations,
+ * and whose waiting executions are admitted in FIFO order. An
+ * execution acquires its group's limit, then the batch lane's
+ * limit (for {@link Lane#BATCH} operations), then the total
+ * limit, all within the queue timeout. Acquiring in that fixed
+ * order prevents executions from holding a permit of one limit
+ * while queueing for another in the opposite order.
+ * <p>
+ * The limits are meant to be configured before operations
+ * are executed. Changing a limit replaces its semaphore, and
+ * executions in progress release their permits to the
+ * semaphore they acquired them from.
+ */
+final class Bulkheads {
+	/**
+	 * A single concurrency limit with its counters
+	 */
+	private static final class Limit {
+		final String name;
+		final int limit;
+		final Semaphore semaphore;
+		
+		final AtomicLong acquisitions = new AtomicLong();
+		final AtomicLong waits = new AtomicLong();
+		final AtomicLong waitNanos = new AtomicLong();
+		final AtomicLong maxWaitNanos = new AtomicLong();
+		final AtomicLong rejections = new AtomicLong();
+		
+		Limit(final String name, final int limit) {
+			this.name = name;
+			this.limit = limit;
+			semaphore = new Semaphore(limit, true);
+		}
+		
+		/**
+		 * Acquires a permit, waiting until the deadline
+		 * (in terms of {@link System#nanoTime()}) if necessary.
+		 * A negative timeout waits indefinitely.
+		 */
+		void acquire(final long timeoutNanos, final long deadline) {
+			/* Fast path. Unlike tryAcquire(), a zero timeout respects
+			 * fairness, i.e. doesn't barge ahead of waiting executions
+			 */
+			if (tryAcquireNow()) {
+				acquisitions.incrementAndGet();
+				return;
+			}
+			
+			final long start = System.nanoTime();
+			boolean acquired = false;
+			boolean interrupted = false;
+			try {
+				if (timeoutNanos < 0) {
+					semaphore.acquireUninterruptibly();
+					acquired = true;
+				}
+				else {
+					while (true) {
+						try {
+							acquired = semaphore.tryAcquire(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS);
+							break;
+						}
+						catch (InterruptedException e) {
+							interrupted = true;
+						}
+					}
+				}
+			}
+			finally {
+				final long waited = System.nanoTime() - start;
+				waits.incrementAndGet();
+				waitNanos.addAndGet(waited);
+				long max = maxWaitNanos.get();
+				while ((waited > max) && !maxWaitNanos.compareAndSet(max, waited))
+					max = maxWaitNanos.get();
+				if (interrupted)
+					Thread.currentThread().interrupt();
+			}
+			
+			if (!acquired) {
+				rejections.incrementAndGet();
+				throw new BulkheadFullException(
+					"timed out after " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms " +
+					"waiting for bulkhead " + name + " (limit " + limit + ")",
+					name
+				);
+			}
+			acquisitions.incrementAndGet();
+		}
+		
+		void release() {
+			semaphore.release();
+		}
+		
+		private boolean tryAcquireNow() {
+			try {
+				return semaphore.tryAcquire(0, TimeUnit.NANOSECONDS);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return false;
+			}
+		}
+		
+		BulkheadStatistics getStatistics() {
+			return new BulkheadStatistics(
+				limit,
+				limit - semaphore.availablePermits(),
+				semaphore.getQueueLength(),
+				acquisitions.get(),
+				waits.get(),
+				waitNanos.get(),
+				maxWaitNanos.get(),
+				rejections.get()
+			);
+		}
+	}
+	
+	/**
+	 * Permits held by an execution, see {@link Bulkheads#acquire(String, Lane)}.
+	 */
+	static final class Permit {
+		private final Limit m_group;
+		private final Limit m_lane;
+		private final Limit m_total;
+		
+		private Permit(final Limit group, final Limit lane, final Limit total) {
+			m_group = group;
+			m_lane = lane;
+			m_total = total;
+		}
+		
+		/**
+		 * Releases the permits, in reverse order of acquisition
+		 */
+		void release() {
+			if (m_total != null)
+				m_total.release();
+			if (m_lane != null)
+				m_lane.release();
+			if (m_group != null)
+				m_group.release();
+		}
+	}
+	
+	static final String TotalName = "total";
+	static final String BatchLaneName = "lane:" + Lane.BATCH.name();
+	
+	/* Returned if no limit applies */
+	private static final Permit s_unlimited = new Permit(null, null, null);
+	
+	/* Limits per group */
+	private final ConcurrentMap<String, Limit> m_groups = new java.util.concurrent.ConcurrentHashMap<String, Limit>();
+	
+	/* Limit of all executions, or null */
+	private volatile Limit m_total = null;
+	
+	/* Limit of batch lane executions, or null */
+	private volatile Limit m_batchLane = null;
+	
+	private int m_maxConcurrentExecutions = 0;
+	private int m_reservedInteractiveExecutions = 0;
+	
+	/* Negative to wait indefinitely */
+	private volatile long m_queueTimeoutNanos = -1;
+	
+	synchronized void setMaxConcurrentExecutions(final int maxConcurrentExecutions) {
+		if (maxConcurrentExecutions < 0)
+			throw new IllegalArgumentException("maximal number of concurrent executions must not be negative");
+		m_maxConcurrentExecutions = maxConcurrentExecutions;
+		updateTotalLimits();
+	}
+	
+	synchronized int getMaxConcurrentExecutions() {
+		return m_maxConcurrentExecutions;
+	}
+	
+	synchronized void setReservedInteractiveExecutions(final int reservedInteractiveExecutions) {
+		if (reservedInteractiveExecutions < 0)
+			throw new IllegalArgumentException("number of reserved interactive executions must not be negative");
+		m_reservedInteractiveExecutions = reservedInteractiveExecutions;
+		updateTotalLimits();
+	}
+	
+	synchronized int getReservedInteractiveExecutions() {
+		return m_reservedInteractiveExecutions;
+	}
+	
+	private void updateTotalLimits() {
+		if ((m_maxConcurrentExecutions > 0) && (m_reservedInteractiveExecutions >= m_maxConcurrentExecutions))
+			throw new IllegalArgumentException("reserved interactive executions must leave room for batch executions");
+		
+		m_total = (m_maxConcurrentExecutions > 0) ? new Limit(TotalName, m_maxConcurrentExecutions) : null;
+		m_batchLane = ((m_maxConcurrentExecutions > 0) && (m_reservedInteractiveExecutions > 0))
+			? new Limit(BatchLaneName, m_maxConcurrentExecutions - m_reservedInteractiveExecutions)
+			: null;
+	}
+	
+	void setLimit(final String group, final int limit) {
+		if (limit < 0)
+			throw new IllegalArgumentException("bulkhead limit must not be negative");
+		
+		if (limit == 0)
+			m_groups.remove(group);
+		else
+			m_groups.put(group, new Limit(group, limit));
+	}
+	
+	int getLimit(final String group) {
+		final Limit limit = m_groups.get(group);
+		return (limit != null) ? limit.limit : 0;
+	}
+	
+	void setQueueTimeoutNanos(final long queueTimeoutNanos) {
+		m_queueTimeoutNanos = queueTimeoutNanos;
+	}
+	
+	long getQueueTimeoutNanos() {
+		return m_queueTimeoutNanos;
+	}
+	
+	/**
+	 * Returns the counters of a group's limit, of the batch lane's
+	 * limit ({@link #BatchLaneName}) or of the total limit
+	 * ({@link #TotalName}), or null if there's no such limit.
+	 */
+	BulkheadStatistics getStatistics(final String name) {
+		final Limit limit;
+		if (TotalName.equals(name))
+			limit = m_total;
+		else if (BatchLaneName.equals(name))
+			limit = m_batchLane;
+		else
+			limit = m_groups.get(name);
+		
+		return (limit != null) ? limit.getStatistics() : null;
+	}
+	
+	/**
+	 * Acquires the permits an execution of an operation of
+	 * the given group and lane needs. The permits must be
+	 * released with {@link Permit#release()}.
+	 * 
+	 * @param group the operation's group
+	 * @param lane the operation's lane
+	 * @return the permits acquired
+	 * @throws BulkheadFullException if a permit wasn't acquired within the queue timeout
+	 */
+	Permit acquire(final String group, final Lane lane) {
+		final Limit groupLimit = m_groups.isEmpty() ? null : m_groups.get(group);
+		final Limit laneLimit = (lane == Lane.BATCH) ? m_batchLane : null;
+		final Limit totalLimit = m_total;
+		if ((groupLimit == null) && (laneLimit == null) && (totalLimit == null))
+			return s_unlimited;
+		
+		final long timeoutNanos = m_queueTimeoutNanos;
+		final long deadline = System.nanoTime() + Math.max(0, timeoutNanos);
+		
+		if (groupLimit != null)
+			groupLimit.acquire(timeoutNanos, deadline);
+		try {
+			if (laneLimit != null)
+				laneLimit.acquire(timeoutNanos, deadline);
+			try {
+				if (totalLimit != null)
+					totalLimit.acquire(timeoutNanos, deadline);
+			}
+			catch (RuntimeException e) {
+				if (laneLimit != null)
+					laneLimit.release();
+				throw e;
+			}
+		}
+		catch (RuntimeException e) {
+			if (groupLimit != null)
+				groupLimit.release();
+			throw e;
+		}
+		
+		return new Permit(groupLimit, laneLimit, totalLimit);
+	}
+}
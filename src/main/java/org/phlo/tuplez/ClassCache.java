@@ -0,0 +1,114 @@
+package org.phlo.tuplez;
+
+/**
+ * Cache of values derived from a class, or from a pair of
+ * classes, which constructs each value exactly once.
+ * <p>
+ * Values are stored with the (first) class through a
+ * {@link ClassValue}, and thus don't prevent the class and
+ * its class loader from being unloaded. Each class's values
+ * are kept in an immutable list keyed by the second class,
+ * which is replaced under the class's lock when a value is
+ * added. Lookups of existing values are thus lock-free and
+ * allocate nothing, while concurrent lookups of a missing
+ * value wait for the single thread constructing it.
+ * <p>
+ * If {@link #create(Class, Class, Object)} throws, nothing is cached,
+ * and the next lookup tries again.
+ *
+ * @param <V> the type of the cached values
+ */
+abstract class ClassCache<V> {
+	/**
+	 * A cached value, and the next entry of the same class
+	 */
+	private static final class Entry<V> {
+		final Class<?> key;
+		final V value;
+		final Entry<V> next;
+		
+		Entry(final Class<?> key, final V value, final Entry<V> next) {
+			this.key = key;
+			this.value = value;
+			this.next = next;
+		}
+	}
+	
+	/**
+	 * The values of a single class. Construction
+	 * of missing values is guarded by its lock
+	 */
+	private static final class Slot<V> {
+		volatile Entry<V> head = null;
+	}
+	
+	private final ClassValue<Slot<V>> m_slots = new ClassValue<Slot<V>>() {
+		@Override protected Slot<V> computeValue(final Class<?> type) {
+			return new Slot<V>();
+		}
+	};
+	
+	/**
+	 * Constructs the value of a class, or a pair of classes.
+	 * May return null, which is then cached as well.
+	 * 
+	 * @param type the class
+	 * @param key the second class, or null for single-class caches
+	 * @param context the context passed to {@link #get(Class, Class, Object)}, or null
+	 * @return the value
+	 */
+	protected abstract V create(Class<?> type, Class<?> key, Object context);
+	
+	/**
+	 * Returns the value of a class
+	 * 
+	 * @param type the class
+	 * @return the value
+	 */
+	final V get(final Class<?> type) {
+		return get(type, null, null);
+	}
+	
+	/**
+	 * Returns the value of a pair of classes
+	 * 
+	 * @param type the first class, with which the value is stored
+	 * @param key the second class
+	 * @return the value
+	 */
+	final V get(final Class<?> type, final Class<?> key) {
+		return get(type, key, null);
+	}
+	
+	/**
+	 * Returns the value of a pair of classes, passing additional
+	 * information needed to construct a missing value
+	 * 
+	 * @param type the first class, with which the value is stored
+	 * @param key the second class
+	 * @param context passed to {@link #create(Class, Class, Object)}
+	 * @return the value
+	 */
+	final V get(final Class<?> type, final Class<?> key, final Object context) {
+		final Slot<V> slot = m_slots.get(type);
+		
+		Entry<V> entry = find(slot.head, key);
+		if (entry != null)
+			return entry.value;
+		
+		synchronized (slot) {
+			entry = find(slot.head, key);
+			if (entry == null) {
+				entry = new Entry<V>(key, create(type, key, context), slot.head);
+				slot.head = entry;
+			}
+			return entry.value;
+		}
+	}
+	
+	private static <V> Entry<V> find(Entry<V> entry, final Class<?> key) {
+		while ((entry != null) && (entry.key != key))
+			entry = entry.next;
+		return entry;
+	}
+}
@@ -0,0 +1,184 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Coalesces concurrent single-row lookups of an operation
+ * annotated with {@link Coalesced} into executions of its
+ * set-based companion operation, see {@link BatchLookup}.
+ * <p>
+ * Callers join the currently open batch. The caller which
+ * opened it (the <b>leader</b>) waits until the batch is
+ * full or the window expired, closes it and executes the
+ * companion operation. The other callers wait until the
+ * leader has published the rows or the error.
+ * <p>
+ * Instances are created per executor and operation by
+ * {@link Executor#getCoalescer(Class)}.
+ */
+final class Coalescer {
+	/**
+	 * A set of coalesced lookups
+	 */
+	private static final class Batch {
+		/* The distinct inputs (normalized, see normalizeKey()) */
+		final Set<Object> keys = new LinkedHashSet<Object>();
+		
+		/* Number of callers which joined */
+		int size = 0;
+		
+		/* Whether the batch is closed for new callers */
+		boolean closed = false;
+		
+		/* Whether the leader has published the rows or the error */
+		boolean completed = false;
+		
+		/* The rows, by normalized key */
+		Map<Object, Object> rows = null;
+		
+		/* The error which occured while executing the batch */
+		RuntimeException error = null;
+	}
+	
+	private final Executor m_executor;
+	private final BatchLookupFetcher m_fetcher;
+	private final int m_maxBatchSize;
+	private final long m_windowNanos;
+	
+	/* The batch new callers join, or null. Guarded by this */
+	private Batch m_openBatch = null;
+	
+	Coalescer(final Executor executor, final Class<? extends Operation<?,?>> opClass, final Coalesced coalesced) {
+		m_fetcher = BatchLookupFetcher.getInstance(opClass);
+		if (m_fetcher == null) {
+			throw new InvalidOperationDefinitionException(
+				"@Coalesced requires a @BatchLookup annotation",
+				opClass
+			);
+		}
+		if (coalesced.maxBatchSize() <= 0) {
+			throw new InvalidOperationDefinitionException(
+				"@Coalesced max batch size must be positive",
+				opClass
+			);
+		}
+		if (coalesced.windowMicros() < 0) {
+			throw new InvalidOperationDefinitionException(
+				"@Coalesced window must not be negative",
+				opClass
+			);
+		}
+		
+		m_executor = executor;
+		m_maxBatchSize = coalesced.maxBatchSize();
+		m_windowNanos = TimeUnit.MICROSECONDS.toNanos(coalesced.windowMicros());
+	}
+	
+	/**
+	 * Returns the row whose key equals input, or null.
+	 * 
+	 * @param input the lookup's input, must not be null
+	 * @return the row or null
+	 */
+	Object get(final Object input) {
+		final Object key = BatchLookupFetcher.normalizeKey(input);
+		
+		final Batch batch;
+		final boolean leader;
+		synchronized (this) {
+			leader = (m_openBatch == null);
+			if (leader)
+				m_openBatch = new Batch();
+			batch = m_openBatch;
+			
+			batch.keys.add(key);
+			if (++batch.size >= m_maxBatchSize) {
+				closeBatch(batch);
+				if (!leader)
+					notifyAll();
+			}
+		}
+		
+		if (leader)
+			lead(batch);
+		else
+			await(batch);
+		
+		if (batch.error != null)
+			throw batch.error;
+		
+		return m_fetcher.getRow(batch.rows, key);
+	}
+	
+	private void lead(final Batch batch) {
+		/* Wait for further callers */
+		synchronized (this) {
+			final long deadline = System.nanoTime() + m_windowNanos;
+			boolean interrupted = false;
+			long remaining = m_windowNanos;
+			while (!batch.closed && (remaining > 0)) {
+				try {
+					TimeUnit.NANOSECONDS.timedWait(this, remaining);
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				remaining = deadline - System.nanoTime();
+			}
+			closeBatch(batch);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		
+		/* Execute the batch and publish the result */
+		Map<Object, Object> rows = null;
+		RuntimeException error = null;
+		try {
+			rows = m_fetcher.fetch(m_executor, new ArrayList<Object>(batch.keys));
+		}
+		catch (RuntimeException e) {
+			error = e;
+		}
+		catch (Error e) {
+			error = new RuntimeException("coalesced execution failed", e);
+			throw e;
+		}
+		finally {
+			synchronized (batch) {
+				batch.rows = rows;
+				batch.error = error;
+				batch.completed = true;
+				batch.notifyAll();
+			}
+		}
+	}
+	
+	private void await(final Batch batch) {
+		boolean interrupted = false;
+		synchronized (batch) {
+			while (!batch.completed) {
+				try {
+					batch.wait();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+	
+	/* Must be called while holding this' monitor */
+	private void closeBatch(final Batch batch) {
+		batch.closed = true;
+		if (m_openBatch == batch)
+			m_openBatch = null;
+	}
+}
@@ -0,0 +1,296 @@
+package org.phlo.tuplez;
+
+import java.lang.reflect.UndeclaredThrowableException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Copies the output rows of one operation to another, see
+ * {@link Executor#copy(Class, Object, Executor, Class, RowTransform)}.
+ * <p>
+ * The executing thread iterates over the source's rows, transforms
+ * them and collects them into batches, which it passes through a
+ * bounded buffer to a writer thread. The writer executes each batch
+ * on a {@link Session} of the target executor and commits it. At
+ * most the buffered batches plus the batches being filled and
+ * written are held in memory, however many rows the source returns.
+ * <p>
+ * If either side fails, the other side stops at the next batch, and
+ * the failure is thrown from {@link #copy(Operation, Object)}.
+ * Batches committed before remain committed.
+ *
+ * @param <SourceType> type representing the source's rows
+ * @param <TargetType> the target operation's input type
+ */
+final class CopyPipeline<SourceType, TargetType> {
+	/* Numbers the writer threads of all copies */
+	private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+	/* Interval in which a blocked reader checks whether the writer is still alive */
+	private static final long s_pollMillis = 100;
+
+	/* Marks the end of the rows. Real batches are never empty */
+	private final List<TargetType> m_endMarker = Collections.emptyList();
+
+	private final Executor m_target;
+	private final Class<? extends Operation<TargetType,?>> m_targetOpClass;
+	private final RowTransform<? super SourceType, ? extends TargetType> m_transform;
+	private final int m_batchSize;
+	private final BlockingQueue<List<TargetType>> m_buffer;
+
+	/* Set by the writer if it fails, stops the reader */
+	private volatile Throwable m_writerFailure;
+
+	/* Set by the reader if it fails, stops the writer */
+	private volatile boolean m_readerFailed = false;
+
+	/* Updated by the reader only */
+	private long m_readRows = 0;
+	private long m_skippedRows = 0;
+	private long m_readerBlockedNanos = 0;
+
+	/* Updated by the writer only, and read once it has terminated */
+	private long m_writtenRows = 0;
+	private long m_batches = 0;
+	private long m_writerIdleNanos = 0;
+
+	CopyPipeline(
+		final Executor target,
+		final Class<? extends Operation<TargetType,?>> targetOpClass,
+		final RowTransform<? super SourceType, ? extends TargetType> transform,
+		final int batchSize,
+		final int bufferBatches
+	) {
+		m_target = target;
+		m_targetOpClass = targetOpClass;
+		m_transform = transform;
+		m_batchSize = batchSize;
+		m_buffer = new ArrayBlockingQueue<List<TargetType>>(bufferBatches);
+	}
+
+	/**
+	 * Executes the source operation, and returns once all its rows
+	 * were written to the target, or either side failed.
+	 *
+	 * @param <SourceInput> the source operation's input type
+	 * @param source the source operation
+	 * @param input the source operation's input
+	 * @return the copy's statistics
+	 */
+	<SourceInput> CopyStatistics copy(final Operation<SourceInput, SourceType> source, final SourceInput input) {
+		return run(source, input, true);
+	}
+
+	/**
+	 * Executes the source operation with its default input, and
+	 * returns once all its rows were written to the target, or
+	 * either side failed.
+	 *
+	 * @param source the source operation
+	 * @return the copy's statistics
+	 */
+	CopyStatistics copy(final Operation<?, SourceType> source) {
+		return run(source, null, false);
+	}
+
+	private <SourceInput> CopyStatistics run(
+		final Operation<SourceInput, SourceType> source,
+		final SourceInput input,
+		final boolean hasInput
+	) {
+		final long start = System.nanoTime();
+
+		final Thread writer = new Thread(new Runnable() {
+			@Override public void run() {
+				try {
+					write();
+				}
+				catch (Throwable t) {
+					m_writerFailure = t;
+				}
+			}
+		}, "tuplez-copy-" + s_threadCount.incrementAndGet());
+		writer.setDaemon(true);
+		writer.start();
+
+		try {
+			final IteratorProcessor<SourceType, Void> reader = new IteratorProcessor<SourceType, Void>() {
+				@Override public Void processIterator(final Iterator<SourceType> rows) {
+					read(rows, writer);
+					return null;
+				}
+			};
+			if (hasInput)
+				source.iterate(input, reader);
+			else
+				source.iterate(reader);
+			enqueue(m_endMarker, writer);
+		}
+		catch (WriterFailedException e) {
+			/* Thrown below, once the writer has terminated */
+		}
+		catch (RuntimeException e) {
+			m_readerFailed = true;
+			enqueue(m_endMarker, writer);
+			join(writer);
+			throw e;
+		}
+		catch (Error e) {
+			m_readerFailed = true;
+			enqueue(m_endMarker, writer);
+			join(writer);
+			throw e;
+		}
+
+		join(writer);
+		if (m_writerFailure instanceof RuntimeException)
+			throw (RuntimeException)m_writerFailure;
+		else if (m_writerFailure instanceof Error)
+			throw (Error)m_writerFailure;
+		else if (m_writerFailure != null)
+			throw new UndeclaredThrowableException(m_writerFailure);
+
+		return new CopyStatistics(
+			m_readRows,
+			m_skippedRows,
+			m_writtenRows,
+			m_batches,
+			m_readerBlockedNanos,
+			m_writerIdleNanos,
+			System.nanoTime() - start
+		);
+	}
+
+	/**
+	 * Transforms the source's rows and passes them to the writer in batches
+	 */
+	@SuppressWarnings("unchecked")
+	private void read(final Iterator<SourceType> rows, final Thread writer) {
+		List<TargetType> batch = new ArrayList<TargetType>(m_batchSize);
+		while (rows.hasNext()) {
+			final SourceType row = rows.next();
+			m_readRows += 1;
+
+			final TargetType input = (m_transform != null) ? m_transform.transform(row) : (TargetType)row;
+			if (input == null) {
+				m_skippedRows += 1;
+				continue;
+			}
+
+			batch.add(input);
+			if (batch.size() >= m_batchSize) {
+				if (!enqueue(batch, writer))
+					throw new WriterFailedException();
+				batch = new ArrayList<TargetType>(m_batchSize);
+			}
+		}
+
+		if (!batch.isEmpty() && !enqueue(batch, writer))
+			throw new WriterFailedException();
+	}
+
+	/**
+	 * Passes a batch to the writer, waiting while the buffer is full.
+	 * Returns false if the writer terminated before taking the batch.
+	 */
+	private boolean enqueue(final List<TargetType> batch, final Thread writer) {
+		final long start = System.nanoTime();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				if (!writer.isAlive())
+					return false;
+				try {
+					if (m_buffer.offer(batch, s_pollMillis, TimeUnit.MILLISECONDS))
+						return true;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			m_readerBlockedNanos += System.nanoTime() - start;
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Executes and commits the batches passed by the reader until
+	 * the end marker arrives or the reader fails
+	 */
+	private void write() {
+		final Session session = m_target.openSession();
+		try {
+			session.setAutoCommit(false);
+			final Operation<TargetType,?> op = session.with(m_targetOpClass);
+
+			while (true) {
+				final List<TargetType> batch = dequeue();
+				if ((batch == m_endMarker) || m_readerFailed)
+					break;
+
+				op.executeBatch(batch);
+				session.commit();
+				m_writtenRows += batch.size();
+				m_batches += 1;
+			}
+		}
+		finally {
+			session.close();
+		}
+	}
+
+	/**
+	 * Takes the next batch from the buffer, waiting while it is empty
+	 */
+	private List<TargetType> dequeue() {
+		final long start = System.nanoTime();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return m_buffer.take();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			m_writerIdleNanos += System.nanoTime() - start;
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	private static void join(final Thread thread) {
+		boolean interrupted = false;
+		while (thread.isAlive()) {
+			try {
+				thread.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Aborts the iteration over the source's rows once the writer failed
+	 */
+	private static final class WriterFailedException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
+	}
+}
@@ -0,0 +1,125 @@
+package org.phlo.tuplez;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Statistics of a completed copy.
+ *
+ * @see Executor#copy(Class, Object, Executor, Class, RowTransform)
+ */
+public final class CopyStatistics {
+	private final long m_readRows;
+	private final long m_skippedRows;
+	private final long m_writtenRows;
+	private final long m_batches;
+	private final long m_readerBlockedNanos;
+	private final long m_writerIdleNanos;
+	private final long m_elapsedNanos;
+
+	CopyStatistics(
+		final long readRows,
+		final long skippedRows,
+		final long writtenRows,
+		final long batches,
+		final long readerBlockedNanos,
+		final long writerIdleNanos,
+		final long elapsedNanos
+	) {
+		m_readRows = readRows;
+		m_skippedRows = skippedRows;
+		m_writtenRows = writtenRows;
+		m_batches = batches;
+		m_readerBlockedNanos = readerBlockedNanos;
+		m_writerIdleNanos = writerIdleNanos;
+		m_elapsedNanos = elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of rows read from the source
+	 *
+	 * @return number of rows read
+	 */
+	public long getReadRows() {
+		return m_readRows;
+	}
+
+	/**
+	 * Returns the number of rows the transform skipped
+	 *
+	 * @return number of skipped rows
+	 */
+	public long getSkippedRows() {
+		return m_skippedRows;
+	}
+
+	/**
+	 * Returns the number of rows executed and committed on the target
+	 *
+	 * @return number of written rows
+	 */
+	public long getWrittenRows() {
+		return m_writtenRows;
+	}
+
+	/**
+	 * Returns the number of batches executed on the target
+	 *
+	 * @return number of batches
+	 */
+	public long getBatches() {
+		return m_batches;
+	}
+
+	/**
+	 * Returns the time the reader waited for the writer
+	 * because the buffer was full, in nanoseconds. A large
+	 * value means that the target limits the throughput.
+	 *
+	 * @return time the reader was blocked
+	 */
+	public long getReaderBlockedNanos() {
+		return m_readerBlockedNanos;
+	}
+
+	/**
+	 * Returns the time the writer waited for the reader
+	 * because the buffer was empty, in nanoseconds. A large
+	 * value means that the source limits the throughput.
+	 *
+	 * @return time the writer was idle
+	 */
+	public long getWriterIdleNanos() {
+		return m_writerIdleNanos;
+	}
+
+	/**
+	 * Returns the duration of the copy in nanoseconds
+	 *
+	 * @return elapsed time
+	 */
+	public long getElapsedNanos() {
+		return m_elapsedNanos;
+	}
+
+	/**
+	 * Returns the number of rows written per second
+	 *
+	 * @return rows per second, or zero if no time elapsed
+	 */
+	public double getRowsPerSecond() {
+		return (m_elapsedNanos > 0) ? (double)m_writtenRows * TimeUnit.SECONDS.toNanos(1) / m_elapsedNanos : 0;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{readRows: " + m_readRows + "; " +
+			"skippedRows: " + m_skippedRows + "; " +
+			"writtenRows: " + m_writtenRows + "; " +
+			"batches: " + m_batches + "; " +
+			"readerBlockedNanos: " + m_readerBlockedNanos + "; " +
+			"writerIdleNanos: " + m_writerIdleNanos + "; " +
+			"elapsedNanos: " + m_elapsedNanos + "; " +
+			"rowsPerSecond: " + getRowsPerSecond() + "}";
+	}
+}
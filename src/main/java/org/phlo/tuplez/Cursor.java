@@ -0,0 +1,43 @@
+package org.phlo.tuplez;
+
+/**
+ * Forward-only cursor over the output rows of an operation,
+ * passed to a {@link CursorProcessor} by cursor().
+ * <p>
+ * Other than the iterators passed to an {@link IteratorProcessor},
+ * a cursor doesn't create an output object per row. {@link #row()}
+ * instead returns a single instance of OutputType, which is
+ * re-filled in place by every call to {@link #next()}. Rows which
+ * must outlive the call to {@link #next()} must be copied with
+ * {@link #copy()}.
+ * <p>
+ * Cursors are only valid during the invocation of the
+ * {@link CursorProcessor} they were passed to.
+ *
+ * @param <OutputType> type representing result rows
+ */
+public interface Cursor<OutputType> {
+	/**
+	 * Advances the cursor to the next row.
+	 * 
+	 * @return false if there are no more rows
+	 */
+	public boolean next();
+	
+	/**
+	 * Returns the current row. The same instance is
+	 * returned for every row, and its getters return the
+	 * values of the row the cursor is currently on.
+	 * 
+	 * @return the current row
+	 */
+	public OutputType row();
+	
+	/**
+	 * Returns an independent copy of the current row,
+	 * which isn't affected by {@link #next()}.
+	 * 
+	 * @return a copy of the current row
+	 */
+	public OutputType copy();
+}
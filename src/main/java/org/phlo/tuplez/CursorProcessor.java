@@ -0,0 +1,12 @@
+package org.phlo.tuplez;
+
+/**
+ * Processor for the {@link Cursor}s produced by cursor().
+ * 
+ * Like {@link IteratorProcessor}, required because the
+ * underlying {@link java.sql.ResultSet} is closed once
+ * the processor returns.
+ */
+public interface CursorProcessor<OutputType, ResultType> {
+	public ResultType processCursor(Cursor<OutputType> cursor);
+}
@@ -0,0 +1,9 @@
+package org.phlo.tuplez;
+
+/**
+ * Accumulator for the values of a single column, read
+ * as primitive doubles by foldDouble().
+ */
+public interface DoubleAccumulator {
+	public double accumulate(double accumulated, double value);
+}
@@ -1,12 +1,33 @@
 package org.phlo.tuplez;
 
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import javax.sql.DataSource;
 
+import org.springframework.beans.factory.DisposableBean;
 import org.springframework.beans.factory.InitializingBean;
 import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
 import org.springframework.util.Assert;
 
+import org.phlo.tuplez.operation.Bulkhead;
+import org.phlo.tuplez.operation.Coalesced;
+import org.phlo.tuplez.operation.ExistenceFilter;
+import org.phlo.tuplez.operation.Lane;
 import org.phlo.tuplez.operation.Operation;
+import org.phlo.tuplez.operation.Preloaded;
+import org.phlo.tuplez.operation.ResultCached;
 
 /**
  * Executes concrete {@link Operation}s.
@@ -47,20 +68,110 @@ import org.phlo.tuplez.operation.Operation;
  *
  * @see Operation
  */
-public final class Executor implements InitializingBean
+public final class Executor implements InitializingBean, DisposableBean
 {
+	/* The data source operations are executed on */
+	private DataSource m_dataSource;
+	
 	/* The named-parameter JDBC template used to execute operations */
 	private NamedParameterJdbcTemplate m_npJdbcTemplate;
 
 	/* The parameter source for default.* input parameters */
 	private Object m_defaultInput;
 	
+	/* Whether list parameters are bound as JDBC arrays */
+	private boolean m_arrayParameters = false;
+	
+	/* Prepared statement cache, shared with the sessions opened by this executor */
+	private final StatementCache m_statementCache;
+	
+	/* Concurrency limits, shared with the sessions opened by this executor */
+	private final Bulkheads m_bulkheads;
+	
+	/* The executor whose state this executor shares, or null */
+	private final Executor m_parent;
+	
+	/* Threads which fetch rows of operations with @PipelinedFetch, created lazily */
+	private ExecutorService m_fetchExecutor = null;
+	
+	/* Cancels statements whose timeout expired, created lazily */
+	private ScheduledExecutorService m_watchdogScheduler = null;
+	
+	/* Bytes to fetch per round trip, zero to leave the fetch size alone */
+	private int m_fetchBudgetBytes = 0;
+	
+	/* Timeout of operations without @Timeout in nanoseconds, zero for none */
+	private long m_defaultTimeoutNanos = 0;
+	
+	/* Whether sessions cache the rows of single-row lookups */
+	private boolean m_identityCacheEnabled = false;
+	
+	/* The session's identity cache, null unless this executor belongs to a session which caches */
+	private final IdentityCache m_identityCache;
+	
+	/* Rows per chunk of exports */
+	private int m_exportChunkRows = 1024;
+	
+	/* Maximal number of chunks of an export encoded concurrently */
+	private int m_exportParallelism = 1;
+	
+	/* Rows per batch written by copies */
+	private int m_copyBatchSize = 500;
+	
+	/* Maximal number of batches a copy has read but not yet written */
+	private int m_copyBufferBatches = 4;
+	
+	/* Buffers exports are encoded into, shared with the sessions opened by this executor */
+	private final ExportBufferPool m_exportBufferPool;
+	
+	/* Whether identical concurrent reads execute only once */
+	private boolean m_singleFlightEnabled = false;
+	
+	/* The reads in flight, shared with the sessions opened by this executor */
+	private final SingleFlight m_singleFlight;
+	
+	/* Coalescers of the operations annotated with @Coalesced */
+	private final ConcurrentMap<Class<?>, Coalescer> m_coalescers = new ConcurrentHashMap<Class<?>, Coalescer>();
+	
+	/* Indices of the operations annotated with @Preloaded */
+	private final ConcurrentMap<Class<?>, PreloadedTable> m_preloadedTables = new ConcurrentHashMap<Class<?>, PreloadedTable>();
+	
+	/* Bloom filters of the operations annotated with @ExistenceFilter */
+	private final ConcurrentMap<Class<?>, BloomFilter> m_existenceFilters = new ConcurrentHashMap<Class<?>, BloomFilter>();
+	
+	/* Operations whose index is loaded by afterPropertiesSet() */
+	private List<Class<? extends Operation<?,?>>> m_preloadedOperations = Collections.emptyList();
+	
+	/* Reloads the indices of @Preloaded operations, created lazily */
+	private ScheduledExecutorService m_refreshScheduler = null;
+	
+	/* Directory of the persistent result cache, or null for none */
+	private File m_resultCacheDirectory = null;
+	
+	/* Size of the persistent result cache's files */
+	private long m_resultCacheMaxBytes = 64L * 1024 * 1024;
+	
+	/* Results of operations annotated with @ResultCached, opened lazily */
+	private MappedResultCache m_resultCache = null;
+	
+	/* Write-behind sinks, created by writeBehind() */
+	private final Map<Class<?>, WriteBehindSink<?>> m_writeBehindSinks = new HashMap<Class<?>, WriteBehindSink<?>>();
+	
+	/* Numbers the fetch threads of all executors */
+	private static final AtomicInteger s_fetchThreadCount = new AtomicInteger();
+	
 	/**
 	 * Allows construction of {@link Executor} instances
 	 * as Java Beans.
 	 */
 	public Executor() {
 		m_npJdbcTemplate = null;
+		m_statementCache = new StatementCache();
+		m_bulkheads = new Bulkheads();
+		m_parent = null;
+		m_identityCache = null;
+		m_singleFlight = new SingleFlight();
+		m_exportBufferPool = new ExportBufferPool(64);
 	}
 	
 	/**
@@ -71,6 +182,41 @@ public final class Executor implements InitializingBean
 	 */
 	public Executor(final DataSource dataSource) {
 		Assert.notNull(dataSource, "DataSoure must not be null");
+		m_statementCache = new StatementCache();
+		m_bulkheads = new Bulkheads();
+		m_parent = null;
+		m_identityCache = null;
+		m_singleFlight = new SingleFlight();
+		m_exportBufferPool = new ExportBufferPool(64);
+		setDataSource(dataSource);
+	}
+	
+	/**
+	 * Creates an {@link Executor} instance which executes
+	 * on a different {@link DataSource}, but otherwise
+	 * shares the configuration and state of a parent executor.
+	 * Used by {@link Session} to execute operations on the
+	 * session's connection.
+	 * 
+	 * @param parent executor to share configuration and state with
+	 * @param dataSource data source to use
+	 */
+	Executor(final Executor parent, final DataSource dataSource) {
+		m_statementCache = parent.m_statementCache;
+		m_bulkheads = parent.m_bulkheads;
+		m_parent = parent;
+		m_defaultInput = parent.m_defaultInput;
+		m_arrayParameters = parent.m_arrayParameters;
+		m_defaultTimeoutNanos = parent.m_defaultTimeoutNanos;
+		m_fetchBudgetBytes = parent.m_fetchBudgetBytes;
+		m_identityCacheEnabled = parent.m_identityCacheEnabled;
+		m_identityCache = m_identityCacheEnabled ? new IdentityCache() : null;
+		m_singleFlight = parent.m_singleFlight;
+		m_exportChunkRows = parent.m_exportChunkRows;
+		m_exportParallelism = parent.m_exportParallelism;
+		m_copyBatchSize = parent.m_copyBatchSize;
+		m_copyBufferBatches = parent.m_copyBufferBatches;
+		m_exportBufferPool = parent.m_exportBufferPool;
 		setDataSource(dataSource);
 	}
 	
@@ -86,9 +232,19 @@ public final class Executor implements InitializingBean
 	 */
 	public void setDataSource(final DataSource dataSource) {
 		Assert.notNull(dataSource, "DataSoure must not be null");
+		m_dataSource = dataSource;
 		m_npJdbcTemplate = new NamedParameterJdbcTemplate(dataSource);
 	}
 	
+	/**
+	 * Returns the executor's {@link DataSource}.
+	 * 
+	 * @return the executor's data source
+	 */
+	public DataSource getDataSource() {
+		return m_dataSource;
+	}
+	
 	/**
 	 * Set the executor's default input parameter bean.
 	 * <p>
@@ -112,6 +268,845 @@ public final class Executor implements InitializingBean
 		return m_defaultInput;
 	}
 	
+	/**
+	 * Sets whether list parameters (i.e. parameters whose getter
+	 * returns a {@link java.util.Collection} or an array) are bound
+	 * as a single JDBC array instead of being expanded into a list
+	 * of placeholders.
+	 * <p>
+	 * Requires a database which supports {@code = ANY(?)} with
+	 * an array argument, e.g. PostgreSQL. Statements are rewritten
+	 * accordingly, i.e. {@code IN (:in.ids)} becomes
+	 * {@code = ANY(:in.ids)} and {@code NOT IN (:in.ids)} becomes
+	 * {@code <> ALL(:in.ids)}. Defaults to false, in which case
+	 * the list is padded to the next power of two and expanded
+	 * into one placeholder per element.
+	 * 
+	 * @param arrayParameters whether to bind list parameters as arrays
+	 */
+	public void setArrayParameters(final boolean arrayParameters) {
+		m_arrayParameters = arrayParameters;
+	}
+	
+	/**
+	 * Returns whether list parameters are bound as JDBC arrays.
+	 * 
+	 * @see #setArrayParameters(boolean)
+	 * 
+	 * @return whether list parameters are bound as arrays
+	 */
+	public boolean getArrayParameters() {
+		return m_arrayParameters;
+	}
+	
+	/**
+	 * Sets the maximal number of prepared statements cached per
+	 * connection. Zero, the default, disables statement caching.
+	 * <p>
+	 * Statements are only cached for connections which stay open
+	 * across executions, i.e. the connections of {@link Session}s
+	 * opened by this executor (see {@link #openSession()}), and
+	 * the connection of a
+	 * {@link org.springframework.jdbc.datasource.SingleConnectionDataSource}.
+	 * Once a connection's cache is full, the least recently used
+	 * statement is closed.
+	 * 
+	 * @param statementCacheSize maximal number of statements cached per connection
+	 */
+	public void setStatementCacheSize(final int statementCacheSize) {
+		m_statementCache.setSize(statementCacheSize);
+	}
+	
+	/**
+	 * Returns the maximal number of prepared statements cached
+	 * per connection.
+	 * 
+	 * @see #setStatementCacheSize(int)
+	 * 
+	 * @return maximal number of statements cached per connection
+	 */
+	public int getStatementCacheSize() {
+		return m_statementCache.getSize();
+	}
+	
+	/**
+	 * Returns the current hit, miss and eviction counts of
+	 * the prepared statement cache.
+	 * 
+	 * @see #setStatementCacheSize(int)
+	 * 
+	 * @return statement cache counters
+	 */
+	public StatementCacheStatistics getStatementCacheStatistics() {
+		return m_statementCache.getStatistics();
+	}
+	
+	StatementCache getStatementCache() {
+		return m_statementCache;
+	}
+	
+	/**
+	 * Enables adaptive fetch sizes by setting the number of bytes
+	 * a round trip should fetch. Zero, the default, disables
+	 * adaptive fetch sizes, i.e. uses the driver's default fetch
+	 * size.
+	 * <p>
+	 * The width and number of each operation's output rows are
+	 * learned while rows are mapped, starting with the operation's
+	 * first execution with a budget, and each execution's fetch
+	 * size (see {@link java.sql.Statement#setFetchSize(int)}) is
+	 * set to the number of rows which fit into the budget. Narrow
+	 * results thus need fewer round trips, while wide results
+	 * don't exhaust the memory. A budget of 1MB is a reasonable
+	 * start. Note that some drivers (e.g. PostgreSQL's outside of
+	 * transactions) ignore the fetch size.
+	 * 
+	 * @see #getFetchSizeStatistics(Class)
+	 * 
+	 * @param fetchBudgetBytes bytes to fetch per round trip
+	 */
+	public void setFetchBudgetBytes(final int fetchBudgetBytes) {
+		Assert.isTrue(fetchBudgetBytes >= 0, "FetchBudgetBytes must not be negative");
+		m_fetchBudgetBytes = fetchBudgetBytes;
+	}
+	
+	/**
+	 * Returns the number of bytes to fetch per round trip.
+	 * 
+	 * @see #setFetchBudgetBytes(int)
+	 * 
+	 * @return bytes to fetch per round trip, or zero
+	 */
+	public int getFetchBudgetBytes() {
+		return m_fetchBudgetBytes;
+	}
+	
+	/**
+	 * Returns what was learned about an operation's output rows,
+	 * and the fetch size its next execution uses.
+	 * 
+	 * @see #setFetchBudgetBytes(int)
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's row statistics
+	 */
+	public FetchSizeStatistics getFetchSizeStatistics(final Class<? extends Operation<?,?>> opClass) {
+		return FetchSizeController.getInstance(opClass).getStatistics(m_fetchBudgetBytes);
+	}
+	
+	/**
+	 * Sets the timeout of executions of operations which carry
+	 * no {@link org.phlo.tuplez.operation.Timeout} annotation, in
+	 * milliseconds. Zero, the default, means no timeout.
+	 * 
+	 * @see org.phlo.tuplez.operation.Timeout
+	 * 
+	 * @param defaultTimeoutMillis the default timeout in milliseconds
+	 */
+	public void setDefaultTimeoutMillis(final long defaultTimeoutMillis) {
+		Assert.isTrue(defaultTimeoutMillis >= 0, "DefaultTimeoutMillis must not be negative");
+		m_defaultTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(defaultTimeoutMillis);
+	}
+	
+	/**
+	 * Returns the timeout of executions of operations without
+	 * a {@link org.phlo.tuplez.operation.Timeout} annotation.
+	 * 
+	 * @see #setDefaultTimeoutMillis(long)
+	 * 
+	 * @return the default timeout in milliseconds
+	 */
+	public long getDefaultTimeoutMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(m_defaultTimeoutNanos);
+	}
+	
+	/**
+	 * Enables or disables the identity cache of the {@link Session}s
+	 * opened afterwards. Sessions with an identity cache execute each
+	 * single-row lookup (see
+	 * {@link org.phlo.tuplez.operation.OperationReturnsSingleRow}) at
+	 * most once per input, and return the same row to later lookups
+	 * of that input. Writes executed in the session invalidate the
+	 * cached rows, see {@link org.phlo.tuplez.operation.Tables}.
+	 * The cache is discarded when the session is closed.
+	 * <p>
+	 * Disabled by default.
+	 * 
+	 * @param identityCacheEnabled whether sessions cache lookups
+	 */
+	public void setIdentityCacheEnabled(final boolean identityCacheEnabled) {
+		m_identityCacheEnabled = identityCacheEnabled;
+	}
+	
+	/**
+	 * Returns whether sessions cache lookups.
+	 * 
+	 * @see #setIdentityCacheEnabled(boolean)
+	 * 
+	 * @return whether sessions cache lookups
+	 */
+	public boolean getIdentityCacheEnabled() {
+		return m_identityCacheEnabled;
+	}
+	
+	/**
+	 * Returns the identity cache of the session this
+	 * executor belongs to, or null if there is none.
+	 * 
+	 * @return the session's identity cache or null
+	 */
+	IdentityCache getIdentityCache() {
+		return m_identityCache;
+	}
+	
+	/**
+	 * Sets the number of rows {@link Operation#exportTo(Object, java.nio.channels.WritableByteChannel, ExportFormat) exports}
+	 * read and encode at a time. Each chunk of the
+	 * {@link ExportFormat#COLUMNAR columnar} format holds this many
+	 * rows. Defaults to 1024.
+	 * 
+	 * @param exportChunkRows rows per chunk
+	 */
+	public void setExportChunkRows(final int exportChunkRows) {
+		Assert.isTrue(exportChunkRows > 0, "ExportChunkRows must be positive");
+		m_exportChunkRows = exportChunkRows;
+	}
+	
+	/**
+	 * Returns the number of rows exports read and encode at a time.
+	 * 
+	 * @see #setExportChunkRows(int)
+	 * 
+	 * @return rows per chunk
+	 */
+	public int getExportChunkRows() {
+		return m_exportChunkRows;
+	}
+	
+	/**
+	 * Sets the number of chunks of rows an
+	 * {@link Operation#exportTo(Object, java.nio.channels.WritableByteChannel, ExportFormat) export}
+	 * encodes concurrently. With the default of one, the executing
+	 * thread reads, encodes and writes each chunk in turn. Otherwise,
+	 * chunks are encoded on the executor's fetch threads while the
+	 * executing thread reads the next chunks and writes the encoded
+	 * ones in order.
+	 * 
+	 * @param exportParallelism number of chunks encoded concurrently
+	 */
+	public void setExportParallelism(final int exportParallelism) {
+		Assert.isTrue(exportParallelism > 0, "ExportParallelism must be positive");
+		m_exportParallelism = exportParallelism;
+	}
+	
+	/**
+	 * Returns the number of chunks of rows an export encodes concurrently.
+	 * 
+	 * @see #setExportParallelism(int)
+	 * 
+	 * @return number of chunks encoded concurrently
+	 */
+	public int getExportParallelism() {
+		return m_exportParallelism;
+	}
+	
+	/**
+	 * Sets the number of rows {@link #copy(Class, Object, Executor, Class, RowTransform) copies}
+	 * execute and commit on the target at a time. Defaults to 500.
+	 * 
+	 * @param copyBatchSize rows per batch
+	 */
+	public void setCopyBatchSize(final int copyBatchSize) {
+		Assert.isTrue(copyBatchSize > 0, "CopyBatchSize must be positive");
+		m_copyBatchSize = copyBatchSize;
+	}
+	
+	/**
+	 * Returns the number of rows copies write at a time.
+	 * 
+	 * @see #setCopyBatchSize(int)
+	 * 
+	 * @return rows per batch
+	 */
+	public int getCopyBatchSize() {
+		return m_copyBatchSize;
+	}
+	
+	/**
+	 * Sets the number of batches a {@link #copy(Class, Object, Executor, Class, RowTransform) copy}
+	 * may read ahead of the batch being written. Once that many
+	 * batches are buffered, reading waits for the writer. Defaults to 4.
+	 * 
+	 * @param copyBufferBatches number of buffered batches
+	 */
+	public void setCopyBufferBatches(final int copyBufferBatches) {
+		Assert.isTrue(copyBufferBatches > 0, "CopyBufferBatches must be positive");
+		m_copyBufferBatches = copyBufferBatches;
+	}
+	
+	/**
+	 * Returns the number of batches a copy may read ahead.
+	 * 
+	 * @see #setCopyBufferBatches(int)
+	 * 
+	 * @return number of buffered batches
+	 */
+	public int getCopyBufferBatches() {
+		return m_copyBufferBatches;
+	}
+	
+	/**
+	 * Returns the pool of the buffers exports are encoded into
+	 * 
+	 * @return the buffer pool
+	 */
+	ExportBufferPool getExportBufferPool() {
+		return m_exportBufferPool;
+	}
+	
+	/**
+	 * Enables or disables the de-duplication of identical concurrent
+	 * reads. While a read (i.e. {@link Operation#iterate(org.phlo.tuplez.IteratorProcessor) iterate},
+	 * {@link Operation#collection() collection} or
+	 * {@link org.phlo.tuplez.operation.OperationReturnsSingleRow#get() get})
+	 * is executing, callers of the same operation whose input maps
+	 * to the same parameter values wait for its rows, instead of
+	 * executing the read themselves. The waiting callers share the
+	 * rows, i.e. receive the same output instances, which are
+	 * immutable. Column values of mutable types (e.g. dates) are
+	 * shared as well, and must not be modified.
+	 * <p>
+	 * Reads within Spring-managed transactions and {@link Session}s
+	 * are not de-duplicated, since they must execute on the caller's
+	 * connection. Reads returning more than 10000 rows are executed
+	 * by each caller, as are reads with parameter values whose type
+	 * has no known canonical representation (see {@link StatementPlan.Binding#getFingerprint()}).
+	 * Callers wait at most for their own timeout or deadline (see
+	 * {@link #with(Class, long, TimeUnit)}), and then fail with an
+	 * {@link OperationTimeoutException}.
+	 * <p>
+	 * Disabled by default.
+	 * 
+	 * @param singleFlightEnabled whether identical concurrent reads execute once
+	 */
+	public void setSingleFlightEnabled(final boolean singleFlightEnabled) {
+		m_singleFlightEnabled = singleFlightEnabled;
+	}
+	
+	/**
+	 * Returns whether identical concurrent reads execute once.
+	 * 
+	 * @see #setSingleFlightEnabled(boolean)
+	 * 
+	 * @return whether identical concurrent reads execute once
+	 */
+	public boolean getSingleFlightEnabled() {
+		return m_singleFlightEnabled;
+	}
+	
+	/**
+	 * Returns the reads in flight, or null if identical concurrent
+	 * reads aren't de-duplicated or this executor belongs to a
+	 * {@link Session}.
+	 * 
+	 * @return the reads in flight or null
+	 */
+	SingleFlight getSingleFlight() {
+		return (m_singleFlightEnabled && (m_parent == null)) ? m_singleFlight : null;
+	}
+	
+	/**
+	 * Returns the counters of the de-duplication of identical
+	 * concurrent reads.
+	 * 
+	 * @see #setSingleFlightEnabled(boolean)
+	 * 
+	 * @return the de-duplication's statistics
+	 */
+	public SingleFlightStatistics getSingleFlightStatistics() {
+		return m_singleFlight.getStatistics();
+	}
+	
+	/**
+	 * Sets the directory which stores the results of operations
+	 * annotated with {@link ResultCached}. The cache's files are
+	 * memory-mapped, i.e. the results are held outside of the Java
+	 * heap, and survive restarts. Only one executor at a time may
+	 * use a directory. Results are cached only if a directory is set.
+	 * 
+	 * @param resultCacheDirectory the cache's directory, or null
+	 */
+	public synchronized void setResultCacheDirectory(final File resultCacheDirectory) {
+		Assert.state(m_resultCache == null, "result cache is open already");
+		m_resultCacheDirectory = resultCacheDirectory;
+	}
+	
+	/**
+	 * Returns the directory which stores cached results.
+	 * 
+	 * @see #setResultCacheDirectory(File)
+	 * 
+	 * @return the cache's directory, or null
+	 */
+	public File getResultCacheDirectory() {
+		return m_resultCacheDirectory;
+	}
+	
+	/**
+	 * Sets the size of the result cache's files. Once they are
+	 * full, the oldest quarter of the cached results is evicted.
+	 * Changing the size discards the results cached previously.
+	 * <p>
+	 * Defaults to 64 MiB.
+	 * 
+	 * @param resultCacheMaxBytes the size of the cache's files
+	 */
+	public synchronized void setResultCacheMaxBytes(final long resultCacheMaxBytes) {
+		Assert.isTrue(resultCacheMaxBytes >= 65536, "ResultCacheMaxBytes must be at least 64 KiB");
+		Assert.state(m_resultCache == null, "result cache is open already");
+		m_resultCacheMaxBytes = resultCacheMaxBytes;
+	}
+	
+	/**
+	 * Returns the size of the result cache's files.
+	 * 
+	 * @see #setResultCacheMaxBytes(long)
+	 * 
+	 * @return the size of the cache's files
+	 */
+	public long getResultCacheMaxBytes() {
+		return m_resultCacheMaxBytes;
+	}
+	
+	/**
+	 * Returns the persistent result cache, or null if no
+	 * directory was set. The cache is opened on first use
+	 * and closed by {@link #destroy()}. Executors of
+	 * {@link Session}s don't use the cache, since their
+	 * reads may see the session's uncommitted writes.
+	 * 
+	 * @return the result cache or null
+	 */
+	synchronized MappedResultCache getResultCache() {
+		if (m_parent != null)
+			return null;
+		
+		if ((m_resultCache == null) && (m_resultCacheDirectory != null))
+			m_resultCache = new MappedResultCache(m_resultCacheDirectory, m_resultCacheMaxBytes);
+		return m_resultCache;
+	}
+	
+	/**
+	 * Returns the counters of the persistent result cache.
+	 * 
+	 * @see #setResultCacheDirectory(File)
+	 * 
+	 * @return the cache's statistics
+	 */
+	public ResultCacheStatistics getResultCacheStatistics() {
+		if (m_parent != null)
+			return m_parent.getResultCacheStatistics();
+		
+		final MappedResultCache resultCache = getResultCache();
+		Assert.state(resultCache != null, "Property ResultCacheDirectory is required");
+		return resultCache.getStatistics();
+	}
+	
+	/**
+	 * Removes all results from the persistent result cache.
+	 * 
+	 * @see #setResultCacheDirectory(File)
+	 */
+	public void clearResultCache() {
+		if (m_parent != null) {
+			m_parent.clearResultCache();
+			return;
+		}
+		
+		final MappedResultCache resultCache = getResultCache();
+		Assert.state(resultCache != null, "Property ResultCacheDirectory is required");
+		resultCache.clear();
+	}
+	
+	long getDefaultTimeoutNanos() {
+		return m_defaultTimeoutNanos;
+	}
+	
+	/**
+	 * Sets the maximal number of concurrent executions of
+	 * all operations. Zero, the default, means no limit.
+	 * Executions exceeding the limit wait in FIFO order.
+	 * 
+	 * @see org.phlo.tuplez.operation.Bulkhead
+	 * 
+	 * @param maxConcurrentExecutions maximal number of concurrent executions
+	 */
+	public void setMaxConcurrentExecutions(final int maxConcurrentExecutions) {
+		m_bulkheads.setMaxConcurrentExecutions(maxConcurrentExecutions);
+	}
+	
+	/**
+	 * Returns the maximal number of concurrent executions.
+	 * 
+	 * @see #setMaxConcurrentExecutions(int)
+	 * 
+	 * @return maximal number of concurrent executions
+	 */
+	public int getMaxConcurrentExecutions() {
+		return m_bulkheads.getMaxConcurrentExecutions();
+	}
+	
+	/**
+	 * Sets the number of concurrent executions, out of those
+	 * allowed by {@link #setMaxConcurrentExecutions(int)}, which
+	 * are reserved for operations in the {@link Lane#INTERACTIVE}
+	 * lane. {@link Lane#BATCH} operations are thus limited to
+	 * the difference. Defaults to zero.
+	 * 
+	 * @param reservedInteractiveExecutions number of reserved executions
+	 */
+	public void setReservedInteractiveExecutions(final int reservedInteractiveExecutions) {
+		m_bulkheads.setReservedInteractiveExecutions(reservedInteractiveExecutions);
+	}
+	
+	/**
+	 * Returns the number of concurrent executions reserved
+	 * for interactive operations.
+	 * 
+	 * @see #setReservedInteractiveExecutions(int)
+	 * 
+	 * @return number of reserved executions
+	 */
+	public int getReservedInteractiveExecutions() {
+		return m_bulkheads.getReservedInteractiveExecutions();
+	}
+	
+	/**
+	 * Sets the maximal number of concurrent executions of the
+	 * operations in a group, see {@link Bulkhead}. Zero removes
+	 * the limit. The group of an operation without a {@link Bulkhead}
+	 * annotation is named after its defining class, so this also
+	 * sets per-operation limits.
+	 * 
+	 * @param group the group's name
+	 * @param limit maximal number of concurrent executions in the group
+	 */
+	public void setBulkheadLimit(final String group, final int limit) {
+		m_bulkheads.setLimit(group, limit);
+	}
+	
+	/**
+	 * Sets the limits of several groups at once, see
+	 * {@link #setBulkheadLimit(String, int)}. Usually called
+	 * by Spring, with a {@literal <map>} property value.
+	 * 
+	 * @param limits maximal number of concurrent executions by group
+	 */
+	public void setBulkheadLimits(final java.util.Map<String, Integer> limits) {
+		for(final java.util.Map.Entry<String, Integer> limit: limits.entrySet())
+			m_bulkheads.setLimit(limit.getKey(), limit.getValue());
+	}
+	
+	/**
+	 * Returns the maximal number of concurrent executions
+	 * of a group's operations, or zero if there's no limit.
+	 * 
+	 * @see #setBulkheadLimit(String, int)
+	 * 
+	 * @param group the group's name
+	 * @return maximal number of concurrent executions in the group
+	 */
+	public int getBulkheadLimit(final String group) {
+		return m_bulkheads.getLimit(group);
+	}
+	
+	/**
+	 * Sets how long executions wait for a concurrency limit
+	 * before failing with a {@link BulkheadFullException}, in
+	 * milliseconds. Zero fails immediately, negative values,
+	 * the default, wait indefinitely.
+	 * 
+	 * @param queueTimeoutMillis the queue timeout in milliseconds
+	 */
+	public void setQueueTimeoutMillis(final long queueTimeoutMillis) {
+		m_bulkheads.setQueueTimeoutNanos((queueTimeoutMillis >= 0) ? TimeUnit.MILLISECONDS.toNanos(queueTimeoutMillis) : -1);
+	}
+	
+	/**
+	 * Returns the queue timeout in milliseconds.
+	 * 
+	 * @see #setQueueTimeoutMillis(long)
+	 * 
+	 * @return the queue timeout, or a negative value
+	 */
+	public long getQueueTimeoutMillis() {
+		final long queueTimeoutNanos = m_bulkheads.getQueueTimeoutNanos();
+		return (queueTimeoutNanos >= 0) ? TimeUnit.NANOSECONDS.toMillis(queueTimeoutNanos) : -1;
+	}
+	
+	/**
+	 * Returns the current counters of a concurrency limit, i.e.
+	 * of a group's limit, of the limit of the {@link Lane#BATCH}
+	 * lane (named "lane:BATCH") or of the total limit (named
+	 * "total"). Returns null if there's no such limit.
+	 * 
+	 * @param name the group's or limit's name
+	 * @return the limit's counters or null
+	 */
+	public BulkheadStatistics getBulkheadStatistics(final String name) {
+		return m_bulkheads.getStatistics(name);
+	}
+	
+	Bulkheads getBulkheads() {
+		return m_bulkheads;
+	}
+	
+	/**
+	 * Returns the thread pool which fetches the rows of operations
+	 * annotated with {@link org.phlo.tuplez.operation.PipelinedFetch}.
+	 * The pool is created on first use and shut down by
+	 * {@link #destroy()}. Its threads are daemon threads.
+	 * 
+	 * @return the fetch thread pool
+	 */
+	synchronized ExecutorService getFetchExecutor() {
+		if (m_parent != null)
+			return m_parent.getFetchExecutor();
+		
+		if (m_fetchExecutor == null) {
+			m_fetchExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "tuplez-fetch-" + s_fetchThreadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return m_fetchExecutor;
+	}
+	
+	/**
+	 * Returns the coalescer of an operation annotated with
+	 * {@link Coalesced}, or null if the operation isn't annotated
+	 * or if this executor executes on a {@link Session}'s
+	 * connection, which must not be shared with other threads.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's coalescer or null
+	 */
+	Coalescer getCoalescer(final Class<? extends Operation<?,?>> opClass) {
+		final Coalesced coalesced = opClass.getAnnotation(Coalesced.class);
+		if ((coalesced == null) || (m_parent != null))
+			return null;
+		
+		Coalescer coalescer = m_coalescers.get(opClass);
+		if (coalescer == null) {
+			coalescer = new Coalescer(this, opClass, coalesced);
+			final Coalescer existing = m_coalescers.putIfAbsent(opClass, coalescer);
+			if (existing != null)
+				coalescer = existing;
+		}
+		return coalescer;
+	}
+	
+	/**
+	 * Returns the index of an operation annotated with
+	 * {@link Preloaded}, or null if the operation isn't
+	 * annotated. Executors of {@link Session}s share their
+	 * executor's indices.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's index or null
+	 */
+	PreloadedTable getPreloadedTable(final Class<? extends Operation<?,?>> opClass) {
+		if (m_parent != null)
+			return m_parent.getPreloadedTable(opClass);
+		
+		final Preloaded preloaded = opClass.getAnnotation(Preloaded.class);
+		if (preloaded == null)
+			return null;
+		
+		PreloadedTable table = m_preloadedTables.get(opClass);
+		if (table == null) {
+			table = new PreloadedTable(this, opClass, preloaded);
+			final PreloadedTable existing = m_preloadedTables.putIfAbsent(opClass, table);
+			if (existing != null)
+				table = existing;
+		}
+		return table;
+	}
+	
+	/**
+	 * Sets the operations annotated with {@link Preloaded} whose
+	 * rows are loaded by {@link #afterPropertiesSet()}, i.e. when
+	 * the executor is initialized. The rows of other preloaded
+	 * operations are loaded by their first lookup.
+	 * 
+	 * @param preloadedOperations operations to load at initialization
+	 */
+	public void setPreloadedOperations(final List<Class<? extends Operation<?,?>>> preloadedOperations) {
+		m_preloadedOperations = preloadedOperations;
+	}
+	
+	/**
+	 * Returns the operations whose rows are loaded at initialization.
+	 * 
+	 * @see #setPreloadedOperations(List)
+	 * 
+	 * @return operations to load at initialization
+	 */
+	public List<Class<? extends Operation<?,?>>> getPreloadedOperations() {
+		return m_preloadedOperations;
+	}
+	
+	/**
+	 * Loads the rows of an operation annotated with {@link Preloaded}
+	 * now, replacing the rows loaded previously.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 */
+	public void preload(final Class<? extends Operation<?,?>> opClass) {
+		final PreloadedTable table = getPreloadedTable(opClass);
+		if (table == null) {
+			throw new InvalidOperationDefinitionException(
+				"operation isn't annotated with @Preloaded",
+				opClass
+			);
+		}
+		table.load(true);
+	}
+	
+	/**
+	 * Returns the counters of the index of an operation
+	 * annotated with {@link Preloaded}.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the index's statistics
+	 */
+	public PreloadedTableStatistics getPreloadedTableStatistics(final Class<? extends Operation<?,?>> opClass) {
+		final PreloadedTable table = getPreloadedTable(opClass);
+		if (table == null) {
+			throw new InvalidOperationDefinitionException(
+				"operation isn't annotated with @Preloaded",
+				opClass
+			);
+		}
+		return table.getStatistics();
+	}
+	
+	/**
+	 * Returns the Bloom filter of an operation annotated with
+	 * {@link ExistenceFilter}, or null if the operation isn't
+	 * annotated. Executors of {@link Session}s share their
+	 * executor's filters.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's filter or null
+	 */
+	BloomFilter getExistenceFilter(final Class<? extends Operation<?,?>> opClass) {
+		if (m_parent != null)
+			return m_parent.getExistenceFilter(opClass);
+		
+		final ExistenceFilter existenceFilter = opClass.getAnnotation(ExistenceFilter.class);
+		if (existenceFilter == null)
+			return null;
+		
+		BloomFilter filter = m_existenceFilters.get(opClass);
+		if (filter == null) {
+			filter = new BloomFilter(this, opClass, existenceFilter);
+			final BloomFilter existing = m_existenceFilters.putIfAbsent(opClass, filter);
+			if (existing != null)
+				filter = existing;
+		}
+		return filter;
+	}
+	
+	/**
+	 * Rebuilds the filter of an operation annotated with
+	 * {@link ExistenceFilter} now, replacing the filter
+	 * built previously.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 */
+	public void rebuildExistenceFilter(final Class<? extends Operation<?,?>> opClass) {
+		final BloomFilter filter = getExistenceFilter(opClass);
+		if (filter == null) {
+			throw new InvalidOperationDefinitionException(
+				"operation isn't annotated with @ExistenceFilter",
+				opClass
+			);
+		}
+		filter.rebuild();
+	}
+	
+	/**
+	 * Returns the counters of the filter of an operation
+	 * annotated with {@link ExistenceFilter}.
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the filter's statistics
+	 */
+	public ExistenceFilterStatistics getExistenceFilterStatistics(final Class<? extends Operation<?,?>> opClass) {
+		final BloomFilter filter = getExistenceFilter(opClass);
+		if (filter == null) {
+			throw new InvalidOperationDefinitionException(
+				"operation isn't annotated with @ExistenceFilter",
+				opClass
+			);
+		}
+		return filter.getStatistics();
+	}
+	
+	/**
+	 * Returns the scheduler which reloads the indices of
+	 * operations annotated with {@link Preloaded} and
+	 * rebuilds the filters of operations annotated with
+	 * {@link ExistenceFilter}. The scheduler is created on
+	 * first use and shut down by {@link #destroy()}. Its
+	 * thread is a daemon thread.
+	 * 
+	 * @return the refresh scheduler
+	 */
+	synchronized ScheduledExecutorService getRefreshScheduler() {
+		if (m_parent != null)
+			return m_parent.getRefreshScheduler();
+		
+		if (m_refreshScheduler == null) {
+			m_refreshScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "tuplez-refresh");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return m_refreshScheduler;
+	}
+	
+	/**
+	 * Returns the scheduler which runs the {@link StatementWatchdog}s
+	 * cancelling executions whose timeout expired. The scheduler
+	 * is created on first use and shut down by {@link #destroy()}.
+	 * Its thread is a daemon thread.
+	 * 
+	 * @return the watchdog scheduler
+	 */
+	synchronized ScheduledExecutorService getWatchdogScheduler() {
+		if (m_parent != null)
+			return m_parent.getWatchdogScheduler();
+		
+		if (m_watchdogScheduler == null) {
+			m_watchdogScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "tuplez-watchdog");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return m_watchdogScheduler;
+	}
+	
 	/**
 	 * Returns the underlying named-parameter JDBC template instances.
 	 * 
@@ -134,17 +1129,273 @@ public final class Executor implements InitializingBean
 	 * @return an instance that is-a opClass
 	 */
 	public <OpType extends Operation<?,?>> OpType with(final Class<OpType> opClass) {
-		return OperationFactory.getFactory(opClass).getInstance(
-			m_npJdbcTemplate,
-			m_defaultInput
+		return OperationFactory.getFactory(opClass).getInstance(this);
+	}
+	
+	/**
+	 * Returns an instance of the operation defined by
+	 * opClass whose executions must complete before a
+	 * deadline, i.e. within the given time from now.
+	 * <p>
+	 * The deadline overrides the operation's timeout (see
+	 * {@link org.phlo.tuplez.operation.Timeout}) and applies to all
+	 * executions of the returned instance. Executions starting
+	 * after the deadline fail immediately with an
+	 * {@link OperationTimeoutException}.
+	 * 
+	 * @param <OpType> the operation's type
+	 * @param opClass the operation's defining class/interface
+	 * @param timeout time from now until the deadline
+	 * @param unit the unit of timeout
+	 * @return an instance that is-a opClass
+	 */
+	public <OpType extends Operation<?,?>> OpType with(final Class<OpType> opClass, final long timeout, final TimeUnit unit) {
+		final long deadline = System.nanoTime() + unit.toNanos(timeout);
+		
+		final OpType op = with(opClass);
+		((OperationDefaultImplementation)op.getDefaultImplementation(Operation.class)).setDeadline(deadline);
+		return op;
+	}
+	
+	/**
+	 * Returns the write-behind sink of the operation defined by
+	 * opClass, which executes the operation asynchronously in
+	 * JDBC batches. See {@link WriteBehindSink} and
+	 * {@link org.phlo.tuplez.operation.WriteBehind}.
+	 * <p>
+	 * All calls for the same operation return the same sink.
+	 * Executors of {@link Session}s return their executor's sink,
+	 * i.e. inputs aren't written on the session's connection.
+	 * 
+	 * @param <InputType> the operation's input type
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's write-behind sink
+	 */
+	@SuppressWarnings("unchecked")
+	public <InputType> WriteBehindSink<InputType> writeBehind(final Class<? extends Operation<InputType,?>> opClass) {
+		if (m_parent != null)
+			return m_parent.writeBehind(opClass);
+		
+		synchronized (m_writeBehindSinks) {
+			WriteBehindSink<InputType> sink = (WriteBehindSink<InputType>)m_writeBehindSinks.get(opClass);
+			if ((sink == null) || sink.isClosed()) {
+				sink = new WriteBehindSink<InputType>(this, opClass);
+				m_writeBehindSinks.put(opClass, sink);
+			}
+			return sink;
+		}
+	}
+	
+	/**
+	 * Returns a {@link BulkLoader}, which loads the rows of a
+	 * CSV or columnar file (see {@link ExportFormat}) by executing
+	 * the operation once per row, in parallel on several connections.
+	 * 
+	 * @param <InputType> the operation's input type
+	 * @param opClass the operation's defining class/interface
+	 * @return a new bulk loader
+	 */
+	public <InputType> BulkLoader<InputType> bulkLoader(final Class<? extends Operation<InputType,?>> opClass) {
+		Assert.notNull(m_dataSource, "Property DataSource is required");
+		return new BulkLoader<InputType>(this, opClass);
+	}
+	
+	/**
+	 * Copies the output rows of an operation executed with its
+	 * default input to another operation of this executor, see
+	 * {@link #copy(Class, Object, Executor, Class, RowTransform)}.
+	 * 
+	 * @param <SourceType> type representing the source's rows
+	 * @param <TargetType> the target operation's input type
+	 * @param sourceOp the source operation's defining class/interface
+	 * @param targetOp the target operation's defining class/interface
+	 * @param transform transforms source rows into target inputs, or null
+	 * @return the copy's statistics
+	 */
+	public <SourceType, TargetType> CopyStatistics copy(
+		final Class<? extends Operation<?, SourceType>> sourceOp,
+		final Class<? extends Operation<TargetType,?>> targetOp,
+		final RowTransform<? super SourceType, ? extends TargetType> transform
+	) {
+		return copy(sourceOp, this, targetOp, transform);
+	}
+	
+	/**
+	 * Copies the output rows of an operation executed with its
+	 * default input to an operation of the target executor, see
+	 * {@link #copy(Class, Object, Executor, Class, RowTransform)}.
+	 * 
+	 * @param <SourceType> type representing the source's rows
+	 * @param <TargetType> the target operation's input type
+	 * @param sourceOp the source operation's defining class/interface
+	 * @param target the executor to write to
+	 * @param targetOp the target operation's defining class/interface
+	 * @param transform transforms source rows into target inputs, or null
+	 * @return the copy's statistics
+	 */
+	public <SourceType, TargetType> CopyStatistics copy(
+		final Class<? extends Operation<?, SourceType>> sourceOp,
+		final Executor target,
+		final Class<? extends Operation<TargetType,?>> targetOp,
+		final RowTransform<? super SourceType, ? extends TargetType> transform
+	) {
+		Assert.notNull(target, "Target executor must not be null");
+		
+		final Operation<?, SourceType> source = with(sourceOp);
+		return newCopyPipeline(target, targetOp, transform).copy(source);
+	}
+	
+	/**
+	 * Copies the output rows of an operation to another operation
+	 * of this executor, see {@link #copy(Class, Object, Executor, Class, RowTransform)}.
+	 * 
+	 * @param <SourceInput> the source operation's input type
+	 * @param <SourceType> type representing the source's rows
+	 * @param <TargetType> the target operation's input type
+	 * @param sourceOp the source operation's defining class/interface
+	 * @param sourceInput the source operation's input
+	 * @param targetOp the target operation's defining class/interface
+	 * @param transform transforms source rows into target inputs, or null
+	 * @return the copy's statistics
+	 */
+	public <SourceInput, SourceType, TargetType> CopyStatistics copy(
+		final Class<? extends Operation<SourceInput, SourceType>> sourceOp,
+		final SourceInput sourceInput,
+		final Class<? extends Operation<TargetType,?>> targetOp,
+		final RowTransform<? super SourceType, ? extends TargetType> transform
+	) {
+		return copy(sourceOp, sourceInput, this, targetOp, transform);
+	}
+	
+	/**
+	 * Copies the output rows of an operation of this executor to
+	 * an operation of the target executor, e.g. from a replica to
+	 * a warehouse, without holding the source's result in memory.
+	 * <p>
+	 * The executing thread iterates over the source's rows, passes
+	 * each to the transform, and collects the returned target inputs
+	 * into batches of {@link #setCopyBatchSize(int) CopyBatchSize}
+	 * rows. A writer thread executes each batch on a {@link Session}
+	 * of the target executor (see {@link Operation#executeBatch(java.util.Collection)})
+	 * and commits it. At most {@link #setCopyBufferBatches(int) CopyBufferBatches}
+	 * batches wait between the two. Rows for which the transform
+	 * returns null are skipped. Without a transform, the source's
+	 * rows are passed to the target operation unchanged, which
+	 * requires the source's output type to implement the target's
+	 * input type.
+	 * <p>
+	 * The writer's connection is distinct from the connection
+	 * the source is read on, so the target's data source must hand
+	 * out a separate connection, and the writes don't take part in
+	 * transactions of the executing thread. If either side fails,
+	 * the copy stops and the failure is thrown. Batches committed
+	 * before remain committed.
+	 * 
+	 * @param <SourceInput> the source operation's input type
+	 * @param <SourceType> type representing the source's rows
+	 * @param <TargetType> the target operation's input type
+	 * @param sourceOp the source operation's defining class/interface
+	 * @param sourceInput the source operation's input
+	 * @param target the executor to write to
+	 * @param targetOp the target operation's defining class/interface
+	 * @param transform transforms source rows into target inputs, or null
+	 * @return the copy's statistics
+	 */
+	public <SourceInput, SourceType, TargetType> CopyStatistics copy(
+		final Class<? extends Operation<SourceInput, SourceType>> sourceOp,
+		final SourceInput sourceInput,
+		final Executor target,
+		final Class<? extends Operation<TargetType,?>> targetOp,
+		final RowTransform<? super SourceType, ? extends TargetType> transform
+	) {
+		Assert.notNull(target, "Target executor must not be null");
+		
+		final Operation<SourceInput, SourceType> source = with(sourceOp);
+		return newCopyPipeline(target, targetOp, transform).copy(source, sourceInput);
+	}
+	
+	private <SourceType, TargetType> CopyPipeline<SourceType, TargetType> newCopyPipeline(
+		final Executor target,
+		final Class<? extends Operation<TargetType,?>> targetOp,
+		final RowTransform<? super SourceType, ? extends TargetType> transform
+	) {
+		return new CopyPipeline<SourceType, TargetType>(
+			target,
+			targetOp,
+			transform,
+			m_copyBatchSize,
+			m_copyBufferBatches
 		);
 	}
 	
+	/**
+	 * Opens a {@link Session}, i.e. a unit of work whose
+	 * operations all execute on the same connection. The
+	 * session must be closed with {@link Session#close()}.
+	 * 
+	 * @return a new session
+	 */
+	public Session openSession() {
+		Assert.notNull(m_dataSource, "Property DataSource is required");
+		return new Session(this);
+	}
+	
 	/* org.springframework.beans.factory.InitializingBean */
 	
 	@Override
 	public void afterPropertiesSet() throws Exception {
 		Assert.notNull(m_npJdbcTemplate, "Property DataSource is required");
-	}	
+		
+		for(final Class<? extends Operation<?,?>> opClass: m_preloadedOperations)
+			preload(opClass);
+	}
+	
+	/* org.springframework.beans.factory.DisposableBean */
+	
+	/**
+	 * Closes the write-behind sinks (see {@link #writeBehind(Class)}),
+	 * writing the inputs they queued. Then shuts down the threads
+	 * used to fetch rows of operations annotated with
+	 * {@link org.phlo.tuplez.operation.PipelinedFetch}, the
+	 * thread which enforces timeouts, and the thread which
+	 * reloads the rows of operations annotated with
+	 * {@link Preloaded} and rebuilds existence filters.
+	 * Fetches in progress are completed, preloaded rows and
+	 * filters remain available. Finally, closes the
+	 * persistent result cache.
+	 */
+	@Override
+	public void destroy() {
+		/* Sinks execute operations, so they're closed before the threads are shut down */
+		synchronized (m_writeBehindSinks) {
+			for(final WriteBehindSink<?> sink: m_writeBehindSinks.values())
+				sink.close();
+			m_writeBehindSinks.clear();
+		}
+		
+		for(final PreloadedTable table: m_preloadedTables.values())
+			table.cancel();
+		for(final BloomFilter filter: m_existenceFilters.values())
+			filter.cancel();
+		
+		synchronized (this) {
+			if (m_fetchExecutor != null) {
+				m_fetchExecutor.shutdown();
+				m_fetchExecutor = null;
+			}
+			if (m_watchdogScheduler != null) {
+				m_watchdogScheduler.shutdownNow();
+				m_watchdogScheduler = null;
+			}
+			if (m_refreshScheduler != null) {
+				m_refreshScheduler.shutdownNow();
+				m_refreshScheduler = null;
+			}
+			if (m_resultCache != null) {
+				m_resultCache.close();
+				m_resultCache = null;
+			}
+		}
+	}
 }
 
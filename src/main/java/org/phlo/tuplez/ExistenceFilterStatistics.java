@@ -0,0 +1,182 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of the counters of a lookup's existence filter.
+ *
+ * @see org.phlo.tuplez.operation.ExistenceFilter
+ * @see Executor#getExistenceFilterStatistics(Class)
+ */
+public final class ExistenceFilterStatistics {
+	private final long m_keys;
+	private final int m_bits;
+	private final int m_hashes;
+	private final double m_expectedFalsePositiveRate;
+	private final long m_loads;
+	private final long m_failedLoads;
+	private final long m_lastLoadNanos;
+	private final long m_lastLoadedAt;
+	private final long m_lookups;
+	private final long m_rejected;
+	private final long m_falsePositives;
+
+	ExistenceFilterStatistics(
+		final long keys,
+		final int bits,
+		final int hashes,
+		final double expectedFalsePositiveRate,
+		final long loads,
+		final long failedLoads,
+		final long lastLoadNanos,
+		final long lastLoadedAt,
+		final long lookups,
+		final long rejected,
+		final long falsePositives
+	) {
+		m_keys = keys;
+		m_bits = bits;
+		m_hashes = hashes;
+		m_expectedFalsePositiveRate = expectedFalsePositiveRate;
+		m_loads = loads;
+		m_failedLoads = failedLoads;
+		m_lastLoadNanos = lastLoadNanos;
+		m_lastLoadedAt = lastLoadedAt;
+		m_lookups = lookups;
+		m_rejected = rejected;
+		m_falsePositives = falsePositives;
+	}
+
+	/**
+	 * Returns the number of keys added to the filter since
+	 * it was last built, including the keys it was built from
+	 *
+	 * @return number of keys
+	 */
+	public long getKeys() {
+		return m_keys;
+	}
+
+	/**
+	 * Returns the size of the filter in bits
+	 *
+	 * @return number of bits
+	 */
+	public int getBits() {
+		return m_bits;
+	}
+
+	/**
+	 * Returns the number of bits set per key
+	 *
+	 * @return number of hash functions
+	 */
+	public int getHashes() {
+		return m_hashes;
+	}
+
+	/**
+	 * Returns the rate of false positives expected for
+	 * the filter's size and number of keys
+	 *
+	 * @return expected false-positive rate
+	 */
+	public double getExpectedFalsePositiveRate() {
+		return m_expectedFalsePositiveRate;
+	}
+
+	/**
+	 * Returns the rate of false positives observed, i.e. the
+	 * fraction of the lookups which found no row that the
+	 * filter let pass. Includes lookups of rows which were
+	 * deleted since the filter was built.
+	 *
+	 * @return observed false-positive rate, zero if all lookups found a row
+	 */
+	public double getObservedFalsePositiveRate() {
+		final long negatives = m_rejected + m_falsePositives;
+		return (negatives > 0) ? (double)m_falsePositives / negatives : 0;
+	}
+
+	/**
+	 * Returns the number of successful builds
+	 *
+	 * @return number of builds
+	 */
+	public long getLoads() {
+		return m_loads;
+	}
+
+	/**
+	 * Returns the number of failed builds. A failed
+	 * build leaves the previous filter in place.
+	 *
+	 * @return number of failed builds
+	 */
+	public long getFailedLoads() {
+		return m_failedLoads;
+	}
+
+	/**
+	 * Returns the time the last successful build took, in nanoseconds
+	 *
+	 * @return duration of the last build
+	 */
+	public long getLastLoadNanos() {
+		return m_lastLoadNanos;
+	}
+
+	/**
+	 * Returns when the last successful build completed, in
+	 * milliseconds since the epoch, or zero if there was none
+	 *
+	 * @return completion time of the last build
+	 */
+	public long getLastLoadedAt() {
+		return m_lastLoadedAt;
+	}
+
+	/**
+	 * Returns the number of lookups tested against the filter
+	 *
+	 * @return number of lookups
+	 */
+	public long getLookups() {
+		return m_lookups;
+	}
+
+	/**
+	 * Returns the number of lookups the filter ruled out,
+	 * which thus returned null without executing
+	 *
+	 * @return number of rejected lookups
+	 */
+	public long getRejected() {
+		return m_rejected;
+	}
+
+	/**
+	 * Returns the number of lookups the filter let pass,
+	 * but which found no row
+	 *
+	 * @return number of false positives
+	 */
+	public long getFalsePositives() {
+		return m_falsePositives;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{keys: " + m_keys + "; " +
+			"bits: " + m_bits + "; " +
+			"hashes: " + m_hashes + "; " +
+			"expectedFalsePositiveRate: " + m_expectedFalsePositiveRate + "; " +
+			"observedFalsePositiveRate: " + getObservedFalsePositiveRate() + "; " +
+			"loads: " + m_loads + "; " +
+			"failedLoads: " + m_failedLoads + "; " +
+			"lastLoadNanos: " + m_lastLoadNanos + "; " +
+			"lastLoadedAt: " + m_lastLoadedAt + "; " +
+			"lookups: " + m_lookups + "; " +
+			"rejected: " + m_rejected + "; " +
+			"falsePositives: " + m_falsePositives + "}";
+	}
+}
@@ -0,0 +1,55 @@
+package org.phlo.tuplez;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of direct buffers which exports encode into, see
+ * {@link ResultSetExporter}. Direct buffers are written to
+ * channels without being copied, but are expensive to allocate,
+ * so they are re-used across exports. Each executor (and its
+ * sessions) owns one pool.
+ */
+final class ExportBufferPool {
+	/* Size of each buffer */
+	static final int s_bufferBytes = 64 * 1024;
+
+	/* Maximal number of idle buffers kept for re-use */
+	private final int m_maxIdle;
+
+	private final ConcurrentLinkedQueue<ByteBuffer> m_idle = new ConcurrentLinkedQueue<ByteBuffer>();
+	private final AtomicInteger m_idleCount = new AtomicInteger();
+
+	ExportBufferPool(final int maxIdle) {
+		m_maxIdle = maxIdle;
+	}
+
+	/**
+	 * Returns an empty buffer, re-using an idle buffer if there is one
+	 *
+	 * @return a cleared direct buffer
+	 */
+	ByteBuffer acquire() {
+		final ByteBuffer buffer = m_idle.poll();
+		if (buffer == null)
+			return ByteBuffer.allocateDirect(s_bufferBytes);
+
+		m_idleCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Returns a buffer to the pool. Buffers beyond the maximal number
+	 * of idle buffers are left to the garbage collector.
+	 *
+	 * @param buffer the buffer, which must no longer be used
+	 */
+	void release(final ByteBuffer buffer) {
+		if (m_idleCount.incrementAndGet() <= m_maxIdle)
+			m_idle.offer(buffer);
+		else
+			m_idleCount.decrementAndGet();
+	}
+}
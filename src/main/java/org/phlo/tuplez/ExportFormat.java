@@ -0,0 +1,59 @@
+package org.phlo.tuplez;
+
+/**
+ * File formats written by {@link org.phlo.tuplez.operation.Operation#exportTo(Object, java.nio.channels.WritableByteChannel, ExportFormat)}.
+ * <p>
+ * Both formats are written in chunks of rows (see
+ * {@link Executor#setExportChunkRows(int)}), which can be
+ * encoded in parallel (see {@link Executor#setExportParallelism(int)}).
+ * The chunking doesn't affect the CSV output, but determines the
+ * blocks of the columnar format.
+ */
+public enum ExportFormat {
+	/**
+	 * Comma-separated values as described by RFC 4180, encoded
+	 * as UTF-8. The first line holds the column names. Lines are
+	 * terminated by CRLF, fields containing commas, quotes or line
+	 * breaks are quoted, and quotes within them are doubled. Null
+	 * values are written as empty fields, byte arrays as hex
+	 * strings, enums by their name, decimals without an exponent
+	 * (see {@link java.math.BigDecimal#toPlainString()}), and all
+	 * other values as their {@link Object#toString()}.
+	 */
+	CSV,
+
+	/**
+	 * A compact binary format which stores each chunk of rows
+	 * column by column, so readers may skip the columns they
+	 * don't need. All numbers are big-endian.
+	 * <p>
+	 * The file starts with the magic number 0x54504c43 ("TPLC"),
+	 * the format version 2 and the number of columns (ints). Each
+	 * column is described by its type (a byte, see below) and its
+	 * name (an int byte length followed by the UTF-8 bytes).
+	 * <p>
+	 * The chunks follow, each starting with its number of rows
+	 * (an int). For each column, a chunk holds the column block's
+	 * length in bytes (an int), a bitmap with one bit per row
+	 * which is set for null values (least significant bit first),
+	 * and the non-null values. The types and their values are
+	 * <ul>
+	 * <li>1: boolean, one byte</li>
+	 * <li>2: byte</li>
+	 * <li>3: short</li>
+	 * <li>4: int</li>
+	 * <li>5: long</li>
+	 * <li>6: float</li>
+	 * <li>7: double</li>
+	 * <li>8: timestamp, a long holding milliseconds since the epoch
+	 *        and an int holding the nanoseconds within the millisecond</li>
+	 * <li>9: bytes, an int length followed by the bytes</li>
+	 * <li>10: string, an int byte length followed by the UTF-8 bytes.
+	 *         Used for all other column types, e.g. decimals and enums,
+	 *         which are encoded as in the CSV format</li>
+	 * </ul>
+	 * A chunk of zero rows ends the file, followed by the total
+	 * number of rows (a long).
+	 */
+	COLUMNAR
+}
@@ -0,0 +1,186 @@
+package org.phlo.tuplez;
+
+import java.math.BigDecimal;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phlo.tuplez.operation.Operation;
+
+/**
+ * Learns the average width and number of an operation's output
+ * rows, and derives the fetch size which makes a round trip
+ * transfer a given number of bytes, see
+ * {@link Executor#setFetchBudgetBytes(int)}.
+ * <p>
+ * Rows are counted by the operation's {@link ResultSetMapper}s,
+ * which also pass every {@link #SampleInterval}-th row to
+ * {@link #sampleRow(Object[], int)}. Counting starts once an
+ * executor with a fetch budget executes the operation, i.e. with
+ * the first call of {@link #nextFetchSize(int)}. Until then,
+ * mapping a row costs a single volatile read, so operations never
+ * executed with a budget don't contend for the shared counters. The row width is estimated
+ * from the mapped values' (approximate) heap sizes, and smoothed
+ * with an exponential moving average. The estimate is thus a
+ * proxy for, not an exact measure of, the memory a JDBC driver
+ * needs per buffered row.
+ */
+final class FetchSizeController {
+	private static final ClassCache<FetchSizeController> s_controllers = new ClassCache<FetchSizeController>() {
+		@Override protected FetchSizeController create(final Class<?> opClass, final Class<?> key, final Object context) {
+			return new FetchSizeController();
+		}
+	};
+	
+	/* Every SampleInterval-th row's width is estimated. Must be a power of two */
+	static final int SampleInterval = 16;
+	
+	/* Bounds of the fetch sizes this controller suggests */
+	static final int MinFetchSize = 10;
+	static final int MaxFetchSize = 100000;
+	
+	/* Weight of a new sample in the moving average of the row width */
+	private static final double s_sampleWeight = 1.0 / 8;
+	
+	/**
+	 * Returns the controller of an operation
+	 * 
+	 * @param opClass the operation's defining class/interface
+	 * @return the operation's controller
+	 */
+	static FetchSizeController getInstance(final Class<? extends Operation<?,?>> opClass) {
+		return s_controllers.get(opClass);
+	}
+	
+	/* Whether rows are counted, set by the first execution with a fetch budget */
+	private volatile boolean m_counting = false;
+	
+	/* Rows mapped so far */
+	private final AtomicLong m_rows = new AtomicLong();
+	
+	/* Executions which set a fetch size so far */
+	private final AtomicLong m_executions = new AtomicLong();
+	
+	/* Moving average of the estimated row width. Zero until the first sample. Guarded by this */
+	private double m_avgRowBytes = 0;
+	
+	private FetchSizeController() {
+	}
+	
+	/**
+	 * Counts a mapped row, and returns whether its width
+	 * should be passed to {@link #sampleRow(Object[], int)}.
+	 * Returns false without counting the row unless the
+	 * operation was executed with a fetch budget.
+	 * 
+	 * @return whether to sample the row
+	 */
+	boolean countRow() {
+		if (!m_counting)
+			return false;
+		
+		return (m_rows.getAndIncrement() & (SampleInterval - 1)) == 0;
+	}
+	
+	/**
+	 * Updates the average row width with a row's values
+	 * 
+	 * @param values the row's values
+	 * @param count the number of values
+	 */
+	void sampleRow(final Object[] values, final int count) {
+		long bytes = 16;
+		for(int i=0; i < count; ++i)
+			bytes += 8 + estimateBytes(values[i]);
+		sampleRowBytes(bytes);
+	}
+	
+	/**
+	 * Updates the average row width with a row's values
+	 * 
+	 * @param values the row's values
+	 */
+	void sampleRow(final Iterable<Object> values) {
+		long bytes = 16;
+		for(final Object value: values)
+			bytes += 8 + estimateBytes(value);
+		sampleRowBytes(bytes);
+	}
+	
+	private synchronized void sampleRowBytes(final long bytes) {
+		if (m_avgRowBytes == 0)
+			m_avgRowBytes = bytes;
+		else
+			m_avgRowBytes += (bytes - m_avgRowBytes) * s_sampleWeight;
+	}
+	
+	/**
+	 * Returns the fetch size for the next execution, and counts
+	 * the execution. Returns zero (i.e. the driver's default)
+	 * until a row was sampled.
+	 * 
+	 * @param budgetBytes bytes to transfer per round trip
+	 * @return the fetch size or zero
+	 */
+	int nextFetchSize(final int budgetBytes) {
+		if (!m_counting)
+			m_counting = true;
+		m_executions.incrementAndGet();
+		return getFetchSize(budgetBytes);
+	}
+	
+	/**
+	 * Returns the fetch size for a budget, or zero until a row was sampled
+	 * 
+	 * @param budgetBytes bytes to transfer per round trip
+	 * @return the fetch size or zero
+	 */
+	int getFetchSize(final int budgetBytes) {
+		final double avgRowBytes = getAvgRowBytes();
+		if (avgRowBytes <= 0)
+			return 0;
+		
+		/* Asking for more rows than an execution usually returns
+		 * would only make drivers allocate larger buffers
+		 */
+		final long executions = m_executions.get();
+		long fetchSize = (long)(budgetBytes / avgRowBytes);
+		if (executions > 0)
+			fetchSize = Math.min(fetchSize, m_rows.get() / executions + 1);
+		
+		return (int)Math.max(MinFetchSize, Math.min(MaxFetchSize, fetchSize));
+	}
+	
+	synchronized double getAvgRowBytes() {
+		return m_avgRowBytes;
+	}
+	
+	FetchSizeStatistics getStatistics(final int budgetBytes) {
+		return new FetchSizeStatistics(
+			m_rows.get(),
+			m_executions.get(),
+			getAvgRowBytes(),
+			(budgetBytes > 0) ? getFetchSize(budgetBytes) : 0
+		);
+	}
+	
+	/**
+	 * Estimates the heap size of a mapped column value
+	 */
+	private static long estimateBytes(final Object value) {
+		if (value == null)
+			return 0;
+		else if (value instanceof String)
+			return 40 + 2 * ((String)value).length();
+		else if (value instanceof byte[])
+			return 16 + ((byte[])value).length;
+		else if (value instanceof BigDecimal)
+			return 40 + ((BigDecimal)value).precision() / 2;
+		else if (value instanceof Enum)
+			return 0;
+		else if ((value instanceof Number) || (value instanceof Boolean) || (value instanceof Character))
+			return 16;
+		else if (value instanceof java.util.Date)
+			return 32;
+		else
+			return 64;
+	}
+}
@@ -0,0 +1,70 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of what the adaptive fetch size control learned
+ * about an operation's output rows.
+ *
+ * @see Executor#setFetchBudgetBytes(int)
+ * @see Executor#getFetchSizeStatistics(Class)
+ */
+public final class FetchSizeStatistics {
+	private final long m_rows;
+	private final long m_executions;
+	private final double m_avgRowBytes;
+	private final int m_fetchSize;
+	
+	FetchSizeStatistics(final long rows, final long executions, final double avgRowBytes, final int fetchSize) {
+		m_rows = rows;
+		m_executions = executions;
+		m_avgRowBytes = avgRowBytes;
+		m_fetchSize = fetchSize;
+	}
+	
+	/**
+	 * Returns the number of output rows mapped so far
+	 *
+	 * @return number of rows
+	 */
+	public long getRows() {
+		return m_rows;
+	}
+	
+	/**
+	 * Returns the number of executions whose fetch size was
+	 * controlled so far
+	 *
+	 * @return number of executions
+	 */
+	public long getExecutions() {
+		return m_executions;
+	}
+	
+	/**
+	 * Returns the estimated average width of a row in bytes,
+	 * or zero if no row was sampled yet
+	 *
+	 * @return average row width
+	 */
+	public double getAvgRowBytes() {
+		return m_avgRowBytes;
+	}
+	
+	/**
+	 * Returns the fetch size the next execution will use,
+	 * or zero for the driver's default
+	 *
+	 * @return the fetch size
+	 */
+	public int getFetchSize() {
+		return m_fetchSize;
+	}
+	
+	@Override
+	public String toString() {
+		return
+			"{rows: " + m_rows + "; " +
+			"executions: " + m_executions + "; " +
+			"avgRowBytes: " + m_avgRowBytes + "; " +
+			"fetchSize: " + m_fetchSize + "}";
+	}
+}
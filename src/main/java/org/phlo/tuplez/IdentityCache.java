@@ -0,0 +1,147 @@
+package org.phlo.tuplez;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Caches the rows returned by single-row lookups (see
+ * {@link OperationReturnsSingleRow}) within a {@link Session},
+ * so that repeated lookups of the same input return the
+ * same row without executing the statement again.
+ * <p>
+ * Rows are cached by the fingerprint of the bound statement (see
+ * {@link StatementPlan.Binding#getFingerprint()}), i.e. by the
+ * values the input's properties had when the lookup executed,
+ * not by the input object. Lookups whose parameter values have
+ * no fingerprint aren't cached.
+ * <p>
+ * Writes executed in the session invalidate the cached rows
+ * of the tables they declare (see {@link Tables}), or all
+ * cached rows if they declare none. Writes executed outside
+ * the session aren't seen.
+ * <p>
+ * Like sessions, instances aren't thread-safe.
+ */
+final class IdentityCache {
+	/* Stored for lookups which returned no row */
+	static final Object s_noRow = new Object();
+
+	/**
+	 * The cached rows of one operation
+	 */
+	private static final class Entries {
+		/* The tables the operation reads, lower case, or null if undeclared */
+		final Set<String> tables;
+
+		final Map<String, Object> rows = new HashMap<String, Object>();
+
+		Entries(final Set<String> _tables) {
+			tables = _tables;
+		}
+	}
+
+	private final Map<Class<?>, Entries> m_entries = new HashMap<Class<?>, Entries>();
+
+	private long m_hits = 0;
+	private long m_misses = 0;
+
+	/**
+	 * Returns the key to cache a lookup's row under, or null if
+	 * the lookup can't be cached.
+	 *
+	 * @param binding the lookup's bound statement
+	 * @param maxRows the lookup's row limit, or zero
+	 * @return the key or null
+	 */
+	static String getKey(final StatementPlan.Binding binding, final int maxRows) {
+		final String fingerprint = binding.getFingerprint();
+		return (fingerprint != null) ? maxRows + "\n" + fingerprint : null;
+	}
+
+	/**
+	 * Returns the cached row of an operation and key,
+	 * {@link #s_noRow} if the lookup returned no row,
+	 * or null if nothing is cached.
+	 *
+	 * @param opClass the operation's defining class/interface
+	 * @param key the lookup's key, see {@link #getKey}
+	 * @return the cached row, {@link #s_noRow} or null
+	 */
+	Object get(final Class<?> opClass, final String key) {
+		final Entries entries = m_entries.get(opClass);
+		final Object row = (entries != null) ? entries.rows.get(key) : null;
+		if (row != null)
+			m_hits += 1;
+		else
+			m_misses += 1;
+		return row;
+	}
+
+	/**
+	 * Caches the row of an operation and key.
+	 *
+	 * @param opClass the operation's defining class/interface
+	 * @param key the lookup's key, see {@link #getKey}
+	 * @param row the row, or null if the lookup returned no row
+	 */
+	void put(final Class<?> opClass, final String key, final Object row) {
+		Entries entries = m_entries.get(opClass);
+		if (entries == null) {
+			entries = new Entries(getTables(opClass));
+			m_entries.put(opClass, entries);
+		}
+		entries.rows.put(key, (row != null) ? row : s_noRow);
+	}
+
+	/**
+	 * Removes the cached rows a write may have changed.
+	 *
+	 * @param writerClass the write's defining class/interface
+	 */
+	void invalidate(final Class<?> writerClass) {
+		final Set<String> written = getTables(writerClass);
+		if (written == null) {
+			m_entries.clear();
+			return;
+		}
+
+		for(final Iterator<Entries> i = m_entries.values().iterator(); i.hasNext(); ) {
+			final Entries entries = i.next();
+			if ((entries.tables == null) || !Collections.disjoint(entries.tables, written))
+				i.remove();
+		}
+	}
+
+	/**
+	 * Removes all cached rows
+	 */
+	void clear() {
+		m_entries.clear();
+	}
+
+	long getHits() {
+		return m_hits;
+	}
+
+	long getMisses() {
+		return m_misses;
+	}
+
+	private static Set<String> getTables(final Class<?> opClass) {
+		final Tables tables = opClass.getAnnotation(Tables.class);
+		if (tables == null)
+			return null;
+
+		final Set<String> names = new HashSet<String>();
+		for(final String name: tables.value())
+			names.add(name.toLowerCase(Locale.ENGLISH));
+		return names;
+	}
+}
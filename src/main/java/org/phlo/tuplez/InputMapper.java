@@ -1,11 +1,18 @@
 package org.phlo.tuplez;
 
+import java.lang.reflect.Array;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
 
+import org.springframework.jdbc.core.SqlTypeValue;
 import org.springframework.jdbc.core.StatementCreatorUtils;
 import org.springframework.jdbc.core.namedparam.SqlParameterSource;
 import org.springframework.util.Assert;
@@ -32,6 +39,23 @@ import org.phlo.tuplez.operation.*;
  *      per-request) parameters into the query, i.e. parameter reflecting
  *      the permissions granted to the current user.
  * </ul>
+ * <p>
+ * Parameters whose getter returns a {@link Collection} or an array
+ * (other than byte[] and char[], which JDBC treats as scalars)
+ * are list parameters, meant to be used as {@code IN (:in.ids)}.
+ * Their values are padded to the next power of two by repeating
+ * the last element, before they are expanded into one placeholder
+ * per element. A statement thus only ever produces a handful of
+ * distinct SQL strings (and server-side plans), instead of one per
+ * list size. An empty list is bound as {@code IN (NULL)}, which
+ * matches nothing. Since {@code NOT IN (NULL)} would match nothing
+ * as well instead of everything, empty lists are rejected anywhere
+ * but directly inside {@code IN (...)}, see {@link StatementPlan}.
+ * <p>
+ * For databases supporting {@code = ANY(?)}, list parameters can
+ * instead be bound as a single JDBC array, see
+ * {@link Executor#setArrayParameters(boolean)}. {@link #rewriteStatement(String)}
+ * then rewrites {@code IN (:param)} to {@code = ANY(:param)}.
  * @author fgp
  *
  * @param <InputType>
@@ -40,52 +64,16 @@ final class InputMapper<InputType> {
 	/**
 	 * Input mapper instance cache
 	 */
-	private static final ConcurrentMap<ID<?>, InputMapper<?>> s_inputMappers =
-		new java.util.concurrent.ConcurrentHashMap<ID<?>, InputMapper<?>>();
-
-	/**
-	 * Encapsulates the identifying parameters of a ResultSetMapper instance.
-	 */
-	static private final class ID<InputType> {
-		final public Class<? extends Operation<InputType, ?>> opClass;
-		final private Class<?> defaultInputClass;
-		
-		ID(
-			final Class<? extends Operation<InputType, ?>> _opClass,
-			final Class<?> _defaultInputClass
-		) {
-			assert _opClass != null;
-			assert _defaultInputClass != null;
-			
-			opClass = _opClass;
-			defaultInputClass = _defaultInputClass;
-		}
-			
-		@Override
-		public int hashCode() {
-			return
-			opClass.hashCode() ^
-			defaultInputClass.hashCode();
+	private static final ClassCache<InputMapper<?>> s_inputMappers = new ClassCache<InputMapper<?>>() {
+		@SuppressWarnings("unchecked")
+		@Override protected InputMapper<?> create(final Class<?> opClass, final Class<?> defaultInputClass, final Object context) {
+			return new InputMapper((Class<? extends Operation<?, ?>>)opClass, defaultInputClass);
 		}
+	};
 
-		@Override
-		public boolean equals(Object other) {
-			if (this == other)
-				return true;
-			if (!(other instanceof ID))
-				return false;
-			
-			ID<?> otherID = (ID<?>)other;
-			if (!opClass.equals(otherID.opClass))
-				return false;
-			if (!defaultInputClass.equals(otherID.defaultInputClass))
-				return false;
-			return true;
-		}
-	}
-	
 	/**
-	 * Factory methods for InputMapper instances
+	 * Factory methods for InputMapper instances. Concurrent
+	 * first calls create a single instance.
 	 * 
 	 * @param <InputType> InputType of the {@link Operation}
 	 * @param opClass The concrete {@link Operation}
@@ -95,15 +83,8 @@ final class InputMapper<InputType> {
 		final Class<? extends Operation<InputType, ?>> opClass,
 		final Class<?> defaultInputClass
 	) {
-		ID<InputType> imID = new ID<InputType>(opClass, defaultInputClass);
-		
 		@SuppressWarnings("unchecked")
-		InputMapper<InputType> inputMapper = (InputMapper<InputType>)s_inputMappers.get(imID);
-		if (inputMapper == null) {
-			inputMapper = new InputMapper<InputType>(opClass, defaultInputClass);
-			s_inputMappers.put(imID, inputMapper);
-		}
-		
+		InputMapper<InputType> inputMapper = (InputMapper<InputType>)s_inputMappers.get(opClass, defaultInputClass);
 		return inputMapper;
 	}
 	
@@ -125,8 +106,57 @@ final class InputMapper<InputType> {
 		Method getterMethod;
 		int jdbcSqlType;
 		boolean transformToString;
+		
+		/* List parameters only. elementClass is null for collections,
+		 * whose element type isn't known until the values are seen
+		 */
+		boolean isList;
+		Class<?> elementClass;
+		boolean transformElementsToString;
+	}
+	
+	/**
+	 * Maps (boxed) element types of list parameters to the SQL type
+	 * names passed to {@link java.sql.Connection#createArrayOf}
+	 */
+	private static final Map<Class<?>, String> s_arrayElementTypeNames = new java.util.HashMap<Class<?>, String>();
+	static {
+		s_arrayElementTypeNames.put(Boolean.class, "boolean");
+		s_arrayElementTypeNames.put(Short.class, "smallint");
+		s_arrayElementTypeNames.put(Integer.class, "integer");
+		s_arrayElementTypeNames.put(Long.class, "bigint");
+		s_arrayElementTypeNames.put(Float.class, "real");
+		s_arrayElementTypeNames.put(Double.class, "float");
+		s_arrayElementTypeNames.put(java.math.BigDecimal.class, "decimal");
+		s_arrayElementTypeNames.put(String.class, "varchar");
+		s_arrayElementTypeNames.put(java.sql.Date.class, "date");
+		s_arrayElementTypeNames.put(java.sql.Time.class, "time");
+		s_arrayElementTypeNames.put(java.sql.Timestamp.class, "timestamp");
 	}
 	
+	/**
+	 * Boxed counterparts of the primitive types
+	 */
+	private static final Map<Class<?>, Class<?>> s_boxedTypes = new java.util.HashMap<Class<?>, Class<?>>();
+	static {
+		s_boxedTypes.put(Boolean.TYPE, Boolean.class);
+		s_boxedTypes.put(Byte.TYPE, Byte.class);
+		s_boxedTypes.put(Short.TYPE, Short.class);
+		s_boxedTypes.put(Integer.TYPE, Integer.class);
+		s_boxedTypes.put(Long.TYPE, Long.class);
+		s_boxedTypes.put(Float.TYPE, Float.class);
+		s_boxedTypes.put(Double.TYPE, Double.class);
+	}
+	
+	/**
+	 * Maximal number of rewritten statements cached by
+	 * {@link #rewriteStatement(String)}. Statement computed
+	 * by {@link OperationStatementIsComputed} may produce
+	 * arbitrary many distinct statements, so the cache
+	 * must be bounded.
+	 */
+	private static final int s_rewrittenStatementsCacheLimit = 256;
+	
 	/**
 	 * The operation's class
 	 */
@@ -149,6 +179,20 @@ final class InputMapper<InputType> {
 	private final Map<String, FieldMetaData> m_fields =
 		new java.util.HashMap<String, FieldMetaData>();
 	
+	/**
+	 * Patterns matching {@code IN (:param)} respectively {@code NOT IN (:param)}
+	 * for list parameters, used by {@link #rewriteStatement(String)}.
+	 * Empty if the operation has no list parameters.
+	 */
+	private final Map<Pattern, String> m_listRewrites =
+		new java.util.LinkedHashMap<Pattern, String>();
+	
+	/**
+	 * Statements already rewritten by {@link #rewriteStatement(String)}
+	 */
+	private final ConcurrentMap<String, String> m_rewrittenStatements =
+		new java.util.concurrent.ConcurrentHashMap<String, String>();
+	
 
 	/**
 	 * Constructs an InputMapper instance for a concrete {@link Operation}
@@ -182,12 +226,51 @@ final class InputMapper<InputType> {
 		inWholeMetaData.fieldClass = m_inputClass;
 		computeTypes(inWholeMetaData);
 		m_fields.put("in", inWholeMetaData);
+		
+		/* Prepare IN-list rewrites for list parameters. NOT IN must
+		 * be rewritten first, otherwise the IN pattern would match
+		 * its tail
+		 */
+		for(Map.Entry<String, FieldMetaData> field: m_fields.entrySet()) {
+			if (!field.getValue().isList)
+				continue;
+			
+			final String param = Pattern.quote(":" + field.getKey());
+			m_listRewrites.put(
+				Pattern.compile("(?i)\\bNOT\\s+IN\\s*\\(\\s*(" + param + ")\\s*\\)"),
+				"<> ALL($1)"
+			);
+		}
+		for(Map.Entry<String, FieldMetaData> field: m_fields.entrySet()) {
+			if (!field.getValue().isList)
+				continue;
+			
+			final String param = Pattern.quote(":" + field.getKey());
+			m_listRewrites.put(
+				Pattern.compile("(?i)\\bIN\\s*\\(\\s*(" + param + ")\\s*\\)"),
+				"= ANY($1)"
+			);
+		}
 	}
 	
 	public boolean isInputVoid() {
 		return m_inputClass.equals(Void.class);
 	}
 	
+	/**
+	 * Returns whether the operation's input is a number, i.e.
+	 * whether a primitive long or int may be passed as input.
+	 * 
+	 * @return whether the input type is numeric
+	 */
+	public boolean isInputNumeric() {
+		return Number.class.isAssignableFrom(m_inputClass) || m_inputClass.equals(Object.class);
+	}
+	
+	public Class<InputType> getInputClass() {
+		return m_inputClass;
+	}
+	
 	private boolean addField(Scope scope, Method method) {
 		assert (scope == Scope.DEFAULT) || (scope == Scope.IN);
 		
@@ -230,10 +313,34 @@ final class InputMapper<InputType> {
 	private void computeTypes(FieldMetaData fieldMeta) {
 		/* We use jdbcTemplate's default mapping from Java types
 		 * to SQL types except for Enums, which we special-case
-		 * by converting them to strings
+		 * by converting them to strings, and for list parameters,
+		 * whose SQL type is their element's SQL type
 		 */
 		
-		if (fieldMeta.fieldClass.isEnum()) {
+		if (Collection.class.isAssignableFrom(fieldMeta.fieldClass)) {
+			fieldMeta.isList = true;
+			fieldMeta.jdbcSqlType = SqlTypeValue.TYPE_UNKNOWN;
+		}
+		else if (
+			fieldMeta.fieldClass.isArray() &&
+			!fieldMeta.fieldClass.equals(byte[].class) &&
+			!fieldMeta.fieldClass.equals(char[].class)
+		) {
+			fieldMeta.isList = true;
+			Class<?> elementClass = fieldMeta.fieldClass.getComponentType();
+			if (s_boxedTypes.containsKey(elementClass))
+				elementClass = s_boxedTypes.get(elementClass);
+			fieldMeta.elementClass = elementClass;
+			
+			if (elementClass.isEnum()) {
+				fieldMeta.jdbcSqlType = java.sql.Types.VARCHAR;
+				fieldMeta.transformElementsToString = true;
+			}
+			else {
+				fieldMeta.jdbcSqlType = StatementCreatorUtils.javaTypeToSqlParameterType(elementClass);
+			}
+		}
+		else if (fieldMeta.fieldClass.isEnum()) {
 			fieldMeta.jdbcSqlType = java.sql.Types.VARCHAR;
 			fieldMeta.transformToString = true;
 		}
@@ -242,107 +349,301 @@ final class InputMapper<InputType> {
 		}
 	}
 	
-	public SqlParameterSource mapInput(final Object defaultInput) {
+	/**
+	 * Rewrites {@code IN (:param)} to {@code = ANY(:param)} and
+	 * {@code NOT IN (:param)} to {@code <> ALL(:param)} for list
+	 * parameters. Used if list parameters are bound as JDBC arrays.
+	 * 
+	 * @param statement the operation's statement
+	 * @return the rewritten statement
+	 */
+	public String rewriteStatement(final String statement) {
+		if (m_listRewrites.isEmpty() || (statement == null))
+			return statement;
+		
+		String rewritten = m_rewrittenStatements.get(statement);
+		if (rewritten != null)
+			return rewritten;
+		
+		rewritten = statement;
+		for(Map.Entry<Pattern, String> rewrite: m_listRewrites.entrySet())
+			rewritten = rewrite.getKey().matcher(rewritten).replaceAll(rewrite.getValue());
+		
+		if (m_rewrittenStatements.size() < s_rewrittenStatementsCacheLimit)
+			m_rewrittenStatements.put(statement, rewritten);
+		
+		return rewritten;
+	}
+	
+	public SqlParameterSource mapInput(final Object defaultInput, final boolean arrayParameters) {
 		if (!m_inputClass.equals(Void.class))
 			throw new UnsupportedOperationException("mapInput(Object defaultInput) not supported for operations with non-void input");
 		
-		return mapInput(null, defaultInput);
+		return mapInput(null, defaultInput, arrayParameters);
 	}
 	
-	public SqlParameterSource mapInput(final InputType input, final Object defaultInput) {
+	public SqlParameterSource mapInput(final InputType input, final Object defaultInput, final boolean arrayParameters) {
 		if (m_defaultInputClass != null)
 			Assert.notNull(defaultInput, "Default input must not be null");
 		
-		return new SqlParameterSource() {
-			@Override
-			public boolean hasValue(String paramName) {
-				return m_fields.containsKey(paramName);
-			}
+		return new MappedInput(input, defaultInput, arrayParameters);
+	}
+	
+	/**
+	 * The parameter values of an input, fetched from the input's
+	 * (and the default input's) getters on demand
+	 */
+	final class MappedInput implements SqlParameterSource {
+		private final InputType m_input;
+		private final Object m_defaultInput;
+		private final boolean m_arrayParameters;
+		
+		MappedInput(final InputType input, final Object defaultInput, final boolean arrayParameters) {
+			m_input = input;
+			m_defaultInput = defaultInput;
+			m_arrayParameters = arrayParameters;
+		}
+		
+		@Override
+		public boolean hasValue(String paramName) {
+			return m_fields.containsKey(paramName);
+		}
+
+		@Override
+		public Object getValue(String paramName) throws IllegalArgumentException {
+			final FieldMetaData fieldMeta = getFieldMetaData(paramName);
+			Object value = getRawValue(paramName, fieldMeta);
+			
+			/* Apply post-processing if necessary */
 
-			@Override
-			public Object getValue(String paramName) throws IllegalArgumentException {
-				/* Complain if the field is not defined */
-				FieldMetaData fieldMeta = m_fields.get(paramName);
-				if (fieldMeta == null)
-					throw new IllegalArgumentException("No getter for parameter " + paramName + " in " + m_inputClass);
+			if (fieldMeta.transformToString && (value != null))
+				value = value.toString();
+			
+			if (fieldMeta.isList) {
+				if (value == null) {
+					throw new InvalidOperationExecutionException(
+						"list parameter " + paramName + " was null",
+						m_opClass
+					);
+				}
 				
-				/* Get field value */
-				Object value;
-				try {
-					switch (fieldMeta.scope) {
-						case IN_WHOLE:
-							value = input;
-							break;
-							
-						case IN:
-							if (input == null) {
-								throw new InvalidOperationExecutionException(
-									"operation uses field " + paramName + ", " +
-									"but the whole input was null",
-									m_opClass
-								);
-							}
-							value = fieldMeta.getterMethod.invoke(input);
-							break;
-						
-						case DEFAULT:
-							if (defaultInput == null) {
-								throw new InvalidOperationExecutionException(
-									"operation uses default input but none was set",
-									m_opClass
-								);
-							}
-							value = fieldMeta.getterMethod.invoke(defaultInput);
-							break;
+				if (m_arrayParameters)
+					value = new ArrayParameter(fieldMeta, toList(fieldMeta, value));
+				else
+					value = padToBucket(toList(fieldMeta, value));
+			}
+			
+			return value;
+		}
+
+		@Override
+		public int getSqlType(String paramName) {
+			FieldMetaData fieldMeta = m_fields.get(paramName);
+			if (fieldMeta != null)
+				return fieldMeta.jdbcSqlType;
+			else
+				return TYPE_UNKNOWN;
+		}
+
+		@Override
+		public String getTypeName(String paramName) {
+			/* Don't know what to return here, and it
+			 * doesn't seem to be called anyway...
+			 */
+			return null;
+		}
+		
+		/**
+		 * Returns whether a parameter is absent, i.e. null or, for list
+		 * parameters, an empty list. Used to decide which optional clauses
+		 * of a {@link StatementTemplate} apply, without failing for the
+		 * null lists {@link #getValue(String)} rejects.
+		 * 
+		 * @param paramName the parameter's name
+		 * @return whether the parameter is absent
+		 */
+		boolean isAbsent(final String paramName) {
+			final FieldMetaData fieldMeta = getFieldMetaData(paramName);
+			final Object value = getRawValue(paramName, fieldMeta);
+			if (value == null)
+				return true;
+			else if (!fieldMeta.isList)
+				return false;
+			else if (value instanceof Collection)
+				return ((Collection<?>)value).isEmpty();
+			else
+				return (Array.getLength(value) == 0);
+		}
+		
+		private FieldMetaData getFieldMetaData(final String paramName) {
+			/* Complain if the field is not defined */
+			final FieldMetaData fieldMeta = m_fields.get(paramName);
+			if (fieldMeta == null)
+				throw new IllegalArgumentException("No getter for parameter " + paramName + " in " + m_inputClass);
+			return fieldMeta;
+		}
+		
+		/**
+		 * Invokes a parameter's getter, without post-processing its value
+		 */
+		private Object getRawValue(final String paramName, final FieldMetaData fieldMeta) {
+			/* Get field value */
+			final Object value;
+			try {
+				switch (fieldMeta.scope) {
+					case IN_WHOLE:
+						value = m_input;
+						break;
 						
-						default:
-							throw new RuntimeException("invalid parameter scope " + fieldMeta.scope);
-					}
+					case IN:
+						if (m_input == null) {
+							throw new InvalidOperationExecutionException(
+								"operation uses field " + paramName + ", " +
+								"but the whole input was null",
+								m_opClass
+							);
+						}
+						value = fieldMeta.getterMethod.invoke(m_input);
+						break;
+					
+					case DEFAULT:
+						if (m_defaultInput == null) {
+							throw new InvalidOperationExecutionException(
+								"operation uses default input but none was set",
+								m_opClass
+							);
+						}
+						value = fieldMeta.getterMethod.invoke(m_defaultInput);
+						break;
+					
+					default:
+						throw new RuntimeException("invalid parameter scope " + fieldMeta.scope);
 				}
-				catch (IllegalAccessException e) {
+			}
+			catch (IllegalAccessException e) {
+				throw new InvalidOperationDefinitionException(
+					"Getter for input parameter " + paramName + " " +
+					"could not be invoked",
+					m_opClass,
+					e
+				);
+			}
+			catch (InvocationTargetException e) {
+				if (e.getTargetException() instanceof RuntimeException)
+					throw (RuntimeException)e.getTargetException();
+				else
 					throw new InvalidOperationDefinitionException(
 						"Getter for input parameter " + paramName + " " +
-						"could not be invoked",
+						"failed",
 						m_opClass,
 						e
 					);
-				}
-				catch (InvocationTargetException e) {
-					if (e.getTargetException() instanceof RuntimeException)
-						throw (RuntimeException)e.getTargetException();
-					else
-						throw new InvalidOperationDefinitionException(
-							"Getter for input parameter " + paramName + " " +
-							"failed",
-							m_opClass,
-							e
-						);
-				}
-				
-				/* Apply post-processing if necessary */
-
-				if (fieldMeta.transformToString && (value != null))
-					value = value.toString();
-				
-				return value;
 			}
-
-			@Override
-			public int getSqlType(String paramName) {
-				FieldMetaData fieldMeta = m_fields.get(paramName);
-				if (fieldMeta != null)
-					return fieldMeta.jdbcSqlType;
-				else
-					return TYPE_UNKNOWN;
-			}
-
-			@Override
-			public String getTypeName(String paramName) {
-				/* Don't know what to return here, and it
-				 * doesn't seem to be called anyway...
-				 */
-				return null;
+			
+			return value;
+		}
+	}
+	
+	/**
+	 * Converts the value of a list parameter to a {@link List}
+	 * of boxed elements, applying the enum to string conversion
+	 * to each element if necessary
+	 */
+	private static List<Object> toList(final FieldMetaData fieldMeta, final Object value) {
+		final List<Object> list;
+		if (value instanceof long[]) {
+			final long[] values = (long[])value;
+			list = new java.util.ArrayList<Object>(values.length);
+			for(long v: values)
+				list.add(v);
+		}
+		else if (value instanceof int[]) {
+			final int[] values = (int[])value;
+			list = new java.util.ArrayList<Object>(values.length);
+			for(int v: values)
+				list.add(v);
+		}
+		else if (value instanceof Collection) {
+			list = new java.util.ArrayList<Object>((Collection<?>)value);
+		}
+		else {
+			final int length = Array.getLength(value);
+			list = new java.util.ArrayList<Object>(length);
+			for(int i = 0; i < length; ++i)
+				list.add(Array.get(value, i));
+		}
+		
+		for(int i = 0; i < list.size(); ++i) {
+			Object element = list.get(i);
+			if ((element instanceof Enum) || (fieldMeta.transformElementsToString && (element != null)))
+				list.set(i, element.toString());
+		}
+		
+		return list;
+	}
+	
+	/**
+	 * Pads a list to the next power of two by repeating its
+	 * last element, which doesn't change the outcome of an
+	 * {@code IN (...)} test. Empty lists are left empty, see
+	 * {@link StatementPlan#bind(SqlParameterSource)}.
+	 */
+	static List<Object> padToBucket(final List<Object> list) {
+		if (list.isEmpty())
+			return list;
+		
+		final int size = list.size();
+		final int bucket = (Integer.bitCount(size) == 1) ? size : Integer.highestOneBit(size) << 1;
+		final Object last = list.get(size - 1);
+		while (list.size() < bucket)
+			list.add(last);
+		
+		return list;
+	}
+	
+	/**
+	 * Binds a list parameter as a single JDBC array
+	 */
+	static final class ArrayParameter implements SqlTypeValue {
+		private final FieldMetaData m_fieldMeta;
+		private final List<Object> m_elements;
+		
+		ArrayParameter(final FieldMetaData fieldMeta, final List<Object> elements) {
+			m_fieldMeta = fieldMeta;
+			m_elements = elements;
+		}
+		
+		/**
+		 * Returns the array's elements
+		 * 
+		 * @return the elements
+		 */
+		List<Object> getElements() {
+			return m_elements;
+		}
+		
+		@Override
+		public void setTypeValue(PreparedStatement ps, int paramIndex, int sqlType, String typeName) throws SQLException {
+			/* Determine the element type, from the declared array type
+			 * if possible, otherwise from the first non-null element
+			 */
+			Class<?> elementClass = m_fieldMeta.elementClass;
+			if (m_fieldMeta.transformElementsToString)
+				elementClass = String.class;
+			if (elementClass == null) {
+				for(Object element: m_elements) {
+					if (element != null) {
+						elementClass = element.getClass();
+						break;
+					}
+				}
 			}
-		};
+			
+			String elementTypeName = (elementClass != null) ? s_arrayElementTypeNames.get(elementClass) : null;
+			if (elementTypeName == null)
+				elementTypeName = "varchar";
+			
+			ps.setArray(paramIndex, ps.getConnection().createArrayOf(elementTypeName, m_elements.toArray()));
+		}
 	}
 }
@@ -2,10 +2,11 @@ package org.phlo.tuplez;
 
 import java.math.BigDecimal;
 import java.math.BigInteger;
-import java.util.concurrent.ConcurrentMap;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 
+import org.springframework.dao.DataRetrievalFailureException;
 import org.springframework.dao.InvalidDataAccessApiUsageException;
-import org.springframework.jdbc.support.KeyHolder;
 
 import org.phlo.tuplez.operation.*;
 
@@ -13,7 +14,12 @@ final class KeyMapper<KeyType extends Number> {
 	/**
 	 * Statement mapper instance cache
 	 */
-	private static final ConcurrentMap<Class<? extends Operation<?, Void>>, KeyMapper<? extends Number>> s_keyMappers = new java.util.concurrent.ConcurrentHashMap<Class<? extends Operation<?, Void>>, KeyMapper<? extends Number>>();
+	private static final ClassCache<KeyMapper<? extends Number>> s_keyMappers = new ClassCache<KeyMapper<? extends Number>>() {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		@Override protected KeyMapper<? extends Number> create(final Class<?> opClass, final Class<?> key, final Object context) {
+			return new KeyMapper((Class)opClass);
+		}
+	};
 
 	/**
 	 * Factory methods for StatementMapper instances
@@ -32,19 +38,19 @@ final class KeyMapper<KeyType extends Number> {
 	{
 		@SuppressWarnings("unchecked")
 		KeyMapper<KeyType> keyMapper = (KeyMapper<KeyType>)s_keyMappers.get(opClass);
-		if (keyMapper == null) {
-			keyMapper = new KeyMapper<KeyType>(opClass);
-			s_keyMappers.put(opClass, keyMapper);
-		}
-		
 		return keyMapper;
 	}
 	
+	/**
+	 * Reads the generated key from the first column of the
+	 * current row of a generated keys {@link ResultSet}.
+	 */
 	private static interface KeyExtractor<KeyType extends Number> {
-		KeyType extractKey(KeyHolder keyHolder);
+		KeyType extractKey(ResultSet keys) throws SQLException;
 	}
 	
 	private final KeyColumn m_generatedKeyAnnotation;
+	private final String[] m_generatedKeyColumns;
 	private final KeyExtractor<? extends Number> m_keyExtractor;
 	
 	public <
@@ -55,6 +61,10 @@ final class KeyMapper<KeyType extends Number> {
 	{
 		/* Get generated key columns */
 		m_generatedKeyAnnotation = opClass.getAnnotation(KeyColumn.class);
+		if (m_generatedKeyAnnotation != null)
+			m_generatedKeyColumns = new String[] { m_generatedKeyAnnotation.value() };
+		else
+			m_generatedKeyColumns = null;
 
 		/* Get declared key type */
 		Class<KeyType> keyType = OperationMetaData.getKeyClass(opClass);
@@ -64,38 +74,38 @@ final class KeyMapper<KeyType extends Number> {
 		if (Short.class.isAssignableFrom(keyType)) {
 			m_keyExtractor = new KeyExtractor<Short>() {
 				@Override
-				public Short extractKey(KeyHolder keyHolder) {
-					return keyHolder.getKey().shortValue();
+				public Short extractKey(ResultSet keys) throws SQLException {
+					return keys.getShort(1);
 				}
 			};
 		}
 		else if (Integer.class.isAssignableFrom(keyType)) {
 			m_keyExtractor = new KeyExtractor<Integer>() {
 				@Override
-				public Integer extractKey(KeyHolder keyHolder) {
-					return keyHolder.getKey().intValue();
+				public Integer extractKey(ResultSet keys) throws SQLException {
+					return keys.getInt(1);
 				}
 			};
 		}
 		else if (Long.class.isAssignableFrom(keyType)) {
 			m_keyExtractor = new KeyExtractor<Long>() {
 				@Override
-				public Long extractKey(KeyHolder keyHolder) {
-					return keyHolder.getKey().longValue();
+				public Long extractKey(ResultSet keys) throws SQLException {
+					return keys.getLong(1);
 				}
 			};
 		}
 		else if (BigInteger.class.isAssignableFrom(keyType)) {
 			m_keyExtractor = new KeyExtractor<BigInteger>() {
 				@Override
-				public BigInteger extractKey(KeyHolder keyHolder) {
-					Number key = keyHolder.getKey();
+				public BigInteger extractKey(ResultSet keys) throws SQLException {
+					Object key = keys.getObject(1);
 					if (key instanceof BigInteger)
 						return (BigInteger)key;
 					else
 						throw new InvalidDataAccessApiUsageException(
 							"Generated key is declared to be a BigInteger " +
-							"but it's actually an " + key.getClass().getName()
+							"but it's actually an " + ((key != null) ? key.getClass().getName() : "null")
 						);
 				}
 			};
@@ -103,15 +113,8 @@ final class KeyMapper<KeyType extends Number> {
 		else if (BigDecimal.class.isAssignableFrom(keyType)) {
 			m_keyExtractor = new KeyExtractor<BigDecimal>() {
 				@Override
-				public BigDecimal extractKey(KeyHolder keyHolder) {
-					Number key = keyHolder.getKey();
-					if (key instanceof BigDecimal)
-						return (BigDecimal)key;
-					else
-						throw new InvalidDataAccessApiUsageException(
-							"Generated key is declared to be a BigDecimal " +
-							"but it's actually an " + key.getClass().getName()
-						);
+				public BigDecimal extractKey(ResultSet keys) throws SQLException {
+					return keys.getBigDecimal(1);
 				}
 			};
 		}
@@ -121,15 +124,72 @@ final class KeyMapper<KeyType extends Number> {
 			);
 	}
 	
+	/**
+	 * Returns the generated key columns, or null if
+	 * the driver should decide. The returned array must
+	 * not be modified.
+	 * 
+	 * @return the generated key columns or null
+	 */
 	public String[] getGeneratedKeyColumns() {
-		if (m_generatedKeyAnnotation == null)
-			return null;
-		else
-			return new String[] { m_generatedKeyAnnotation.value() };
+		return m_generatedKeyColumns;
 	}
 	
+	/**
+	 * Reads the single generated key using the extractor
+	 * for the operation's declared key type.
+	 * 
+	 * @param keys the statement's generated keys
+	 * @return the generated key
+	 * @throws SQLException if reading the key fails
+	 */
 	@SuppressWarnings("unchecked")
-	public KeyType mapKey(KeyHolder keyHolder) {
-		return (KeyType)m_keyExtractor.extractKey(keyHolder);
+	public KeyType mapKey(final ResultSet keys) throws SQLException {
+		moveToSingleKey(keys);
+		KeyType key = (KeyType)m_keyExtractor.extractKey(keys);
+		checkSingleKey(keys);
+		return key;
+	}
+	
+	/**
+	 * Reads the single generated key as a primitive long,
+	 * regardless of the operation's declared key type.
+	 * 
+	 * @param keys the statement's generated keys
+	 * @return the generated key
+	 * @throws SQLException if reading the key fails
+	 */
+	public long mapKeyAsLong(final ResultSet keys) throws SQLException {
+		moveToSingleKey(keys);
+		long key = keys.getLong(1);
+		checkSingleKey(keys);
+		return key;
+	}
+	
+	/**
+	 * Reads the single generated key as a primitive int,
+	 * regardless of the operation's declared key type.
+	 * 
+	 * @param keys the statement's generated keys
+	 * @return the generated key
+	 * @throws SQLException if reading the key fails
+	 */
+	public int mapKeyAsInt(final ResultSet keys) throws SQLException {
+		moveToSingleKey(keys);
+		int key = keys.getInt(1);
+		checkSingleKey(keys);
+		return key;
+	}
+	
+	private static void moveToSingleKey(final ResultSet keys) throws SQLException {
+		if ((keys == null) || !keys.next())
+			throw new DataRetrievalFailureException("Statement returned no generated key");
+	}
+	
+	private static void checkSingleKey(final ResultSet keys) throws SQLException {
+		if (keys.wasNull())
+			throw new DataRetrievalFailureException("Statement returned a null generated key");
+		if (keys.next())
+			throw new InvalidDataAccessApiUsageException("Statement returned more than one generated key");
 	}
 }
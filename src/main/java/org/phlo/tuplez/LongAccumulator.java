@@ -0,0 +1,9 @@
+package org.phlo.tuplez;
+
+/**
+ * Accumulator for the values of a single column, read
+ * as primitive longs by foldLong().
+ */
+public interface LongAccumulator {
+	public long accumulate(long accumulated, long value);
+}
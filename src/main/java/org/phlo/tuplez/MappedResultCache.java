@@ -0,0 +1,669 @@
+package org.phlo.tuplez;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+import org.springframework.dao.DataAccessResourceFailureException;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Persistent cache of the results of operations annotated with
+ * {@link ResultCached}, stored outside of the Java heap in
+ * memory-mapped files.
+ * <p>
+ * The cache directory contains a fixed number of equally sized
+ * segment files. Results are appended to the current segment.
+ * Once it is full, the oldest segment is emptied and becomes the
+ * current one, evicting the results it held. Expired and replaced
+ * results thus occupy space until their segment is reused.
+ * <p>
+ * Each record carries a checksum, and is published by writing its
+ * length last. Opening the cache scans the segments oldest first
+ * to rebuild the in-memory index of the results. The scan of a
+ * segment stops at the first incomplete or corrupt record, i.e.
+ * at a record whose write was interrupted by a crash, and new
+ * records overwrite it.
+ * <p>
+ * Results are keyed by the operation, a fingerprint of its output
+ * type and {@link ResultCached#schema()}, the executed statement
+ * and the parameter values (see {@link #getKey(Class, StatementPlan.Binding, int)}).
+ * Executions with parameter values whose type has no known canonical
+ * representation (see {@link StatementPlan.Binding#getFingerprint()})
+ * aren't cached.
+ * <p>
+ * Instances are created by {@link Executor#getResultCache()} and
+ * are thread-safe. The directory is locked while the cache is open.
+ */
+final class MappedResultCache {
+	/* "TPLZ", the first bytes of each segment */
+	private static final int s_magic = 0x54504c5a;
+	private static final int s_formatVersion = 1;
+
+	private static final int s_segmentCount = 4;
+
+	/* Magic, format version and generation */
+	private static final int s_segmentHeaderBytes = 16;
+
+	/* Length and checksum, followed by the expiry time, the key's length, the key and the value */
+	private static final int s_recordHeaderBytes = 8;
+	private static final int s_recordFixedBytes = 12;
+
+	private static final Charset s_utf8 = Charset.forName("UTF-8");
+
+	/**
+	 * Fingerprints of the operations' output types, see {@link ResultCached#schema()}
+	 */
+	private static final ClassCache<String> s_schemas = new ClassCache<String>() {
+		@SuppressWarnings({"unchecked", "rawtypes"})
+		@Override protected String create(final Class<?> opClass, final Class<?> key, final Object context) {
+			final ResultCached resultCached = opClass.getAnnotation(ResultCached.class);
+			final StringBuilder b = new StringBuilder((resultCached != null) ? resultCached.schema() : "");
+
+			final Class<?> outputClass = OperationMetaData.getOutputClass((Class)opClass);
+			b.append('|');
+			b.append(outputClass.getName());
+			if (outputClass.isInterface()) {
+				final List<String> getters = new ArrayList<String>();
+				for(final Method method: outputClass.getMethods()) {
+					if (method.getParameterTypes().length == 0)
+						getters.add(method.getName() + ":" + method.getReturnType().getName());
+				}
+				Collections.sort(getters);
+				for(final String getter: getters) {
+					b.append(';');
+					b.append(getter);
+				}
+			}
+			return b.toString();
+		}
+	};
+
+	/**
+	 * A cached row which was a proxy created by {@link ResultSetMapper}
+	 */
+	private static final class ProxyRow implements Serializable {
+		private static final long serialVersionUID = 1L;
+
+		final String outputClassName;
+		final HashMap<String, Object> values;
+		final ArrayList<String> getterOrder;
+
+		ProxyRow(final String outputClassName, final HashMap<String, Object> values, final ArrayList<String> getterOrder) {
+			this.outputClassName = outputClassName;
+			this.values = values;
+			this.getterOrder = getterOrder;
+		}
+	}
+
+	/**
+	 * Location of a cached result's value
+	 */
+	private static final class Entry {
+		final int segment;
+		final int valueOffset;
+		final int valueLength;
+		final long expiresAt;
+
+		Entry(final int segment, final int valueOffset, final int valueLength, final long expiresAt) {
+			this.segment = segment;
+			this.valueOffset = valueOffset;
+			this.valueLength = valueLength;
+			this.expiresAt = expiresAt;
+		}
+	}
+
+	/**
+	 * A segment file and its mapping
+	 */
+	private static final class Segment {
+		final RandomAccessFile file;
+		final MappedByteBuffer buffer;
+		long generation;
+
+		/* Offset of the next record */
+		int position = s_segmentHeaderBytes;
+
+		Segment(final RandomAccessFile file, final MappedByteBuffer buffer) {
+			this.file = file;
+			this.buffer = buffer;
+		}
+	}
+
+	private final File m_directory;
+	private final int m_segmentBytes;
+
+	private final RandomAccessFile m_lockFile;
+	private final FileLock m_lock;
+
+	/* Guarded by this, like all fields below */
+	private final Segment[] m_segments = new Segment[s_segmentCount];
+	private final Map<String, Entry> m_entries = new HashMap<String, Entry>();
+	private int m_current = 0;
+	private long m_nextGeneration = 1;
+	private boolean m_closed = false;
+	private long m_puts = 0;
+	private long m_evictions = 0;
+	private long m_expirations = 0;
+	private int m_recovered = 0;
+	private int m_discarded = 0;
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_rejected = new AtomicLong();
+
+	/**
+	 * Opens the cache stored in a directory, creating the directory
+	 * and its files if necessary. Changing maxBytes discards the
+	 * cached results.
+	 *
+	 * @param directory the directory containing the cache
+	 * @param maxBytes the size of the cache's files
+	 * @throws IllegalStateException if the directory is in use by another cache
+	 * @throws DataAccessResourceFailureException if the files cannot be opened
+	 */
+	MappedResultCache(final File directory, final long maxBytes) {
+		m_directory = directory;
+		m_segmentBytes = (int)Math.min(Integer.MAX_VALUE, maxBytes / s_segmentCount);
+
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new DataAccessResourceFailureException("unable to create result cache directory " + directory);
+
+		FileLock lock = null;
+		try {
+			m_lockFile = new RandomAccessFile(new File(directory, "tuplez-results.lock"), "rw");
+			try {
+				lock = m_lockFile.getChannel().tryLock();
+			}
+			catch (OverlappingFileLockException e) {
+				/* Locked by this JVM */
+			}
+		}
+		catch (IOException e) {
+			throw new DataAccessResourceFailureException("unable to lock result cache directory " + directory, e);
+		}
+		m_lock = lock;
+		if (m_lock == null) {
+			closeQuietly(m_lockFile);
+			throw new IllegalStateException("result cache directory " + directory + " is in use");
+		}
+
+		try {
+			for(int i=0; i < s_segmentCount; ++i)
+				m_segments[i] = openSegment(new File(directory, "tuplez-results-" + i + ".seg"));
+		}
+		catch (IOException e) {
+			close();
+			throw new DataAccessResourceFailureException("unable to open result cache in " + directory, e);
+		}
+
+		recover();
+	}
+
+	/**
+	 * Returns the key of an execution's result.
+	 *
+	 * @param opClass the operation's defining class/interface
+	 * @param binding the executed statement and its parameter values
+	 * @param maxRows the statement's row limit, or zero
+	 * @return the result's key, or null if the parameter values have no fingerprint
+	 */
+	String getKey(final Class<? extends Operation<?,?>> opClass, final StatementPlan.Binding binding, final int maxRows) {
+		final String fingerprint = binding.getFingerprint();
+		if (fingerprint == null)
+			return null;
+		
+		final StringBuilder b = new StringBuilder();
+		b.append(opClass.getName());
+		b.append('\n');
+		b.append(s_schemas.get(opClass));
+		b.append('\n');
+		b.append(maxRows);
+		b.append('\n');
+		b.append(fingerprint);
+		return b.toString();
+	}
+
+	/**
+	 * Returns the cached rows of an execution, or null if there
+	 * are none or they expired.
+	 *
+	 * @param opClass the operation's defining class/interface
+	 * @param key the result's key, see {@link #getKey(Class, StatementPlan.Binding, int)}
+	 * @return the cached rows or null
+	 */
+	List<Object> get(final Class<? extends Operation<?,?>> opClass, final String key) {
+		final Entry entry;
+		final byte[] value;
+		synchronized (this) {
+			entry = m_closed ? null : m_entries.get(key);
+			if ((entry != null) && (entry.expiresAt <= System.currentTimeMillis())) {
+				m_entries.remove(key);
+				m_expirations += 1;
+				m_misses.incrementAndGet();
+				return null;
+			}
+			else if (entry == null) {
+				m_misses.incrementAndGet();
+				return null;
+			}
+
+			value = new byte[entry.valueLength];
+			final ByteBuffer buffer = m_segments[entry.segment].buffer.duplicate();
+			buffer.position(entry.valueOffset);
+			buffer.get(value);
+		}
+
+		final List<Object> rows = deserialize(opClass.getClassLoader(), value);
+		if (rows == null) {
+			/* E.g. a class changed incompatibly, treat the result as missing */
+			synchronized (this) {
+				if (m_entries.get(key) == entry)
+					m_entries.remove(key);
+			}
+			m_misses.incrementAndGet();
+			return null;
+		}
+
+		m_hits.incrementAndGet();
+		return rows;
+	}
+
+	/**
+	 * Stores the rows of an execution. Rows which aren't
+	 * serializable, or don't fit into a segment, are ignored.
+	 *
+	 * @param key the result's key, see {@link #getKey(Class, StatementPlan.Binding, int)}
+	 * @param rows the rows
+	 * @param ttlMillis the time the rows are returned for
+	 */
+	void put(final String key, final List<Object> rows, final long ttlMillis) {
+		final byte[] value = serialize(rows);
+		final byte[] keyBytes = key.getBytes(s_utf8);
+		if ((value == null) || ((long)s_recordFixedBytes + keyBytes.length + value.length > m_segmentBytes - s_segmentHeaderBytes - s_recordHeaderBytes)) {
+			m_rejected.incrementAndGet();
+			return;
+		}
+
+		final long expiresAt = System.currentTimeMillis() + ttlMillis;
+		final ByteBuffer payload = ByteBuffer.allocate(s_recordFixedBytes + keyBytes.length + value.length);
+		payload.putLong(expiresAt);
+		payload.putInt(keyBytes.length);
+		payload.put(keyBytes);
+		payload.put(value);
+		final int length = payload.capacity();
+		final int checksum = checksum(payload.array(), 0, length);
+
+		synchronized (this) {
+			if (m_closed)
+				return;
+
+			if (m_segments[m_current].position + s_recordHeaderBytes + length > m_segmentBytes)
+				recycle();
+
+			final Segment segment = m_segments[m_current];
+			final int offset = segment.position;
+			final MappedByteBuffer buffer = segment.buffer;
+
+			/* Write the payload, its checksum and the next record's zero length
+			 * before publishing the record by writing its length
+			 */
+			final ByteBuffer target = buffer.duplicate();
+			target.position(offset + s_recordHeaderBytes);
+			target.put(payload.array());
+			buffer.putInt(offset + 4, checksum);
+			final int next = offset + s_recordHeaderBytes + length;
+			if (next + 4 <= m_segmentBytes)
+				buffer.putInt(next, 0);
+			buffer.putInt(offset, length);
+
+			segment.position = next;
+			m_entries.put(key, new Entry(
+				m_current,
+				offset + s_recordHeaderBytes + s_recordFixedBytes + keyBytes.length,
+				value.length,
+				expiresAt
+			));
+			m_puts += 1;
+		}
+	}
+
+	/**
+	 * Removes all cached results
+	 */
+	synchronized void clear() {
+		if (m_closed)
+			return;
+
+		for(int i=0; i < s_segmentCount; ++i)
+			resetSegment(m_segments[i], (i == m_current) ? m_nextGeneration++ : 0);
+		m_entries.clear();
+	}
+
+	/**
+	 * Returns a snapshot of the cache's counters.
+	 *
+	 * @return the cache's statistics
+	 */
+	synchronized ResultCacheStatistics getStatistics() {
+		long usedBytes = 0;
+		for(final Segment segment: m_segments) {
+			if (segment != null)
+				usedBytes += segment.position - s_segmentHeaderBytes;
+		}
+
+		return new ResultCacheStatistics(
+			m_entries.size(),
+			usedBytes,
+			m_hits.get(),
+			m_misses.get(),
+			m_puts,
+			m_rejected.get(),
+			m_evictions,
+			m_expirations,
+			m_recovered,
+			m_discarded
+		);
+	}
+
+	/**
+	 * Writes the cached results to disk and closes the files.
+	 * Closing a closed cache has no effect.
+	 */
+	synchronized void close() {
+		if (m_closed)
+			return;
+		m_closed = true;
+
+		for(final Segment segment: m_segments) {
+			if (segment != null) {
+				segment.buffer.force();
+				closeQuietly(segment.file);
+			}
+		}
+		m_entries.clear();
+
+		try {
+			m_lock.release();
+		}
+		catch (IOException e) {
+			/* Released when the file is closed */
+		}
+		closeQuietly(m_lockFile);
+	}
+
+	/**
+	 * Maps a segment file, initializing it if it is new, has
+	 * a different size or format
+	 */
+	private Segment openSegment(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			final boolean sized = (raf.length() == m_segmentBytes);
+			if (!sized)
+				raf.setLength(0);
+
+			final Segment segment = new Segment(raf, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, m_segmentBytes));
+			if (!sized || (segment.buffer.getInt(0) != s_magic) || (segment.buffer.getInt(4) != s_formatVersion)) {
+				resetSegment(segment, 0);
+				segment.buffer.putInt(4, s_formatVersion);
+				segment.buffer.putInt(0, s_magic);
+			}
+			segment.generation = segment.buffer.getLong(8);
+			return segment;
+		}
+		catch (IOException e) {
+			closeQuietly(raf);
+			throw e;
+		}
+	}
+
+	/**
+	 * Empties a segment and sets its generation
+	 */
+	private static void resetSegment(final Segment segment, final long generation) {
+		segment.buffer.putInt(s_segmentHeaderBytes, 0);
+		segment.buffer.putLong(8, generation);
+		segment.generation = generation;
+		segment.position = s_segmentHeaderBytes;
+	}
+
+	/**
+	 * Rebuilds the index from the segments, oldest first, and
+	 * makes the newest segment the current one
+	 */
+	private void recover() {
+		final Integer[] order = new Integer[s_segmentCount];
+		for(int i=0; i < s_segmentCount; ++i)
+			order[i] = i;
+		Arrays.sort(order, new java.util.Comparator<Integer>() {
+			@Override public int compare(final Integer i1, final Integer i2) {
+				final long g1 = m_segments[i1].generation;
+				final long g2 = m_segments[i2].generation;
+				return (g1 < g2) ? -1 : ((g1 == g2) ? 0 : 1);
+			}
+		});
+
+		final long now = System.currentTimeMillis();
+		for(final int i: order) {
+			final Segment segment = m_segments[i];
+			if (segment.generation > 0)
+				scanSegment(i, now);
+			m_nextGeneration = Math.max(m_nextGeneration, segment.generation + 1);
+		}
+
+		m_current = order[s_segmentCount - 1];
+		if (m_segments[m_current].generation == 0)
+			resetSegment(m_segments[m_current], m_nextGeneration++);
+
+		m_recovered = m_entries.size();
+	}
+
+	/**
+	 * Adds a segment's valid, unexpired records to the index, and
+	 * positions the segment after its last valid record
+	 */
+	private void scanSegment(final int index, final long now) {
+		final Segment segment = m_segments[index];
+		final MappedByteBuffer buffer = segment.buffer;
+
+		int offset = s_segmentHeaderBytes;
+		while (offset + s_recordHeaderBytes <= m_segmentBytes) {
+			final int length = buffer.getInt(offset);
+			if (length == 0)
+				break;
+			if ((length < s_recordFixedBytes) || (length > m_segmentBytes - offset - s_recordHeaderBytes)) {
+				m_discarded += 1;
+				break;
+			}
+
+			final byte[] payload = new byte[length];
+			final ByteBuffer source = buffer.duplicate();
+			source.position(offset + s_recordHeaderBytes);
+			source.get(payload);
+			final ByteBuffer record = ByteBuffer.wrap(payload);
+			final int keyLength = record.getInt(8);
+			if ((checksum(payload, 0, length) != buffer.getInt(offset + 4)) || (keyLength < 0) || (keyLength > length - s_recordFixedBytes)) {
+				m_discarded += 1;
+				break;
+			}
+
+			final long expiresAt = record.getLong(0);
+			final String key = new String(payload, s_recordFixedBytes, keyLength, s_utf8);
+			final int valueOffset = offset + s_recordHeaderBytes + s_recordFixedBytes + keyLength;
+			if (expiresAt > now)
+				m_entries.put(key, new Entry(index, valueOffset, length - s_recordFixedBytes - keyLength, expiresAt));
+			else
+				m_entries.remove(key);
+
+			offset += s_recordHeaderBytes + length;
+		}
+
+		/* Overwrite what follows the last valid record */
+		segment.position = offset;
+		if (offset + 4 <= m_segmentBytes)
+			buffer.putInt(offset, 0);
+	}
+
+	/**
+	 * Makes the oldest segment the current one, evicting its results
+	 */
+	private void recycle() {
+		int oldest = (m_current + 1) % s_segmentCount;
+		for(int i=0; i < s_segmentCount; ++i) {
+			if ((i != m_current) && (m_segments[i].generation < m_segments[oldest].generation))
+				oldest = i;
+		}
+
+		for(final Iterator<Entry> entries = m_entries.values().iterator(); entries.hasNext(); ) {
+			if (entries.next().segment == oldest) {
+				entries.remove();
+				m_evictions += 1;
+			}
+		}
+
+		resetSegment(m_segments[oldest], m_nextGeneration++);
+		m_current = oldest;
+	}
+
+	private static int checksum(final byte[] bytes, final int offset, final int length) {
+		final CRC32 crc = new CRC32();
+		crc.update(bytes, offset, length);
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Serializes rows, replacing the proxies created by
+	 * {@link ResultSetMapper} by their getters' results
+	 *
+	 * @param rows the rows
+	 * @return the serialized rows, or null if a row isn't serializable
+	 */
+	private static byte[] serialize(final List<Object> rows) {
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		try {
+			final ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeInt(rows.size());
+			for(final Object row: rows) {
+				if ((row != null) && Proxy.isProxyClass(row.getClass()) && (Proxy.getInvocationHandler(row) instanceof OutputProxyInvocationHandler)) {
+					final OutputProxyInvocationHandler handler = (OutputProxyInvocationHandler)Proxy.getInvocationHandler(row);
+					out.writeObject(new ProxyRow(
+						row.getClass().getInterfaces()[0].getName(),
+						new HashMap<String, Object>(handler.getGetterNameResults()),
+						new ArrayList<String>(handler.getGetterToStringOrder())
+					));
+				}
+				else {
+					out.writeObject(row);
+				}
+			}
+			out.close();
+		}
+		catch (IOException e) {
+			/* E.g. NotSerializableException */
+			return null;
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Deserializes rows, recreating the proxies replaced by {@link #serialize(List)}
+	 *
+	 * @param loader the class loader of the operation
+	 * @param value the serialized rows
+	 * @return the rows, or null if they cannot be deserialized
+	 */
+	private static List<Object> deserialize(final ClassLoader loader, final byte[] value) {
+		try {
+			final ObjectInputStream in = new ClassLoaderObjectInputStream(new ByteArrayInputStream(value), loader);
+			final int size = in.readInt();
+			final List<Object> rows = new ArrayList<Object>(size);
+			for(int i=0; i < size; ++i) {
+				final Object row = in.readObject();
+				if (row instanceof ProxyRow) {
+					final ProxyRow proxyRow = (ProxyRow)row;
+					final Class<?> outputClass = Class.forName(proxyRow.outputClassName, false, loader);
+					rows.add(Proxy.newProxyInstance(
+						outputClass.getClassLoader(),
+						new Class<?>[] {outputClass},
+						new OutputProxyInvocationHandler(proxyRow.values, proxyRow.getterOrder)
+					));
+				}
+				else {
+					rows.add(row);
+				}
+			}
+			return rows;
+		}
+		catch (IOException e) {
+			return null;
+		}
+		catch (ClassNotFoundException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Resolves classes with the operation's class loader first
+	 */
+	private static final class ClassLoaderObjectInputStream extends ObjectInputStream {
+		private final ClassLoader m_loader;
+
+		ClassLoaderObjectInputStream(final InputStream in, final ClassLoader loader) throws IOException {
+			super(in);
+			m_loader = loader;
+		}
+
+		@Override
+		protected Class<?> resolveClass(final ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+			if (m_loader != null) {
+				try {
+					return Class.forName(desc.getName(), false, m_loader);
+				}
+				catch (ClassNotFoundException e) {
+					/* E.g. primitive types, resolved below */
+				}
+			}
+			return super.resolveClass(desc);
+		}
+	}
+
+	private static void closeQuietly(final RandomAccessFile file) {
+		try {
+			file.close();
+		}
+		catch (IOException e) {
+			/* Nothing left to do */
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "MappedResultCache(" + m_directory + ")";
+	}
+}
@@ -1,12 +1,16 @@
 package org.phlo.tuplez;
 
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 import java.sql.*;
 
 import org.springframework.dao.*;
 import org.springframework.jdbc.core.*;
 import org.springframework.jdbc.core.namedparam.*;
+import org.springframework.jdbc.datasource.ConnectionProxy;
+import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.jdbc.support.*;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
 import org.phlo.tuplez.operation.*;
 
@@ -21,6 +25,8 @@ class OperationDefaultImplementation implements
 
 	Object m_operation = this;
 	
+	final private Executor m_executor;
+	
 	final private NamedParameterJdbcTemplate m_npJdbcTemplate;
 
 	final private Object m_defaultInput;
@@ -30,6 +36,51 @@ class OperationDefaultImplementation implements
 	final private KeyMapper m_keyMapper;
 	
 	final private String m_statementStatic;
+	
+	final private StatementTemplatePlan m_statementTemplate;
+	
+	/* Buffer size if rows are fetched on a background thread, zero otherwise */
+	final private int m_pipelinedFetchBufferSize;
+	
+	/* Coalesces concurrent get() calls if the operation is @Coalesced, otherwise null */
+	final private Coalescer m_coalescer;
+	
+	/* Serves get() calls from memory if the operation is @Preloaded, otherwise null */
+	final private PreloadedTable m_preloadedTable;
+	
+	/* The identity cache of the executor's session, if it has one */
+	final private IdentityCache m_identityCache;
+	
+	/* Rules out get() calls for missing keys if the operation has an @ExistenceFilter, otherwise null */
+	final private BloomFilter m_existenceFilter;
+	
+	/* The filter the operation adds keys to if it is annotated with @AddsKeys, otherwise null */
+	final private BloomFilter m_addsKeysFilter;
+	final private String m_addsKeysProperty;
+	
+	/* De-duplicates identical concurrent reads if the executor enables it, otherwise null */
+	final private SingleFlight m_singleFlight;
+	
+	/* Stores results if the operation is @ResultCached and the executor has a cache, otherwise null */
+	final private MappedResultCache m_resultCache;
+	final private long m_resultCacheTtlMillis;
+	
+	/* Whether getScalar() may bind and execute directly, i.e. no read-side
+	 * feature above needs to see the boxed input. Features added later
+	 * which intercept get() must be accounted for here
+	 */
+	final private boolean m_scalarFastPath;
+	
+	/* The operation's concurrency-limited group and priority lane, see @Bulkhead */
+	final private String m_bulkheadGroup;
+	final private Lane m_lane;
+	
+	/* Timeout of executions in nanoseconds from @Timeout or the executor's default, zero for none */
+	final private long m_timeoutNanos;
+	
+	/* Deadline (in terms of System.nanoTime()) set by Executor.with(Class, long, TimeUnit) */
+	private boolean m_deadlineSet = false;
+	private long m_deadline;
 
 	boolean m_inputSet = false;
 
@@ -42,32 +93,51 @@ class OperationDefaultImplementation implements
 	 */
 	OperationDefaultImplementation() {
 		m_opClass = null;
+		m_executor = null;
 		m_npJdbcTemplate = null;
 		m_defaultInput = null;
 		m_inputMapper = null;
 		m_keyMapper = null;
 		m_statementStatic = null;
+		m_statementTemplate = null;
+		m_pipelinedFetchBufferSize = 0;
+		m_coalescer = null;
+		m_preloadedTable = null;
+		m_identityCache = null;
+		m_existenceFilter = null;
+		m_addsKeysFilter = null;
+		m_addsKeysProperty = null;
+		m_singleFlight = null;
+		m_resultCache = null;
+		m_resultCacheTtlMillis = 0;
+		m_scalarFastPath = false;
+		m_bulkheadGroup = null;
+		m_lane = null;
+		m_timeoutNanos = 0;
 	}
 	
 	/**
 	 * Create a new {@link OperationDefaultImplementation}
 	 * for a concrete operation definition (class or interface)
-	 * which uses the provide {@link NamedParameterJdbcTemplate}
-	 * to execute queries and the provided default input object
+	 * which is executed by the provided {@link Executor}, i.e.
+	 * uses the executor's {@link NamedParameterJdbcTemplate}
+	 * to execute queries and the executor's default input object
 	 * to fill in default.* parameters.
+	 * <p>
+	 * The executor may be null only for the prototype instances
+	 * created by {@link OperationFactory}.
 	 * 
 	 * @param opClass concrete operation definition
-	 * @param npJdbcTemplate named-parameter JDBC template used to execute queries
-	 * @param defaultInput statement default parameter source
+	 * @param executor the executor which executes the operation
 	 */
 	OperationDefaultImplementation(
 		final Class<? extends Operation<?,?>> opClass,
-		final NamedParameterJdbcTemplate npJdbcTemplate,
-		final Object defaultInput
+		final Executor executor
 	) {
 		m_opClass = opClass;
-		m_npJdbcTemplate = npJdbcTemplate;
-		m_defaultInput = defaultInput;
+		m_executor = executor;
+		m_npJdbcTemplate = (executor != null) ? executor.getNpJdbcTemplate() : null;
+		m_defaultInput = (executor != null) ? executor.getDefaultInput() : null;
 
 		m_inputMapper = InputMapper.getInstance(
 			(Class<? extends Operation<Object,?>>)getOperationClass(),
@@ -81,6 +151,74 @@ class OperationDefaultImplementation implements
 
 		
 		m_statementStatic = OperationMetaData.getStatementStatic(opClass);
+		m_statementTemplate = StatementTemplatePlan.getInstance(opClass);
+		
+		if ((m_statementStatic != null) && (m_statementTemplate != null)) {
+			throw new InvalidOperationDefinitionException(
+				"class carries both a @Statement and a @StatementTemplate annotation",
+				opClass
+			);
+		}
+		
+		final PipelinedFetch pipelinedFetch = opClass.getAnnotation(PipelinedFetch.class);
+		if ((pipelinedFetch != null) && (pipelinedFetch.bufferSize() <= 0)) {
+			throw new InvalidOperationDefinitionException(
+				"@PipelinedFetch buffer size must be positive",
+				opClass
+			);
+		}
+		m_pipelinedFetchBufferSize = (pipelinedFetch != null) ? pipelinedFetch.bufferSize() : 0;
+		
+		m_coalescer = (executor != null) ? executor.getCoalescer(opClass) : null;
+		m_preloadedTable = (executor != null) ? executor.getPreloadedTable(opClass) : null;
+		m_identityCache = (executor != null) ? executor.getIdentityCache() : null;
+		m_existenceFilter = (executor != null) ? executor.getExistenceFilter(opClass) : null;
+		
+		final AddsKeys addsKeys = opClass.getAnnotation(AddsKeys.class);
+		m_addsKeysFilter = ((addsKeys != null) && (executor != null)) ? executor.getExistenceFilter(addsKeys.value()) : null;
+		if ((addsKeys != null) && (executor != null) && (m_addsKeysFilter == null)) {
+			throw new InvalidOperationDefinitionException(
+				"@AddsKeys names " + addsKeys.value().getName() + ", which isn't annotated with @ExistenceFilter",
+				opClass
+			);
+		}
+		m_addsKeysProperty = (addsKeys != null) ? addsKeys.key() : null;
+		
+		m_singleFlight = (executor != null) ? executor.getSingleFlight() : null;
+		
+		final ResultCached resultCached = opClass.getAnnotation(ResultCached.class);
+		if ((resultCached != null) && (resultCached.ttlMillis() <= 0)) {
+			throw new InvalidOperationDefinitionException(
+				"@ResultCached ttlMillis must be positive",
+				opClass
+			);
+		}
+		m_resultCache = ((resultCached != null) && (executor != null)) ? executor.getResultCache() : null;
+		m_resultCacheTtlMillis = (resultCached != null) ? resultCached.ttlMillis() : 0;
+		
+		m_scalarFastPath =
+			(m_coalescer == null) &&
+			(m_preloadedTable == null) &&
+			(m_identityCache == null) &&
+			(m_existenceFilter == null) &&
+			(m_singleFlight == null) &&
+			(m_resultCache == null);
+		
+		final Bulkhead bulkhead = opClass.getAnnotation(Bulkhead.class);
+		m_bulkheadGroup = ((bulkhead != null) && (bulkhead.value().length() > 0)) ? bulkhead.value() : opClass.getName();
+		m_lane = (bulkhead != null) ? bulkhead.lane() : Lane.INTERACTIVE;
+		
+		final Timeout timeout = opClass.getAnnotation(Timeout.class);
+		if ((timeout != null) && (timeout.value() <= 0)) {
+			throw new InvalidOperationDefinitionException(
+				"@Timeout value must be positive",
+				opClass
+			);
+		}
+		if (timeout != null)
+			m_timeoutNanos = timeout.unit().toNanos(timeout.value());
+		else
+			m_timeoutNanos = (executor != null) ? executor.getDefaultTimeoutNanos() : 0;
 	}
 	
 	public OperationDefaultImplementation clone() {
@@ -130,6 +268,284 @@ class OperationDefaultImplementation implements
 		}
 	}
 	
+	/**
+	 * Represents a block of code which uses a prepared statement
+	 * 
+	 * @param <T> the block's return type
+	 */
+	private static interface PreparedStatementBlock<T> {
+		T block(PreparedStatement ps) throws SQLException;
+	}
+	
+	/**
+	 * Prepares the operation's statement on a connection of
+	 * the executor's data source, binds the operation's input
+	 * and executes the given block. Statements are obtained
+	 * from and returned to the executor's {@link StatementCache}.
+	 * 
+	 * @param <T> return type of block
+	 * @param op the operation
+	 * @param generatesKeys whether the statement must return generated keys
+	 * @param block the block to execute
+	 * @return the block's return value
+	 */
+	private <T> T withStatement(final Operation op, final boolean generatesKeys, final PreparedStatementBlock<T> block) {
+		final SqlParameterSource params = mapInput(op);
+		final int maxRows = (m_statementTemplate != null) ? m_statementTemplate.getMaxRows(params) : 0;
+		
+		return withStatement(bind(op, params), maxRows, generatesKeys, block);
+	}
+	
+	/**
+	 * Executes a callback on a connection of the executor's data
+	 * source, once the concurrency limits of the operation's
+	 * {@link Bulkhead} group and {@link Lane} admit it.
+	 * 
+	 * @param callback the callback to execute
+	 * @return the callback's return value
+	 * @throws BulkheadFullException if the queue timeout expired
+	 */
+	private Object executeLimited(final ConnectionCallback callback) {
+		final Bulkheads.Permit permit = m_executor.getBulkheads().acquire(m_bulkheadGroup, m_lane);
+		try {
+			return m_npJdbcTemplate.getJdbcOperations().execute(callback);
+		}
+		finally {
+			permit.release();
+		}
+	}
+	
+	/**
+	 * Binds the mapped input to the operation's statement plan.
+	 * 
+	 * @param op the operation
+	 * @param params the operation's mapped input
+	 * @return the bound statement
+	 */
+	private StatementPlan.Binding bind(final Operation op, final SqlParameterSource params) {
+		final StatementPlan plan;
+		if (m_statementTemplate != null)
+			plan = m_statementTemplate.getPlan(params, m_executor.getArrayParameters() ? m_inputMapper : null);
+		else
+			plan = StatementPlan.getInstance(getExecutedStatement(op));
+		
+		try {
+			return plan.bind(params);
+		}
+		catch (StatementPlan.EmptyListException e) {
+			throw new InvalidOperationExecutionException(e.getMessage(), m_opClass, e);
+		}
+	}
+	
+	/**
+	 * Sets the deadline all executions of this instance must
+	 * complete by, see {@link Executor#with(Class, long, java.util.concurrent.TimeUnit)}.
+	 * 
+	 * @param deadline the deadline in terms of {@link System#nanoTime()}
+	 */
+	void setDeadline(final long deadline) {
+		m_deadlineSet = true;
+		m_deadline = deadline;
+	}
+	
+	/**
+	 * Returns the time the next execution may take, in nanoseconds,
+	 * or zero if it may take arbitrarily long.
+	 * 
+	 * @return the execution's timeout or zero
+	 * @throws OperationTimeoutException if the deadline has passed already
+	 */
+	private long getExecutionTimeoutNanos() {
+		if (!m_deadlineSet)
+			return m_timeoutNanos;
+		
+		final long remaining = m_deadline - System.nanoTime();
+		if (remaining <= 0)
+			throw new OperationTimeoutException("deadline passed before execution started", m_opClass);
+		return remaining;
+	}
+	
+	private OperationTimeoutException timedOut(final long timeoutNanos, final Exception cause) {
+		return new OperationTimeoutException(
+			"timeout of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms expired",
+			m_opClass,
+			cause
+		);
+	}
+	
+	/**
+	 * Prepares a bound statement on a connection of the
+	 * executor's data source and executes the given block.
+	 * 
+	 * @see #withStatement(Operation, boolean, PreparedStatementBlock)
+	 * 
+	 * @param <T> return type of block
+	 * @param binding the statement and its parameter values
+	 * @param maxRows the maximal number of rows to return, or zero
+	 * @param generatesKeys whether the statement must return generated keys
+	 * @param block the block to execute
+	 * @return the block's return value
+	 */
+	private <T> T withStatement(
+		final StatementPlan.Binding binding,
+		final int maxRows,
+		final boolean generatesKeys,
+		final PreparedStatementBlock<T> block
+	) {
+		final String[] generatedKeyColumns = generatesKeys ? m_keyMapper.getGeneratedKeyColumns() : null;
+		
+		return (T)executeLimited(new ConnectionCallback() {
+			public Object doInConnection(final Connection connectionProxy) throws SQLException {
+				/* The statement cache must see the data source's connection,
+				 * not the close-suppressing proxy created by JdbcTemplate
+				 */
+				final Connection connection = (connectionProxy instanceof ConnectionProxy)
+					? ((ConnectionProxy)connectionProxy).getTargetConnection()
+					: connectionProxy;
+				final StatementCache statementCache = m_executor.getStatementCache();
+				final PreparedStatement ps = statementCache.prepare(
+					m_executor.getDataSource(),
+					connection,
+					binding.getJdbcStatement(),
+					generatesKeys,
+					generatedKeyColumns
+				);
+				
+				try {
+					return executePrepared(ps, binding, maxRows, generatesKeys, block);
+				}
+				finally {
+					statementCache.release(connection, ps);
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Executes a block with a statement prepared from a binding,
+	 * after binding the parameter values and applying the row limit
+	 * and the adaptive fetch size. The execution is timed like those
+	 * of {@link #executeTimed}. Restores the statement's settings
+	 * afterwards, since it may be cached.
+	 * 
+	 * @param <T> return type of block
+	 * @param ps the prepared statement
+	 * @param binding the statement and its parameter values
+	 * @param maxRows the maximal number of rows to return, or zero
+	 * @param generatesKeys whether the statement returns generated keys
+	 * @param block the block to execute
+	 * @return the block's return value
+	 * @throws SQLException if the statement or block fails
+	 */
+	private <T> T executePrepared(
+		final PreparedStatement ps,
+		final StatementPlan.Binding binding,
+		final int maxRows,
+		final boolean generatesKeys,
+		final PreparedStatementBlock<T> block
+	) throws SQLException {
+		/* Fetch as many rows per round trip as fit into the budget */
+		final int fetchBudgetBytes = m_executor.getFetchBudgetBytes();
+		final int fetchSize = ((fetchBudgetBytes > 0) && !generatesKeys)
+			? FetchSizeController.getInstance(m_opClass).nextFetchSize(fetchBudgetBytes)
+			: 0;
+		final int previousFetchSize = (fetchSize > 0) ? ps.getFetchSize() : 0;
+		
+		try {
+			if (maxRows > 0)
+				ps.setMaxRows(maxRows);
+			if (fetchSize > 0)
+				ps.setFetchSize(fetchSize);
+			binding.setParameters(ps);
+			
+			return executeTimed(ps, block);
+		}
+		finally {
+			/* Don't leak the row limit and fetch size to later users of a cached statement */
+			try {
+				if (maxRows > 0)
+					ps.setMaxRows(0);
+				if (fetchSize > 0)
+					ps.setFetchSize(previousFetchSize);
+			}
+			catch (SQLException e) {
+				discard(ps);
+			}
+		}
+	}
+	
+	/**
+	 * Executes a block with a prepared statement, applying the
+	 * transaction's and the operation's timeout (see
+	 * {@link StatementWatchdog}). Restores the statement's query
+	 * timeout afterwards, since it may be cached.
+	 * 
+	 * @param <T> return type of block
+	 * @param ps the prepared statement
+	 * @param block the block to execute
+	 * @return the block's return value
+	 * @throws SQLException if the statement or block fails
+	 * @throws OperationTimeoutException if the timeout expired
+	 */
+	private <T> T executeTimed(final PreparedStatement ps, final PreparedStatementBlock<T> block) throws SQLException {
+		final long timeoutNanos = getExecutionTimeoutNanos();
+		
+		/* The transaction's timeout is applied to the statement, and must be reset as well */
+		final int previousQueryTimeout = ps.getQueryTimeout();
+		StatementWatchdog watchdog = null;
+		try {
+			DataSourceUtils.applyTransactionTimeout(ps, m_executor.getDataSource());
+			
+			/* The driver's query timeout has a granularity of seconds and usually
+			 * covers only the execution itself, so the watchdog enforces the
+			 * exact timeout and covers the processing of the results as well
+			 */
+			if (timeoutNanos > 0) {
+				final int queryTimeout = (int)Math.min(Integer.MAX_VALUE, (timeoutNanos + 999999999L) / 1000000000L);
+				final int transactionQueryTimeout = ps.getQueryTimeout();
+				if ((transactionQueryTimeout == 0) || (queryTimeout < transactionQueryTimeout))
+					ps.setQueryTimeout(queryTimeout);
+				watchdog = new StatementWatchdog(m_executor.getWatchdogScheduler(), ps, timeoutNanos);
+			}
+			
+			return block.block(ps);
+		}
+		catch (SQLException e) {
+			if ((watchdog != null) && (watchdog.disarm() || (e instanceof SQLTimeoutException)))
+				throw timedOut(timeoutNanos, e);
+			throw e;
+		}
+		catch (RuntimeException e) {
+			if ((watchdog != null) && watchdog.disarm() && !(e instanceof OperationTimeoutException))
+				throw timedOut(timeoutNanos, e);
+			throw e;
+		}
+		finally {
+			/* The statement must not be cancelled once it's released */
+			if (watchdog != null)
+				watchdog.disarm();
+			
+			try {
+				ps.setQueryTimeout(previousQueryTimeout);
+			}
+			catch (SQLException e) {
+				discard(ps);
+			}
+		}
+	}
+	
+	/**
+	 * Closes a statement whose settings couldn't be reset after an
+	 * execution, e.g. because the watchdog cancelled it, so that the
+	 * statement cache discards it instead of caching it again. The
+	 * reset's failure must not replace the execution's outcome.
+	 * 
+	 * @param ps the statement
+	 */
+	private static void discard(final PreparedStatement ps) {
+		JdbcUtils.closeStatement(ps);
+	}
+	
 	@Override
 	public Class<? extends Operation> getOperationClass() {
 		return m_opClass;
@@ -227,8 +643,101 @@ class OperationDefaultImplementation implements
 		m_input = null;
 	}
 	
+	/**
+	 * Returns the statement to execute, i.e. the operation's
+	 * statement after list parameter rewriting.
+	 * 
+	 * @see InputMapper#rewriteStatement(String)
+	 */
+	private String getExecutedStatement(final Operation op) {
+		if (m_executor.getArrayParameters())
+			return m_inputMapper.rewriteStatement(op.getStatement());
+		else
+			return op.getStatement();
+	}
+	
+	/**
+	 * Maps the operation's current input and the executor's
+	 * default input to a {@link SqlParameterSource}
+	 */
+	private SqlParameterSource mapInput(final Operation op) {
+		if (m_inputMapper.isInputVoid())
+			return m_inputMapper.mapInput(m_defaultInput, m_executor.getArrayParameters());
+		else
+			return m_inputMapper.mapInput(op.getInput(), m_defaultInput, m_executor.getArrayParameters());
+	}
+	
+	/**
+	 * Returns the plan to bind primitive inputs to, or null if the
+	 * operation's statement doesn't allow primitive inputs to be
+	 * bound directly. That requires a static statement which
+	 * references the input only as a whole (<b>:in</b>), and a
+	 * numeric input type.
+	 */
+	private StatementPlan getScalarPlan(final Operation op) {
+		if ((m_statementStatic == null) || (m_operation instanceof OperationStatementIsComputed))
+			return null;
+		if (!m_inputMapper.isInputNumeric())
+			return null;
+		
+		final StatementPlan plan = StatementPlan.getInstance(op.getStatement());
+		return plan.isScalarInput() ? plan : null;
+	}
+	
+	/**
+	 * Binds a primitive input to a plan returned by
+	 * {@link #getScalarPlan(Operation)}
+	 */
+	private StatementPlan.Binding bindScalar(final StatementPlan plan, final long input, final boolean asInt) {
+		final SqlParameterSource defaultSrc = plan.hasDefaultParameters()
+			? m_inputMapper.mapInput(null, m_defaultInput, m_executor.getArrayParameters())
+			: null;
+		
+		return plan.bindScalar(input, asInt, defaultSrc);
+	}
+	
+	/**
+	 * Converts a primitive input to the operation's input
+	 * type, for operations which don't allow primitive inputs
+	 * to be bound directly.
+	 */
+	private Object boxInput(final long input) {
+		final Class<?> inputClass = m_inputMapper.getInputClass();
+		
+		if (inputClass.equals(Integer.class) && (input == (int)input))
+			return Integer.valueOf((int)input);
+		else if (inputClass.equals(Short.class) && (input == (short)input))
+			return Short.valueOf((short)input);
+		else if (inputClass.equals(Long.class) || inputClass.equals(Number.class) || inputClass.equals(Object.class))
+			return Long.valueOf(input);
+		else if (inputClass.equals(java.math.BigInteger.class))
+			return java.math.BigInteger.valueOf(input);
+		else if (inputClass.equals(java.math.BigDecimal.class))
+			return java.math.BigDecimal.valueOf(input);
+		
+		throw new InvalidOperationExecutionException(
+			"primitive input " + input + " cannot be converted to input type " + inputClass.getName(),
+			_getActualImplementation(Operation.class).getOperationClass()
+		);
+	}
+	
+	private static IncorrectResultSizeDataAccessException tooManyRows(final Operation op) {
+		return new IncorrectResultSizeDataAccessException(
+			"Statement " + op.getOperationClass().getName() + " " +
+			"was declared as " + OperationReturnsSingleRow.class.getSimpleName() + " " +
+			"but returned more than one row",
+			1,
+			-1 /* Actual size unknown */
+		);
+	}
+	
 	@Override
 	public String getStatement() {
+		if (m_statementTemplate != null) {
+			final Operation op = _getActualImplementation(Operation.class);
+			return m_statementTemplate.getPlan(mapInput(op), null).getStatement();
+		}
+		
 		OperationStatementIsComputed opStmtComputed;
 		try {
 			opStmtComputed = _getActualImplementation(OperationStatementIsComputed.class);
@@ -251,88 +760,642 @@ class OperationDefaultImplementation implements
 	public Object iterate(final IteratorProcessor iteratorProcessor) {
 		final Operation op = _getActualImplementation(Operation.class);
 		
-		final SqlParameterSource inputSrc;
-		if (m_inputMapper.isInputVoid())
-			inputSrc = m_inputMapper.mapInput(m_defaultInput);
+		/* Executions within a transaction must see the transaction's writes */
+		if (((m_resultCache != null) || (m_singleFlight != null)) && !TransactionSynchronizationManager.isActualTransactionActive())
+			return iterateShared(op, iteratorProcessor);
+		
+		return withStatement(op, false, new QueryBlock(iteratorProcessor));
+	}
+	
+	/**
+	 * Executes a query and lets a processor process its rows
+	 */
+	private final class QueryBlock implements PreparedStatementBlock<Object> {
+		final IteratorProcessor iteratorProcessor;
+		
+		QueryBlock(final IteratorProcessor _iteratorProcessor) {
+			iteratorProcessor = _iteratorProcessor;
+		}
+		
+		@Override public Object block(final PreparedStatement ps) throws SQLException {
+			final ResultSet resultSet = ps.executeQuery();
+			try {
+				ResultSetMapper rsMapper = ResultSetMapper.getInstance((Class)m_opClass, resultSet);
+				
+				if (m_pipelinedFetchBufferSize > 0)
+					return iteratePipelined(ps, resultSet, rsMapper, iteratorProcessor);
+				
+				final ResultSetIterator iterator = new ResultSetIterator(resultSet, rsMapper);
+				final Object result = iteratorProcessor.processIterator(iterator);
+				
+				/* Don't make the driver drain the rows the processor didn't want */
+				if (iterator.hasNext())
+					StatementWatchdog.cancelQuietly(ps);
+				
+				return result;
+			}
+			catch (WrappedSQLException e) {
+				throw e.getSQLException();
+			}
+			finally {
+				JdbcUtils.closeResultSet(resultSet);
+			}
+		}
+	}
+	
+	/**
+	 * Lets iteratorProcessor process the rows stored in the
+	 * executor's result cache (see {@link ResultCached}), or
+	 * the rows of an identical read in flight (see
+	 * {@link Executor#setSingleFlightEnabled(boolean)}), or
+	 * executes the query. The rows are recorded to be stored
+	 * in the result cache, and shared with the callers waiting
+	 * for this read.
+	 * 
+	 * @param op the operation
+	 * @param iteratorProcessor the processor to run
+	 * @return the processor's return value
+	 */
+	private Object iterateShared(final Operation op, final IteratorProcessor iteratorProcessor) {
+		final SqlParameterSource params = mapInput(op);
+		final int maxRows = (m_statementTemplate != null) ? m_statementTemplate.getMaxRows(params) : 0;
+		final StatementPlan.Binding binding = bind(op, params);
+		
+		final String cacheKey = (m_resultCache != null) ? m_resultCache.getKey(m_opClass, binding, maxRows) : null;
+		if (cacheKey != null) {
+			final List<Object> cached = m_resultCache.get(m_opClass, cacheKey);
+			if (cached != null)
+				return iteratorProcessor.processIterator(Collections.unmodifiableList(cached).iterator());
+		}
+		
+		final RecordingIterator recorder = new RecordingIterator((m_resultCache != null) ? Integer.MAX_VALUE : SingleFlight.s_maxSharedRows);
+		final SingleFlight.Query query = new SingleFlight.Query() {
+			@Override public Object execute(final IteratorProcessor processor) {
+				return withStatement(binding, maxRows, false, new QueryBlock(processor));
+			}
+		};
+		
+		/* Reads whose parameter values have no fingerprint can't be recognized as identical */
+		final String fingerprint = (m_singleFlight != null) ? binding.getFingerprint() : null;
+		
+		final Object result;
+		if (fingerprint != null)
+			result = m_singleFlight.execute(m_opClass.getName() + "\n" + maxRows + "\n" + fingerprint, m_opClass, getExecutionTimeoutNanos(), iteratorProcessor, recorder, query);
 		else
-			inputSrc = m_inputMapper.mapInput(op.getInput(), m_defaultInput);
-			
-		return m_npJdbcTemplate.query(
-			op.getStatement(),
-			inputSrc,
-			new ResultSetExtractor() {
-				public Object extractData(final ResultSet resultSet) throws SQLException {
-					ResultSetMapper rsMapper = ResultSetMapper.getInstance(op.getOperationClass(), resultSet);
-					
-					try {
-						return iteratorProcessor.processIterator(new ResultSetIterator(resultSet, rsMapper));
-					}
-					catch (WrappedSQLException e) {
-						throw e.getSQLException();
-					}
+			result = query.execute(recorder.wrap(iteratorProcessor));
+		
+		final List<Object> rows = recorder.getRows();
+		if ((cacheKey != null) && (rows != null))
+			m_resultCache.put(cacheKey, rows, m_resultCacheTtlMillis);
+		return result;
+	}
+	
+	/**
+	 * Lets iteratorProcessor process the result set's rows while
+	 * they are fetched and mapped on one of the executor's fetch
+	 * threads, see {@link PipelinedFetch}. The fetch thread is
+	 * stopped before this method returns, so the caller may close
+	 * the result set afterwards. If the processor stops early,
+	 * the statement is cancelled.
+	 * 
+	 * @param ps the statement which produced the result set
+	 * @param resultSet the result set to process
+	 * @param rsMapper the mapper which converts the rows
+	 * @param iteratorProcessor the processor to run
+	 * @return the processor's return value
+	 */
+	private Object iteratePipelined(
+		final PreparedStatement ps,
+		final ResultSet resultSet,
+		final ResultSetMapper rsMapper,
+		final IteratorProcessor iteratorProcessor
+	) {
+		final PipelinedResultSetIterator iterator = new PipelinedResultSetIterator(resultSet, rsMapper, m_pipelinedFetchBufferSize);
+		final java.util.concurrent.Future<?> producer = m_executor.getFetchExecutor().submit(iterator);
+		boolean exhausted = false;
+		try {
+			final Object result = iteratorProcessor.processIterator(iterator);
+			exhausted = !iterator.hasNext();
+			return result;
+		}
+		finally {
+			/* The result set must not be closed while the producer still uses it */
+			iterator.cancel();
+			boolean interrupted = false;
+			while (true) {
+				try {
+					producer.get();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (java.util.concurrent.ExecutionException e) {
+					/* The producer records its errors itself */
+					break;
+				}
+				catch (java.util.concurrent.CancellationException e) {
+					break;
 				}
 			}
-		);
+			if (interrupted)
+				Thread.currentThread().interrupt();
+			
+			/* Don't make the driver drain the rows the processor didn't want */
+			if (!exhausted)
+				StatementWatchdog.cancelQuietly(ps);
+		}
 	}
 
 	@Override
-	public Collection collection(Object input) {
+	public Object cursor(final Object input, final CursorProcessor cursorProcessor) {
 		final Operation op = _getActualImplementation(Operation.class);
 
-		return withInput(input, new Block<Collection>() {
-			@Override public Collection block() { return op.collection(); }
+		return withInput(input, new Block<Object>() {
+			@Override public Object block() { return op.cursor(cursorProcessor); }
 		});
 	}
 
 	@Override
-	public Collection collection() {
-		final Operation<Object,Object> op = _getActualImplementation(Operation.class);
-
-		return op.iterate(new IteratorProcessor<Object, Collection>() {
-			public Collection processIterator(Iterator iterator) {
-				Collection collection = new java.util.LinkedList();
-				while (iterator.hasNext())
-					collection.add(iterator.next());
-				return collection;
+	public Object cursor(final CursorProcessor cursorProcessor) {
+		final Operation op = _getActualImplementation(Operation.class);
+		
+		return withStatement(op, false, new PreparedStatementBlock<Object>() {
+			@Override public Object block(final PreparedStatement ps) throws SQLException {
+				final ResultSet resultSet = ps.executeQuery();
+				try {
+					final ResultSetMapper.RowView rowView =
+						ResultSetMapper.getInstance(op.getOperationClass(), resultSet).createRowView();
+					
+					return cursorProcessor.processCursor(new ResultSetCursor(resultSet, rowView));
+				}
+				catch (WrappedSQLException e) {
+					throw e.getSQLException();
+				}
+				finally {
+					JdbcUtils.closeResultSet(resultSet);
+				}
 			}
-			
 		});
 	}
 
 	@Override
-	public Object get(Object input) {
-		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
+	public Object fold(final Object input, final Object initial, final Accumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
 
 		return withInput(input, new Block<Object>() {
-			@Override public Object block() { return op.get(); }
+			@Override public Object block() { return op.fold(initial, accumulator); }
 		});
 	}
 
 	@Override
-	public Object get() {
-		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
-
-		return op.iterate(new IteratorProcessor() {
-			public Object processIterator(Iterator iterator) {
+	public Object fold(final Object initial, final Accumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
+		
+		return withStatement(op, false, new PreparedStatementBlock<Object>() {
+			@Override public Object block(final PreparedStatement ps) throws SQLException {
+				final ResultSet resultSet = ps.executeQuery();
+				try {
+					final ResultSetMapper.RowView rowView =
+						ResultSetMapper.getInstance(op.getOperationClass(), resultSet).createRowView();
+					
+					Object accumulated = initial;
+					while (resultSet.next())
+						accumulated = accumulator.accumulate(accumulated, rowView.mapCurrentRow(resultSet));
+					return accumulated;
+				}
+				finally {
+					JdbcUtils.closeResultSet(resultSet);
+				}
+			}
+		});
+	}
+
+	@Override
+	public long foldLong(final Object input, final String column, final long initial, final LongAccumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
+
+		return withInput(input, new Block<Long>() {
+			@Override public Long block() { return op.foldLong(column, initial, accumulator); }
+		});
+	}
+
+	@Override
+	public long foldLong(final String column, final long initial, final LongAccumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
+		
+		return withStatement(op, false, new PreparedStatementBlock<Long>() {
+			@Override public Long block(final PreparedStatement ps) throws SQLException {
+				final ResultSet resultSet = ps.executeQuery();
+				try {
+					final int colIdx = resultSet.findColumn(column);
+					
+					long accumulated = initial;
+					while (resultSet.next()) {
+						final long value = resultSet.getLong(colIdx);
+						if (!resultSet.wasNull())
+							accumulated = accumulator.accumulate(accumulated, value);
+					}
+					return accumulated;
+				}
+				finally {
+					JdbcUtils.closeResultSet(resultSet);
+				}
+			}
+		});
+	}
+
+	@Override
+	public double foldDouble(final Object input, final String column, final double initial, final DoubleAccumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
+
+		return withInput(input, new Block<Double>() {
+			@Override public Double block() { return op.foldDouble(column, initial, accumulator); }
+		});
+	}
+
+	@Override
+	public double foldDouble(final String column, final double initial, final DoubleAccumulator accumulator) {
+		final Operation op = _getActualImplementation(Operation.class);
+		
+		return withStatement(op, false, new PreparedStatementBlock<Double>() {
+			@Override public Double block(final PreparedStatement ps) throws SQLException {
+				final ResultSet resultSet = ps.executeQuery();
+				try {
+					final int colIdx = resultSet.findColumn(column);
+					
+					double accumulated = initial;
+					while (resultSet.next()) {
+						final double value = resultSet.getDouble(colIdx);
+						if (!resultSet.wasNull())
+							accumulated = accumulator.accumulate(accumulated, value);
+					}
+					return accumulated;
+				}
+				finally {
+					JdbcUtils.closeResultSet(resultSet);
+				}
+			}
+		});
+	}
+
+	@Override
+	public long exportTo(final Object input, final java.nio.channels.WritableByteChannel sink, final ExportFormat format) {
+		final Operation op = _getActualImplementation(Operation.class);
+
+		return withInput(input, new Block<Long>() {
+			@Override public Long block() { return op.exportTo(sink, format); }
+		});
+	}
+
+	@Override
+	public long exportTo(final java.nio.channels.WritableByteChannel sink, final ExportFormat format) {
+		final Operation op = _getActualImplementation(Operation.class);
+		
+		return withStatement(op, false, new PreparedStatementBlock<Long>() {
+			@Override public Long block(final PreparedStatement ps) throws SQLException {
+				final ResultSet resultSet = ps.executeQuery();
+				try {
+					final ResultSetExporter exporter = new ResultSetExporter(
+						resultSet,
+						ResultSetMapper.getInstance(op.getOperationClass(), resultSet),
+						format,
+						m_executor.getExportChunkRows(),
+						m_executor.getExportParallelism(),
+						m_executor.getFetchExecutor(),
+						m_executor.getExportBufferPool(),
+						sink
+					);
+					return exporter.export();
+				}
+				catch (java.io.IOException e) {
+					throw new DataAccessResourceFailureException("failed to write the rows of " + m_opClass.getName(), e);
+				}
+				catch (WrappedSQLException e) {
+					throw e.getSQLException();
+				}
+				finally {
+					JdbcUtils.closeResultSet(resultSet);
+				}
+			}
+		});
+	}
+
+	@Override
+	public Collection collection(Object input) {
+		final Operation op = _getActualImplementation(Operation.class);
+
+		return withInput(input, new Block<Collection>() {
+			@Override public Collection block() { return op.collection(); }
+		});
+	}
+
+	@Override
+	public Collection collection() {
+		final Operation<Object,Object> op = _getActualImplementation(Operation.class);
+
+		return op.iterate(new IteratorProcessor<Object, Collection>() {
+			public Collection processIterator(Iterator iterator) {
+				Collection collection = new java.util.LinkedList();
+				while (iterator.hasNext())
+					collection.add(iterator.next());
+				return collection;
+			}
+			
+		});
+	}
+
+	@Override
+	public Object get(Object input) {
+		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
+		
+		if ((m_preloadedTable != null) && (input != null))
+			return m_preloadedTable.get(input);
+		
+		if ((m_existenceFilter != null) && (input != null)) {
+			if (!m_existenceFilter.mightContain(input))
+				return null;
+			
+			final Object row = getUnfiltered(op, input);
+			if (row == null)
+				m_existenceFilter.countFalsePositives(1);
+			return row;
+		}
+		
+		return getUnfiltered(op, input);
+	}
+	
+	private Object getUnfiltered(final OperationReturnsSingleRow op, final Object input) {
+		/* Executions within a transaction must use the transaction's connection */
+		if ((m_coalescer != null) && (input != null) && !TransactionSynchronizationManager.isActualTransactionActive())
+			return m_coalescer.get(input);
+
+		return withInput(input, new Block<Object>() {
+			@Override public Object block() { return op.get(); }
+		});
+	}
+
+	@Override
+	public Object get() {
+		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
+		
+		if (m_identityCache != null) {
+			/* Rows are cached by the values bound, since inputs may be mutable */
+			final SqlParameterSource params = mapInput(op);
+			final int maxRows = (m_statementTemplate != null) ? m_statementTemplate.getMaxRows(params) : 0;
+			final StatementPlan.Binding binding = bind(op, params);
+			
+			final String key = IdentityCache.getKey(binding, maxRows);
+			if (key != null) {
+				final Object cached = m_identityCache.get(m_opClass, key);
+				if (cached != null)
+					return (cached != IdentityCache.s_noRow) ? cached : null;
+			}
+			
+			final Object row = withStatement(binding, maxRows, false, new SingleRowBlock(op));
+			if (key != null)
+				m_identityCache.put(m_opClass, key, row);
+			return row;
+		}
+		
+		return getUncached(op);
+	}
+	
+	/**
+	 * Executes a query and returns its single row, or null if
+	 * it returned none
+	 */
+	private static final class SingleRowBlock implements PreparedStatementBlock<Object> {
+		final OperationReturnsSingleRow op;
+		
+		SingleRowBlock(final OperationReturnsSingleRow _op) {
+			op = _op;
+		}
+		
+		@Override public Object block(final PreparedStatement ps) throws SQLException {
+			final ResultSet resultSet = ps.executeQuery();
+			try {
+				if (!resultSet.next())
+					return null;
+				
+				final Object row = ResultSetMapper.getInstance(op.getOperationClass(), resultSet).mapCurrentRow(resultSet);
+				if (resultSet.next())
+					throw tooManyRows(op);
+				
+				return row;
+			}
+			finally {
+				JdbcUtils.closeResultSet(resultSet);
+			}
+		}
+	}
+	
+	private Object getUncached(final OperationReturnsSingleRow op) {
+		return op.iterate(new IteratorProcessor() {
+			public Object processIterator(Iterator iterator) {
 				if (!iterator.hasNext())
 					return null;
 				
 				Object result = iterator.next();
-				if (iterator.hasNext()) {
-					throw new IncorrectResultSizeDataAccessException(
-						"Statement " + op.getOperationClass().getName() + " " +
-						"was declared as " + OperationReturnsSingleRow.class.getSimpleName() + " " +
-						"but returned more than one row",
-						1,
-						-1 /* Actual size unknown */
-					);
-				}
+				if (iterator.hasNext())
+					throw tooManyRows(op);
 				
 				return result;
 			}
 			
 		});
 	}
+	
+	@Override
+	public Object get(final long input) {
+		return getScalar(input, false);
+	}
+	
+	@Override
+	public Object get(final int input) {
+		return getScalar(input, true);
+	}
+	
+	@Override
+	public Map getAll(final Collection inputs) {
+		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
+		
+		if (m_preloadedTable != null) {
+			final Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+			for(final Object input: inputs) {
+				if ((input == null) || result.containsKey(input))
+					continue;
+				final Object row = m_preloadedTable.get(input);
+				if (row != null)
+					result.put(input, row);
+			}
+			return result;
+		}
+		
+		if (m_existenceFilter != null) {
+			final List<Object> candidates = m_existenceFilter.retainPossible(inputs);
+			final Map result = getAllUnfiltered(op, candidates);
+			m_existenceFilter.countFalsePositives(candidates.size() - result.size());
+			return result;
+		}
+		
+		return getAllUnfiltered(op, inputs);
+	}
+	
+	private Map getAllUnfiltered(final OperationReturnsSingleRow op, final Collection inputs) {
+		final BatchLookupFetcher fetcher = BatchLookupFetcher.getInstance(op.getOperationClass());
+		if (fetcher == null)
+			return getAllIndividually(op, inputs);
+		
+		/* Distinct inputs by normalized key */
+		final Map<Object, Object> inputsByKey = new LinkedHashMap<Object, Object>();
+		for(final Object input: inputs) {
+			if (input == null)
+				continue;
+			final Object key = BatchLookupFetcher.normalizeKey(input);
+			if (!inputsByKey.containsKey(key))
+				inputsByKey.put(key, input);
+		}
+		
+		final Map<Object, Object> result = new LinkedHashMap<Object, Object>(inputsByKey.size() * 2);
+		final List<Object> keys = new ArrayList<Object>(inputsByKey.keySet());
+		final int chunkSize = fetcher.getChunkSize();
+		for(int chunkStart = 0; chunkStart < keys.size(); chunkStart += chunkSize) {
+			final List<Object> chunk = keys.subList(chunkStart, Math.min(chunkStart + chunkSize, keys.size()));
+			final Map<Object, Object> rows = fetcher.fetch(m_executor, chunk);
+			for(final Object key: chunk) {
+				final Object row = fetcher.getRow(rows, key);
+				if (row != null)
+					result.put(inputsByKey.get(key), row);
+			}
+		}
+		return result;
+	}
+	
+	/**
+	 * Implements {@link #getAll(Collection)} for operations without
+	 * a {@link BatchLookup} companion, by executing the operation's
+	 * statement once per distinct input on a single connection. Each
+	 * execution is set up like those of {@link #get(Object)} (see
+	 * {@link #executePrepared}), and consults the session's identity
+	 * cache, if any.
+	 */
+	private Map getAllIndividually(final OperationReturnsSingleRow op, final Collection inputs) {
+		/* Rows by input, ordered like the inputs once all were fetched */
+		final Map<Object, Object> rows = new HashMap<Object, Object>();
+		final List<Object> distinct = new ArrayList<Object>();
+		
+		/* Inputs whose rows aren't cached, with their bindings, row limits and cache keys */
+		final List<Object> pending = new ArrayList<Object>();
+		final List<StatementPlan.Binding> bindings = new ArrayList<StatementPlan.Binding>();
+		final List<Integer> maxRows = new ArrayList<Integer>();
+		final List<String> keys = new ArrayList<String>();
+		final Set<Object> done = new HashSet<Object>();
+		for(final Object input: inputs) {
+			if ((input == null) || !done.add(input))
+				continue;
+			distinct.add(input);
+			
+			final SqlParameterSource[] params = new SqlParameterSource[1];
+			final StatementPlan.Binding binding = withInput(input, new Block<StatementPlan.Binding>() {
+				@Override public StatementPlan.Binding block() {
+					params[0] = mapInput(op);
+					return bind(op, params[0]);
+				}
+			});
+			final int inputMaxRows = (m_statementTemplate != null) ? m_statementTemplate.getMaxRows(params[0]) : 0;
+			
+			final String key = (m_identityCache != null) ? IdentityCache.getKey(binding, inputMaxRows) : null;
+			if (key != null) {
+				final Object cached = m_identityCache.get(m_opClass, key);
+				if (cached != null) {
+					if (cached != IdentityCache.s_noRow)
+						rows.put(input, cached);
+					continue;
+				}
+			}
+			
+			pending.add(input);
+			bindings.add(binding);
+			maxRows.add(inputMaxRows);
+			keys.add(key);
+		}
+		
+		if (!pending.isEmpty())
+			fetchIndividually(pending, bindings, maxRows, keys, new SingleRowBlock(op), rows);
+		
+		final Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+		for(final Object input: distinct) {
+			final Object row = rows.get(input);
+			if (row != null)
+				result.put(input, row);
+		}
+		return result;
+	}
+	
+	/**
+	 * Executes a statement per pending input on a single connection, re-using
+	 * the prepared statement while the statement text stays the same, and
+	 * stores the found rows by input and, if they have a key, in the
+	 * identity cache
+	 */
+	private void fetchIndividually(
+		final List<Object> pending,
+		final List<StatementPlan.Binding> bindings,
+		final List<Integer> maxRows,
+		final List<String> keys,
+		final PreparedStatementBlock<Object> query,
+		final Map<Object, Object> rows
+	) {
+		executeLimited(new ConnectionCallback() {
+			public Object doInConnection(final Connection connectionProxy) throws SQLException {
+				final Connection connection = (connectionProxy instanceof ConnectionProxy)
+					? ((ConnectionProxy)connectionProxy).getTargetConnection()
+					: connectionProxy;
+				final StatementCache statementCache = m_executor.getStatementCache();
+				
+				PreparedStatement ps = null;
+				String psStatement = null;
+				try {
+					for(int i = 0; i < pending.size(); ++i) {
+						final Object input = pending.get(i);
+						final StatementPlan.Binding binding = bindings.get(i);
+						
+						/* Re-use the statement as long as the statement text is the same, and it wasn't discarded */
+						if (!binding.getJdbcStatement().equals(psStatement) || ps.isClosed()) {
+							if (ps != null)
+								statementCache.release(connection, ps);
+							ps = null; /* Not to be released again if prepare() fails */
+							ps = statementCache.prepare(m_executor.getDataSource(), connection, binding.getJdbcStatement(), false, null);
+							psStatement = binding.getJdbcStatement();
+						}
+						
+						final Object row = executePrepared(ps, binding, maxRows.get(i), false, query);
+						if (keys.get(i) != null)
+							m_identityCache.put(m_opClass, keys.get(i), row);
+						if (row != null)
+							rows.put(input, row);
+					}
+				}
+				finally {
+					if (ps != null)
+						statementCache.release(connection, ps);
+				}
+				
+				return null;
+			}
+		});
+	}
+	
+	private Object getScalar(final long input, final boolean asInt) {
+		final OperationReturnsSingleRow op = _getActualImplementation(OperationReturnsSingleRow.class);
+		
+		final StatementPlan plan = m_scalarFastPath ? getScalarPlan(op) : null;
+		if (plan == null)
+			return op.get(boxInput(input));
+		
+		return withStatement(bindScalar(plan, input, asInt), 0, false, new SingleRowBlock(op));
+	}
 
 	@Override
 	public Number key(Object input) {
@@ -344,23 +1407,119 @@ class OperationDefaultImplementation implements
 	@Override
 	public Number key() {
 		final OperationGeneratesKey op = _getActualImplementation(OperationGeneratesKey.class);
+		invalidateIdentityCache();
+		if (!addsGeneratedKeys())
+			addInputKey();
 
-		final SqlParameterSource inputSrc;
-		if (m_inputMapper.isInputVoid())
-			inputSrc = m_inputMapper.mapInput(m_defaultInput);
-		else
-			inputSrc = m_inputMapper.mapInput(op.getInput(), m_defaultInput);
-
-		final KeyHolder keyHolder = new GeneratedKeyHolder();
+		final Number key = withStatement(op, true, new PreparedStatementBlock<Number>() {
+			@Override public Number block(final PreparedStatement ps) throws SQLException {
+				ps.executeUpdate();
+				
+				final ResultSet keys = ps.getGeneratedKeys();
+				try {
+					return m_keyMapper.mapKey(keys);
+				}
+				finally {
+					JdbcUtils.closeResultSet(keys);
+				}
+			}
+		});
 		
-		m_npJdbcTemplate.update(
-			op.getStatement(),
-			inputSrc,
-			keyHolder,
-			m_keyMapper.getGeneratedKeyColumns()
-		);
+		if (addsGeneratedKeys())
+			m_addsKeysFilter.add(key);
+		return key;
+	}
+	
+	/**
+	 * Reads a generated key as a primitive value,
+	 * storing it in a field to avoid boxing
+	 */
+	private final class PrimitiveKeyBlock implements PreparedStatementBlock<Void> {
+		final boolean asInt;
+		long key;
 		
-		return m_keyMapper.mapKey(keyHolder);
+		PrimitiveKeyBlock(final boolean _asInt) {
+			asInt = _asInt;
+		}
+		
+		@Override public Void block(final PreparedStatement ps) throws SQLException {
+			ps.executeUpdate();
+			
+			final ResultSet keys = ps.getGeneratedKeys();
+			try {
+				key = asInt ? m_keyMapper.mapKeyAsInt(keys) : m_keyMapper.mapKeyAsLong(keys);
+			}
+			finally {
+				JdbcUtils.closeResultSet(keys);
+			}
+			return null;
+		}
+	}
+	
+	@Override
+	public long keyAsLong(final Object input) {
+		final OperationGeneratesKey op = _getActualImplementation(OperationGeneratesKey.class);
+		
+		/* Same as withInput(), but avoids boxing the key */
+		final boolean previousInputSet = op.getInputSet();
+		final Object previousInput = previousInputSet ? op.getInput() : null;
+		try {
+			op.setInput(input);
+			return op.keyAsLong();
+		}
+		finally {
+			if (previousInputSet)
+				op.setInput(previousInput);
+			else
+				op.clearInput();
+		}
+	}
+	
+	@Override
+	public long keyAsLong() {
+		final OperationGeneratesKey op = _getActualImplementation(OperationGeneratesKey.class);
+		invalidateIdentityCache();
+		if (!addsGeneratedKeys())
+			addInputKey();
+		
+		final PrimitiveKeyBlock block = new PrimitiveKeyBlock(false);
+		withStatement(op, true, block);
+		if (addsGeneratedKeys())
+			m_addsKeysFilter.add(block.key);
+		return block.key;
+	}
+	
+	@Override
+	public int keyAsInt(final Object input) {
+		final OperationGeneratesKey op = _getActualImplementation(OperationGeneratesKey.class);
+		
+		/* Same as withInput(), but avoids boxing the key */
+		final boolean previousInputSet = op.getInputSet();
+		final Object previousInput = previousInputSet ? op.getInput() : null;
+		try {
+			op.setInput(input);
+			return op.keyAsInt();
+		}
+		finally {
+			if (previousInputSet)
+				op.setInput(previousInput);
+			else
+				op.clearInput();
+		}
+	}
+	
+	@Override
+	public int keyAsInt() {
+		final OperationGeneratesKey op = _getActualImplementation(OperationGeneratesKey.class);
+		invalidateIdentityCache();
+		if (!addsGeneratedKeys())
+			addInputKey();
+		
+		final PrimitiveKeyBlock block = new PrimitiveKeyBlock(true);
+		withStatement(op, true, block);
+		if (addsGeneratedKeys())
+			m_addsKeysFilter.add(block.key);
+		return (int)block.key;
 	}
 
 	@Override
@@ -373,18 +1532,204 @@ class OperationDefaultImplementation implements
 	}
 
 	@Override
-	public void execute() {
+	public void execute(final long input) {
+		executeScalar(input, false);
+	}
+	
+	@Override
+	public void execute(final int input) {
+		executeScalar(input, true);
+	}
+	
+	private void executeScalar(final long input, final boolean asInt) {
 		final Operation op = _getActualImplementation(Operation.class);
-
-		final SqlParameterSource inputSrc;
-		if (m_inputMapper.isInputVoid())
-			inputSrc = m_inputMapper.mapInput(m_defaultInput);
+		
+		/* The generated key, not the input, is added to the existence filter */
+		final StatementPlan plan = !addsGeneratedKeys() ? getScalarPlan(op) : null;
+		if (plan == null) {
+			op.execute(boxInput(input));
+			return;
+		}
+		
+		invalidateIdentityCache();
+		if (m_addsKeysFilter != null)
+			m_addsKeysFilter.addInputKey(m_opClass, m_addsKeysProperty, input);
+		withStatement(bindScalar(plan, input, asInt), 0, false, new PreparedStatementBlock<Void>() {
+			@Override public Void block(final PreparedStatement ps) throws SQLException {
+				ps.executeUpdate();
+				return null;
+			}
+		});
+	}
+	
+	@Override
+	public int[] executeBatch(final Collection inputs) {
+		final Operation op = _getActualImplementation(Operation.class);
+		final int[] updateCounts = new int[inputs.size()];
+		invalidateIdentityCache();
+		
+		/* Drivers needn't return the keys generated by a batch, so
+		 * operations which add their generated keys to an existence
+		 * filter execute each input on its own
+		 */
+		final boolean generatesKeys = addsGeneratedKeys();
+		final String[] generatedKeyColumns = generatesKeys ? m_keyMapper.getGeneratedKeyColumns() : null;
+		if ((m_addsKeysFilter != null) && !generatesKeys) {
+			for(final Object input: inputs)
+				m_addsKeysFilter.addInputKey(m_opClass, m_addsKeysProperty, input);
+		}
+		
+		executeLimited(new ConnectionCallback() {
+			public Object doInConnection(final Connection connectionProxy) throws SQLException {
+				final Connection connection = (connectionProxy instanceof ConnectionProxy)
+					? ((ConnectionProxy)connectionProxy).getTargetConnection()
+					: connectionProxy;
+				final StatementCache statementCache = m_executor.getStatementCache();
+				
+				PreparedStatement ps = null;
+				String psStatement = null;
+				int batched = 0;
+				int executed = 0;
+				try {
+					for(final Object input: inputs) {
+						final StatementPlan.Binding binding = withInput(input, new Block<StatementPlan.Binding>() {
+							@Override public StatementPlan.Binding block() { return bind(op, mapInput(op)); }
+						});
+						
+						/* Inputs producing a different statement text start a new batch. Inputs
+						 * executed on their own need a new statement if the last was discarded
+						 */
+						if (!binding.getJdbcStatement().equals(psStatement) || (generatesKeys && ps.isClosed())) {
+							if (ps != null) {
+								executed = executeBatch(ps, batched, updateCounts, executed);
+								batched = 0;
+								statementCache.release(connection, ps);
+							}
+							ps = null; /* Not to be released again if prepare() fails */
+							ps = statementCache.prepare(m_executor.getDataSource(), connection, binding.getJdbcStatement(), generatesKeys, generatedKeyColumns);
+							psStatement = binding.getJdbcStatement();
+						}
+						
+						if (generatesKeys) {
+							updateCounts[executed++] = executePrepared(ps, binding, 0, true, new PreparedStatementBlock<Integer>() {
+								@Override public Integer block(final PreparedStatement ps) throws SQLException {
+									final int updateCount = ps.executeUpdate();
+									addGeneratedKey(ps);
+									return updateCount;
+								}
+							});
+						}
+						else {
+							binding.setParameters(ps);
+							ps.addBatch();
+							++batched;
+						}
+					}
+					
+					if (ps != null)
+						executeBatch(ps, batched, updateCounts, executed);
+				}
+				finally {
+					if (ps != null)
+						statementCache.release(connection, ps);
+				}
+				
+				return null;
+			}
+		});
+		
+		return updateCounts;
+	}
+	
+	/**
+	 * Executes a statement's batch, timed like other executions
+	 * (see {@link #executeTimed}), and copies the update counts
+	 * 
+	 * @param ps the statement
+	 * @param batched the number of executions in the statement's batch
+	 * @param updateCounts the update counts of all batches
+	 * @param offset the number of update counts already copied
+	 * @return the number of update counts copied so far
+	 */
+	private int executeBatch(final PreparedStatement ps, final int batched, final int[] updateCounts, final int offset) throws SQLException {
+		if (batched == 0)
+			return offset;
+		
+		final int[] batchUpdateCounts = executeTimed(ps, new PreparedStatementBlock<int[]>() {
+			@Override public int[] block(final PreparedStatement ps) throws SQLException {
+				return ps.executeBatch();
+			}
+		});
+		if (batchUpdateCounts.length == batched)
+			System.arraycopy(batchUpdateCounts, 0, updateCounts, offset, batched);
 		else
-			inputSrc = m_inputMapper.mapInput(op.getInput(), m_defaultInput);
+			Arrays.fill(updateCounts, offset, offset + batched, java.sql.Statement.SUCCESS_NO_INFO);
+		return offset + batched;
+	}
+	
+	@Override
+	public void execute() {
+		/* The generated key, not the input, is added to the existence filter */
+		if (addsGeneratedKeys()) {
+			_getActualImplementation(OperationGeneratesKey.class).key();
+			return;
+		}
+		
+		final Operation op = _getActualImplementation(Operation.class);
+		invalidateIdentityCache();
+		addInputKey();
 
-		m_npJdbcTemplate.update(
-			op.getStatement(),
-			inputSrc
-		);
+		withStatement(op, false, new PreparedStatementBlock<Void>() {
+			@Override public Void block(final PreparedStatement ps) throws SQLException {
+				ps.executeUpdate();
+				return null;
+			}
+		});
+	}
+	
+	/**
+	 * Removes the rows this operation may change from the identity
+	 * cache of the executor's session. Called before writes, since
+	 * even failed writes may have changed rows.
+	 */
+	private void invalidateIdentityCache() {
+		if (m_identityCache != null)
+			m_identityCache.invalidate(m_opClass);
+	}
+	
+	/**
+	 * Adds the key of the current input to the existence filter
+	 * named by the operation's {@link AddsKeys}. Called before
+	 * writes, since the row may be found before the write returns.
+	 */
+	private void addInputKey() {
+		if (m_addsKeysFilter == null)
+			return;
+		
+		final OperationInput op = _getActualImplementation(OperationInput.class);
+		if (op.getInputSet())
+			m_addsKeysFilter.addInputKey(m_opClass, m_addsKeysProperty, op.getInput());
+	}
+	
+	/**
+	 * Returns whether the operation adds the keys it generates
+	 * to an existence filter, instead of its inputs' keys
+	 */
+	private boolean addsGeneratedKeys() {
+		return (m_addsKeysFilter != null) && (m_addsKeysProperty.length() == 0) && (m_keyMapper != null);
+	}
+	
+	/**
+	 * Adds the key generated by the statement's last
+	 * execution to the operation's existence filter
+	 */
+	private void addGeneratedKey(final PreparedStatement ps) throws SQLException {
+		final ResultSet keys = ps.getGeneratedKeys();
+		try {
+			m_addsKeysFilter.add(m_keyMapper.mapKey(keys));
+		}
+		finally {
+			JdbcUtils.closeResultSet(keys);
+		}
 	}
 }
@@ -1,7 +1,6 @@
 package org.phlo.tuplez;
 
 import java.lang.reflect.*;
-import java.util.concurrent.ConcurrentMap;
 
 import net.sf.cglib.proxy.*;
 
@@ -24,14 +23,20 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 	/**
 	 * Cache of factory instances, one per operation class/interface  
 	 */
-	private static final ConcurrentMap<Class<? extends Operation<?, ?>>, OperationFactory<?>> s_operationFactories =
-		new java.util.concurrent.ConcurrentHashMap<Class<? extends Operation<?, ?>>,OperationFactory<?>>();
+	private static final ClassCache<OperationFactory<?>> s_operationFactories = new ClassCache<OperationFactory<?>>() {
+		@SuppressWarnings("unchecked")
+		@Override protected OperationFactory<?> create(final Class<?> opClass, final Class<?> key, final Object context) {
+			validateOperation((Class<? extends Operation<?,?>>)opClass);
+			return new OperationFactory((Class<? extends Operation<?,?>>)opClass);
+		}
+	};
 	
 	/**
 	 * Returns a factory instance for a certain operation type.
 	 * <p>
 	 * Returns the cached instance for that type unless none exists,
-	 * in which case a new one is created.
+	 * in which case a new one is created. Concurrent first calls
+	 * for the same type create a single instance.
 	 * 
 	 * @param <OpType> the operation's type
 	 * @param opClass the operation's class
@@ -44,12 +49,6 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 	) {
 		@SuppressWarnings("unchecked")
 		OperationFactory<OpType> opFactory = (OperationFactory<OpType>)s_operationFactories.get(opClass);
-		if (opFactory == null) {
-			validateOperation(opClass);
-			opFactory = new OperationFactory<OpType>(opClass);
-			s_operationFactories.put(opClass, opFactory);
-		}
-		
 		return opFactory;
 	}
 	
@@ -237,11 +236,11 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 			enhancer.setCallbacks(CallbackIndices.getCallbacksWithoutDelegate());
 			
 			/* Create prototype instance using the constructor
-			 * (NamedParameterJdbcTemplate, DefaultInput)
+			 * (Class, Executor)
 			 */
 			m_factory = (Factory)enhancer.create(
-				new Class<?>[] {Class.class, NamedParameterJdbcTemplate.class, Object.class},
-				new Object[] {m_opClass, null, null}
+				new Class<?>[] {Class.class, Executor.class},
+				new Object[] {m_opClass, null}
 			);
 			m_constructor = null;
 		}
@@ -257,7 +256,7 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 			enhancer.setCallbackTypes(CallbackIndices.CallbackTypesWithDelegate);
 			enhancer.setCallbackFilter(CallbackIndices.CallbackFilterWithDelegate);
 			enhancer.setCallbacks(CallbackIndices.getCallbacksWithDelegate(
-				new OperationDefaultImplementation(m_opClass, null, null))
+				new OperationDefaultImplementation(m_opClass, null))
 			);
 			
 			/* Create prototype instance using the no-args constructor */
@@ -286,21 +285,17 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 		
 	}
 	
-	public OpType getInstance(
-		final NamedParameterJdbcTemplate npJdbcTemplate,
-		final Object defaultInput
-	) {
+	public OpType getInstance(final Executor executor) {
 		try {
 			switch (m_opClassFlavour) {
 				case INTERFACE: {
 					/* Create new instance using the constructor
-					 * (NamedParameterJdbcTemplate, DefaultInput)
-					 * of OperationDefaultImplementation
+					 * (Class, Executor) of OperationDefaultImplementation
 					 */
 					@SuppressWarnings("unchecked")
 					OpType op = (OpType) m_factory.newInstance(
-						new Class<?>[] {Class.class, NamedParameterJdbcTemplate.class, Object.class},
-						new Object[] {m_opClass, npJdbcTemplate, defaultInput},
+						new Class<?>[] {Class.class, Executor.class},
+						new Object[] {m_opClass, executor},
 						CallbackIndices.getCallbacksWithoutDelegate()
 					);
 					
@@ -310,7 +305,7 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 				case ABSTRACT: {
 					/* Create default implementation delegate */
 					final OperationDefaultImplementation opDefaultImpl =
-						new OperationDefaultImplementation(m_opClass, npJdbcTemplate, defaultInput);
+						new OperationDefaultImplementation(m_opClass, executor);
 
 					/* Create new instance using the no-args constructor */
 					@SuppressWarnings("unchecked")
@@ -332,7 +327,7 @@ final class OperationFactory<OpType extends Operation<?,?>> {
 					/* Create new instance using the constructor
 					 * (NamedParameterJdbcTemplate, DefaultInput)
 					 */
-					return m_constructor.newInstance(npJdbcTemplate, defaultInput);
+					return m_constructor.newInstance(executor.getNpJdbcTemplate(), executor.getDefaultInput());
 				}
 				
 				default:
@@ -0,0 +1,30 @@
+package org.phlo.tuplez;
+
+import org.phlo.tuplez.operation.Operation;
+import org.springframework.dao.TransientDataAccessResourceException;
+
+/**
+ * Thrown if an execution of an operation exceeded its timeout
+ * or deadline.
+ * 
+ * @see org.phlo.tuplez.operation.Timeout
+ * @see Executor#with(Class, long, java.util.concurrent.TimeUnit)
+ */
+@SuppressWarnings("serial")
+public class OperationTimeoutException extends TransientDataAccessResourceException {
+	private final Class<? extends Operation<?,?>> m_opClass;
+	
+	public OperationTimeoutException(final String msg, final Class<? extends Operation<?,?>> opClass) {
+		super("Execution of operation " + opClass.getName() + " timed out, " + msg);
+		m_opClass = opClass;
+	}
+
+	public OperationTimeoutException(final String msg, final Class<? extends Operation<?,?>> opClass, Throwable cause) {
+		super("Execution of operation " + opClass.getName() + " timed out, " + msg, cause);
+		m_opClass = opClass;
+	}
+
+	public Class<? extends Operation<?,?>> getOperation() {
+		return m_opClass;
+	}
+}
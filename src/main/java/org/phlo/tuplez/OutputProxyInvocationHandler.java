@@ -115,6 +115,25 @@ final class OutputProxyInvocationHandler implements InvocationHandler {
 		);
 	}
 
+	/**
+	 * Returns the getter results, keyed by the getter's name.
+	 * The map must not be modified.
+	 * 
+	 * @return the getter results
+	 */
+	Map<String, Object> getGetterNameResults() {
+		return m_getterNameResults;
+	}
+	
+	/**
+	 * Returns the order in which toString() lists the getters.
+	 * 
+	 * @return the getter order for toString()
+	 */
+	Collection<String> getGetterToStringOrder() {
+		return m_getterToStringOrder;
+	}
+
 	public Object invoke(Object obj, Method method, Object[] args) 	throws Throwable {
 		/* Get the method handler for the invoked method if there already is one */
 		MethodHandler handler = m_methodHandlers.get(method);
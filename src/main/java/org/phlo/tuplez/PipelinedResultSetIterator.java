@@ -0,0 +1,205 @@
+package org.phlo.tuplez;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Iterator over a {@link ResultSet}'s rows whose rows are fetched
+ * and mapped by a producer thread, see
+ * {@link org.phlo.tuplez.operation.PipelinedFetch}.
+ * <p>
+ * The producer (see {@link #run()}) and the consumer (the thread
+ * calling {@link #hasNext()} and {@link #next()}) exchange rows
+ * through a lock-free single-producer/single-consumer ring buffer.
+ * Each side owns one of the two counters {@link #m_tail} and
+ * {@link #m_head}, and publishes them with ordered stores
+ * ({@link AtomicLong#lazySet(long)}). A side which finds the
+ * buffer full respectively empty spins briefly, then parks for
+ * short intervals.
+ * <p>
+ * The producer must be stopped with {@link #cancel()} before
+ * the result set is closed.
+ *
+ * @param <OutputType> type representing {@link ResultSet} rows
+ */
+final class PipelinedResultSetIterator<OutputType> implements Iterator<OutputType>, Runnable {
+	/* Stands in for null rows in the buffer, whose empty slots are null */
+	private static final Object s_nullRow = new Object();
+	
+	/* Number of spins before a waiting side starts yielding, and parking */
+	private static final int s_spins = 64;
+	private static final int s_yields = 64;
+	
+	/* Park interval of a waiting side, in nanoseconds */
+	private static final long s_parkNanos = 50000;
+	
+	private final ResultSet m_resultSet;
+	private final ResultSetMapper<OutputType> m_resultSetMapper;
+	
+	/* Ring buffer. Its size is a power of two */
+	private final Object[] m_buffer;
+	private final int m_mask;
+	
+	/* Next slot to read. Written only by the consumer */
+	private final AtomicLong m_head = new AtomicLong();
+	
+	/* Next slot to write. Written only by the producer */
+	private final AtomicLong m_tail = new AtomicLong();
+	
+	/* Set by the producer once it has published its last row */
+	private volatile boolean m_done = false;
+	
+	/* The error which stopped the producer, if any */
+	private volatile Throwable m_error = null;
+	
+	/* Set by cancel() to stop the producer */
+	private volatile boolean m_cancelled = false;
+	
+	/* The producer thread, to be woken by cancel() */
+	private volatile Thread m_producerThread = null;
+	
+	/* Row fetched by hasNext() but not yet returned by next() */
+	private boolean m_hasNext = false;
+	private Object m_next = null;
+	
+	/**
+	 * Creates an iterator over the {@link ResultSet}'s rows. The
+	 * iterator must be submitted for execution on a producer thread.
+	 * 
+	 * @param resultSet the {@link ResultSet} to iterate over
+	 * @param resultSetMapper the mapper which converts rows instances of OutputType.
+	 * @param bufferSize maximal number of rows to fetch ahead
+	 */
+	PipelinedResultSetIterator(final ResultSet resultSet, final ResultSetMapper<OutputType> resultSetMapper, final int bufferSize) {
+		if (bufferSize <= 0)
+			throw new IllegalArgumentException("buffer size must be positive");
+		
+		m_resultSet = resultSet;
+		m_resultSetMapper = resultSetMapper;
+		
+		int capacity = 1;
+		while (capacity < bufferSize)
+			capacity <<= 1;
+		m_buffer = new Object[capacity];
+		m_mask = capacity - 1;
+	}
+	
+	/**
+	 * The producer's loop. Fetches and maps rows until the result
+	 * set is exhausted, an error occurs or the iterator is cancelled.
+	 */
+	public void run() {
+		m_producerThread = Thread.currentThread();
+		try {
+			final int capacity = m_buffer.length;
+			long tail = m_tail.get();
+			while (!m_cancelled && m_resultSet.next()) {
+				final OutputType row = m_resultSetMapper.mapCurrentRow(m_resultSet);
+				
+				/* Wait for a free slot */
+				int waits = 0;
+				while (tail - m_head.get() >= capacity) {
+					if (m_cancelled)
+						return;
+					idle(waits++);
+				}
+				
+				m_buffer[(int)tail & m_mask] = (row != null) ? row : s_nullRow;
+				m_tail.lazySet(++tail);
+			}
+		}
+		catch (Throwable e) {
+			m_error = e;
+		}
+		finally {
+			m_producerThread = null;
+			m_done = true;
+		}
+	}
+	
+	/**
+	 * Stops the producer. Returns immediately, callers must
+	 * wait for the producer's {@link #run()} to return before
+	 * closing the result set.
+	 */
+	void cancel() {
+		m_cancelled = true;
+		final Thread producerThread = m_producerThread;
+		if (producerThread != null)
+			LockSupport.unpark(producerThread);
+	}
+	
+	public boolean hasNext() {
+		if (m_hasNext)
+			return true;
+		
+		int waits = 0;
+		while (true) {
+			final long head = m_head.get();
+			if (head < m_tail.get()) {
+				final int slot = (int)head & m_mask;
+				final Object row = m_buffer[slot];
+				m_buffer[slot] = null;
+				m_head.lazySet(head + 1);
+				
+				m_next = (row != s_nullRow) ? row : null;
+				m_hasNext = true;
+				return true;
+			}
+			
+			if (m_done) {
+				/* The producer may have published rows before setting m_done */
+				if (head < m_tail.get())
+					continue;
+				
+				rethrowError();
+				return false;
+			}
+			
+			idle(waits++);
+		}
+	}
+	
+	public OutputType next() {
+		if (!hasNext())
+			throw new NoSuchElementException("no more rows available");
+		
+		@SuppressWarnings("unchecked")
+		final OutputType current = (OutputType)m_next;
+		m_hasNext = false;
+		m_next = null;
+		return current;
+	}
+	
+	public void remove() {
+		throw new UnsupportedOperationException(getClass().getName() + " does not support remove()");
+	}
+	
+	private void rethrowError() {
+		final Throwable error = m_error;
+		if (error == null)
+			return;
+		
+		if (error instanceof SQLException)
+			throw new WrappedSQLException((SQLException)error);
+		else if (error instanceof RuntimeException)
+			throw (RuntimeException)error;
+		else if (error instanceof Error)
+			throw (Error)error;
+		else
+			throw new RuntimeException("fetching rows failed", error);
+	}
+	
+	private static void idle(final int waits) {
+		if (waits < s_spins)
+			return;
+		else if (waits < s_spins + s_yields)
+			Thread.yield();
+		else
+			LockSupport.parkNanos(s_parkNanos);
+	}
+}
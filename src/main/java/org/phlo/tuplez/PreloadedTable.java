@@ -0,0 +1,207 @@
+package org.phlo.tuplez;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.dao.IncorrectResultSizeDataAccessException;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * The in-memory index of a lookup annotated with {@link Preloaded}.
+ * <p>
+ * The index is an immutable map from the normalized key (see
+ * {@link BatchLookupFetcher#normalizeKey(Object)}) to the row.
+ * Loads build a new map and replace the old one once complete,
+ * so lookups never wait for a reload and never see a partially
+ * loaded index. Only the first load blocks lookups.
+ * <p>
+ * Instances are created per executor and operation by
+ * {@link Executor#getPreloadedTable(Class)}.
+ */
+final class PreloadedTable {
+	/* Marks keys with more than one row */
+	private static final Object s_duplicateRow = new Object();
+
+	private final Executor m_executor;
+	private final Class<? extends Operation<?,?>> m_opClass;
+	private final Class<? extends Operation<?,?>> m_companionClass;
+	private final String m_key;
+	private final long m_refreshMillis;
+
+	/* The current index, null until the first load completed */
+	private volatile Map<Object, Object> m_rows = null;
+
+	/* Serializes loads, guards the fields below */
+	private final Object m_loadLock = new Object();
+	private PropertyGetter m_keyGetter = null;
+	private ScheduledFuture<?> m_refresh = null;
+	private long m_loads = 0;
+	private long m_failedLoads = 0;
+	private long m_lastLoadNanos = 0;
+	private long m_lastLoadedAt = 0;
+
+	private final AtomicLong m_hits = new AtomicLong();
+
+	PreloadedTable(final Executor executor, final Class<? extends Operation<?,?>> opClass, final Preloaded preloaded) {
+		if (!OperationReturnsSingleRow.class.isAssignableFrom(opClass)) {
+			throw new InvalidOperationDefinitionException(
+				"@Preloaded requires the operation to be a " + OperationReturnsSingleRow.class.getSimpleName(),
+				opClass
+			);
+		}
+		if (preloaded.refreshMillis() < 0) {
+			throw new InvalidOperationDefinitionException(
+				"@Preloaded refreshMillis must not be negative",
+				opClass
+			);
+		}
+
+		m_executor = executor;
+		m_opClass = opClass;
+		m_companionClass = preloaded.value();
+		m_key = preloaded.key();
+		m_refreshMillis = preloaded.refreshMillis();
+	}
+
+	/**
+	 * Returns the row of an input, loading the index first if necessary.
+	 *
+	 * @param input the lookup's input, not null
+	 * @return the row or null
+	 */
+	Object get(final Object input) {
+		Map<Object, Object> rows = m_rows;
+		if (rows == null)
+			rows = load(false);
+
+		m_hits.incrementAndGet();
+		final Object row = rows.get(BatchLookupFetcher.normalizeKey(input));
+		if (row == s_duplicateRow) {
+			throw new IncorrectResultSizeDataAccessException(
+				"Statement " + m_opClass.getName() + " " +
+				"was declared as " + OperationReturnsSingleRow.class.getSimpleName() + " " +
+				"but returned more than one row",
+				1,
+				-1 /* Actual size unknown */
+			);
+		}
+		return row;
+	}
+
+	/**
+	 * Loads the index, unless it was loaded already and force
+	 * is false. Schedules the periodic reloads after the first
+	 * load.
+	 *
+	 * @param force whether to reload a loaded index
+	 * @return the current index
+	 */
+	Map<Object, Object> load(final boolean force) {
+		synchronized (m_loadLock) {
+			if (!force && (m_rows != null))
+				return m_rows;
+
+			final long start = System.nanoTime();
+			final Map<Object, Object> rows;
+			try {
+				rows = fetchRows();
+			}
+			catch (RuntimeException e) {
+				m_failedLoads += 1;
+				throw e;
+			}
+
+			/* Publish the new index as a whole */
+			m_rows = rows;
+			m_loads += 1;
+			m_lastLoadNanos = System.nanoTime() - start;
+			m_lastLoadedAt = System.currentTimeMillis();
+
+			if ((m_refresh == null) && (m_refreshMillis > 0)) {
+				m_refresh = m_executor.getRefreshScheduler().scheduleWithFixedDelay(new Runnable() {
+					@Override public void run() {
+						try {
+							load(true);
+						}
+						catch (RuntimeException e) {
+							/* Counted by load(), the previous index stays in place */
+						}
+					}
+				}, m_refreshMillis, m_refreshMillis, TimeUnit.MILLISECONDS);
+			}
+
+			return rows;
+		}
+	}
+
+	/**
+	 * Stops the periodic reloads
+	 */
+	void cancel() {
+		synchronized (m_loadLock) {
+			if (m_refresh != null) {
+				m_refresh.cancel(false);
+				m_refresh = null;
+			}
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the index's counters.
+	 *
+	 * @return the index's statistics
+	 */
+	PreloadedTableStatistics getStatistics() {
+		final Map<Object, Object> rows = m_rows;
+		synchronized (m_loadLock) {
+			return new PreloadedTableStatistics(
+				(rows != null) ? rows.size() : 0,
+				m_loads,
+				m_failedLoads,
+				m_lastLoadNanos,
+				m_lastLoadedAt,
+				m_hits.get()
+			);
+		}
+	}
+
+	/**
+	 * Executes the companion operation and indexes its rows
+	 *
+	 * @return the new index
+	 */
+	private Map<Object, Object> fetchRows() {
+		@SuppressWarnings("unchecked")
+		final Operation<Object, Object> companion = (Operation<Object, Object>)m_executor.with(m_companionClass);
+
+		return companion.iterate(new IteratorProcessor<Object, Map<Object, Object>>() {
+			@Override public Map<Object, Object> processIterator(final Iterator<Object> iterator) {
+				final Map<Object, Object> rows = new HashMap<Object, Object>();
+				while (iterator.hasNext()) {
+					final Object row = iterator.next();
+					if (row == null)
+						continue;
+
+					final Object key = BatchLookupFetcher.normalizeKey(getKey(row));
+					rows.put(key, rows.containsKey(key) ? s_duplicateRow : row);
+				}
+				return rows;
+			}
+		});
+	}
+
+	private Object getKey(final Object row) {
+		if (m_key.length() == 0)
+			return row;
+
+		if (m_keyGetter == null)
+			m_keyGetter = new PropertyGetter(row.getClass(), m_key, "@Preloaded key", m_opClass);
+
+		return m_keyGetter.get(row);
+	}
+}
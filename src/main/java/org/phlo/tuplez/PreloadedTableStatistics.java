@@ -0,0 +1,99 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of the counters of a preloaded lookup's index.
+ *
+ * @see org.phlo.tuplez.operation.Preloaded
+ * @see Executor#getPreloadedTableStatistics(Class)
+ */
+public final class PreloadedTableStatistics {
+	private final int m_size;
+	private final long m_loads;
+	private final long m_failedLoads;
+	private final long m_lastLoadNanos;
+	private final long m_lastLoadedAt;
+	private final long m_hits;
+	
+	PreloadedTableStatistics(
+		final int size,
+		final long loads,
+		final long failedLoads,
+		final long lastLoadNanos,
+		final long lastLoadedAt,
+		final long hits
+	) {
+		m_size = size;
+		m_loads = loads;
+		m_failedLoads = failedLoads;
+		m_lastLoadNanos = lastLoadNanos;
+		m_lastLoadedAt = lastLoadedAt;
+		m_hits = hits;
+	}
+	
+	/**
+	 * Returns the number of rows in the index
+	 *
+	 * @return number of indexed rows
+	 */
+	public int getSize() {
+		return m_size;
+	}
+	
+	/**
+	 * Returns the number of successful loads
+	 *
+	 * @return number of loads
+	 */
+	public long getLoads() {
+		return m_loads;
+	}
+	
+	/**
+	 * Returns the number of failed loads. A failed
+	 * load leaves the previous index in place.
+	 *
+	 * @return number of failed loads
+	 */
+	public long getFailedLoads() {
+		return m_failedLoads;
+	}
+	
+	/**
+	 * Returns the time the last successful load took, in nanoseconds
+	 *
+	 * @return duration of the last load
+	 */
+	public long getLastLoadNanos() {
+		return m_lastLoadNanos;
+	}
+	
+	/**
+	 * Returns when the last successful load completed, in
+	 * milliseconds since the epoch, or zero if there was none
+	 *
+	 * @return completion time of the last load
+	 */
+	public long getLastLoadedAt() {
+		return m_lastLoadedAt;
+	}
+	
+	/**
+	 * Returns the number of lookups served from the index
+	 *
+	 * @return number of lookups
+	 */
+	public long getHits() {
+		return m_hits;
+	}
+	
+	@Override
+	public String toString() {
+		return
+			"{size: " + m_size + "; " +
+			"loads: " + m_loads + "; " +
+			"failedLoads: " + m_failedLoads + "; " +
+			"lastLoadNanos: " + m_lastLoadNanos + "; " +
+			"lastLoadedAt: " + m_lastLoadedAt + "; " +
+			"hits: " + m_hits + "}";
+	}
+}
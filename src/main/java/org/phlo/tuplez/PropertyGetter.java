@@ -0,0 +1,67 @@
+package org.phlo.tuplez;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Reads a property of objects of one class through the property's
+ * getter, e.g. the key property named by {@link Preloaded},
+ * {@link ExistenceFilter} or {@link WriteBehind}.
+ * <p>
+ * The getter is looked up once, when the instance is constructed.
+ * Exceptions thrown by the getter are re-thrown unwrapped if they
+ * are unchecked.
+ */
+final class PropertyGetter {
+	private final Method m_getter;
+
+	/**
+	 * Looks up the getter of a property
+	 *
+	 * @param objectClass the class of the objects to read
+	 * @param property the property's name
+	 * @param description the annotation attribute naming the property, used in error messages (e.g. "@Preloaded key")
+	 * @param opClass the operation whose annotation names the property
+	 * @throws InvalidOperationDefinitionException if the class has no getter for the property
+	 */
+	PropertyGetter(
+		final Class<?> objectClass,
+		final String property,
+		final String description,
+		final Class<? extends Operation<?,?>> opClass
+	) {
+		final String getterName = "get" + Character.toUpperCase(property.charAt(0)) + property.substring(1);
+		try {
+			m_getter = objectClass.getMethod(getterName);
+		}
+		catch (NoSuchMethodException e) {
+			throw new InvalidOperationDefinitionException(
+				description + " " + property + " has no getter " + getterName + "() in " + objectClass.getName(),
+				opClass
+			);
+		}
+		m_getter.setAccessible(true);
+	}
+
+	/**
+	 * Returns the property's value
+	 *
+	 * @param obj the object to read the property of
+	 * @return the property's value
+	 */
+	Object get(final Object obj) {
+		try {
+			return m_getter.invoke(obj);
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException("unable to invoke getter " + m_getter, e);
+		}
+		catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException("getter " + m_getter + " failed", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,81 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Records the rows an {@link IteratorProcessor} consumes, so that
+ * they can be cached or shared once the processor returned.
+ * <p>
+ * The rows are available only if the processor consumed all of
+ * them, and there were no more than the given maximal number.
+ * Rows beyond that number aren't recorded.
+ */
+final class RecordingIterator implements Iterator<Object> {
+	private final int m_maxRows;
+	private Iterator<Object> m_iterator = null;
+	private List<Object> m_rows = new ArrayList<Object>();
+	private boolean m_exhausted = false;
+
+	/**
+	 * Creates a recorder for at most maxRows rows.
+	 *
+	 * @param maxRows maximal number of rows to record
+	 */
+	RecordingIterator(final int maxRows) {
+		m_maxRows = maxRows;
+	}
+
+	/**
+	 * Returns a processor which lets the given processor
+	 * process this recorder instead of the rows.
+	 *
+	 * @param <T> the processor's return type
+	 * @param processor the processor whose rows to record
+	 * @return the recording processor
+	 */
+	<T> IteratorProcessor<Object, T> wrap(final IteratorProcessor<Object, T> processor) {
+		return new IteratorProcessor<Object, T>() {
+			@Override public T processIterator(final Iterator<Object> iterator) {
+				m_iterator = iterator;
+				return processor.processIterator(RecordingIterator.this);
+			}
+		};
+	}
+
+	/**
+	 * Returns the recorded rows, or null if the processor
+	 * didn't consume all rows or there were too many.
+	 *
+	 * @return the rows or null
+	 */
+	List<Object> getRows() {
+		return m_exhausted ? m_rows : null;
+	}
+
+	@Override
+	public boolean hasNext() {
+		final boolean hasNext = m_iterator.hasNext();
+		if (!hasNext)
+			m_exhausted = true;
+		return hasNext;
+	}
+
+	@Override
+	public Object next() {
+		final Object row = m_iterator.next();
+		if (m_rows != null) {
+			if (m_rows.size() < m_maxRows)
+				m_rows.add(row);
+			else
+				m_rows = null;
+		}
+		return row;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+}
@@ -0,0 +1,156 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of the counters of an executor's persistent result cache.
+ *
+ * @see org.phlo.tuplez.operation.ResultCached
+ * @see Executor#getResultCacheStatistics()
+ */
+public final class ResultCacheStatistics {
+	private final int m_entries;
+	private final long m_usedBytes;
+	private final long m_hits;
+	private final long m_misses;
+	private final long m_puts;
+	private final long m_rejected;
+	private final long m_evictions;
+	private final long m_expirations;
+	private final int m_recovered;
+	private final int m_discarded;
+
+	ResultCacheStatistics(
+		final int entries,
+		final long usedBytes,
+		final long hits,
+		final long misses,
+		final long puts,
+		final long rejected,
+		final long evictions,
+		final long expirations,
+		final int recovered,
+		final int discarded
+	) {
+		m_entries = entries;
+		m_usedBytes = usedBytes;
+		m_hits = hits;
+		m_misses = misses;
+		m_puts = puts;
+		m_rejected = rejected;
+		m_evictions = evictions;
+		m_expirations = expirations;
+		m_recovered = recovered;
+		m_discarded = discarded;
+	}
+
+	/**
+	 * Returns the number of cached results
+	 *
+	 * @return number of cached results
+	 */
+	public int getEntries() {
+		return m_entries;
+	}
+
+	/**
+	 * Returns the number of bytes the cache files contain,
+	 * including those of expired and replaced results
+	 *
+	 * @return number of used bytes
+	 */
+	public long getUsedBytes() {
+		return m_usedBytes;
+	}
+
+	/**
+	 * Returns the number of executions served from the cache
+	 *
+	 * @return number of hits
+	 */
+	public long getHits() {
+		return m_hits;
+	}
+
+	/**
+	 * Returns the number of executions which found no
+	 * (or only an expired) result in the cache
+	 *
+	 * @return number of misses
+	 */
+	public long getMisses() {
+		return m_misses;
+	}
+
+	/**
+	 * Returns the number of results stored
+	 *
+	 * @return number of stored results
+	 */
+	public long getPuts() {
+		return m_puts;
+	}
+
+	/**
+	 * Returns the number of results which weren't stored
+	 * because they weren't serializable or too large
+	 *
+	 * @return number of rejected results
+	 */
+	public long getRejected() {
+		return m_rejected;
+	}
+
+	/**
+	 * Returns the number of results evicted to make room
+	 * for newer ones
+	 *
+	 * @return number of evicted results
+	 */
+	public long getEvictions() {
+		return m_evictions;
+	}
+
+	/**
+	 * Returns the number of results found to be expired
+	 *
+	 * @return number of expired results
+	 */
+	public long getExpirations() {
+		return m_expirations;
+	}
+
+	/**
+	 * Returns the number of results read from the cache
+	 * files when the cache was opened
+	 *
+	 * @return number of recovered results
+	 */
+	public int getRecovered() {
+		return m_recovered;
+	}
+
+	/**
+	 * Returns the number of incomplete or corrupt records
+	 * found when the cache was opened. Each ends the
+	 * recovery of the file containing it.
+	 *
+	 * @return number of discarded records
+	 */
+	public int getDiscarded() {
+		return m_discarded;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{entries: " + m_entries + "; " +
+			"usedBytes: " + m_usedBytes + "; " +
+			"hits: " + m_hits + "; " +
+			"misses: " + m_misses + "; " +
+			"puts: " + m_puts + "; " +
+			"rejected: " + m_rejected + "; " +
+			"evictions: " + m_evictions + "; " +
+			"expirations: " + m_expirations + "; " +
+			"recovered: " + m_recovered + "; " +
+			"discarded: " + m_discarded + "}";
+	}
+}
@@ -0,0 +1,56 @@
+package org.phlo.tuplez;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.NoSuchElementException;
+
+/**
+ * Uses a {@link ResultSetMapper.RowView} to provide a
+ * {@link Cursor} facade around JDBC {@link ResultSet}
+ * instances, re-filling a single output instance per row.
+ *
+ * @param <OutputType> type representing {@link ResultSet} rows
+ */
+final class ResultSetCursor<OutputType> implements Cursor<OutputType> {
+	private final ResultSet m_resultSet;
+	private final ResultSetMapper<OutputType>.RowView m_rowView;
+	private boolean m_onRow = false;
+	
+	/**
+	 * Creates a cursor over the {@link ResultSet}'s rows.
+	 * 
+	 * @param resultSet the {@link ResultSet} to iterate over
+	 * @param rowView the view to re-fill with each row
+	 */
+	ResultSetCursor(final ResultSet resultSet, final ResultSetMapper<OutputType>.RowView rowView) {
+		m_resultSet = resultSet;
+		m_rowView = rowView;
+	}
+	
+	public boolean next() {
+		try {
+			m_onRow = m_resultSet.next();
+			if (m_onRow)
+				m_rowView.mapCurrentRow(m_resultSet);
+			return m_onRow;
+		}
+		catch (final SQLException e) {
+			throw new WrappedSQLException(e);
+		}
+	}
+	
+	public OutputType row() {
+		checkOnRow();
+		return m_rowView.getCurrentRow();
+	}
+	
+	public OutputType copy() {
+		checkOnRow();
+		return m_rowView.copyCurrentRow();
+	}
+	
+	private void checkOnRow() {
+		if (!m_onRow)
+			throw new NoSuchElementException("cursor is not positioned on a row");
+	}
+}
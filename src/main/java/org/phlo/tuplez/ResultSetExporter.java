@@ -0,0 +1,568 @@
+package org.phlo.tuplez;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Writes the rows of a result set to a channel in one of the
+ * {@link ExportFormat}s.
+ * <p>
+ * Rows are read with the column accessors resolved by the
+ * operation's {@link ResultSetMapper}, through a single
+ * {@link ResultSetMapper.RowView}, into chunks holding one value
+ * array per column. Chunks are encoded into pooled direct buffers
+ * (see {@link ExportBufferPool}), either on the calling thread or,
+ * if the parallelism exceeds one, on the executor's fetch threads
+ * while the next chunks are read. Encoded chunks are written in
+ * order, and their value arrays and buffers are re-used. Neither
+ * chunks nor rows thus allocate objects, besides the values
+ * returned by the JDBC driver.
+ */
+final class ResultSetExporter {
+	/* Magic number and version of the columnar format */
+	static final int s_columnarMagic = 0x54504c43;
+	static final int s_columnarVersion = 2;
+
+	/* Columnar type codes, see ExportFormat.COLUMNAR */
+	static final byte s_typeBoolean = 1;
+	static final byte s_typeByte = 2;
+	static final byte s_typeShort = 3;
+	static final byte s_typeInt = 4;
+	static final byte s_typeLong = 5;
+	static final byte s_typeFloat = 6;
+	static final byte s_typeDouble = 7;
+	static final byte s_typeTimestamp = 8;
+	static final byte s_typeBytes = 9;
+	static final byte s_typeString = 10;
+
+	private static final char[] s_hexDigits = "0123456789abcdef".toCharArray();
+
+	private final ResultSet m_resultSet;
+	private final ResultSetMapper<?> m_mapper;
+	private final ResultSetMapper<?>.RowView m_rowView;
+	private final ExportFormat m_format;
+	private final int m_chunkRows;
+	private final int m_parallelism;
+	private final ExecutorService m_encoders;
+	private final ExportBufferPool m_bufferPool;
+	private final WritableByteChannel m_sink;
+
+	/* Columnar type of each column */
+	private final byte[] m_types;
+
+	/**
+	 * Creates an exporter
+	 *
+	 * @param resultSet the result set to export, positioned before the first row
+	 * @param mapper the operation's mapper for the result set
+	 * @param format the format to write
+	 * @param chunkRows number of rows per chunk
+	 * @param parallelism maximal number of chunks encoded concurrently
+	 * @param encoders threads which encode chunks if parallelism exceeds one
+	 * @param bufferPool pool of the buffers to encode into
+	 * @param sink the channel to write to
+	 */
+	ResultSetExporter(
+		final ResultSet resultSet,
+		final ResultSetMapper<?> mapper,
+		final ExportFormat format,
+		final int chunkRows,
+		final int parallelism,
+		final ExecutorService encoders,
+		final ExportBufferPool bufferPool,
+		final WritableByteChannel sink
+	) {
+		m_resultSet = resultSet;
+		m_mapper = mapper;
+		m_rowView = mapper.createRowView();
+		m_format = format;
+		m_chunkRows = chunkRows;
+		m_parallelism = parallelism;
+		m_encoders = (parallelism > 1) ? encoders : null;
+		m_bufferPool = bufferPool;
+		m_sink = sink;
+
+		m_types = new byte[mapper.getColumnCount()];
+		for(int colIdx = 0; colIdx < m_types.length; ++colIdx)
+			m_types[colIdx] = getColumnarType(mapper.getColumnClass(colIdx));
+	}
+
+	/**
+	 * Writes all rows of the result set to the channel.
+	 *
+	 * @return the number of rows written
+	 * @throws SQLException if reading the result set fails
+	 * @throws IOException if writing to the channel fails
+	 */
+	long export() throws SQLException, IOException {
+		final Deque<Future<Chunk>> encoding = new ArrayDeque<Future<Chunk>>();
+		final Deque<Chunk> idle = new ArrayDeque<Chunk>();
+		long rows = 0;
+		try {
+			final Chunk header = new Chunk(0);
+			encodeHeader(header);
+			write(header);
+
+			while (true) {
+				final Chunk chunk = idle.isEmpty() ? new Chunk(m_types.length) : idle.poll();
+				read(chunk);
+				if (chunk.rows == 0)
+					break;
+				rows += chunk.rows;
+
+				final FutureTask<Chunk> task = new FutureTask<Chunk>(new Callable<Chunk>() {
+					@Override public Chunk call() {
+						encode(chunk);
+						return chunk;
+					}
+				});
+				encoding.add(task);
+				if (m_encoders != null)
+					m_encoders.execute(task);
+				else
+					task.run();
+
+				/* Bound the number of chunks in memory */
+				while (encoding.size() >= m_parallelism)
+					idle.add(write(encoding.poll()));
+			}
+
+			while (!encoding.isEmpty())
+				idle.add(write(encoding.poll()));
+
+			final Chunk trailer = new Chunk(0);
+			encodeTrailer(trailer, rows);
+			write(trailer);
+
+			return rows;
+		}
+		finally {
+			/* Wait for the chunks still being encoded, their buffers must not be re-used before */
+			while (!encoding.isEmpty()) {
+				try {
+					get(encoding.poll()).release();
+				}
+				catch (IOException e) {
+					/* The export already failed */
+				}
+				catch (RuntimeException e) {
+					/* The export already failed */
+				}
+			}
+		}
+	}
+
+	/**
+	 * Fills a chunk with the next rows of the result set
+	 */
+	private void read(final Chunk chunk) throws SQLException {
+		chunk.rows = 0;
+		while ((chunk.rows < m_chunkRows) && m_resultSet.next()) {
+			m_rowView.mapCurrentRow(m_resultSet);
+			final Object[] values = m_rowView.getValues();
+			for(int colIdx = 0; colIdx < values.length; ++colIdx)
+				chunk.columns[colIdx][chunk.rows] = values[colIdx];
+			chunk.rows += 1;
+		}
+
+		/* Don't keep the values of the previous chunk alive */
+		for(final Object[] column: chunk.columns)
+			java.util.Arrays.fill(column, chunk.rows, column.length, null);
+	}
+
+	private Chunk write(final Future<Chunk> encoded) throws IOException {
+		return write(get(encoded));
+	}
+
+	private Chunk get(final Future<Chunk> encoded) throws IOException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return encoded.get();
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					if (e.getCause() instanceof RuntimeException)
+						throw (RuntimeException)e.getCause();
+					if (e.getCause() instanceof Error)
+						throw (Error)e.getCause();
+					throw new IOException("failed to encode rows", e.getCause());
+				}
+			}
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Writes a chunk's buffers to the channel and returns them to the pool
+	 */
+	private Chunk write(final Chunk chunk) throws IOException {
+		try {
+			for(final ByteBuffer buffer: chunk.buffers) {
+				buffer.flip();
+				while (buffer.hasRemaining())
+					m_sink.write(buffer);
+			}
+		}
+		finally {
+			chunk.release();
+		}
+		return chunk;
+	}
+
+	private void encodeHeader(final Chunk chunk) {
+		switch (m_format) {
+			case CSV:
+				for(int colIdx = 0; colIdx < m_types.length; ++colIdx) {
+					if (colIdx > 0)
+						chunk.putByte(',');
+					putCsvField(chunk, m_mapper.getColumnName(colIdx));
+				}
+				chunk.putByte('\r');
+				chunk.putByte('\n');
+				break;
+
+			case COLUMNAR:
+				chunk.putInt(s_columnarMagic);
+				chunk.putInt(s_columnarVersion);
+				chunk.putInt(m_types.length);
+				for(int colIdx = 0; colIdx < m_types.length; ++colIdx) {
+					chunk.putByte(m_types[colIdx]);
+					putLengthPrefixedString(chunk, m_mapper.getColumnName(colIdx));
+				}
+				break;
+		}
+	}
+
+	private void encodeTrailer(final Chunk chunk, final long rows) {
+		if (m_format == ExportFormat.COLUMNAR) {
+			chunk.putInt(0);
+			chunk.putLong(rows);
+		}
+	}
+
+	/**
+	 * Encodes a chunk's rows into buffers. Runs on an encoder thread
+	 * if the parallelism exceeds one, and must thus only access the
+	 * chunk.
+	 */
+	private void encode(final Chunk chunk) {
+		try {
+			switch (m_format) {
+				case CSV:
+					encodeCsv(chunk);
+					break;
+
+				case COLUMNAR:
+					encodeColumnar(chunk);
+					break;
+			}
+		}
+		catch (RuntimeException e) {
+			chunk.release();
+			throw e;
+		}
+	}
+
+	private void encodeCsv(final Chunk chunk) {
+		for(int row = 0; row < chunk.rows; ++row) {
+			for(int colIdx = 0; colIdx < m_types.length; ++colIdx) {
+				if (colIdx > 0)
+					chunk.putByte(',');
+
+				final Object value = chunk.columns[colIdx][row];
+				if (value == null)
+					continue;
+				else if (value instanceof byte[])
+					putHex(chunk, (byte[])value);
+				else if (value instanceof Enum)
+					putCsvField(chunk, ((Enum<?>)value).name());
+				else if (value instanceof BigDecimal)
+					/* toString() may use an exponent, e.g. 1E-10 */
+					putCsvField(chunk, ((BigDecimal)value).toPlainString());
+				else
+					putCsvField(chunk, value.toString());
+			}
+			chunk.putByte('\r');
+			chunk.putByte('\n');
+		}
+	}
+
+	private void encodeColumnar(final Chunk chunk) {
+		chunk.putInt(chunk.rows);
+		for(int colIdx = 0; colIdx < m_types.length; ++colIdx) {
+			final Object[] values = chunk.columns[colIdx];
+			final ByteBuffer lengthBuffer = chunk.reserveInt();
+			final int lengthPosition = lengthBuffer.position() - 4;
+			final long start = chunk.size;
+
+			/* Null bitmap */
+			for(int row = 0; row < chunk.rows; row += 8) {
+				int bits = 0;
+				for(int bit = 0; (bit < 8) && (row + bit < chunk.rows); ++bit) {
+					if (values[row + bit] == null)
+						bits |= 1 << bit;
+				}
+				chunk.putByte(bits);
+			}
+
+			for(int row = 0; row < chunk.rows; ++row) {
+				if (values[row] != null)
+					putColumnarValue(chunk, m_types[colIdx], values[row]);
+			}
+
+			lengthBuffer.putInt(lengthPosition, (int)(chunk.size - start));
+		}
+	}
+
+	private static void putColumnarValue(final Chunk chunk, final byte type, final Object value) {
+		switch (type) {
+			case s_typeBoolean:
+				chunk.putByte(((Boolean)value) ? 1 : 0);
+				break;
+			case s_typeByte:
+				chunk.putByte(((Number)value).byteValue());
+				break;
+			case s_typeShort:
+				/* Character columns are read with getShort() */
+				chunk.putShort((value instanceof Character) ? (short)((Character)value).charValue() : ((Number)value).shortValue());
+				break;
+			case s_typeInt:
+				chunk.putInt(((Number)value).intValue());
+				break;
+			case s_typeLong:
+				chunk.putLong(((Number)value).longValue());
+				break;
+			case s_typeFloat:
+				chunk.putInt(Float.floatToIntBits(((Number)value).floatValue()));
+				break;
+			case s_typeDouble:
+				chunk.putLong(Double.doubleToLongBits(((Number)value).doubleValue()));
+				break;
+			case s_typeTimestamp:
+				chunk.putLong(((java.util.Date)value).getTime());
+				chunk.putInt((value instanceof Timestamp) ? ((Timestamp)value).getNanos() % 1000000 : 0);
+				break;
+			case s_typeBytes:
+				chunk.putInt(((byte[])value).length);
+				chunk.putBytes((byte[])value);
+				break;
+			default:
+				if (value instanceof Enum)
+					putLengthPrefixedString(chunk, ((Enum<?>)value).name());
+				else if (value instanceof BigDecimal)
+					putLengthPrefixedString(chunk, ((BigDecimal)value).toPlainString());
+				else
+					putLengthPrefixedString(chunk, value.toString());
+				break;
+		}
+	}
+
+	private static byte getColumnarType(final Class<?> columnClass) {
+		if ((columnClass == Boolean.class) || (columnClass == Boolean.TYPE))
+			return s_typeBoolean;
+		else if ((columnClass == Byte.class) || (columnClass == Byte.TYPE))
+			return s_typeByte;
+		else if ((columnClass == Short.class) || (columnClass == Short.TYPE) || (columnClass == Character.class) || (columnClass == Character.TYPE))
+			return s_typeShort;
+		else if ((columnClass == Integer.class) || (columnClass == Integer.TYPE))
+			return s_typeInt;
+		else if ((columnClass == Long.class) || (columnClass == Long.TYPE))
+			return s_typeLong;
+		else if ((columnClass == Float.class) || (columnClass == Float.TYPE))
+			return s_typeFloat;
+		else if ((columnClass == Double.class) || (columnClass == Double.TYPE))
+			return s_typeDouble;
+		else if (java.util.Date.class.isAssignableFrom(columnClass))
+			return s_typeTimestamp;
+		else if (columnClass == byte[].class)
+			return s_typeBytes;
+		else
+			return s_typeString;
+	}
+
+	private static void putCsvField(final Chunk chunk, final String value) {
+		boolean quote = false;
+		for(int i = 0; (i < value.length()) && !quote; ++i) {
+			final char c = value.charAt(i);
+			quote = (c == ',') || (c == '"') || (c == '\r') || (c == '\n');
+		}
+
+		if (!quote) {
+			putUtf8(chunk, value);
+			return;
+		}
+
+		chunk.putByte('"');
+		for(int i = 0; i < value.length(); ++i) {
+			final char c = value.charAt(i);
+			if (c == '"')
+				chunk.putByte('"');
+			putUtf8(chunk, value, i);
+			if (Character.isHighSurrogate(c) && (i + 1 < value.length()) && Character.isLowSurrogate(value.charAt(i + 1)))
+				++i;
+		}
+		chunk.putByte('"');
+	}
+
+	private static void putHex(final Chunk chunk, final byte[] value) {
+		for(final byte b: value) {
+			chunk.putByte(s_hexDigits[(b >> 4) & 0xf]);
+			chunk.putByte(s_hexDigits[b & 0xf]);
+		}
+	}
+
+	private static void putLengthPrefixedString(final Chunk chunk, final String value) {
+		final ByteBuffer lengthBuffer = chunk.reserveInt();
+		final int lengthPosition = lengthBuffer.position() - 4;
+		final long start = chunk.size;
+		putUtf8(chunk, value);
+		lengthBuffer.putInt(lengthPosition, (int)(chunk.size - start));
+	}
+
+	private static void putUtf8(final Chunk chunk, final String value) {
+		for(int i = 0; i < value.length(); ++i) {
+			putUtf8(chunk, value, i);
+			if (Character.isHighSurrogate(value.charAt(i)) && (i + 1 < value.length()) && Character.isLowSurrogate(value.charAt(i + 1)))
+				++i;
+		}
+	}
+
+	/**
+	 * Encodes the character at index i, or the code point starting there
+	 * if it's a surrogate pair. Unpaired surrogates are encoded as '?'.
+	 */
+	private static void putUtf8(final Chunk chunk, final String value, final int i) {
+		final char c = value.charAt(i);
+		if (c < 0x80) {
+			chunk.putByte(c);
+		}
+		else if (c < 0x800) {
+			chunk.putByte(0xc0 | (c >> 6));
+			chunk.putByte(0x80 | (c & 0x3f));
+		}
+		else if (Character.isSurrogate(c)) {
+			if (Character.isHighSurrogate(c) && (i + 1 < value.length()) && Character.isLowSurrogate(value.charAt(i + 1))) {
+				final int cp = Character.toCodePoint(c, value.charAt(i + 1));
+				chunk.putByte(0xf0 | (cp >> 18));
+				chunk.putByte(0x80 | ((cp >> 12) & 0x3f));
+				chunk.putByte(0x80 | ((cp >> 6) & 0x3f));
+				chunk.putByte(0x80 | (cp & 0x3f));
+			}
+			else {
+				chunk.putByte('?');
+			}
+		}
+		else {
+			chunk.putByte(0xe0 | (c >> 12));
+			chunk.putByte(0x80 | ((c >> 6) & 0x3f));
+			chunk.putByte(0x80 | (c & 0x3f));
+		}
+	}
+
+	/**
+	 * A chunk of rows, stored column by column, and the
+	 * buffers it was encoded into
+	 */
+	private final class Chunk {
+		/* Values, indexed by column and row */
+		final Object[][] columns;
+
+		/* Number of rows in the chunk */
+		int rows = 0;
+
+		/* Encoded bytes, in write mode */
+		final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+		/* Number of bytes encoded */
+		long size = 0;
+
+		Chunk(final int columnCount) {
+			columns = new Object[columnCount][m_chunkRows];
+		}
+
+		private ByteBuffer ensure(final int bytes) {
+			if (!buffers.isEmpty()) {
+				final ByteBuffer buffer = buffers.get(buffers.size() - 1);
+				if (buffer.remaining() >= bytes)
+					return buffer;
+			}
+			final ByteBuffer buffer = m_bufferPool.acquire();
+			buffers.add(buffer);
+			return buffer;
+		}
+
+		void putByte(final int value) {
+			ensure(1).put((byte)value);
+			size += 1;
+		}
+
+		void putShort(final short value) {
+			ensure(2).putShort(value);
+			size += 2;
+		}
+
+		void putInt(final int value) {
+			ensure(4).putInt(value);
+			size += 4;
+		}
+
+		void putLong(final long value) {
+			ensure(8).putLong(value);
+			size += 8;
+		}
+
+		void putBytes(final byte[] value) {
+			int offset = 0;
+			while (offset < value.length) {
+				final ByteBuffer buffer = ensure(1);
+				final int length = Math.min(buffer.remaining(), value.length - offset);
+				buffer.put(value, offset, length);
+				offset += length;
+			}
+			size += value.length;
+		}
+
+		/**
+		 * Writes a placeholder int, which is later overwritten
+		 * with an absolute put at the returned buffer's position
+		 * minus four.
+		 */
+		ByteBuffer reserveInt() {
+			final ByteBuffer buffer = ensure(4);
+			buffer.putInt(0);
+			size += 4;
+			return buffer;
+		}
+
+		/**
+		 * Returns the buffers to the pool
+		 */
+		void release() {
+			for(final ByteBuffer buffer: buffers)
+				m_bufferPool.release(buffer);
+			buffers.clear();
+			size = 0;
+		}
+	}
+}
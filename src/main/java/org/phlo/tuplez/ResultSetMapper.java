@@ -6,7 +6,6 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
-import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
@@ -33,7 +32,30 @@ final class ResultSetMapper<OutputType> {
 	/**
 	 * ResultSetMapper instances created by {@link getInstance}
 	 */
-	static private final ConcurrentMap<ID<?>, ResultSetMapper<?>> s_resultSetMappers = new java.util.concurrent.ConcurrentHashMap<ID<?>, ResultSetMapper<?>>();
+	static private final ClassCache<ResultSetMapper<?>> s_resultSetMappers = new ClassCache<ResultSetMapper<?>>() {
+		@SuppressWarnings("unchecked")
+		@Override protected ResultSetMapper<?> create(final Class<?> opClass, final Class<?> rsClass, final Object resultSet) {
+			/* Get ResultSet meta data */
+			ResultSetMetaData resultSetMetaData;
+			try {
+				resultSetMetaData = ((ResultSet)resultSet).getMetaData();
+			}
+			catch (SQLException e) {
+				throw new UncategorizedSQLException("Failed to retrieve result set meta data", null, e);
+			}
+			
+			try {
+				return new ResultSetMapper(
+					(Class<? extends Operation<?, ?>>)opClass,
+					(Class<? extends ResultSet>)rsClass,
+					resultSetMetaData
+				);
+			}
+			catch (SQLException e) {
+				throw new WrappedSQLException(e);
+			}
+		}
+	};
 	
 	/**
 	 * Default JDBC accessors
@@ -59,53 +81,13 @@ final class ResultSetMapper<OutputType> {
 		}
 	}
 	
-	/**
-	 * Encapsulates the identifying parameters of a ResultSetMapper instance.
-	 */
-	static private final class ID<OutputType> {
-		final public Class<? extends Operation<?, OutputType>> opClass;
-		final private Class<? extends ResultSet> rsClass;
-		
-		ID(
-			final Class<? extends Operation<?, OutputType>> _opClass,
-			final Class<? extends ResultSet> _rsClass
-		) {
-			assert _opClass != null;
-			assert _rsClass != null;
-			
-			opClass = _opClass;
-			rsClass = _rsClass;
-		}
-			
-		@Override
-		public int hashCode() {
-			return
-			opClass.hashCode() ^
-			rsClass.hashCode();
-		}
-
-		@Override
-		public boolean equals(Object other) {
-			if (this == other)
-				return true;
-			if (!(other instanceof ID))
-				return false;
-			
-			ID<?> otherID = (ID<?>)other;
-			if (!opClass.equals(otherID.opClass))
-				return false;
-			if (!rsClass.equals(otherID.rsClass))
-				return false;
-			return true;
-		}
-	}
-		
 	/**
 	 * Factory method for ResultSetMapper instances.
 	 * 
 	 * Returns a cached ResultSetMapper if one exists with the same
 	 * opClass and resultSet.class. Otherwise a new ResultSetMapper
-	 * is created and put into the cache.
+	 * is created and put into the cache. Concurrent first calls
+	 * create a single instance.
 	 * 
 	 * Note that ResultSetMapper instances depend on the ResultSet's
 	 * meta data! For performance reasons, the meta data is only
@@ -125,41 +107,21 @@ final class ResultSetMapper<OutputType> {
 		ResultSet resultSet
 	) throws SQLException
 	{
-		/* ResultSet class */
-		Class<? extends ResultSet> resultSetClass = resultSet.getClass();
-		
 		/* Statement class and ResultSet class uniquely identify
 		 * a specific ResultSetMapper
 		 */
-		ID<OutputType> rsmID = new ID<OutputType>(opClass, resultSetClass);
-		
-		/* Return cached ResultSetMapper or create new one if
-		 * none already exists
-		 */
-		@SuppressWarnings("unchecked")
-		ResultSetMapper<OutputType> resultSetMapper = (ResultSetMapper<OutputType>)s_resultSetMappers.get(rsmID);
-		if (resultSetMapper == null) {
-			/* Get ResultSet meta data */
-			ResultSetMetaData resultSetMetaData;
-			try {
-				resultSetMetaData = resultSet.getMetaData();
-			}
-			catch (SQLException e) {
-				throw new UncategorizedSQLException("Failed to retrieve result set meta data", null, e);
-			}
-			
-			/* Create new ResultSetMapper */
-			resultSetMapper = new ResultSetMapper<OutputType>(
+		try {
+			@SuppressWarnings("unchecked")
+			ResultSetMapper<OutputType> resultSetMapper = (ResultSetMapper<OutputType>)s_resultSetMappers.get(
 				opClass,
-				resultSetClass,
-				resultSetMetaData
+				resultSet.getClass(),
+				resultSet
 			);
-		
-			/* Add new ResultSetMapper to the Cache. */
-			s_resultSetMappers.put(rsmID, resultSetMapper);
+			return resultSetMapper;
+		}
+		catch (WrappedSQLException e) {
+			throw e.getSQLException();
 		}
-		
-		return resultSetMapper;
 	}
 	
 	/**
@@ -192,6 +154,9 @@ final class ResultSetMapper<OutputType> {
 	/* Whether to use the first column's result as output */
 	final boolean m_firstColumnIsOutput;
 	
+	/* Counts and samples the mapped rows, see Executor.setFetchBudgetBytes() */
+	final private FetchSizeController m_fetchSizeController;
+	
 	private ResultSetMapper(
 		final Class<? extends Operation<?, ?>> opClass,
 		final Class<? extends ResultSet> rsClass,
@@ -199,6 +164,7 @@ final class ResultSetMapper<OutputType> {
 	) throws SQLException
 	{
 		m_opClass = opClass;
+		m_fetchSizeController = FetchSizeController.getInstance(opClass);
 		
 		/* Get OutputType of statement class */
 		m_outputClass = OperationMetaData.getOutputClass(opClass);
@@ -568,6 +534,15 @@ final class ResultSetMapper<OutputType> {
 	}
 	
 	public OutputType mapCurrentRow(ResultSet resultSet) throws SQLException {
+		/* In first-column output mode, there's no need for a proxy */
+		if (m_firstColumnIsOutput) {
+			@SuppressWarnings("unchecked")
+			OutputType output = (OutputType)readColumn(resultSet, 1, m_columns.get(0));
+			if (m_fetchSizeController.countRow())
+				m_fetchSizeController.sampleRow(new Object[] {output}, 1);
+			return output;
+		}
+		
 		final Map<String, Object> values = new java.util.HashMap<String, Object>();
 		
 		/* Extract field values from ResultSet and place into <value>,
@@ -577,87 +552,281 @@ final class ResultSetMapper<OutputType> {
 		for(ColumnMetaData colMeta: m_columns) {
 			++colIdx;
 			
-			/* Fetch column value using the ResultSet accessor we
-			 * so painstakingly figured out
+			/* Store the value, keyed by the getter's name for the proxy's
+			 * convenience
 			 */
-			Object colValue;
-			try {
-				colValue = colMeta.jdbcAccessorMethod.invoke(resultSet, colIdx);		
+			values.put(colMeta.getterName, readColumn(resultSet, colIdx, colMeta));
+		}
+		if (m_fetchSizeController.countRow())
+			m_fetchSizeController.sampleRow(values.values());
+		
+		/* Creates a proxy to turn the hash into an instance of the output class */
+		@SuppressWarnings("unchecked")
+		OutputType output = (OutputType)Proxy.newProxyInstance(
+			m_outputClass.getClassLoader(),
+			new Class<?>[] {m_outputClass},
+			new OutputProxyInvocationHandler(values, m_getterOrder)
+		);
+		return output;
+	}
+	
+	/**
+	 * Returns the number of columns of the result sets
+	 * this mapper was created for.
+	 *
+	 * @return number of columns
+	 */
+	int getColumnCount() {
+		return m_columns.size();
+	}
+
+	/**
+	 * Returns a column's name
+	 *
+	 * @param colIdx the column's index, starting at zero
+	 * @return the column's name
+	 */
+	String getColumnName(final int colIdx) {
+		return m_columns.get(colIdx).columnName;
+	}
+
+	/**
+	 * Returns the type of a column's values, i.e. the return
+	 * type of the column's getter, or the output type in
+	 * first-column output mode
+	 *
+	 * @param colIdx the column's index, starting at zero
+	 * @return the column's type
+	 */
+	Class<?> getColumnClass(final int colIdx) {
+		return m_columns.get(colIdx).columnClass;
+	}
+
+	/**
+	 * Creates a {@link RowView} which maps the rows of result
+	 * sets this mapper was created for. 
+	 * 
+	 * @return a new row view
+	 */
+	public RowView createRowView() {
+		return new RowView();
+	}
+	
+	/**
+	 * A single instance of OutputType whose getters return the
+	 * values of a result set's current row.
+	 * <p>
+	 * Other than {@link ResultSetMapper#mapCurrentRow(ResultSet)}, which
+	 * creates a new output instance per row, a view is created once
+	 * and re-filled with the values of each row. Outputs returned by
+	 * {@link #mapCurrentRow(ResultSet)} are thus only valid until the
+	 * view is filled with the next row.
+	 * <p>
+	 * In first-column output mode, the column value itself is
+	 * returned, there's no view instance.
+	 * <p>
+	 * Views aren't thread-safe.
+	 */
+	final class RowView implements InvocationHandler {
+		/* Current row's column values, in column order */
+		private final Object[] m_values = new Object[m_columns.size()];
+		
+		/* The view instance handed out by mapCurrentRow() */
+		private final OutputType m_view;
+		
+		/* Value slot of each getter, cached by Method */
+		private final Map<Method, Integer> m_slots = new java.util.HashMap<Method, Integer>();
+		
+		private RowView() {
+			if (m_firstColumnIsOutput) {
+				m_view = null;
+			}
+			else {
+				@SuppressWarnings("unchecked")
+				OutputType view = (OutputType)Proxy.newProxyInstance(
+					m_outputClass.getClassLoader(),
+					new Class<?>[] {m_outputClass},
+					this
+				);
+				m_view = view;
+			}
+		}
+		
+		/**
+		 * Fills the view with the result set's current row
+		 * 
+		 * @param resultSet the result set, positioned on a row
+		 * @return the view, or the column value in first-column output mode
+		 * @throws SQLException if reading a column fails
+		 */
+		public OutputType mapCurrentRow(final ResultSet resultSet) throws SQLException {
+			for(int colIdx = 0; colIdx < m_values.length; ++colIdx)
+				m_values[colIdx] = readColumn(resultSet, colIdx + 1, m_columns.get(colIdx));
+			if (m_fetchSizeController.countRow())
+				m_fetchSizeController.sampleRow(m_values, m_values.length);
+			return getCurrentRow();
+		}
+		
+		/**
+		 * Returns the view, or the column value in first-column
+		 * output mode, without re-filling it.
+		 * 
+		 * @return the view
+		 */
+		public OutputType getCurrentRow() {
+			if (m_firstColumnIsOutput) {
+				@SuppressWarnings("unchecked")
+				OutputType output = (OutputType)m_values[0];
+				return output;
+			}
+			
+			return m_view;
+		}
+		
+		/**
+		 * Returns an independent output instance holding the
+		 * values the view currently holds, equivalent to the one
+		 * {@link ResultSetMapper#mapCurrentRow(ResultSet)} would
+		 * have returned for the row.
+		 * 
+		 * @return a copy of the current row
+		 */
+		public OutputType copyCurrentRow() {
+			if (m_firstColumnIsOutput)
+				return getCurrentRow();
+			
+			final Map<String, Object> values = new java.util.HashMap<String, Object>();
+			for(int colIdx = 0; colIdx < m_values.length; ++colIdx)
+				values.put(m_columns.get(colIdx).getterName, m_values[colIdx]);
+			
+			@SuppressWarnings("unchecked")
+			OutputType output = (OutputType)Proxy.newProxyInstance(
+				m_outputClass.getClassLoader(),
+				new Class<?>[] {m_outputClass},
+				new OutputProxyInvocationHandler(values, m_getterOrder)
+			);
+			return output;
+		}
+		
+		/**
+		 * Returns the values of the current row, in column order.
+		 * The returned array is re-filled for every row.
+		 * 
+		 * @return the current row's values
+		 */
+		Object[] getValues() {
+			return m_values;
+		}
+		
+		@Override
+		public Object invoke(final Object obj, final Method method, final Object[] args) throws Throwable {
+			Integer slot = m_slots.get(method);
+			if (slot == null) {
+				slot = computeSlot(method);
+				m_slots.put(method, slot);
+			}
+			
+			if (slot >= 0)
+				return m_values[slot];
+			
+			final String methodName = method.getName();
+			if (methodName.equals("hashCode"))
+				return System.identityHashCode(obj);
+			else if (methodName.equals("equals"))
+				return obj == args[0];
+			else if (methodName.equals("toString"))
+				return toStringCurrentRow();
+			else
+				return null;
+		}
+		
+		private Integer computeSlot(final Method method) {
+			if (method.getParameterTypes().length == 0) {
+				for(int colIdx = 0; colIdx < m_values.length; ++colIdx) {
+					if (method.getName().equals(m_columns.get(colIdx).getterName))
+						return colIdx;
+				}
+			}
+			return -1;
+		}
+		
+		private String toStringCurrentRow() {
+			final StringBuilder b = new StringBuilder();
+			b.append("{");
+			for(int colIdx = 0; colIdx < m_values.length; ++colIdx) {
+				if (colIdx > 0)
+					b.append("; ");
+				b.append(m_columns.get(colIdx).getterName);
+				b.append("(): ");
+				b.append(m_values[colIdx]);
 			}
-			catch (IllegalAccessException e) {
+			b.append("}");
+			return b.toString();
+		}
+	}
+	
+	/**
+	 * Reads a column of the result set's current row, using
+	 * the column's accessor and applying the column's conversions.
+	 */
+	private Object readColumn(final ResultSet resultSet, final int colIdx, final ColumnMetaData colMeta) throws SQLException {
+		/* Fetch column value using the ResultSet accessor we
+		 * so painstakingly figured out
+		 */
+		Object colValue;
+		try {
+			colValue = colMeta.jdbcAccessorMethod.invoke(resultSet, colIdx);		
+		}
+		catch (IllegalAccessException e) {
+			throw new InvalidOperationDefinitionException(
+				"ResultSet accessor " + colMeta.jdbcAccessorMethod + " " +
+				"for column " + colMeta.columnName + " " +
+				"could not be invoked",
+				m_opClass,
+				e
+			);
+		}
+		catch (InvocationTargetException e) {
+			if (e.getTargetException() instanceof SQLException)
+				throw (SQLException)e.getTargetException();
+			else
 				throw new InvalidOperationDefinitionException(
 					"ResultSet accessor " + colMeta.jdbcAccessorMethod + " " +
 					"for column " + colMeta.columnName + " " +
-					"could not be invoked",
+					"failed",
 					m_opClass,
 					e
 				);
-			}
-			catch (InvocationTargetException e) {
-				if (e.getTargetException() instanceof SQLException)
-					throw (SQLException)e.getTargetException();
-				else
+		}
+		
+		/* Since the accessor for primitive types return unboxed values,
+		 * their return value cannot represent null. We must thus use
+		 * wasNull() which returns true if the last value accessed by some
+		 * column accessor actually was null.
+		 */
+		if (resultSet.wasNull())
+			colValue = null;
+		
+		/* For Enums, we now use Enum.valueOf to convert to the target type */
+		if (colMeta.transformToEnum) {
+			if (colValue != null) {
+				try {
+					@SuppressWarnings({ "unchecked", "rawtypes" })
+					Object colEnumValue = Enum.valueOf((Class)colMeta.columnClass, (String)colValue);
+					colValue = colEnumValue;
+				}
+				catch (IllegalArgumentException e) {
 					throw new InvalidOperationDefinitionException(
-						"ResultSet accessor " + colMeta.jdbcAccessorMethod + " " +
-						"for column " + colMeta.columnName + " " +
-						"failed",
+						"value '" + colValue + "' " +
+						"of column " + colMeta.columnName + " " +
+						"does not match any of " +
+						colMeta.columnClass.getName() + "'s values",
 						m_opClass,
-						e
-					);
-			}
-			
-			/* Since the accessor for primitive types return unboxed values,
-			 * their return value cannot represent null. We must thus use
-			 * wasNull() which returns true if the last value accessed by some
-			 * column accessor actually was null.
-			 */
-			if (resultSet.wasNull())
-				colValue = null;
-			
-			/* For Enums, we now use Enum.valueOf to convert to the target type */
-			if (colMeta.transformToEnum) {
-				if (colValue != null) {
-					try {
-						@SuppressWarnings({ "unchecked", "rawtypes" })
-						Object colEnumValue = Enum.valueOf((Class)colMeta.columnClass, (String)colValue);
-						colValue = colEnumValue;
-					}
-					catch (IllegalArgumentException e) {
-						throw new InvalidOperationDefinitionException(
-							"value '" + colValue + "' " +
-							"of column " + colMeta.columnName + " " +
-							"does not match any of " +
-							colMeta.columnClass.getName() + "'s values",
-							m_opClass,
-							e);
-					}
+						e);
 				}
 			}
-			
-			/* In first-column output mode, we're done */
-			if (m_firstColumnIsOutput) {
-				assert colIdx == 1;
-				@SuppressWarnings("unchecked")
-				OutputType output = (OutputType)colValue;
-				return output;
-			}
-			
-			/* Finally store the value, keyed by the getter's name for the proxy's
-			 * convenience
-			 */
-			values.put(colMeta.getterName, colValue);
 		}
 		
-		/* Obviously not in first-column output mode */
-		assert !m_firstColumnIsOutput;
-		
-		/* Creates a proxy to turn the hash into an instance of the output class */
-		@SuppressWarnings("unchecked")
-		OutputType output = (OutputType)Proxy.newProxyInstance(
-			m_outputClass.getClassLoader(),
-			new Class<?>[] {m_outputClass},
-			new OutputProxyInvocationHandler(values, m_getterOrder)
-		);
-		return output;
+		return colValue;
 	}
 }
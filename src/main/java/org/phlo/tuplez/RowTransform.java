@@ -0,0 +1,16 @@
+package org.phlo.tuplez;
+
+/**
+ * Transforms the output rows of one operation into the inputs
+ * of another, see {@link Executor#copy(Class, Object, Class, RowTransform)}.
+ * <p>
+ * Rows are passed to {@link #transform(Object)} in the order
+ * they are read, on the thread which reads them. Returning null
+ * skips the row.
+ *
+ * @param <SourceType> type representing the source's rows
+ * @param <TargetType> the target operation's input type
+ */
+public interface RowTransform<SourceType, TargetType> {
+	public TargetType transform(SourceType row);
+}
@@ -0,0 +1,328 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Iterates over the rows an operation returns on all shards
+ * of a {@link ShardedExecutor}.
+ * <p>
+ * Each shard is read by a separate thread, which buffers
+ * a limited number of rows ahead of the consumer. If the
+ * operation declares a {@link SortKey}, the rows are merged
+ * into a single ordered sequence. Otherwise, the rows of one
+ * shard are returned after the other.
+ * <p>
+ * {@link #close()} must be called once the rows were consumed
+ * (or aren't needed anymore). It stops the threads, cancelling
+ * the statements which weren't read completely.
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class ScatterGatherIterator implements Iterator<Object> {
+	/* Rows buffered per shard */
+	private static final int s_bufferSize = 256;
+
+	/* Queued after a shard's last row */
+	private static final Object s_end = new Object();
+
+	/* Queued instead of null rows, since queues can't hold null */
+	private static final Object s_null = new Object();
+
+	/**
+	 * Queued instead of a row if reading a shard failed
+	 */
+	private static final class Failure {
+		final Throwable error;
+
+		Failure(final Throwable error) {
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Reads the rows of a single shard into a buffer
+	 */
+	private final class Stream implements Runnable {
+		final Operation op;
+		final BlockingQueue<Object> buffer = new ArrayBlockingQueue<Object>(s_bufferSize);
+		Future<?> future = null;
+
+		/* The next row not yet returned, valid if hasHead */
+		Object head = null;
+		boolean hasHead = false;
+		boolean ended = false;
+
+		Stream(final Operation op) {
+			this.op = op;
+		}
+
+		@Override
+		public void run() {
+			try {
+				final IteratorProcessor<Object, Void> processor = new IteratorProcessor<Object, Void>() {
+					@Override public Void processIterator(final Iterator<Object> rows) {
+						while (!m_closed && rows.hasNext()) {
+							final Object row = rows.next();
+							put((row != null) ? row : s_null);
+						}
+						return null;
+					}
+				};
+
+				if (m_hasInput)
+					op.iterate(m_input, processor);
+				else
+					op.iterate(processor);
+				put(s_end);
+			}
+			catch (RuntimeException e) {
+				put(new Failure(e));
+			}
+			catch (Error e) {
+				put(new Failure(e));
+			}
+		}
+
+		private void put(final Object item) {
+			try {
+				/* Give up once the consumer closed the iterator */
+				while (!m_closed && !buffer.offer(item, 10, TimeUnit.MILLISECONDS))
+					;
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+
+		/**
+		 * Waits for the shard's next row and makes it the head
+		 *
+		 * @return false if the shard has no more rows
+		 */
+		boolean advance() {
+			hasHead = false;
+			head = null;
+			if (ended)
+				return false;
+
+			final Object item;
+			try {
+				item = buffer.take();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InvalidOperationExecutionException("interrupted while waiting for rows of a shard", m_opClass, e);
+			}
+
+			if (item == s_end) {
+				ended = true;
+				return false;
+			}
+			else if (item instanceof Failure) {
+				ended = true;
+				final Throwable error = ((Failure)item).error;
+				if (error instanceof Error)
+					throw (Error)error;
+				throw (RuntimeException)error;
+			}
+
+			head = (item != s_null) ? item : null;
+			hasHead = true;
+			return true;
+		}
+	}
+
+	private final Class<? extends Operation<?,?>> m_opClass;
+	private final boolean m_hasInput;
+	private final Object m_input;
+	private final List<Stream> m_streams;
+
+	/* Merges the streams if the operation has a sort key, otherwise null */
+	private final PriorityQueue<Stream> m_merge;
+	private boolean m_mergeStarted = false;
+
+	/* The stream returning rows if there's no sort key */
+	private int m_current = 0;
+
+	private volatile boolean m_closed = false;
+
+	/**
+	 * Starts reading the rows of all shards
+	 *
+	 * @param threads the threads which read the shards
+	 * @param ops the operation's instances, one per shard
+	 * @param opClass the operation's defining class/interface
+	 * @param hasInput whether the operation is executed with an input
+	 * @param input the input, if hasInput
+	 */
+	ScatterGatherIterator(
+		final ExecutorService threads,
+		final List<Operation<?,?>> ops,
+		final Class<? extends Operation<?,?>> opClass,
+		final boolean hasInput,
+		final Object input
+	) {
+		m_opClass = opClass;
+		m_hasInput = hasInput;
+		m_input = input;
+
+		final SortKey sortKey = opClass.getAnnotation(SortKey.class);
+		m_merge = (sortKey != null)
+			? new PriorityQueue<Stream>(Math.max(1, ops.size()), new HeadComparator(sortKey))
+			: null;
+
+		m_streams = new ArrayList<Stream>(ops.size());
+		try {
+			for(final Operation<?,?> op: ops) {
+				final Stream stream = new Stream(op);
+				stream.future = threads.submit(stream);
+				m_streams.add(stream);
+			}
+		}
+		catch (RuntimeException e) {
+			close();
+			throw e;
+		}
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (m_merge != null) {
+			if (!m_mergeStarted) {
+				m_mergeStarted = true;
+				for(final Stream stream: m_streams) {
+					if (stream.advance())
+						m_merge.add(stream);
+				}
+			}
+			return !m_merge.isEmpty();
+		}
+
+		while (m_current < m_streams.size()) {
+			final Stream stream = m_streams.get(m_current);
+			if (stream.hasHead || stream.advance())
+				return true;
+			++m_current;
+		}
+		return false;
+	}
+
+	@Override
+	public Object next() {
+		if (!hasNext())
+			throw new NoSuchElementException();
+
+		if (m_merge != null) {
+			final Stream stream = m_merge.poll();
+			final Object row = stream.head;
+			if (stream.advance())
+				m_merge.add(stream);
+			return row;
+		}
+
+		final Stream stream = m_streams.get(m_current);
+		final Object row = stream.head;
+		stream.hasHead = false;
+		stream.head = null;
+		return row;
+	}
+
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Stops reading the shards, and waits for the threads
+	 * reading them to finish
+	 */
+	void close() {
+		m_closed = true;
+
+		boolean interrupted = false;
+		for(final Stream stream: m_streams) {
+			while (true) {
+				try {
+					stream.future.get();
+					break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+				catch (ExecutionException e) {
+					/* Failures are queued, not thrown */
+					break;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Orders streams by their heads, according to a {@link SortKey}.
+	 * Used only by the consumer's thread.
+	 */
+	private final class HeadComparator implements Comparator<Stream> {
+		private final String[] m_properties;
+		private final boolean m_descending;
+
+		/* The sort key's getters, per row class */
+		private final Map<Class<?>, PropertyGetter[]> m_getters = new HashMap<Class<?>, PropertyGetter[]>();
+
+		HeadComparator(final SortKey sortKey) {
+			m_properties = sortKey.value();
+			m_descending = sortKey.descending();
+		}
+
+		@Override
+		public int compare(final Stream s1, final Stream s2) {
+			final Object row1 = s1.head;
+			final Object row2 = s2.head;
+			for(int i=0; i < m_properties.length; ++i) {
+				final int c = compareValues(getValue(row1, i), getValue(row2, i));
+				if (c != 0)
+					return m_descending ? -c : c;
+			}
+			return 0;
+		}
+
+		private int compareValues(final Object v1, final Object v2) {
+			if (v1 == null)
+				return (v2 == null) ? 0 : -1;
+			else if (v2 == null)
+				return 1;
+			return ((Comparable)v1).compareTo(v2);
+		}
+
+		private Object getValue(final Object row, final int property) {
+			if ((row == null) || (m_properties[property].length() == 0))
+				return row;
+
+			PropertyGetter[] getters = m_getters.get(row.getClass());
+			if (getters == null) {
+				getters = new PropertyGetter[m_properties.length];
+				m_getters.put(row.getClass(), getters);
+			}
+
+			if (getters[property] == null)
+				getters[property] = new PropertyGetter(row.getClass(), m_properties[property], "@SortKey property", m_opClass);
+
+			return getters[property].get(row);
+		}
+	}
+}
@@ -0,0 +1,228 @@
+package org.phlo.tuplez;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.datasource.SingleConnectionDataSource;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+
+import org.phlo.tuplez.operation.Operation;
+
+/**
+ * A unit of work, i.e. a sequence of operation executions
+ * on a single database connection.
+ * <p>
+ * Sessions are opened with {@link Executor#openSession()}, which
+ * obtains a connection from the executor's {@link DataSource}
+ * (or uses the connection bound to the current Spring-managed
+ * transaction, if there is one). All operations obtained from
+ * {@link #with(Class)} execute on that connection, until the
+ * session is closed with {@link #close()}.
+ * <p>
+ * Since the connection is pinned for the session's lifetime,
+ * prepared statements are re-used across executions if the
+ * executor's statement cache is enabled (see
+ * {@link Executor#setStatementCacheSize(int)}). This gives
+ * statement re-use even with connection pools which don't
+ * cache statements themselves.
+ * <p>
+ * If the executor's identity cache is enabled (see
+ * {@link Executor#setIdentityCacheEnabled(boolean)}), single-row
+ * lookups are executed at most once per set of parameter values
+ * until a write executed in the session invalidates their rows.
+ * <p>
+ * Sessions are not thread-safe. Typical use is
+ *<blockquote><pre>{@literal
+ *Session session = executor.openSession();
+ *try {
+ *    for(Item item: items)
+ *        session.with(InsertItem.class).execute(item);
+ *    session.commit();
+ *}
+ *finally {
+ *    session.close();
+ *}
+ *}</pre></blockquote>
+ */
+public final class Session {
+	/* The executor which opened this session */
+	private final Executor m_executor;
+
+	/* The connection pinned by this session */
+	private final Connection m_connection;
+
+	/* Data source handing out the pinned connection, wrapped to suppress close() */
+	private final SingleConnectionDataSource m_sessionDataSource;
+
+	/* Executor which executes operations on the pinned connection */
+	private final Executor m_sessionExecutor;
+
+	private boolean m_closed = false;
+
+	Session(final Executor executor) {
+		m_executor = executor;
+		m_connection = DataSourceUtils.getConnection(executor.getDataSource());
+		m_sessionDataSource = new SingleConnectionDataSource(m_connection, true);
+		m_sessionExecutor = new Executor(executor, m_sessionDataSource);
+	}
+
+	/**
+	 * Returns an instance of the operation defined by
+	 * opClass which executes on this session's connection.
+	 *
+	 * @see Executor#with(Class)
+	 *
+	 * @param <OpType> the operation's type
+	 * @param opClass the operation's defining class/interface
+	 * @return an instance that is-a opClass
+	 */
+	public <OpType extends Operation<?,?>> OpType with(final Class<OpType> opClass) {
+		checkOpen();
+		return m_sessionExecutor.with(opClass);
+	}
+
+	/**
+	 * Returns the executor which opened this session.
+	 *
+	 * @return the session's executor
+	 */
+	public Executor getExecutor() {
+		return m_executor;
+	}
+
+	/**
+	 * Removes all rows from the session's identity cache, e.g.
+	 * after the rows were changed outside of the session. Does
+	 * nothing if the session has no identity cache.
+	 *
+	 * @see Executor#setIdentityCacheEnabled(boolean)
+	 */
+	public void clearIdentityCache() {
+		final IdentityCache identityCache = m_sessionExecutor.getIdentityCache();
+		if (identityCache != null)
+			identityCache.clear();
+	}
+
+	/**
+	 * Returns the number of lookups served from the session's
+	 * identity cache, or zero if it has none.
+	 *
+	 * @return number of cache hits
+	 */
+	public long getIdentityCacheHits() {
+		final IdentityCache identityCache = m_sessionExecutor.getIdentityCache();
+		return (identityCache != null) ? identityCache.getHits() : 0;
+	}
+
+	/**
+	 * Returns the number of lookups the session's identity cache
+	 * couldn't serve, or zero if it has none.
+	 *
+	 * @return number of cache misses
+	 */
+	public long getIdentityCacheMisses() {
+		final IdentityCache identityCache = m_sessionExecutor.getIdentityCache();
+		return (identityCache != null) ? identityCache.getMisses() : 0;
+	}
+
+	/**
+	 * Sets the auto-commit mode of the session's connection.
+	 * With auto-commit disabled, changes must be made
+	 * permanent by calling {@link #commit()}.
+	 *
+	 * @param autoCommit whether to commit after each statement
+	 */
+	public void setAutoCommit(final boolean autoCommit) {
+		checkOpen();
+		try {
+			m_connection.setAutoCommit(autoCommit);
+		}
+		catch (SQLException e) {
+			throw translate("setAutoCommit", e);
+		}
+	}
+
+	/**
+	 * Commits the changes made since the last commit
+	 * or rollback. Does nothing in auto-commit mode.
+	 */
+	public void commit() {
+		checkOpen();
+		try {
+			if (!m_connection.getAutoCommit())
+				m_connection.commit();
+		}
+		catch (SQLException e) {
+			throw translate("commit", e);
+		}
+	}
+
+	/**
+	 * Reverts the changes made since the last commit
+	 * or rollback. Does nothing in auto-commit mode.
+	 */
+	public void rollback() {
+		checkOpen();
+		try {
+			if (!m_connection.getAutoCommit())
+				m_connection.rollback();
+		}
+		catch (SQLException e) {
+			throw translate("rollback", e);
+		}
+	}
+
+	/**
+	 * Closes the session, discarding its identity cache, closing
+	 * the statements cached for the session's connection and
+	 * returning the connection to the executor's
+	 * {@link DataSource}. Uncommitted changes
+	 * are rolled back, unless the connection belongs to a
+	 * Spring-managed transaction.
+	 * <p>
+	 * Closing a closed session has no effect.
+	 */
+	public void close() {
+		if (m_closed)
+			return;
+		m_closed = true;
+		clearIdentityCache();
+
+		final DataSource dataSource = m_executor.getDataSource();
+		try {
+			m_executor.getStatementCache().close(m_sessionDataSource.getConnection());
+			
+			if (!DataSourceUtils.isConnectionTransactional(m_connection, dataSource) && !m_connection.getAutoCommit()) {
+				m_connection.rollback();
+				m_connection.setAutoCommit(true);
+			}
+		}
+		catch (SQLException e) {
+			throw translate("close", e);
+		}
+		finally {
+			DataSourceUtils.releaseConnection(m_connection, dataSource);
+		}
+	}
+
+	/**
+	 * Returns whether the session was closed.
+	 *
+	 * @return whether the session was closed
+	 */
+	public boolean isClosed() {
+		return m_closed;
+	}
+
+	private void checkOpen() {
+		if (m_closed)
+			throw new IllegalStateException("session was closed");
+	}
+
+	private RuntimeException translate(final String task, final SQLException e) {
+		return new SQLErrorCodeSQLExceptionTranslator(m_executor.getDataSource()).translate(task, null, e);
+	}
+}
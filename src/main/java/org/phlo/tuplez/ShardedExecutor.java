@@ -0,0 +1,258 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Executes concrete {@link Operation}s on tables which are
+ * spread across several databases (<b>shards</b>).
+ * <p>
+ * Sharded executors are created from a list of {@link DataSource}s,
+ * one per shard, and create an {@link Executor} for each of them.
+ * The operation instances returned by {@link #with(Class)} route
+ * each call to one or all shards:
+ * <ul>
+ * <li>{@link OperationReturnsSingleRow#get(Object) get},
+ *     {@link Operation#execute(Object) execute} and
+ *     {@link OperationGeneratesKey#key(Object) key} execute on the
+ *     shard of the input's shard key, i.e. the value returned by the
+ *     input's getter annotated with {@link ShardKey}, or the input
+ *     itself if it has no such getter.
+ *     {@link Operation#execute() execute()} without an input
+ *     executes on all shards, e.g. to create tables.</li>
+ * <li>{@link OperationReturnsSingleRow#getAll(java.util.Collection) getAll} and
+ *     {@link Operation#executeBatch(java.util.Collection) executeBatch}
+ *     group the inputs by shard and execute each group on its shard.</li>
+ * <li>{@link Operation#iterate(Object, IteratorProcessor) iterate},
+ *     {@link Operation#cursor(Object, CursorProcessor) cursor} and
+ *     {@link Operation#collection(Object) collection} execute on the
+ *     shard of the input's {@link ShardKey} getter if it returns
+ *     a non-null value. Otherwise, they read the rows of all shards
+ *     in parallel (<b>scatter-gather</b>). If the operation declares
+ *     a {@link SortKey}, the rows are merged into a single ordered
+ *     sequence, otherwise the rows of one shard follow the other's.</li>
+ * <li>The fold methods also execute on a single shard if the input
+ *     has a shard key, and otherwise fold the shards one after the
+ *     other.</li>
+ * </ul>
+ * Integral shard keys are mapped to the shard with index
+ * <i>key</i> modulo the number of shards, other keys by
+ * their {@link Object#hashCode()}. See {@link #getShardIndex(Object)}.
+ * <p>
+ * Scatter-gather reads run on background threads, and thus
+ * outside of transactions bound to the calling thread. Routed
+ * calls run on the calling thread, with the shard's executor.
+ * Operations must be defined by interfaces or abstract classes.
+ */
+public final class ShardedExecutor implements InitializingBean, DisposableBean {
+	private List<DataSource> m_dataSources = Collections.emptyList();
+
+	private volatile Executor[] m_shards = new Executor[0];
+
+	private Object m_defaultInput = null;
+
+	/* Threads which read the shards for scatter-gather reads, created lazily */
+	private ExecutorService m_scatterExecutor = null;
+
+	/* Numbers the scatter-gather threads of all executors */
+	private static final AtomicInteger s_scatterThreadCount = new AtomicInteger();
+
+	/**
+	 * Allows construction of {@link ShardedExecutor} instances
+	 * as Java Beans.
+	 */
+	public ShardedExecutor() {
+	}
+
+	/**
+	 * Creates a {@link ShardedExecutor} instance for the specified
+	 * {@link DataSource}s, one per shard.
+	 *
+	 * @param dataSources data sources of the shards
+	 */
+	public ShardedExecutor(final List<DataSource> dataSources) {
+		setDataSources(dataSources);
+	}
+
+	/**
+	 * Sets the data sources of the shards. The order of the
+	 * data sources determines the shards' indices, and must
+	 * therefore not change as long as the shards contain data.
+	 *
+	 * @param dataSources data sources of the shards
+	 */
+	public synchronized void setDataSources(final List<DataSource> dataSources) {
+		Assert.notEmpty(dataSources, "DataSources must not be empty");
+
+		final Executor[] shards = new Executor[dataSources.size()];
+		for(int i=0; i < shards.length; ++i) {
+			shards[i] = new Executor(dataSources.get(i));
+			shards[i].setDefaultInput(m_defaultInput);
+		}
+
+		m_dataSources = Collections.unmodifiableList(new ArrayList<DataSource>(dataSources));
+		m_shards = shards;
+	}
+
+	/**
+	 * Returns the data sources of the shards.
+	 *
+	 * @return data sources of the shards
+	 */
+	public List<DataSource> getDataSources() {
+		return m_dataSources;
+	}
+
+	/**
+	 * Sets the default input of all shards' executors, see
+	 * {@link Executor#setDefaultInput(Object)}.
+	 *
+	 * @param defaultInput the object to use for default.* parameters
+	 */
+	public synchronized void setDefaultInput(final Object defaultInput) {
+		m_defaultInput = defaultInput;
+		for(final Executor shard: m_shards)
+			shard.setDefaultInput(defaultInput);
+	}
+
+	/**
+	 * Returns the default input of the shards' executors.
+	 *
+	 * @return the object used for default.* parameters
+	 */
+	public Object getDefaultInput() {
+		return m_defaultInput;
+	}
+
+	/**
+	 * Returns the number of shards.
+	 *
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return m_shards.length;
+	}
+
+	/**
+	 * Returns the executor of a shard, e.g. to configure
+	 * it or to execute operations on that shard only.
+	 *
+	 * @param index the shard's index
+	 * @return the shard's executor
+	 */
+	public Executor getShard(final int index) {
+		return m_shards[index];
+	}
+
+	/**
+	 * Returns the index of the shard a shard key belongs to.
+	 * <p>
+	 * Keys of type {@link Long}, {@link Integer}, {@link Short}
+	 * and {@link Byte} belong to the shard <i>key</i> modulo
+	 * the number of shards, other keys to the shard
+	 * {@link Object#hashCode()} modulo the number of shards.
+	 * The index is non-negative in both cases.
+	 *
+	 * @param shardKey the shard key, not null
+	 * @return the shard's index
+	 */
+	public int getShardIndex(final Object shardKey) {
+		Assert.notNull(shardKey, "shard key must not be null");
+
+		final long hash;
+		if ((shardKey instanceof Long) || (shardKey instanceof Integer) || (shardKey instanceof Short) || (shardKey instanceof Byte))
+			hash = ((Number)shardKey).longValue();
+		else
+			hash = shardKey.hashCode();
+
+		final int index = (int)(hash % m_shards.length);
+		return (index >= 0) ? index : index + m_shards.length;
+	}
+
+	/**
+	 * Returns an instance of the operation defined by opClass
+	 * which routes calls to the shards, see {@link ShardedExecutor}.
+	 *
+	 * @param <OpType> the operation's type
+	 * @param opClass the operation's defining class/interface
+	 * @return an instance that is-a opClass
+	 */
+	public <OpType extends Operation<?,?>> OpType with(final Class<OpType> opClass) {
+		Assert.state(m_shards.length > 0, "Property DataSources is required");
+		return ShardedOperationFactory.getFactory(opClass).getInstance(this);
+	}
+
+	/**
+	 * Returns an instance of the operation defined by opClass
+	 * which executes on the shard a shard key belongs to.
+	 *
+	 * @param <OpType> the operation's type
+	 * @param opClass the operation's defining class/interface
+	 * @param shardKey the shard key, not null
+	 * @return an instance that is-a opClass
+	 */
+	public <OpType extends Operation<?,?>> OpType on(final Class<OpType> opClass, final Object shardKey) {
+		return m_shards[getShardIndex(shardKey)].with(opClass);
+	}
+
+	/**
+	 * Returns the thread pool which reads the shards for
+	 * scatter-gather reads. The pool is created on first
+	 * use and shut down by {@link #destroy()}. Its threads
+	 * are daemon threads.
+	 *
+	 * @return the scatter-gather thread pool
+	 */
+	synchronized ExecutorService getScatterExecutor() {
+		if (m_scatterExecutor == null) {
+			m_scatterExecutor = Executors.newCachedThreadPool(new ThreadFactory() {
+				@Override public Thread newThread(final Runnable runnable) {
+					final Thread thread = new Thread(runnable, "tuplez-scatter-" + s_scatterThreadCount.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return m_scatterExecutor;
+	}
+
+	/* org.springframework.beans.factory.InitializingBean */
+
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		Assert.state(m_shards.length > 0, "Property DataSources is required");
+	}
+
+	/* org.springframework.beans.factory.DisposableBean */
+
+	/**
+	 * Shuts down the threads used for scatter-gather reads,
+	 * and destroys the shards' executors, see
+	 * {@link Executor#destroy()}.
+	 */
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (m_scatterExecutor != null) {
+				m_scatterExecutor.shutdown();
+				m_scatterExecutor = null;
+			}
+		}
+
+		for(final Executor shard: m_shards)
+			shard.destroy();
+	}
+}
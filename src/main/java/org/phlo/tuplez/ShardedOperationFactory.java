@@ -0,0 +1,382 @@
+package org.phlo.tuplez;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import net.sf.cglib.proxy.*;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Creates the operation instances returned by
+ * {@link ShardedExecutor#with(Class)}.
+ * <p>
+ * The instances are generated with cglib's {@link Enhancer},
+ * like those created by {@link OperationFactory}, but instead
+ * of executing statements themselves, they route each call
+ * to the instances of the operation created by the shards'
+ * executors. See {@link ShardedExecutor} for the rules.
+ *
+ * @param <OpType> the operation's defining type (class or interface)
+ */
+@SuppressWarnings({"rawtypes", "unchecked"})
+final class ShardedOperationFactory<OpType extends Operation<?,?>> {
+	/**
+	 * Cache of factory instances, one per operation class/interface
+	 */
+	private static final ClassCache<ShardedOperationFactory<?>> s_factories = new ClassCache<ShardedOperationFactory<?>>() {
+		@Override protected ShardedOperationFactory<?> create(final Class<?> opClass, final Class<?> key, final Object context) {
+			return new ShardedOperationFactory((Class<? extends Operation<?,?>>)opClass);
+		}
+	};
+
+	/**
+	 * Cache of shard key getters, per input class. The cached
+	 * value is null for classes without a {@link ShardKey} getter
+	 */
+	private static final ClassCache<Method> s_shardKeyGetters = new ClassCache<Method>() {
+		@Override protected Method create(final Class<?> inputClass, final Class<?> key, final Object context) {
+			final Method getter = findShardKeyGetter(inputClass);
+			if (getter != null)
+				getter.setAccessible(true);
+			return getter;
+		}
+	};
+
+	/**
+	 * Returns the factory instance for a certain operation type.
+	 *
+	 * @param <OpType> the operation's type
+	 * @param opClass the operation's class
+	 * @return a suitable factory instance
+	 */
+	static <OpType extends Operation<?,?>> ShardedOperationFactory<OpType> getFactory(final Class<OpType> opClass) {
+		return (ShardedOperationFactory<OpType>)s_factories.get(opClass);
+	}
+
+	private final Class<OpType> m_opClass;
+
+	/**
+	 * The operation instance prototype, see {@link OperationFactory#m_factory}
+	 */
+	private final Factory m_factory;
+
+	private ShardedOperationFactory(final Class<OpType> opClass) {
+		m_opClass = opClass;
+
+		final Enhancer enhancer = new Enhancer();
+		enhancer.setUseFactory(true);
+		enhancer.setUseCache(false);
+		enhancer.setInterceptDuringConstruction(false);
+
+		if (opClass.isInterface()) {
+			enhancer.setInterfaces(new Class<?>[] {opClass});
+		}
+		else if (Modifier.isAbstract(opClass.getModifiers())) {
+			enhancer.setSuperclass(opClass);
+		}
+		else {
+			throw new InvalidOperationDefinitionException(
+				"sharded operations must be defined by an interface or an abstract class",
+				opClass
+			);
+		}
+
+		enhancer.setCallback(new Router(null, opClass));
+		m_factory = (Factory)enhancer.create();
+	}
+
+	/**
+	 * Returns an instance of the operation which
+	 * routes calls to the shards of an executor
+	 *
+	 * @param executor the sharded executor
+	 * @return an instance that is-a opClass
+	 */
+	OpType getInstance(final ShardedExecutor executor) {
+		return (OpType)m_factory.newInstance(new Router(executor, m_opClass));
+	}
+
+	/**
+	 * Returns the shard key of an input.
+	 *
+	 * @param input the input
+	 * @param inputIsKey whether an input without a {@link ShardKey} getter is its own key
+	 * @return the shard key, or null if there is none
+	 */
+	static Object getShardKey(final Object input, final boolean inputIsKey) {
+		if (input == null)
+			return null;
+
+		final Method getter = s_shardKeyGetters.get(input.getClass());
+		if (getter == null)
+			return inputIsKey ? input : null;
+
+		try {
+			return getter.invoke(input);
+		}
+		catch (IllegalAccessException e) {
+			throw new RuntimeException("unable to invoke shard key getter " + getter, e);
+		}
+		catch (InvocationTargetException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException)e.getCause();
+			throw new RuntimeException("shard key getter " + getter + " failed", e.getCause());
+		}
+	}
+
+	/**
+	 * Searches a class, its superclasses and its interfaces
+	 * for a getter annotated with {@link ShardKey}. Annotations
+	 * of interface methods aren't visible on the methods
+	 * implementing them, so the declarations are searched.
+	 *
+	 * @param type the class to search
+	 * @return the getter or null
+	 */
+	private static Method findShardKeyGetter(final Class<?> type) {
+		if (type == null)
+			return null;
+
+		for(final Method method: type.getDeclaredMethods()) {
+			if (method.isAnnotationPresent(ShardKey.class) && (method.getParameterTypes().length == 0))
+				return method;
+		}
+
+		for(final Class<?> iface: type.getInterfaces()) {
+			final Method method = findShardKeyGetter(iface);
+			if (method != null)
+				return method;
+		}
+
+		return findShardKeyGetter(type.getSuperclass());
+	}
+
+	/**
+	 * Routes the calls of a single operation instance
+	 */
+	private static final class Router implements MethodInterceptor {
+		private final ShardedExecutor m_executor;
+		private final Class<? extends Operation<?,?>> m_opClass;
+
+		Router(final ShardedExecutor executor, final Class<? extends Operation<?,?>> opClass) {
+			m_executor = executor;
+			m_opClass = opClass;
+		}
+
+		@Override
+		public Object intercept(final Object obj, final Method method, final Object[] args, final MethodProxy proxy) throws Throwable {
+			/* Methods implemented by the operation's definition itself */
+			if (!Modifier.isAbstract(method.getModifiers()))
+				return proxy.invokeSuper(obj, args);
+
+			final String name = method.getName();
+			if (name.equals("getOperationClass") && (args.length == 0)) {
+				return m_opClass;
+			}
+			else if (name.equals("getActualImplementation") && (args.length == 1)) {
+				return ((Class<?>)args[0]).isInstance(obj) ? obj : null;
+			}
+			else if (name.equals("getStatement") && (args.length == 0)) {
+				return invokeOn(0, method, args);
+			}
+			else if (name.equals("get") || name.equals("key") || name.equals("keyAsLong") || name.equals("keyAsInt")) {
+				if (args.length == 0) {
+					throw new InvalidOperationExecutionException(
+						name + "() of sharded operations requires an input to route by",
+						m_opClass
+					);
+				}
+				return invokeOn(getShard(args[0]), method, args);
+			}
+			else if (name.equals("execute")) {
+				if (args.length == 0) {
+					/* Without an input, e.g. for DDL statements, execute on all shards */
+					for(int i=0; i < m_executor.getShardCount(); ++i)
+						invokeOn(i, method, args);
+					return null;
+				}
+				return invokeOn(getShard(args[0]), method, args);
+			}
+			else if (name.equals("getAll") && (args.length == 1)) {
+				return getAll(method, (Collection<?>)args[0]);
+			}
+			else if (name.equals("executeBatch") && (args.length == 1)) {
+				return executeBatch(method, (Collection<?>)args[0]);
+			}
+			else if (name.equals("iterate") || name.equals("cursor") || name.equals("collection")) {
+				final boolean hasInput = (args.length == (name.equals("collection") ? 1 : 2));
+				final Object shardKey = hasInput ? getShardKey(args[0], false) : null;
+				if (shardKey != null)
+					return invokeOn(m_executor.getShardIndex(shardKey), method, args);
+				return scatter(name, hasInput, hasInput ? args[0] : null, (args.length > 0) ? args[args.length - 1] : null);
+			}
+			else if (name.equals("exportTo") && (args.length == 3)) {
+				/* Exports of several shards can't be concatenated, thus route by the input */
+				return invokeOn(getShard(args[0]), method, args);
+			}
+			else if (name.equals("fold") || name.equals("foldLong") || name.equals("foldDouble")) {
+				final boolean hasInput = (args.length == (name.equals("fold") ? 3 : 4));
+				final Object shardKey = hasInput ? getShardKey(args[0], false) : null;
+				if (shardKey != null)
+					return invokeOn(m_executor.getShardIndex(shardKey), method, args);
+
+				/* Fold the shards one after the other, each starting with the previous result */
+				final int initialIndex = args.length - 2;
+				final Object[] shardArgs = args.clone();
+				for(int i=0; i < m_executor.getShardCount(); ++i)
+					shardArgs[initialIndex] = invokeOn(i, method, shardArgs);
+				return shardArgs[initialIndex];
+			}
+
+			throw new UnsupportedOperationException(
+				method.getName() + "() isn't supported by sharded operations, " +
+				"use ShardedExecutor.on() to obtain the operation of a single shard"
+			);
+		}
+
+		private int getShard(final Object input) {
+			final Object shardKey = getShardKey(input, true);
+			if (shardKey == null) {
+				throw new InvalidOperationExecutionException(
+					"input has no shard key, unable to route the execution to a shard",
+					m_opClass
+				);
+			}
+			return m_executor.getShardIndex(shardKey);
+		}
+
+		private Object invokeOn(final int shard, final Method method, final Object[] args) throws Throwable {
+			final Operation<?,?> op = m_executor.getShard(shard).with(m_opClass);
+			try {
+				return method.invoke(op, args);
+			}
+			catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+
+		/**
+		 * Looks up each shard's inputs on that shard, and returns
+		 * the rows in the order of the inputs
+		 */
+		private Object getAll(final Method method, final Collection<?> inputs) throws Throwable {
+			final Map<Integer, List<Object>> shardInputs = new LinkedHashMap<Integer, List<Object>>();
+			for(final Object input: inputs) {
+				/* Null inputs are skipped by getAll() anyway */
+				if (input == null)
+					continue;
+
+				final Integer shard = getShard(input);
+				List<Object> list = shardInputs.get(shard);
+				if (list == null) {
+					list = new ArrayList<Object>();
+					shardInputs.put(shard, list);
+				}
+				list.add(input);
+			}
+
+			final Map<Object, Object> rows = new HashMap<Object, Object>();
+			for(final Map.Entry<Integer, List<Object>> entry: shardInputs.entrySet())
+				rows.putAll((Map<Object, Object>)invokeOn(entry.getKey(), method, new Object[] { entry.getValue() }));
+
+			final Map<Object, Object> result = new LinkedHashMap<Object, Object>();
+			for(final Object input: inputs) {
+				if ((input != null) && rows.containsKey(input))
+					result.put(input, rows.get(input));
+			}
+			return result;
+		}
+
+		/**
+		 * Executes each shard's inputs as a batch on that shard,
+		 * and returns the update counts in the order of the inputs
+		 */
+		private Object executeBatch(final Method method, final Collection<?> inputs) throws Throwable {
+			final int shardCount = m_executor.getShardCount();
+			final List<Object>[] shardInputs = new List[shardCount];
+			final List<Integer>[] shardPositions = new List[shardCount];
+
+			int position = 0;
+			for(final Object input: inputs) {
+				final int shard = getShard(input);
+				if (shardInputs[shard] == null) {
+					shardInputs[shard] = new ArrayList<Object>();
+					shardPositions[shard] = new ArrayList<Integer>();
+				}
+				shardInputs[shard].add(input);
+				shardPositions[shard].add(position++);
+			}
+
+			final int[] updateCounts = new int[position];
+			for(int shard=0; shard < shardCount; ++shard) {
+				if (shardInputs[shard] == null)
+					continue;
+
+				final int[] shardUpdateCounts = (int[])invokeOn(shard, method, new Object[] { shardInputs[shard] });
+				for(int i=0; i < shardUpdateCounts.length; ++i)
+					updateCounts[shardPositions[shard].get(i)] = shardUpdateCounts[i];
+			}
+			return updateCounts;
+		}
+
+		/**
+		 * Reads the rows of all shards, see {@link ScatterGatherIterator}
+		 */
+		private Object scatter(final String name, final boolean hasInput, final Object input, final Object processor) {
+			final List<Operation<?,?>> ops = new ArrayList<Operation<?,?>>(m_executor.getShardCount());
+			for(int i=0; i < m_executor.getShardCount(); ++i)
+				ops.add(m_executor.getShard(i).with(m_opClass));
+
+			final ScatterGatherIterator rows = new ScatterGatherIterator(
+				m_executor.getScatterExecutor(),
+				ops,
+				m_opClass,
+				hasInput,
+				input
+			);
+			try {
+				if (name.equals("iterate")) {
+					return ((IteratorProcessor)processor).processIterator(rows);
+				}
+				else if (name.equals("cursor")) {
+					return ((CursorProcessor)processor).processCursor(new Cursor<Object>() {
+						private Object m_row = null;
+
+						@Override public boolean next() {
+							if (!rows.hasNext())
+								return false;
+							m_row = rows.next();
+							return true;
+						}
+
+						@Override public Object row() {
+							return m_row;
+						}
+
+						/* The gathered rows don't change when the cursor advances */
+						@Override public Object copy() {
+							return m_row;
+						}
+					});
+				}
+				else {
+					final List<Object> collection = new ArrayList<Object>();
+					while (rows.hasNext())
+						collection.add(rows.next());
+					return collection;
+				}
+			}
+			finally {
+				rows.close();
+			}
+		}
+	}
+}
@@ -0,0 +1,181 @@
+package org.phlo.tuplez;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phlo.tuplez.operation.Operation;
+
+/**
+ * De-duplicates identical concurrent reads, see
+ * {@link Executor#setSingleFlightEnabled(boolean)}.
+ * <p>
+ * The first caller of a read (the <b>leader</b>) registers a
+ * flight under the read's key and executes the read, recording
+ * its rows. Callers of the same read arriving while the flight
+ * is registered wait for the leader, and then process the
+ * recorded rows instead of executing the read themselves. If
+ * the leader failed, or its rows weren't recorded completely
+ * (because the leader's processor stopped early, or there were
+ * more than {@link #s_maxSharedRows} rows), the waiting callers
+ * execute the read themselves. Callers with a timeout or deadline
+ * wait at most that long, and then fail with an
+ * {@link OperationTimeoutException}.
+ * <p>
+ * Instances are created per executor by {@link Executor#getSingleFlight()}.
+ */
+final class SingleFlight {
+	/* Maximal number of rows a leader records for the waiting callers */
+	static final int s_maxSharedRows = 10000;
+
+	/* Returned by await() if the flight didn't complete in time */
+	private static final List<Object> s_timedOut = Collections.unmodifiableList(new java.util.ArrayList<Object>(0));
+
+	/**
+	 * Executes a read with a given processor
+	 */
+	static interface Query {
+		Object execute(IteratorProcessor<Object, ?> processor);
+	}
+
+	/**
+	 * A read in flight
+	 */
+	private static final class Flight {
+		/* Whether the leader has published the rows */
+		boolean completed = false;
+
+		/* The rows, or null if the waiting callers must execute the read themselves */
+		List<Object> rows = null;
+
+		/* Number of callers which waited for this flight */
+		int waiters = 0;
+	}
+
+	/* The flights, by the reads' keys */
+	private final ConcurrentMap<String, Flight> m_flights = new ConcurrentHashMap<String, Flight>();
+
+	private final AtomicInteger m_waiting = new AtomicInteger();
+	private final AtomicInteger m_maxWaiters = new AtomicInteger();
+	private final AtomicLong m_executions = new AtomicLong();
+	private final AtomicLong m_coalesced = new AtomicLong();
+	private final AtomicLong m_fallbacks = new AtomicLong();
+
+	/**
+	 * Executes a read, or waits for an identical read in flight
+	 * and lets processor process its rows.
+	 *
+	 * @param key the read's key, which identifies the operation and its parameters
+	 * @param opClass the operation's defining class/interface
+	 * @param timeoutNanos the time the caller may wait, or zero to wait indefinitely
+	 * @param processor the caller's processor
+	 * @param recorder records the rows if this caller executes the read
+	 * @param query executes the read
+	 * @return the processor's return value
+	 * @throws OperationTimeoutException if the identical read didn't complete in time
+	 */
+	Object execute(
+		final String key,
+		final Class<? extends Operation<?,?>> opClass,
+		final long timeoutNanos,
+		final IteratorProcessor<Object, ?> processor,
+		final RecordingIterator recorder,
+		final Query query
+	) {
+		final Flight flight = new Flight();
+		final Flight inFlight = m_flights.putIfAbsent(key, flight);
+
+		if (inFlight != null) {
+			final List<Object> rows = await(inFlight, timeoutNanos);
+			if (rows == s_timedOut) {
+				throw new OperationTimeoutException(
+					"timeout of " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + "ms expired while waiting for an identical read",
+					opClass
+				);
+			}
+			if (rows != null) {
+				m_coalesced.incrementAndGet();
+				return processor.processIterator(Collections.unmodifiableList(rows).iterator());
+			}
+
+			m_fallbacks.incrementAndGet();
+			return query.execute(recorder.wrap(processor));
+		}
+
+		m_executions.incrementAndGet();
+		try {
+			return query.execute(recorder.wrap(processor));
+		}
+		finally {
+			/* Callers arriving from now on execute a new flight */
+			m_flights.remove(key, flight);
+			synchronized (flight) {
+				final List<Object> rows = recorder.getRows();
+				flight.rows = ((rows != null) && (rows.size() <= s_maxSharedRows)) ? rows : null;
+				flight.completed = true;
+				flight.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Waits for a flight to complete, at most timeoutNanos if that
+	 * isn't zero, and returns its rows, or {@link #s_timedOut}
+	 */
+	private List<Object> await(final Flight flight, final long timeoutNanos) {
+		final long deadline = System.nanoTime() + timeoutNanos;
+		boolean interrupted = false;
+		m_waiting.incrementAndGet();
+		try {
+			synchronized (flight) {
+				flight.waiters += 1;
+				while (true) {
+					final int max = m_maxWaiters.get();
+					if ((flight.waiters <= max) || m_maxWaiters.compareAndSet(max, flight.waiters))
+						break;
+				}
+
+				while (!flight.completed) {
+					final long remaining = deadline - System.nanoTime();
+					if ((timeoutNanos > 0) && (remaining <= 0))
+						return s_timedOut;
+					try {
+						if (timeoutNanos > 0)
+							TimeUnit.NANOSECONDS.timedWait(flight, remaining);
+						else
+							flight.wait();
+					}
+					catch (InterruptedException e) {
+						interrupted = true;
+					}
+				}
+				return flight.rows;
+			}
+		}
+		finally {
+			m_waiting.decrementAndGet();
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Returns a snapshot of the counters.
+	 *
+	 * @return the statistics
+	 */
+	SingleFlightStatistics getStatistics() {
+		return new SingleFlightStatistics(
+			m_flights.size(),
+			m_waiting.get(),
+			m_maxWaiters.get(),
+			m_executions.get(),
+			m_coalesced.get(),
+			m_fallbacks.get()
+		);
+	}
+}
@@ -0,0 +1,104 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of the counters of an executor's de-duplication
+ * of identical concurrent reads.
+ *
+ * @see Executor#setSingleFlightEnabled(boolean)
+ * @see Executor#getSingleFlightStatistics()
+ */
+public final class SingleFlightStatistics {
+	private final int m_inFlight;
+	private final int m_waiting;
+	private final int m_maxWaiters;
+	private final long m_executions;
+	private final long m_coalesced;
+	private final long m_fallbacks;
+
+	SingleFlightStatistics(
+		final int inFlight,
+		final int waiting,
+		final int maxWaiters,
+		final long executions,
+		final long coalesced,
+		final long fallbacks
+	) {
+		m_inFlight = inFlight;
+		m_waiting = waiting;
+		m_maxWaiters = maxWaiters;
+		m_executions = executions;
+		m_coalesced = coalesced;
+		m_fallbacks = fallbacks;
+	}
+
+	/**
+	 * Returns the number of reads currently in flight
+	 *
+	 * @return number of reads in flight
+	 */
+	public int getInFlight() {
+		return m_inFlight;
+	}
+
+	/**
+	 * Returns the number of callers currently waiting
+	 * for an identical read in flight
+	 *
+	 * @return number of waiting callers
+	 */
+	public int getWaiting() {
+		return m_waiting;
+	}
+
+	/**
+	 * Returns the largest number of callers which waited
+	 * for a single read
+	 *
+	 * @return maximal number of waiters per read
+	 */
+	public int getMaxWaiters() {
+		return m_maxWaiters;
+	}
+
+	/**
+	 * Returns the number of reads executed on behalf of
+	 * themselves and the callers waiting for them
+	 *
+	 * @return number of executed reads
+	 */
+	public long getExecutions() {
+		return m_executions;
+	}
+
+	/**
+	 * Returns the number of callers served with the rows
+	 * of an identical read in flight
+	 *
+	 * @return number of coalesced calls
+	 */
+	public long getCoalesced() {
+		return m_coalesced;
+	}
+
+	/**
+	 * Returns the number of callers which waited for a read
+	 * in flight, but then executed the read themselves, since
+	 * it failed or its rows couldn't be shared
+	 *
+	 * @return number of fallbacks
+	 */
+	public long getFallbacks() {
+		return m_fallbacks;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{inFlight: " + m_inFlight + "; " +
+			"waiting: " + m_waiting + "; " +
+			"maxWaiters: " + m_maxWaiters + "; " +
+			"executions: " + m_executions + "; " +
+			"coalesced: " + m_coalesced + "; " +
+			"fallbacks: " + m_fallbacks + "}";
+	}
+}
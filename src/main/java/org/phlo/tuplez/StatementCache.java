@@ -0,0 +1,278 @@
+package org.phlo.tuplez;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.SmartDataSource;
+import org.springframework.jdbc.support.JdbcUtils;
+
+/**
+ * Caches {@link PreparedStatement}s per {@link Connection}.
+ * <p>
+ * Statements can only be re-used as long as the connection they
+ * were prepared on stays open. Statements are therefore only
+ * cached for connections which are known to be long-lived, i.e.
+ * connections handed out by a {@link SmartDataSource} which
+ * says they should not be closed after use. That is the case for
+ * the connection pinned by a {@link Session}, and for executors
+ * created for a
+ * {@link org.springframework.jdbc.datasource.SingleConnectionDataSource}.
+ * For all other connections, {@link #prepare} simply prepares
+ * a new statement and {@link #release} closes it.
+ * <p>
+ * A statement is removed from the cache while it's in use, and
+ * returned by {@link #release}, which clears its parameters, any
+ * batch not executed due to a failure, and its query timeout (e.g.
+ * one applied by a transaction).
+ * Two threads sharing a connection thus never share a statement.
+ * Each connection's cache holds at most {@link #getSize()} statements,
+ * the least recently used statement is closed once that limit
+ * is exceeded.
+ * <p>
+ * A {@link StatementCache} instance is owned by an {@link Executor},
+ * and shared with the {@link Session}s opened by it.
+ */
+final class StatementCache {
+	/**
+	 * Identifies a cached statement. Statements prepared to return
+	 * generated keys differ from those which don't.
+	 */
+	private static final class Key {
+		final String jdbcStatement;
+		final boolean returnGeneratedKeys;
+		final String[] generatedKeyColumns;
+
+		Key(final String _jdbcStatement, final boolean _returnGeneratedKeys, final String[] _generatedKeyColumns) {
+			jdbcStatement = _jdbcStatement;
+			returnGeneratedKeys = _returnGeneratedKeys;
+			generatedKeyColumns = _generatedKeyColumns;
+		}
+
+		@Override
+		public int hashCode() {
+			return
+				jdbcStatement.hashCode() ^
+				(returnGeneratedKeys ? 1 : 0) ^
+				Arrays.hashCode(generatedKeyColumns);
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (!(other instanceof Key))
+				return false;
+
+			Key otherKey = (Key)other;
+			if (!jdbcStatement.equals(otherKey.jdbcStatement))
+				return false;
+			if (returnGeneratedKeys != otherKey.returnGeneratedKeys)
+				return false;
+			if (!Arrays.equals(generatedKeyColumns, otherKey.generatedKeyColumns))
+				return false;
+			return true;
+		}
+	}
+
+	/**
+	 * The statements cached for a single connection, in LRU order
+	 */
+	@SuppressWarnings("serial")
+	private final class ConnectionCache extends java.util.LinkedHashMap<Key, PreparedStatement> {
+		/* Statements currently in use, and the keys to return them under */
+		final Map<PreparedStatement, Key> checkedOut =
+			new java.util.IdentityHashMap<PreparedStatement, Key>();
+
+		ConnectionCache() {
+			super(16, 0.75f, true);
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+			if (size() <= m_size)
+				return false;
+
+			JdbcUtils.closeStatement(eldest.getValue());
+			m_evictions.incrementAndGet();
+			return true;
+		}
+	}
+
+	/* Maximal number of statements cached per connection. Zero disables caching */
+	private volatile int m_size = 0;
+
+	/* Per-connection caches. Keys are weak, so that the caches of connections
+	 * which were closed without calling {@link #close(Connection)} are
+	 * eventually garbage collected.
+	 */
+	private final Map<Connection, ConnectionCache> m_caches =
+		java.util.Collections.synchronizedMap(new java.util.WeakHashMap<Connection, ConnectionCache>());
+
+	private final AtomicLong m_hits = new AtomicLong();
+	private final AtomicLong m_misses = new AtomicLong();
+	private final AtomicLong m_evictions = new AtomicLong();
+
+	int getSize() {
+		return m_size;
+	}
+
+	void setSize(final int size) {
+		if (size < 0)
+			throw new IllegalArgumentException("statement cache size must not be negative");
+		m_size = size;
+	}
+
+	StatementCacheStatistics getStatistics() {
+		return new StatementCacheStatistics(m_hits.get(), m_misses.get(), m_evictions.get());
+	}
+
+	/**
+	 * Returns a statement for the given JDBC statement text, either
+	 * from the cache or freshly prepared. The statement must be
+	 * returned with {@link #release} after use.
+	 *
+	 * @param dataSource the data source the connection was obtained from
+	 * @param connection the connection to prepare the statement on
+	 * @param jdbcStatement the JDBC statement text
+	 * @param returnGeneratedKeys whether the statement must return generated keys
+	 * @param generatedKeyColumns the generated key columns, or null to let the driver decide
+	 * @return the prepared statement
+	 * @throws SQLException if preparing the statement fails
+	 */
+	PreparedStatement prepare(
+		final DataSource dataSource,
+		final Connection connection,
+		final String jdbcStatement,
+		final boolean returnGeneratedKeys,
+		final String[] generatedKeyColumns
+	) throws SQLException {
+		final ConnectionCache cache = getConnectionCache(dataSource, connection);
+		if (cache == null)
+			return prepareStatement(connection, jdbcStatement, returnGeneratedKeys, generatedKeyColumns);
+
+		final Key key = new Key(jdbcStatement, returnGeneratedKeys, generatedKeyColumns);
+		PreparedStatement ps;
+		synchronized (cache) {
+			ps = cache.remove(key);
+		}
+
+		/* The driver or a pool may have closed the statement behind our back */
+		if ((ps != null) && ps.isClosed())
+			ps = null;
+
+		if (ps != null) {
+			m_hits.incrementAndGet();
+		}
+		else {
+			m_misses.incrementAndGet();
+			ps = prepareStatement(connection, jdbcStatement, returnGeneratedKeys, generatedKeyColumns);
+		}
+
+		synchronized (cache) {
+			cache.checkedOut.put(ps, key);
+		}
+		return ps;
+	}
+
+	/**
+	 * Returns a statement obtained from {@link #prepare} to the
+	 * cache, or closes it if it isn't cacheable.
+	 *
+	 * @param connection the connection the statement was prepared on
+	 * @param ps the statement
+	 */
+	void release(final Connection connection, final PreparedStatement ps) {
+		final ConnectionCache cache = (m_size > 0) ? m_caches.get(connection) : null;
+		final Key key;
+		if (cache != null) {
+			synchronized (cache) {
+				key = cache.checkedOut.remove(ps);
+			}
+		}
+		else {
+			key = null;
+		}
+
+		if (key == null) {
+			JdbcUtils.closeStatement(ps);
+			return;
+		}
+
+		try {
+			/* Statements whose settings couldn't be reset after use were closed */
+			if (ps.isClosed())
+				return;
+			ps.clearParameters();
+			ps.clearBatch();
+			ps.setQueryTimeout(0);
+		}
+		catch (SQLException e) {
+			JdbcUtils.closeStatement(ps);
+			return;
+		}
+
+		final PreparedStatement displaced;
+		synchronized (cache) {
+			displaced = cache.put(key, ps);
+		}
+		if ((displaced != null) && (displaced != ps))
+			JdbcUtils.closeStatement(displaced);
+	}
+
+	/**
+	 * Closes all statements cached for a connection. Must be
+	 * called before a cached connection is closed.
+	 *
+	 * @param connection the connection
+	 */
+	void close(final Connection connection) {
+		final ConnectionCache cache = m_caches.remove(connection);
+		if (cache == null)
+			return;
+
+		synchronized (cache) {
+			for(PreparedStatement ps: cache.values())
+				JdbcUtils.closeStatement(ps);
+			cache.clear();
+		}
+	}
+
+	private ConnectionCache getConnectionCache(final DataSource dataSource, final Connection connection) {
+		if (m_size <= 0)
+			return null;
+
+		/* Only cache statements of connections which outlive the current call */
+		if (!(dataSource instanceof SmartDataSource) || ((SmartDataSource)dataSource).shouldClose(connection))
+			return null;
+
+		synchronized (m_caches) {
+			ConnectionCache cache = m_caches.get(connection);
+			if (cache == null) {
+				cache = new ConnectionCache();
+				m_caches.put(connection, cache);
+			}
+			return cache;
+		}
+	}
+
+	private static PreparedStatement prepareStatement(
+		final Connection connection,
+		final String jdbcStatement,
+		final boolean returnGeneratedKeys,
+		final String[] generatedKeyColumns
+	) throws SQLException {
+		if (!returnGeneratedKeys)
+			return connection.prepareStatement(jdbcStatement);
+		else if (generatedKeyColumns != null)
+			return connection.prepareStatement(jdbcStatement, generatedKeyColumns);
+		else
+			return connection.prepareStatement(jdbcStatement, Statement.RETURN_GENERATED_KEYS);
+	}
+}
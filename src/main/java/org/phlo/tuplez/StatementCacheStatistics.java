@@ -0,0 +1,68 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of an {@link Executor}'s prepared statement cache
+ * counters.
+ *
+ * @see Executor#setStatementCacheSize(int)
+ * @see Executor#getStatementCacheStatistics()
+ */
+public final class StatementCacheStatistics {
+	private final long m_hits;
+	private final long m_misses;
+	private final long m_evictions;
+
+	StatementCacheStatistics(final long hits, final long misses, final long evictions) {
+		m_hits = hits;
+		m_misses = misses;
+		m_evictions = evictions;
+	}
+
+	/**
+	 * Returns the number of executions which re-used a cached statement
+	 *
+	 * @return number of cache hits
+	 */
+	public long getHits() {
+		return m_hits;
+	}
+
+	/**
+	 * Returns the number of executions of cacheable statements
+	 * which had to prepare a new statement
+	 *
+	 * @return number of cache misses
+	 */
+	public long getMisses() {
+		return m_misses;
+	}
+
+	/**
+	 * Returns the number of statements closed because the
+	 * cache of their connection was full
+	 *
+	 * @return number of evicted statements
+	 */
+	public long getEvictions() {
+		return m_evictions;
+	}
+
+	/**
+	 * Returns the fraction of cacheable executions which
+	 * re-used a cached statement, or 0 if there were none.
+	 *
+	 * @return cache hit rate between 0 and 1
+	 */
+	public double getHitRate() {
+		final long total = m_hits + m_misses;
+		return (total > 0) ? (double)m_hits / total : 0.0;
+	}
+
+	@Override
+	public String toString() {
+		return
+			"{hits: " + m_hits + "; " +
+			"misses: " + m_misses + "; " +
+			"evictions: " + m_evictions + "}";
+	}
+}
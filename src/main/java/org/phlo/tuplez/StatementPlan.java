@@ -0,0 +1,592 @@
+package org.phlo.tuplez;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.jdbc.core.StatementCreatorUtils;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+/**
+ * Parsed representation of a statement with named parameters.
+ * <p>
+ * A statement like {@code SELECT * FROM t WHERE id = :in.id} is
+ * split once into the SQL fragments surrounding the parameter
+ * references and the referenced parameter names. Binding a
+ * plan to a {@link SqlParameterSource} then only requires the
+ * parameter values to be fetched, the JDBC statement text
+ * (with a <b>?</b> per parameter) is computed during parsing.
+ * Only list parameters (see {@link InputMapper}), whose values
+ * are expanded into one placeholder per element, require the
+ * JDBC statement text to be assembled on every execution.
+ * <p>
+ * Parameter references are recognized outside of quoted strings,
+ * quoted identifiers and comments. <b>::</b> (PostgreSQL's cast
+ * operator) is not treated as a parameter reference.
+ * <p>
+ * Plan instances are immutable and obtained through
+ * {@link #getInstance(String)}, which caches them by
+ * statement text.
+ */
+final class StatementPlan {
+	/**
+	 * Plan instance cache, keyed by statement text
+	 */
+	private static final ConcurrentMap<String, StatementPlan> s_plans =
+		new java.util.concurrent.ConcurrentHashMap<String, StatementPlan>();
+
+	/**
+	 * Maximal number of cached plans. Operations implementing
+	 * {@link org.phlo.tuplez.operation.OperationStatementIsComputed}
+	 * may produce arbitrarily many distinct statements, so the
+	 * cache must be bounded. Plans for statements seen after the
+	 * cache is full are simply not cached.
+	 */
+	private static final int s_plansCacheLimit = 1024;
+
+	/**
+	 * Matches the end of a fragment which opens an IN-list, i.e.
+	 * {@code IN (} or {@code NOT IN (}. The first group is the NOT.
+	 */
+	private static final Pattern s_inListStart = Pattern.compile("(?i)\\b(NOT\\s+)?IN\\s*\\(\\s*$");
+
+	/**
+	 * Returns the plan for a statement, parsing the
+	 * statement if no cached plan exists.
+	 *
+	 * @param statement statement text with named parameters
+	 * @return the statement's plan
+	 */
+	public static StatementPlan getInstance(final String statement) {
+		if (statement == null)
+			throw new IllegalArgumentException("SQL must not be null");
+		
+		StatementPlan plan = s_plans.get(statement);
+		if (plan == null) {
+			plan = new StatementPlan(statement);
+			if (s_plans.size() < s_plansCacheLimit)
+				s_plans.putIfAbsent(statement, plan);
+		}
+
+		return plan;
+	}
+	
+	/**
+	 * Parses a statement, bypassing the plan cache. Used
+	 * by callers which cache plans themselves.
+	 *
+	 * @param statement statement text with named parameters
+	 * @return the statement's plan
+	 */
+	static StatementPlan createInstance(final String statement) {
+		if (statement == null)
+			throw new IllegalArgumentException("SQL must not be null");
+		
+		return new StatementPlan(statement);
+	}
+
+	/* The original statement */
+	private final String m_statement;
+
+	/* SQL fragments. Fragment i precedes parameter i, the last fragment
+	 * follows the last parameter. There is thus always one more fragment
+	 * than there are parameters.
+	 */
+	private final String[] m_fragments;
+
+	/* Referenced parameter names, in order of appearance */
+	private final String[] m_parameterNames;
+
+	/* Whether parameter i directly follows IN (, but not NOT IN ( */
+	private final boolean[] m_inListParameters;
+
+	/* JDBC statement text with a single placeholder per parameter */
+	private final String m_jdbcStatement;
+
+	/* Whether only :in and default.* parameters are referenced */
+	private final boolean m_scalarInput;
+
+	/* Whether default.* parameters are referenced */
+	private final boolean m_defaultParameters;
+
+	private StatementPlan(final String statement) {
+		m_statement = statement;
+
+		final List<String> fragments = new java.util.ArrayList<String>();
+		final List<String> parameterNames = new java.util.ArrayList<String>();
+
+		final int length = statement.length();
+		final StringBuilder fragment = new StringBuilder();
+		int i = 0;
+		while (i < length) {
+			final char c = statement.charAt(i);
+
+			if ((c == '\'') || (c == '"')) {
+				/* Quoted string or identifier. Doubled quotes inside
+				 * need no special treatment, they simply end and
+				 * re-open the quoted section.
+				 */
+				int end = statement.indexOf(c, i + 1);
+				end = (end < 0) ? length : end + 1;
+				fragment.append(statement, i, end);
+				i = end;
+			}
+			else if ((c == '-') && statement.startsWith("--", i)) {
+				/* Single-line comment */
+				int end = statement.indexOf('\n', i);
+				end = (end < 0) ? length : end + 1;
+				fragment.append(statement, i, end);
+				i = end;
+			}
+			else if ((c == '/') && statement.startsWith("/*", i)) {
+				/* Multi-line comment */
+				int end = statement.indexOf("*/", i + 2);
+				end = (end < 0) ? length : end + 2;
+				fragment.append(statement, i, end);
+				i = end;
+			}
+			else if ((c == ':') && statement.startsWith("::", i)) {
+				/* Cast operator */
+				fragment.append("::");
+				i += 2;
+			}
+			else if ((c == ':') && (i + 1 < length) && isParameterNameStart(statement.charAt(i + 1))) {
+				/* Parameter reference */
+				int end = i + 1;
+				while ((end < length) && isParameterNamePart(statement.charAt(end)))
+					++end;
+
+				fragments.add(fragment.toString());
+				fragment.setLength(0);
+				parameterNames.add(statement.substring(i + 1, end));
+				i = end;
+			}
+			else {
+				fragment.append(c);
+				++i;
+			}
+		}
+		fragments.add(fragment.toString());
+
+		m_fragments = fragments.toArray(new String[fragments.size()]);
+		m_parameterNames = parameterNames.toArray(new String[parameterNames.size()]);
+
+		m_inListParameters = new boolean[m_parameterNames.length];
+		for(int p = 0; p < m_parameterNames.length; ++p) {
+			final Matcher m = s_inListStart.matcher(m_fragments[p]);
+			m_inListParameters[p] = m.find() && (m.group(1) == null);
+		}
+
+		final StringBuilder jdbcStatement = new StringBuilder(statement.length());
+		for(int p = 0; p < m_parameterNames.length; ++p)
+			jdbcStatement.append(m_fragments[p]).append('?');
+		jdbcStatement.append(m_fragments[m_parameterNames.length]);
+		m_jdbcStatement = jdbcStatement.toString();
+
+		boolean scalarInput = true;
+		boolean defaultParameters = false;
+		for(String parameterName: m_parameterNames) {
+			if (parameterName.startsWith("default."))
+				defaultParameters = true;
+			else if (!parameterName.equals("in"))
+				scalarInput = false;
+		}
+		m_scalarInput = scalarInput;
+		m_defaultParameters = defaultParameters;
+	}
+
+	private static boolean isParameterNameStart(final char c) {
+		return Character.isLetter(c) || (c == '_');
+	}
+
+	private static boolean isParameterNamePart(final char c) {
+		return Character.isLetterOrDigit(c) || (c == '_') || (c == '.');
+	}
+
+	/**
+	 * Returns the statement this plan was created for
+	 *
+	 * @return the original statement text
+	 */
+	public String getStatement() {
+		return m_statement;
+	}
+
+	/**
+	 * Returns the names of the parameters referenced
+	 * by the statement, in order of appearance. Parameters
+	 * referenced multiple times appear multiple times.
+	 *
+	 * @return the referenced parameter names
+	 */
+	public String[] getParameterNames() {
+		return m_parameterNames.clone();
+	}
+
+	/**
+	 * Returns the number of parameter references
+	 *
+	 * @return number of parameter references
+	 */
+	public int getParameterCount() {
+		return m_parameterNames.length;
+	}
+
+	/**
+	 * Returns the name of the i-th parameter reference
+	 *
+	 * @param i index of the parameter reference
+	 * @return parameter name
+	 */
+	public String getParameterName(final int i) {
+		return m_parameterNames[i];
+	}
+
+	/**
+	 * Returns the JDBC statement text, with a single
+	 * placeholder per parameter reference.
+	 *
+	 * @return the JDBC statement text
+	 */
+	public String getJdbcStatement() {
+		return m_jdbcStatement;
+	}
+
+	/**
+	 * Returns whether the statement references the operation's
+	 * input only as a whole (<b>:in</b>), apart from <b>default.*</b>
+	 * parameters. Only then can {@link #bindScalar} be used.
+	 *
+	 * @return whether the plan can be bound to a scalar input
+	 */
+	public boolean isScalarInput() {
+		return m_scalarInput;
+	}
+
+	/**
+	 * Returns whether the statement references <b>default.*</b>
+	 * parameters
+	 *
+	 * @return whether default parameters are referenced
+	 */
+	public boolean hasDefaultParameters() {
+		return m_defaultParameters;
+	}
+
+	/**
+	 * Binds a primitive value to the <b>:in</b> references of a
+	 * plan for which {@link #isScalarInput()} is true. The value
+	 * is set with {@link PreparedStatement#setLong} respectively
+	 * {@link PreparedStatement#setInt}, without boxing it. Other
+	 * parameters, i.e. <b>default.*</b> parameters, are fetched from
+	 * paramSource, which may be null if there are none.
+	 *
+	 * @param value the input value
+	 * @param asInt whether to bind the value with setInt
+	 * @param paramSource source of the remaining parameters, or null
+	 * @return binding of the plan to the value
+	 */
+	public Binding bindScalar(final long value, final boolean asInt, final SqlParameterSource paramSource) {
+		assert m_scalarInput;
+		assert (paramSource != null) || !m_defaultParameters;
+
+		return new ScalarBinding(value, asInt, paramSource);
+	}
+
+	/**
+	 * Fetches the statement's parameter values from a
+	 * {@link SqlParameterSource}.
+	 * <p>
+	 * An empty list parameter is bound as a single {@code NULL} if
+	 * it directly follows {@code IN (}, making the test match nothing.
+	 * Anywhere else, e.g. in {@code NOT IN (...)}, where {@code NULL}
+	 * would match nothing instead of everything, empty lists are
+	 * rejected.
+	 *
+	 * @param paramSource source of the parameter values
+	 * @return binding of the plan to the fetched values
+	 * @throws EmptyListException if an empty list parameter isn't used in {@code IN (...)}
+	 */
+	public Binding bind(final SqlParameterSource paramSource) {
+		final Object[] values = new Object[m_parameterNames.length];
+		final int[] sqlTypes = new int[m_parameterNames.length];
+		boolean expand = false;
+		for(int p = 0; p < m_parameterNames.length; ++p) {
+			final String name = m_parameterNames[p];
+			values[p] = paramSource.getValue(name);
+			sqlTypes[p] = paramSource.getSqlType(name);
+			if ((values[p] instanceof Collection) && ((Collection<?>)values[p]).isEmpty()) {
+				if (!m_inListParameters[p])
+					throw new EmptyListException(name);
+				values[p] = Collections.singletonList(null);
+			}
+			expand |= (values[p] instanceof Collection);
+		}
+
+		final String jdbcStatement;
+		if (!expand) {
+			jdbcStatement = m_jdbcStatement;
+		}
+		else {
+			/* Expand list values into one placeholder per element */
+			final StringBuilder b = new StringBuilder(m_jdbcStatement.length() + 64);
+			for(int p = 0; p < m_parameterNames.length; ++p) {
+				b.append(m_fragments[p]);
+				if (values[p] instanceof Collection) {
+					final int size = ((Collection<?>)values[p]).size();
+					for(int e = 0; e < size; ++e)
+						b.append((e == 0) ? "?" : ", ?");
+				}
+				else {
+					b.append('?');
+				}
+			}
+			b.append(m_fragments[m_parameterNames.length]);
+			jdbcStatement = b.toString();
+		}
+
+		return new ValuesBinding(jdbcStatement, values, sqlTypes);
+	}
+
+	/**
+	 * Thrown by {@link StatementPlan#bind(SqlParameterSource)} if an
+	 * empty list parameter is used anywhere but in {@code IN (...)}
+	 */
+	static final class EmptyListException extends IllegalArgumentException {
+		private static final long serialVersionUID = 1L;
+
+		EmptyListException(final String parameterName) {
+			super(
+				"list parameter " + parameterName + " is empty, which is only " +
+				"supported directly inside IN (...), but not e.g. in NOT IN (...)"
+			);
+		}
+	}
+
+	/**
+	 * A plan bound to a particular set of parameter values
+	 */
+	static abstract class Binding {
+		/**
+		 * Returns the JDBC statement text. List parameters
+		 * are expanded to as many placeholders as the list
+		 * has elements.
+		 *
+		 * @return the JDBC statement text
+		 */
+		public abstract String getJdbcStatement();
+
+		/**
+		 * Sets the parameters of a statement prepared
+		 * from {@link #getJdbcStatement()}
+		 *
+		 * @param ps the prepared statement
+		 * @throws SQLException if setting a parameter fails
+		 */
+		public abstract void setParameters(PreparedStatement ps) throws SQLException;
+
+		/**
+		 * Returns the parameter values, one per parameter
+		 * reference. List parameters are returned as lists.
+		 *
+		 * @return the parameter values
+		 */
+		public abstract Object[] getParameterValues();
+
+		/**
+		 * Returns a string which identifies the JDBC statement
+		 * text and the parameter values, e.g. to recognize
+		 * executions which return the same rows. Returns null
+		 * if a parameter value's type has no known canonical
+		 * representation, in which case executions can't be
+		 * recognized as equal.
+		 *
+		 * @return the binding's fingerprint or null
+		 */
+		public String getFingerprint() {
+			final StringBuilder b = new StringBuilder(getJdbcStatement());
+			for(final Object value: getParameterValues()) {
+				b.append('\n');
+				if (!appendValue(b, value))
+					return null;
+			}
+			return b.toString();
+		}
+
+		/**
+		 * Appends a parameter value's type and canonical representation,
+		 * prefixed by its length to keep fingerprints unambiguous. Returns
+		 * false if the value's type has no known canonical representation.
+		 * toString() is only trusted for types whose string representation
+		 * determines the value, dates and times are represented by their
+		 * milliseconds (and nanoseconds), independent of the time zone.
+		 */
+		private static boolean appendValue(final StringBuilder b, final Object value) {
+			if (value == null) {
+				b.append("null");
+				return true;
+			}
+			else if (value instanceof Collection) {
+				b.append('[');
+				for(final Object element: (Collection<?>)value) {
+					if (!appendValue(b, element))
+						return false;
+					b.append(',');
+				}
+				b.append(']');
+				return true;
+			}
+			else if (value instanceof Object[]) {
+				return appendValue(b, Arrays.asList((Object[])value));
+			}
+			else if (value instanceof InputMapper.ArrayParameter) {
+				b.append("array:");
+				return appendValue(b, ((InputMapper.ArrayParameter)value).getElements());
+			}
+
+			final String string;
+			if (value instanceof byte[]) {
+				string = Arrays.toString((byte[])value);
+			}
+			else if (value instanceof Timestamp) {
+				string = ((Timestamp)value).getTime() + "." + ((Timestamp)value).getNanos();
+			}
+			else if (value instanceof Date) {
+				string = Long.toString(((Date)value).getTime());
+			}
+			else if (value instanceof Calendar) {
+				string = ((Calendar)value).getTimeInMillis() + "@" + ((Calendar)value).getTimeZone().getID();
+			}
+			else if (value instanceof Enum) {
+				string = ((Enum<?>)value).name();
+			}
+			else if (
+				(value instanceof String) ||
+				(value instanceof Boolean) ||
+				(value instanceof Character) ||
+				(value instanceof Byte) ||
+				(value instanceof Short) ||
+				(value instanceof Integer) ||
+				(value instanceof Long) ||
+				(value instanceof Float) ||
+				(value instanceof Double) ||
+				(value instanceof BigDecimal) ||
+				(value instanceof BigInteger) ||
+				(value instanceof UUID)
+			) {
+				string = value.toString();
+			}
+			else {
+				return false;
+			}
+
+			b.append(value.getClass().getName());
+			b.append(':');
+			b.append(string.length());
+			b.append(':');
+			b.append(string);
+			return true;
+		}
+	}
+
+	/**
+	 * Binding to values fetched from a {@link SqlParameterSource}
+	 */
+	private static final class ValuesBinding extends Binding {
+		private final String m_jdbcStatement;
+		private final Object[] m_values;
+		private final int[] m_sqlTypes;
+
+		private ValuesBinding(final String jdbcStatement, final Object[] values, final int[] sqlTypes) {
+			m_jdbcStatement = jdbcStatement;
+			m_values = values;
+			m_sqlTypes = sqlTypes;
+		}
+
+		@Override
+		public String getJdbcStatement() {
+			return m_jdbcStatement;
+		}
+
+		@Override
+		public void setParameters(final PreparedStatement ps) throws SQLException {
+			int index = 1;
+			for(int p = 0; p < m_values.length; ++p) {
+				if (m_values[p] instanceof Collection) {
+					for(Object element: (Collection<?>)m_values[p])
+						StatementCreatorUtils.setParameterValue(ps, index++, m_sqlTypes[p], element);
+				}
+				else {
+					StatementCreatorUtils.setParameterValue(ps, index++, m_sqlTypes[p], m_values[p]);
+				}
+			}
+		}
+
+		@Override
+		public Object[] getParameterValues() {
+			return m_values.clone();
+		}
+	}
+
+	/**
+	 * Binding of a primitive value to <b>:in</b>, see
+	 * {@link StatementPlan#bindScalar(long, boolean, SqlParameterSource)}
+	 */
+	private final class ScalarBinding extends Binding {
+		private final long m_value;
+		private final boolean m_asInt;
+		private final SqlParameterSource m_paramSource;
+
+		private ScalarBinding(final long value, final boolean asInt, final SqlParameterSource paramSource) {
+			m_value = value;
+			m_asInt = asInt;
+			m_paramSource = paramSource;
+		}
+
+		@Override
+		public String getJdbcStatement() {
+			return m_jdbcStatement;
+		}
+
+		@Override
+		public void setParameters(final PreparedStatement ps) throws SQLException {
+			for(int p = 0; p < m_parameterNames.length; ++p) {
+				final String name = m_parameterNames[p];
+				if (name.equals("in")) {
+					if (m_asInt)
+						ps.setInt(p + 1, (int)m_value);
+					else
+						ps.setLong(p + 1, m_value);
+				}
+				else {
+					StatementCreatorUtils.setParameterValue(ps, p + 1, m_paramSource.getSqlType(name), m_paramSource.getValue(name));
+				}
+			}
+		}
+
+		@Override
+		public Object[] getParameterValues() {
+			final Object[] values = new Object[m_parameterNames.length];
+			for(int p = 0; p < m_parameterNames.length; ++p) {
+				final String name = m_parameterNames[p];
+				if (name.equals("in"))
+					values[p] = m_asInt ? (Object)Integer.valueOf((int)m_value) : (Object)Long.valueOf(m_value);
+				else
+					values[p] = m_paramSource.getValue(name);
+			}
+			return values;
+		}
+	}
+}
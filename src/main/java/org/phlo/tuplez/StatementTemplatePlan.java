@@ -0,0 +1,415 @@
+package org.phlo.tuplez;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.jdbc.core.namedparam.SqlParameterSource;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Compiled representation of a {@link StatementTemplate}.
+ * <p>
+ * The template is split once into literal SQL, optional clauses
+ * and choices. Each execution then only evaluates which optional
+ * clauses are active and which choices are selected, which yields
+ * a numeric variant key. The variant's {@link StatementPlan} is
+ * assembled and parsed on first use, and then cached under that
+ * key. Templates with few variants use an array indexed by the
+ * key, others a bounded map.
+ * <p>
+ * Instances are immutable (apart from the variant cache)
+ * and obtained through {@link #getInstance(Class)}.
+ */
+final class StatementTemplatePlan {
+	/**
+	 * Template plan cache, keyed by operation class
+	 */
+	private static final ClassCache<StatementTemplatePlan> s_templatePlans = new ClassCache<StatementTemplatePlan>() {
+		@SuppressWarnings("unchecked")
+		@Override protected StatementTemplatePlan create(final Class<?> opClass, final Class<?> key, final Object context) {
+			final StatementTemplate atTemplate = opClass.getAnnotation(StatementTemplate.class);
+			if (atTemplate == null)
+				return null;
+			
+			return new StatementTemplatePlan((Class<? extends Operation<?,?>>)opClass, atTemplate);
+		}
+	};
+
+	/**
+	 * Templates with at most this many variants cache
+	 * their variants in an array indexed by variant key
+	 */
+	private static final int s_variantsArrayLimit = 4096;
+
+	/**
+	 * Maximal number of variants cached per template
+	 * in the map used for templates with many variants
+	 */
+	private static final int s_variantsMapLimit = 256;
+
+	/**
+	 * Returns the compiled template of an operation
+	 *
+	 * @param opClass the operation
+	 * @return the compiled template, or null if the operation carries no {@link StatementTemplate}
+	 */
+	public static StatementTemplatePlan getInstance(final Class<? extends Operation<?,?>> opClass) {
+		return s_templatePlans.get(opClass);
+	}
+
+	/**
+	 * A part of the template
+	 */
+	private static abstract class Segment {
+		/**
+		 * Number of distinct selections, i.e. the
+		 * range of {@link #select(SqlParameterSource)}
+		 */
+		abstract int getSelectionCount();
+
+		/**
+		 * Evaluates the segment against the parameter values
+		 */
+		abstract int select(SqlParameterSource params);
+
+		/**
+		 * Appends the segment's SQL for a selection
+		 */
+		abstract void append(StringBuilder statement, int selection);
+	}
+
+	private static final class LiteralSegment extends Segment {
+		final String sql;
+
+		LiteralSegment(final String _sql) {
+			sql = _sql;
+		}
+
+		@Override int getSelectionCount() { return 1; }
+
+		@Override int select(final SqlParameterSource params) { return 0; }
+
+		@Override void append(final StringBuilder statement, final int selection) {
+			statement.append(sql);
+		}
+	}
+
+	private static final class OptionalSegment extends Segment {
+		final String sql;
+		final String[] parameterNames;
+
+		OptionalSegment(final String _sql, final String[] _parameterNames) {
+			sql = _sql;
+			parameterNames = _parameterNames;
+		}
+
+		@Override int getSelectionCount() { return 2; }
+
+		@Override int select(final SqlParameterSource params) {
+			for(String parameterName: parameterNames) {
+				if (isAbsent(params, parameterName))
+					return 0;
+			}
+			return 1;
+		}
+
+		/**
+		 * Null parameters are absent, as are null or empty list
+		 * parameters (see {@link InputMapper.MappedInput#isAbsent(String)}),
+		 * which can't be bound otherwise
+		 */
+		private static boolean isAbsent(final SqlParameterSource params, final String parameterName) {
+			if (params instanceof InputMapper.MappedInput)
+				return ((InputMapper<?>.MappedInput)params).isAbsent(parameterName);
+			else
+				return (params.getValue(parameterName) == null);
+		}
+
+		@Override void append(final StringBuilder statement, final int selection) {
+			if (selection != 0)
+				statement.append(sql);
+		}
+	}
+
+	private static final class ChoiceSegment extends Segment {
+		final String parameterName;
+		final String[] keys;
+		final String[] sqls;
+
+		ChoiceSegment(final String _parameterName, final String[] _keys, final String[] _sqls) {
+			parameterName = _parameterName;
+			keys = _keys;
+			sqls = _sqls;
+		}
+
+		@Override int getSelectionCount() { return keys.length + 1; }
+
+		@Override int select(final SqlParameterSource params) {
+			final Object value = params.getValue(parameterName);
+			if (value == null)
+				return 0;
+
+			final String key = value.toString();
+			for(int k = 0; k < keys.length; ++k) {
+				if (keys[k].equals(key))
+					return k + 1;
+			}
+
+			throw new InvalidDataAccessApiUsageException(
+				"value " + key + " of parameter " + parameterName + " " +
+				"matches none of the template's choices " + java.util.Arrays.toString(keys)
+			);
+		}
+
+		@Override void append(final StringBuilder statement, final int selection) {
+			if (selection != 0)
+				statement.append(sqls[selection - 1]);
+		}
+	}
+
+	/* The template's operation */
+	private final Class<? extends Operation<?,?>> m_opClass;
+
+	/* The template's segments, in order */
+	private final Segment[] m_segments;
+
+	/* Name of the parameter containing the maximal row count, or null */
+	private final String m_maxRowsParameter;
+
+	/* Total number of variants, including the array-parameter flag */
+	private final long m_variantCount;
+
+	/* Variant cache for templates with few variants, otherwise null */
+	private final AtomicReferenceArray<StatementPlan> m_variantsArray;
+
+	/* Variant cache for templates with many variants, otherwise null */
+	private final ConcurrentMap<Long, StatementPlan> m_variantsMap;
+
+	private StatementTemplatePlan(final Class<? extends Operation<?,?>> opClass, final StatementTemplate atTemplate) {
+		m_opClass = opClass;
+		m_segments = parse(atTemplate.value());
+		m_maxRowsParameter = (atTemplate.maxRows().length() > 0) ? atTemplate.maxRows() : null;
+
+		/* Compute the number of variants. The lowest bit of the variant
+		 * key flags whether list parameters are bound as arrays.
+		 */
+		long variantCount = 2;
+		for(Segment segment: m_segments) {
+			variantCount *= segment.getSelectionCount();
+			if (variantCount > Integer.MAX_VALUE)
+				throw new InvalidOperationDefinitionException("statement template has too many variants", opClass);
+		}
+		m_variantCount = variantCount;
+
+		if (m_variantCount <= s_variantsArrayLimit) {
+			m_variantsArray = new AtomicReferenceArray<StatementPlan>((int)m_variantCount);
+			m_variantsMap = null;
+		}
+		else {
+			m_variantsArray = null;
+			m_variantsMap = new java.util.concurrent.ConcurrentHashMap<Long, StatementPlan>();
+		}
+	}
+
+	private Segment[] parse(final String template) {
+		final List<Segment> segments = new java.util.ArrayList<Segment>();
+
+		final int length = template.length();
+		final StringBuilder literal = new StringBuilder();
+		int i = 0;
+		while (i < length) {
+			final char c = template.charAt(i);
+			final int end = skipQuotedOrComment(template, i);
+
+			if (end > i) {
+				literal.append(template, i, end);
+				i = end;
+			}
+			else if ((c == '[') || (c == '{')) {
+				final char close = (c == '[') ? ']' : '}';
+				final int closeIndex = findClose(template, i + 1, close);
+				if (closeIndex < 0)
+					throw new InvalidOperationDefinitionException("unterminated " + c + " in statement template", m_opClass);
+
+				if (literal.length() > 0) {
+					segments.add(new LiteralSegment(literal.toString()));
+					literal.setLength(0);
+				}
+
+				final String body = template.substring(i + 1, closeIndex);
+				segments.add((c == '[') ? parseOptional(body) : parseChoice(body));
+				i = closeIndex + 1;
+			}
+			else if ((c == ']') || (c == '}')) {
+				throw new InvalidOperationDefinitionException("unbalanced " + c + " in statement template", m_opClass);
+			}
+			else {
+				literal.append(c);
+				++i;
+			}
+		}
+		if (literal.length() > 0)
+			segments.add(new LiteralSegment(literal.toString()));
+
+		return segments.toArray(new Segment[segments.size()]);
+	}
+
+	private Segment parseOptional(final String body) {
+		final String[] parameterNames = StatementPlan.createInstance(body).getParameterNames();
+		if (parameterNames.length == 0)
+			throw new InvalidOperationDefinitionException("optional clause [" + body + "] references no parameter", m_opClass);
+
+		return new OptionalSegment(body, parameterNames);
+	}
+
+	private Segment parseChoice(final String body) {
+		final String[] parts = body.split("\\|", -1);
+		final String parameter = parts[0].trim();
+		if ((parts.length < 2) || !parameter.startsWith(":") || (parameter.length() < 2))
+			throw new InvalidOperationDefinitionException("choice {" + body + "} must have the form {:param|key=sql|...}", m_opClass);
+
+		final String[] keys = new String[parts.length - 1];
+		final String[] sqls = new String[parts.length - 1];
+		for(int p = 1; p < parts.length; ++p) {
+			final int eq = parts[p].indexOf('=');
+			if (eq < 0)
+				throw new InvalidOperationDefinitionException("choice {" + body + "} must have the form {:param|key=sql|...}", m_opClass);
+
+			keys[p - 1] = parts[p].substring(0, eq).trim();
+			sqls[p - 1] = parts[p].substring(eq + 1);
+		}
+
+		return new ChoiceSegment(parameter.substring(1), keys, sqls);
+	}
+
+	/**
+	 * Returns the index following the quoted string, quoted identifier
+	 * or comment starting at index i, or i if none starts there.
+	 */
+	private static int skipQuotedOrComment(final String template, final int i) {
+		final int length = template.length();
+		final char c = template.charAt(i);
+		int end;
+		if ((c == '\'') || (c == '"')) {
+			end = template.indexOf(c, i + 1);
+			return (end < 0) ? length : end + 1;
+		}
+		else if (template.startsWith("--", i)) {
+			end = template.indexOf('\n', i);
+			return (end < 0) ? length : end + 1;
+		}
+		else if (template.startsWith("/*", i)) {
+			end = template.indexOf("*/", i + 2);
+			return (end < 0) ? length : end + 2;
+		}
+		else {
+			return i;
+		}
+	}
+
+	/**
+	 * Finds the closing bracket or brace, skipping quoted
+	 * strings and comments. Returns -1 if there is none,
+	 * or if an opening bracket or brace is found first.
+	 */
+	private static int findClose(final String template, int i, final char close) {
+		final int length = template.length();
+		while (i < length) {
+			final int end = skipQuotedOrComment(template, i);
+			if (end > i) {
+				i = end;
+				continue;
+			}
+
+			final char c = template.charAt(i);
+			if (c == close)
+				return i;
+			else if ((c == '[') || (c == '{'))
+				return -1;
+			++i;
+		}
+		return -1;
+	}
+
+	/**
+	 * Returns the plan of the variant selected by the given
+	 * parameter values.
+	 *
+	 * @param params the operation's parameter values
+	 * @param listRewriter the input mapper used to rewrite IN-lists if list parameters are bound as arrays, otherwise null
+	 * @return the variant's plan
+	 */
+	public StatementPlan getPlan(final SqlParameterSource params, final InputMapper<?> listRewriter) {
+		long key = 0;
+		for(Segment segment: m_segments)
+			key = key * segment.getSelectionCount() + segment.select(params);
+		key = key * 2 + ((listRewriter != null) ? 1 : 0);
+
+		StatementPlan plan;
+		if (m_variantsArray != null) {
+			plan = m_variantsArray.get((int)key);
+			if (plan == null) {
+				plan = createVariant(key, listRewriter);
+				m_variantsArray.set((int)key, plan);
+			}
+		}
+		else {
+			plan = m_variantsMap.get(key);
+			if (plan == null) {
+				plan = createVariant(key, listRewriter);
+				if (m_variantsMap.size() < s_variantsMapLimit)
+					m_variantsMap.put(key, plan);
+			}
+		}
+
+		return plan;
+	}
+
+	/**
+	 * Returns the maximal number of rows to return, or
+	 * zero if there is no limit
+	 *
+	 * @param params the operation's parameter values
+	 * @return the row limit, or zero
+	 */
+	public int getMaxRows(final SqlParameterSource params) {
+		if (m_maxRowsParameter == null)
+			return 0;
+
+		final Object value = params.getValue(m_maxRowsParameter);
+		if (value == null)
+			return 0;
+		if (!(value instanceof Number))
+			throw new InvalidOperationDefinitionException("maximal row count parameter " + m_maxRowsParameter + " is not numeric", m_opClass);
+
+		final int maxRows = ((Number)value).intValue();
+		if (maxRows < 0)
+			throw new InvalidDataAccessApiUsageException("maximal row count " + maxRows + " is negative");
+		return maxRows;
+	}
+
+	private StatementPlan createVariant(long key, final InputMapper<?> listRewriter) {
+		assert (key >= 0) && (key < m_variantCount);
+
+		/* Decode the per-segment selections from the variant key */
+		key /= 2;
+		final int[] selections = new int[m_segments.length];
+		for(int s = m_segments.length - 1; s >= 0; --s) {
+			final int selectionCount = m_segments[s].getSelectionCount();
+			selections[s] = (int)(key % selectionCount);
+			key /= selectionCount;
+		}
+
+		final StringBuilder statement = new StringBuilder();
+		for(int s = 0; s < m_segments.length; ++s)
+			m_segments[s].append(statement, selections[s]);
+
+		if (listRewriter != null)
+			return StatementPlan.createInstance(listRewriter.rewriteStatement(statement.toString()));
+		else
+			return StatementPlan.createInstance(statement.toString());
+	}
+}
@@ -0,0 +1,74 @@
+package org.phlo.tuplez;
+
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cancels a statement once its execution's timeout expired,
+ * see {@link org.phlo.tuplez.operation.Timeout}.
+ * <p>
+ * The watchdog must be disarmed with {@link #disarm()} before
+ * the statement is closed or re-used, which guarantees that a
+ * late cancellation cannot hit a later execution of a cached
+ * statement.
+ */
+final class StatementWatchdog implements Runnable {
+	private final Statement m_statement;
+	private final ScheduledFuture<?> m_future;
+	
+	/* Guarded by this */
+	private boolean m_disarmed = false;
+	private boolean m_fired = false;
+	
+	/**
+	 * Creates a watchdog which cancels statement after
+	 * timeoutNanos nanoseconds.
+	 * 
+	 * @param scheduler the scheduler which runs the watchdog
+	 * @param statement the statement to cancel
+	 * @param timeoutNanos the timeout in nanoseconds
+	 */
+	StatementWatchdog(final ScheduledExecutorService scheduler, final Statement statement, final long timeoutNanos) {
+		m_statement = statement;
+		m_future = scheduler.schedule(this, timeoutNanos, TimeUnit.NANOSECONDS);
+	}
+	
+	public synchronized void run() {
+		if (m_disarmed)
+			return;
+		
+		m_fired = true;
+		cancelQuietly(m_statement);
+	}
+	
+	/**
+	 * Prevents the watchdog from firing, waiting for a
+	 * cancellation in progress to complete.
+	 * 
+	 * @return whether the watchdog fired
+	 */
+	synchronized boolean disarm() {
+		m_disarmed = true;
+		m_future.cancel(false);
+		return m_fired;
+	}
+	
+	/**
+	 * Cancels the statement's execution, ignoring drivers
+	 * which don't support cancellation or reject cancelling
+	 * a statement which isn't executing.
+	 * 
+	 * @param statement the statement to cancel
+	 */
+	static void cancelQuietly(final Statement statement) {
+		try {
+			statement.cancel();
+		}
+		catch (SQLException e) {
+			/* Cancellation is best-effort */
+		}
+	}
+}
@@ -0,0 +1,412 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Executes an operation asynchronously, for inputs which
+ * don't need synchronous confirmation (e.g. audit records).
+ * <p>
+ * Inputs passed to {@link #write(Object)} are queued, and
+ * written by a background thread in JDBC batches (see
+ * {@link Operation#executeBatch(java.util.Collection)}).
+ * A batch is written once it is full, or once its first
+ * input waited for the configured time. If the operation's
+ * {@link WriteBehind} annotation names a coalescing key,
+ * only the last of several inputs with the same key in
+ * a batch is written.
+ * <p>
+ * The queue is bounded. Once it is full, {@link #write(Object)}
+ * blocks until the background thread caught up, and
+ * {@link #offer(Object, long, TimeUnit)} fails after a timeout.
+ * <p>
+ * Since inputs are written after {@link #write(Object)}
+ * returned, failures cannot be reported to the writer. Failed
+ * batches (including those failing with an {@link Error}) are
+ * counted instead (see {@link #getStatistics()}), and the last
+ * failure is available from {@link #getLastError()}. Should the
+ * background thread terminate nevertheless, further inputs are
+ * rejected rather than queued.
+ * <p>
+ * Sinks are obtained from {@link Executor#writeBehind(Class)},
+ * and are closed by {@link Executor#destroy()}. Sinks are
+ * thread-safe.
+ *
+ * @param <InputType> the operation's input type
+ */
+public final class WriteBehindSink<InputType> {
+	/* Queued by flush() and close() to end the current batch early */
+	private static final Object s_flushMarker = new Object();
+	private static final Object s_closeMarker = new Object();
+
+	/* Numbers the flusher threads of all sinks */
+	private static final AtomicInteger s_threadCount = new AtomicInteger();
+
+	/* Interval in which a blocked writer checks whether the flusher is still alive */
+	private static final long s_pollMillis = 100;
+
+	private final Executor m_executor;
+	private final Class<? extends Operation<InputType,?>> m_opClass;
+	private final int m_batchSize;
+	private final long m_flushNanos;
+	private final String m_coalesceKey;
+
+	/* Queued inputs and markers. Bounded by m_capacity, not by the queue itself,
+	 * since markers must never block */
+	private final LinkedBlockingQueue<Object> m_queue = new LinkedBlockingQueue<Object>();
+
+	/* One permit per free queue slot, returned once an input was written */
+	private final Semaphore m_capacity;
+
+	private final Thread m_flusher;
+
+	private volatile boolean m_closed = false;
+
+	/* Getter of the coalescing key on the operation's input type, null if inputs aren't coalesced */
+	private final PropertyGetter m_keyGetter;
+
+	private final AtomicLong m_accepted = new AtomicLong();
+
+	/* Written only by the flusher thread, guarded by this for the sake of flush() */
+	private long m_written = 0;
+	private long m_coalesced = 0;
+	private long m_failed = 0;
+	private long m_batches = 0;
+	private long m_failedBatches = 0;
+	private long m_flushNanosTotal = 0;
+	private Throwable m_lastError = null;
+
+	WriteBehindSink(final Executor executor, final Class<? extends Operation<InputType,?>> opClass) {
+		final WriteBehind writeBehind = opClass.getAnnotation(WriteBehind.class);
+		final int capacity = (writeBehind != null) ? writeBehind.capacity() : 10000;
+		final int batchSize = (writeBehind != null) ? writeBehind.batchSize() : 500;
+		final int flushMillis = (writeBehind != null) ? writeBehind.flushMillis() : 50;
+
+		if ((capacity < 1) || (batchSize < 1) || (flushMillis < 0)) {
+			throw new InvalidOperationDefinitionException(
+				"@WriteBehind requires a positive capacity and batchSize and a non-negative flushMillis",
+				opClass
+			);
+		}
+
+		m_executor = executor;
+		m_opClass = opClass;
+		m_batchSize = batchSize;
+		m_flushNanos = TimeUnit.MILLISECONDS.toNanos(flushMillis);
+		m_coalesceKey = (writeBehind != null) ? writeBehind.coalesceKey() : "";
+		m_keyGetter = (m_coalesceKey.length() > 0) ? getKeyGetter(opClass, m_coalesceKey) : null;
+		m_capacity = new Semaphore(capacity);
+
+		m_flusher = new Thread(new Runnable() {
+			@Override public void run() {
+				flushLoop();
+			}
+		}, "tuplez-write-behind-" + s_threadCount.incrementAndGet());
+		m_flusher.setDaemon(true);
+		m_flusher.start();
+	}
+
+	/**
+	 * Queues an input, blocking while the queue is full.
+	 *
+	 * @param input the input to write
+	 * @throws IllegalStateException if the sink was closed or its background thread terminated
+	 */
+	public void write(final InputType input) {
+		checkOpen();
+		boolean interrupted = false;
+		try {
+			while (true) {
+				checkFlusher();
+				try {
+					if (m_capacity.tryAcquire(s_pollMillis, TimeUnit.MILLISECONDS))
+						break;
+				}
+				catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		finally {
+			if (interrupted)
+				Thread.currentThread().interrupt();
+		}
+		enqueue(input);
+	}
+
+	/**
+	 * Queues an input, waiting at most the given time for
+	 * the queue to have room.
+	 *
+	 * @param input the input to write
+	 * @param timeout maximal time to wait
+	 * @param unit unit of timeout
+	 * @return true if the input was queued, false if the queue remained full
+	 * @throws IllegalStateException if the sink was closed or its background thread terminated
+	 */
+	public boolean offer(final InputType input, final long timeout, final TimeUnit unit) {
+		checkOpen();
+		checkFlusher();
+		try {
+			if (!m_capacity.tryAcquire(timeout, unit))
+				return false;
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+		enqueue(input);
+		return true;
+	}
+
+	/**
+	 * Writes the inputs queued so far without waiting for
+	 * their batch to fill, and waits until they were written
+	 * (or failed, see {@link #getLastError()}).
+	 */
+	public void flush() {
+		final long target = m_accepted.get();
+		m_queue.add(s_flushMarker);
+		awaitCompleted(target);
+	}
+
+	/**
+	 * Writes the queued inputs and stops the background thread.
+	 * Further inputs are rejected. Closing a closed sink has
+	 * no effect.
+	 */
+	public void close() {
+		synchronized (this) {
+			if (m_closed)
+				return;
+			m_closed = true;
+			m_queue.add(s_closeMarker);
+		}
+
+		boolean interrupted = false;
+		while (m_flusher.isAlive()) {
+			try {
+				m_flusher.join();
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	/**
+	 * Returns whether the sink was closed.
+	 *
+	 * @return whether the sink was closed
+	 */
+	public boolean isClosed() {
+		return m_closed;
+	}
+
+	/**
+	 * Returns a snapshot of the sink's counters.
+	 *
+	 * @return the sink's statistics
+	 */
+	public synchronized WriteBehindStatistics getStatistics() {
+		final long accepted = m_accepted.get();
+		return new WriteBehindStatistics(
+			(int)(accepted - completed()),
+			accepted,
+			m_written,
+			m_coalesced,
+			m_failed,
+			m_batches,
+			m_failedBatches,
+			m_flushNanosTotal
+		);
+	}
+
+	/**
+	 * Returns the exception or error thrown by the last
+	 * failed batch, or null if no batch failed.
+	 *
+	 * @return the last failure or null
+	 */
+	public synchronized Throwable getLastError() {
+		return m_lastError;
+	}
+
+	private void checkOpen() {
+		if (m_closed)
+			throw new IllegalStateException("write-behind sink of " + m_opClass.getName() + " was closed");
+	}
+
+	private synchronized void checkFlusher() {
+		if (!m_flusher.isAlive() && !m_closed)
+			throw new IllegalStateException("write-behind sink of " + m_opClass.getName() + " has no background thread", m_lastError);
+	}
+
+	private void enqueue(final InputType input) {
+		/* Nothing must be queued behind the close marker, or for a terminated flusher */
+		synchronized (this) {
+			if (m_closed || !m_flusher.isAlive()) {
+				m_capacity.release();
+				checkOpen();
+				checkFlusher();
+			}
+			m_accepted.incrementAndGet();
+			m_queue.add(new Object[] { input });
+		}
+	}
+
+	/* Number of accepted inputs which were written, coalesced or failed */
+	private long completed() {
+		return m_written + m_coalesced + m_failed;
+	}
+
+	private synchronized void awaitCompleted(final long target) {
+		boolean interrupted = false;
+		while ((completed() < target) && m_flusher.isAlive()) {
+			try {
+				wait(100);
+			}
+			catch (InterruptedException e) {
+				interrupted = true;
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void flushLoop() {
+		final List<InputType> batch = new ArrayList<InputType>(m_batchSize);
+		boolean closing = false;
+		while (!closing) {
+			try {
+				/* Wait for a batch's first input, then for the batch to fill or its time to run out */
+				Object item = m_queue.take();
+				final long deadline = System.nanoTime() + m_flushNanos;
+				while (true) {
+					if ((item == s_flushMarker) || (item == s_closeMarker)) {
+						closing = (item == s_closeMarker);
+						break;
+					}
+
+					batch.add(itemInput(item));
+					if (batch.size() >= m_batchSize)
+						break;
+
+					final long remaining = deadline - System.nanoTime();
+					item = (remaining > 0) ? m_queue.poll(remaining, TimeUnit.NANOSECONDS) : m_queue.poll();
+					if (item == null)
+						break;
+				}
+			}
+			catch (InterruptedException e) {
+				/* Flusher threads are never interrupted by tuplez, treat it as close() */
+				closing = true;
+			}
+
+			if (!batch.isEmpty()) {
+				writeBatch(batch);
+				batch.clear();
+			}
+		}
+
+		/* If interrupted, write what remains queued */
+		Object item;
+		while ((item = m_queue.poll()) != null) {
+			if ((item != s_flushMarker) && (item != s_closeMarker))
+				batch.add(itemInput(item));
+		}
+		for(int i=0; i < batch.size(); i += m_batchSize)
+			writeBatch(batch.subList(i, Math.min(i + m_batchSize, batch.size())));
+	}
+
+	@SuppressWarnings("unchecked")
+	private InputType itemInput(final Object item) {
+		return (InputType)((Object[])item)[0];
+	}
+
+	/**
+	 * Writes a batch of inputs and returns their permits
+	 *
+	 * @param batch the inputs to write
+	 */
+	private void writeBatch(final List<InputType> batch) {
+		final long start = System.nanoTime();
+
+		List<InputType> inputs = batch;
+		Throwable error = null;
+		try {
+			inputs = coalesce(batch);
+			m_executor.with(m_opClass).executeBatch(inputs);
+		}
+		catch (Throwable t) {
+			/* Even errors must not stop the flusher, writers would block forever */
+			error = t;
+		}
+
+		synchronized (this) {
+			m_flushNanosTotal += System.nanoTime() - start;
+			m_batches += 1;
+			m_coalesced += batch.size() - inputs.size();
+			if (error == null) {
+				m_written += inputs.size();
+			}
+			else {
+				m_failed += inputs.size();
+				m_failedBatches += 1;
+				m_lastError = error;
+			}
+			notifyAll();
+		}
+		m_capacity.release(batch.size());
+	}
+
+	/**
+	 * Removes all but the last of several inputs with the same
+	 * coalescing key. The remaining inputs are ordered by their
+	 * last occurrence.
+	 *
+	 * @param batch the batch's inputs
+	 * @return the inputs to write
+	 */
+	private List<InputType> coalesce(final List<InputType> batch) {
+		if (m_coalesceKey.length() == 0)
+			return batch;
+
+		final Map<Object, InputType> inputs = new LinkedHashMap<Object, InputType>();
+		for(final InputType input: batch) {
+			final Object key = getKey(input);
+			inputs.remove(key);
+			inputs.put(key, input);
+		}
+		return new ArrayList<InputType>(inputs.values());
+	}
+
+	/**
+	 * Looks up the getter of the coalescing key on the operation's
+	 * declared input type, so that it applies to every implementation
+	 * of that type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private static PropertyGetter getKeyGetter(final Class<? extends Operation<?,?>> opClass, final String coalesceKey) {
+		return new PropertyGetter(OperationMetaData.getInputClass((Class)opClass), coalesceKey, "@WriteBehind coalesceKey", opClass);
+	}
+
+	private Object getKey(final InputType input) {
+		if (input == null)
+			return null;
+
+		return m_keyGetter.get(input);
+	}
+}
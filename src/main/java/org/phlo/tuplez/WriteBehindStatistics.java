@@ -0,0 +1,123 @@
+package org.phlo.tuplez;
+
+/**
+ * Snapshot of a write-behind sink's counters.
+ *
+ * @see WriteBehindSink#getStatistics()
+ */
+public final class WriteBehindStatistics {
+	private final int m_queueDepth;
+	private final long m_accepted;
+	private final long m_written;
+	private final long m_coalesced;
+	private final long m_failed;
+	private final long m_batches;
+	private final long m_failedBatches;
+	private final long m_flushNanos;
+	
+	WriteBehindStatistics(
+		final int queueDepth,
+		final long accepted,
+		final long written,
+		final long coalesced,
+		final long failed,
+		final long batches,
+		final long failedBatches,
+		final long flushNanos
+	) {
+		m_queueDepth = queueDepth;
+		m_accepted = accepted;
+		m_written = written;
+		m_coalesced = coalesced;
+		m_failed = failed;
+		m_batches = batches;
+		m_failedBatches = failedBatches;
+		m_flushNanos = flushNanos;
+	}
+	
+	/**
+	 * Returns the number of inputs accepted but not yet written
+	 *
+	 * @return number of pending inputs
+	 */
+	public int getQueueDepth() {
+		return m_queueDepth;
+	}
+	
+	/**
+	 * Returns the number of inputs accepted so far
+	 *
+	 * @return number of accepted inputs
+	 */
+	public long getAccepted() {
+		return m_accepted;
+	}
+	
+	/**
+	 * Returns the number of inputs written successfully
+	 *
+	 * @return number of written inputs
+	 */
+	public long getWritten() {
+		return m_written;
+	}
+	
+	/**
+	 * Returns the number of inputs not written because a later
+	 * input of the same batch had the same key
+	 *
+	 * @return number of coalesced inputs
+	 */
+	public long getCoalesced() {
+		return m_coalesced;
+	}
+	
+	/**
+	 * Returns the number of inputs lost because their batch failed
+	 *
+	 * @return number of failed inputs
+	 */
+	public long getFailed() {
+		return m_failed;
+	}
+	
+	/**
+	 * Returns the number of batches executed
+	 *
+	 * @return number of batches
+	 */
+	public long getBatches() {
+		return m_batches;
+	}
+	
+	/**
+	 * Returns the number of batches which failed
+	 *
+	 * @return number of failed batches
+	 */
+	public long getFailedBatches() {
+		return m_failedBatches;
+	}
+	
+	/**
+	 * Returns the total time spent executing batches, in nanoseconds
+	 *
+	 * @return total flush time
+	 */
+	public long getFlushNanos() {
+		return m_flushNanos;
+	}
+	
+	@Override
+	public String toString() {
+		return
+			"{queueDepth: " + m_queueDepth + "; " +
+			"accepted: " + m_accepted + "; " +
+			"written: " + m_written + "; " +
+			"coalesced: " + m_coalesced + "; " +
+			"failed: " + m_failed + "; " +
+			"batches: " + m_batches + "; " +
+			"failedBatches: " + m_failedBatches + "; " +
+			"flushNanos: " + m_flushNanos + "}";
+	}
+}
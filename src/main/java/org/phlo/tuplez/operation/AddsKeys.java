@@ -0,0 +1,33 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares that an operation inserts rows which a lookup guarded by
+ * an {@link ExistenceFilter} must find. The operation adds the keys
+ * of its inputs (or the keys it generates) to the lookup's filter
+ * before it executes.
+ *
+ * @see ExistenceFilter
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface AddsKeys {
+	/**
+	 * The lookup annotated with {@link ExistenceFilter} whose
+	 * filter the keys are added to.
+	 */
+	Class<? extends Operation<?,?>> value();
+	
+	/**
+	 * Name of the input property (e.g. <b>id</b> for a getter
+	 * <b>getId()</b>) which contains the key. The default, the
+	 * empty string, uses the input itself, or, for operations
+	 * which implement {@link OperationGeneratesKey}, the generated
+	 * key, which is added once the operation executed. Batches of
+	 * such operations execute each input on its own, since drivers
+	 * needn't return the keys generated by a batch.
+	 */
+	String key() default "";
+}
@@ -0,0 +1,49 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares the set-based companion of a single-row lookup
+ * (see {@link OperationReturnsSingleRow}), i.e. an operation
+ * which returns the rows of many inputs at once.
+ * <p>
+ * The companion's input is an array of the lookup's inputs,
+ * its output type is the lookup's output type. The rows it
+ * returns are matched to the inputs by their {@link #key()}
+ * property, e.g.
+ *<blockquote><pre>{@literal
+ *@Statement("SELECT id, name FROM item WHERE id IN (:in)")
+ *public interface GetItems extends Operation<Long[], Item> {}
+ *
+ *@Statement("SELECT id, name FROM item WHERE id = :in")
+ *@BatchLookup(value=GetItems.class, key="id")
+ *public interface GetItem extends OperationReturnsSingleRow<Long, Item> {}
+ *}</pre></blockquote>
+ * The companion is used by
+ * {@link OperationReturnsSingleRow#getAll(java.util.Collection)},
+ * and by {@link Coalesced} lookups.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface BatchLookup {
+	/**
+	 * The set-based companion operation, whose input is an
+	 * array of inputs of the annotated operation.
+	 */
+	Class<? extends Operation<?,?>> value();
+	
+	/**
+	 * Name of the output property (e.g. <b>id</b> for a getter
+	 * <b>getId()</b>) matched against the inputs. The default,
+	 * the empty string, matches the output itself.
+	 */
+	String key() default "";
+	
+	/**
+	 * Maximal number of inputs passed to one execution
+	 * of the companion operation by
+	 * {@link OperationReturnsSingleRow#getAll(java.util.Collection)}.
+	 */
+	int chunkSize() default 500;
+}
@@ -0,0 +1,38 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Assigns an operation to a concurrency-limited group
+ * and a priority {@link Lane}.
+ * <p>
+ * The executor limits the number of concurrent executions
+ * per group (see
+ * {@link org.phlo.tuplez.Executor#setBulkheadLimit(String, int)}),
+ * in total (see
+ * {@link org.phlo.tuplez.Executor#setMaxConcurrentExecutions(int)}),
+ * and keeps part of the total capacity reserved for
+ * {@link Lane#INTERACTIVE} operations (see
+ * {@link org.phlo.tuplez.Executor#setReservedInteractiveExecutions(int)}).
+ * Executions which exceed a limit wait in FIFO order, for at
+ * most the executor's queue timeout (see
+ * {@link org.phlo.tuplez.Executor#setQueueTimeoutMillis(long)}).
+ * <p>
+ * Operations without this annotation belong to the group
+ * named after their defining class and to the interactive lane.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Bulkhead {
+	/**
+	 * The group's name. The default, the empty string, names
+	 * the group after the operation's defining class.
+	 */
+	String value() default "";
+	
+	/**
+	 * The operation's priority lane
+	 */
+	Lane lane() default Lane.INTERACTIVE;
+}
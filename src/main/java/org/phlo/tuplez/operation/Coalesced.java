@@ -0,0 +1,43 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Makes concurrent executions of a single-row lookup
+ * (see {@link OperationReturnsSingleRow#get(Object)}) run
+ * as one execution of its set-based companion operation,
+ * declared by {@link BatchLookup}.
+ * <p>
+ * The first caller of {@link OperationReturnsSingleRow#get(Object)}
+ * opens a batch and waits at most {@link #windowMicros()}
+ * microseconds, or until {@link #maxBatchSize()} callers have
+ * joined it. It then executes the companion operation once
+ * with the distinct inputs of all callers, and hands each
+ * caller the row whose key equals its input. This turns N
+ * concurrent round trips into one, e.g.
+ *<blockquote><pre>{@literal
+ *@Statement("SELECT id, name FROM item WHERE id = :in")
+ *@BatchLookup(value=GetItems.class, key="id")
+ *@Coalesced
+ *public interface GetItem extends OperationReturnsSingleRow<Long, Item> {}
+ *}</pre></blockquote>
+ * Executions within a Spring-managed transaction, within
+ * a {@link org.phlo.tuplez.Session} and executions with a null
+ * input are not coalesced, since they must execute on the
+ * caller's connection.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Coalesced {
+	/**
+	 * Maximal number of callers coalesced into one batch
+	 */
+	int maxBatchSize() default 64;
+	
+	/**
+	 * Maximal time in microseconds a batch waits for further
+	 * callers before it is executed.
+	 */
+	int windowMicros() default 1000;
+}
@@ -0,0 +1,67 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Guards a single-row lookup (see {@link OperationReturnsSingleRow})
+ * with a Bloom filter over the keys which exist, so that lookups of
+ * keys which don't exist return null without executing the lookup's
+ * statement.
+ * <p>
+ * The executor builds the filter from the keys returned by the
+ * operation's {@link #value() companion}, and rebuilds it in the
+ * background every {@link #rebuildMillis()} milliseconds. Operations
+ * annotated with {@link AddsKeys} add the keys they insert to the
+ * filter, e.g.
+ *<blockquote><pre>{@literal
+ *@Statement("SELECT id FROM customer")
+ *public interface GetCustomerIds extends Operation<Void, Long> {}
+ *
+ *@Statement("SELECT id, name FROM customer WHERE id = :in")
+ *@ExistenceFilter(GetCustomerIds.class)
+ *public interface GetCustomer extends OperationReturnsSingleRow<Long, Customer> {}
+ *
+ *@Statement("INSERT INTO customer (id, name) VALUES (:in.id, :in.name)")
+ *@AddsKeys(value=GetCustomer.class, key="id")
+ *public interface InsertCustomer extends Operation<Customer, Void> {}
+ *}</pre></blockquote>
+ * The filter may let lookups of keys which don't exist pass (with
+ * about the configured {@link #falsePositiveRate()}), but never
+ * rules out keys it was built from or which were added to it. Rows
+ * inserted other than by operations annotated with {@link AddsKeys}
+ * are thus only found once the filter was rebuilt.
+ * <p>
+ * Keys are compared like those of {@link Preloaded} lookups, i.e.
+ * integral keys of different types match.
+ *
+ * @see org.phlo.tuplez.Executor#getExistenceFilterStatistics(Class)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface ExistenceFilter {
+	/**
+	 * The companion operation which returns the keys of all
+	 * rows, or all rows. Its input is ignored.
+	 */
+	Class<? extends Operation<?,?>> value();
+	
+	/**
+	 * Name of the companion's output property (e.g. <b>id</b> for
+	 * a getter <b>getId()</b>) which contains the key. The default,
+	 * the empty string, uses the output itself.
+	 */
+	String key() default "";
+	
+	/**
+	 * Time between two rebuilds of the filter in milliseconds,
+	 * zero to build it only once.
+	 */
+	long rebuildMillis() default 300000;
+	
+	/**
+	 * The desired rate of keys which don't exist, but which
+	 * the filter lets pass. Lower rates make the filter larger.
+	 */
+	double falsePositiveRate() default 0.01;
+}
@@ -0,0 +1,20 @@
+package org.phlo.tuplez.operation;
+
+/**
+ * Priority lane of an operation, see {@link Bulkhead}.
+ */
+public enum Lane {
+	/**
+	 * Latency-sensitive operations, e.g. lookups serving requests.
+	 * May use the capacity reserved by
+	 * {@link org.phlo.tuplez.Executor#setReservedInteractiveExecutions(int)}.
+	 */
+	INTERACTIVE,
+	
+	/**
+	 * Throughput-oriented operations, e.g. reports and bulk jobs.
+	 * Cannot use the capacity reserved for {@link #INTERACTIVE}
+	 * operations.
+	 */
+	BATCH
+}
@@ -1,8 +1,14 @@
 package org.phlo.tuplez.operation;
 
+import java.nio.channels.WritableByteChannel;
 import java.util.Collection;
 
+import org.phlo.tuplez.Accumulator;
+import org.phlo.tuplez.CursorProcessor;
+import org.phlo.tuplez.DoubleAccumulator;
+import org.phlo.tuplez.ExportFormat;
 import org.phlo.tuplez.IteratorProcessor;
+import org.phlo.tuplez.LongAccumulator;
 
 /**
  * {@link Operation} is base Interface which must
@@ -86,6 +92,147 @@ public interface Operation<InputType, OutputType> extends OperationInput<InputTy
 	 */
 	<ResultType> ResultType iterate(final IteratorProcessor<OutputType, ResultType> iteratorProcessor);
 
+	/**
+	 * Executes the operation, passing a cursor over the
+	 * output to a {@link CursorProcessor}.
+	 * <p>
+	 * The cursor re-fills a single output instance with each
+	 * row, see {@link org.phlo.tuplez.Cursor}, instead of creating
+	 * an output instance per row like {@link #iterate(Object, IteratorProcessor)}.
+	 * 
+	 * @param <ResultType> the cursor processor's result type
+	 * @param input the operation's input 
+	 * @param cursorProcessor the cursor processor
+	 * @return the result produces by the cursor processor
+	 */
+	<ResultType> ResultType cursor(final InputType input, final CursorProcessor<OutputType, ResultType> cursorProcessor);
+	
+	/**
+	 * Executes the operation, passing a cursor over the
+	 * output to a {@link CursorProcessor}.
+	 * 
+	 * @see #cursor(Object, CursorProcessor)
+	 * 
+	 * @param <ResultType> the cursor processor's result type
+	 * @param cursorProcessor the cursor processor
+	 * @return the result produces by the cursor processor
+	 */
+	<ResultType> ResultType cursor(final CursorProcessor<OutputType, ResultType> cursorProcessor);
+	
+	/**
+	 * Executes the operation, folding the output rows into
+	 * a single value with an {@link Accumulator}.
+	 * <p>
+	 * Rows are passed to the accumulator as a view of the
+	 * result set's current row, which is only valid during
+	 * the accumulator's invocation. No output object is
+	 * created per row, thus memory usage is constant
+	 * regardless of the number of rows.
+	 * 
+	 * @param <AccType> the accumulated value's type
+	 * @param input the operation's input
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	<AccType> AccType fold(final InputType input, final AccType initial, final Accumulator<AccType, ? super OutputType> accumulator);
+	
+	/**
+	 * Executes the operation, folding the output rows into
+	 * a single value with an {@link Accumulator}.
+	 * 
+	 * @see #fold(Object, Object, Accumulator)
+	 * 
+	 * @param <AccType> the accumulated value's type
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	<AccType> AccType fold(final AccType initial, final Accumulator<AccType, ? super OutputType> accumulator);
+	
+	/**
+	 * Executes the operation, folding the values of a single
+	 * column, read with {@link java.sql.ResultSet#getLong(String)},
+	 * into a single value. Null values are skipped.
+	 * 
+	 * @param input the operation's input
+	 * @param column the column's name
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	long foldLong(final InputType input, final String column, final long initial, final LongAccumulator accumulator);
+	
+	/**
+	 * Executes the operation, folding the values of a single
+	 * column into a single value.
+	 * 
+	 * @see #foldLong(Object, String, long, LongAccumulator)
+	 * 
+	 * @param column the column's name
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	long foldLong(final String column, final long initial, final LongAccumulator accumulator);
+	
+	/**
+	 * Executes the operation, folding the values of a single
+	 * column, read with {@link java.sql.ResultSet#getDouble(String)},
+	 * into a single value. Null values are skipped.
+	 * 
+	 * @param input the operation's input
+	 * @param column the column's name
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	double foldDouble(final InputType input, final String column, final double initial, final DoubleAccumulator accumulator);
+	
+	/**
+	 * Executes the operation, folding the values of a single
+	 * column into a single value.
+	 * 
+	 * @see #foldDouble(Object, String, double, DoubleAccumulator)
+	 * 
+	 * @param column the column's name
+	 * @param initial the initial accumulated value
+	 * @param accumulator the accumulator
+	 * @return the accumulated value after the last row
+	 */
+	double foldDouble(final String column, final double initial, final DoubleAccumulator accumulator);
+
+	/**
+	 * Executes the operation, writing the output rows to a
+	 * channel (e.g. a {@link java.nio.channels.FileChannel}) in
+	 * the given format.
+	 * <p>
+	 * The column values are read with the same accessors as
+	 * the output's getters, and encoded straight into pooled
+	 * direct buffers, without creating an output instance per
+	 * row. Encoding can be spread over several threads, see
+	 * {@link org.phlo.tuplez.Executor#setExportParallelism(int)}.
+	 * The channel isn't closed.
+	 * 
+	 * @param input the operation's input
+	 * @param sink the channel to write to
+	 * @param format the format to write
+	 * @return the number of rows written
+	 */
+	long exportTo(final InputType input, final WritableByteChannel sink, final ExportFormat format);
+	
+	/**
+	 * Executes the operation, writing the output rows to a
+	 * channel in the given format.
+	 * 
+	 * @see #exportTo(Object, WritableByteChannel, ExportFormat)
+	 * 
+	 * @param sink the channel to write to
+	 * @param format the format to write
+	 * @return the number of rows written
+	 */
+	long exportTo(final WritableByteChannel sink, final ExportFormat format);
+
 	/**
 	 * Executes the operation, returning a collection containing
 	 * the output.
@@ -115,10 +262,46 @@ public interface Operation<InputType, OutputType> extends OperationInput<InputTy
 	 */
 	void execute(final InputType input);
 
+	/**
+	 * Executes the operation with a primitive input.
+	 * <p>
+	 * If the operation's statement references its input only as
+	 * a whole (<b>:in</b>), the value is bound directly with
+	 * {@link java.sql.PreparedStatement#setLong(int, long)}, without
+	 * boxing it or setting it as the operation's input. Otherwise,
+	 * it's converted to the operation's input type and passed
+	 * to {@link #execute(Object)}.
+	 * 
+	 * @param input the operation's input
+	 */
+	void execute(final long input);
+
+	/**
+	 * Executes the operation with a primitive input. The
+	 * value is bound with {@link java.sql.PreparedStatement#setInt(int, int)}.
+	 * 
+	 * @see #execute(long)
+	 * 
+	 * @param input the operation's input
+	 */
+	void execute(final int input);
+
 	/**
 	 * Executes the operation
 	 * 
 	 * @see org.phlo.tuplez.Executor#execute(Class)
 	 */
 	void execute();
+	
+	/**
+	 * Executes the operation once per input, sending the
+	 * executions to the database in JDBC batches (see
+	 * {@link java.sql.PreparedStatement#addBatch()}) on a single
+	 * connection. Consecutive inputs which produce the same
+	 * statement text share a batch.
+	 * 
+	 * @param inputs the inputs to execute the operation with
+	 * @return the update counts, in the inputs' iteration order
+	 */
+	int[] executeBatch(final Collection<? extends InputType> inputs);
 }
\ No newline at end of file
@@ -53,4 +53,44 @@ public interface OperationGeneratesKey<InputType, KeyType extends Number> extend
 	 * @return the generated key
 	 */
 	KeyType key();
+	
+	/**
+	 * Executes the operation, returning the single
+	 * generated key as a primitive long. Avoids boxing
+	 * the key, regardless of the declared {@literal KeyType}.
+	 * 
+	 * @param input the operation's input
+	 * @return the generated key
+	 */
+	long keyAsLong(final InputType input);
+	
+	/**
+	 * Executes the operation, returning the single
+	 * generated key as a primitive long.
+	 * 
+	 * @see #keyAsLong(Object)
+	 * 
+	 * @return the generated key
+	 */
+	long keyAsLong();
+	
+	/**
+	 * Executes the operation, returning the single
+	 * generated key as a primitive int. Avoids boxing
+	 * the key, regardless of the declared {@literal KeyType}.
+	 * 
+	 * @param input the operation's input
+	 * @return the generated key
+	 */
+	int keyAsInt(final InputType input);
+	
+	/**
+	 * Executes the operation, returning the single
+	 * generated key as a primitive int.
+	 * 
+	 * @see #keyAsInt(Object)
+	 * 
+	 * @return the generated key
+	 */
+	int keyAsInt();
 }
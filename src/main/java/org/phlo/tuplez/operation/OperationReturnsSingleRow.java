@@ -37,4 +37,50 @@ public interface OperationReturnsSingleRow<InputType, OutputType> extends Operat
 	 * @return the output produced or null
 	 */
 	OutputType get();
+	
+	/**
+	 * Executes the operation with a primitive input, returning
+	 * the single result row or null.
+	 * <p>
+	 * If the operation's statement references its input only as
+	 * a whole (<b>:in</b>), the value is bound directly with
+	 * {@link java.sql.PreparedStatement#setLong(int, long)}, without
+	 * boxing it or setting it as the operation's input. Otherwise,
+	 * it's converted to the operation's input type and passed
+	 * to {@link #get(Object)}.
+	 * 
+	 * @param input the operation's input
+	 * @return the result row
+	 */
+	OutputType get(final long input);
+	
+	/**
+	 * Executes the operation with a primitive input, returning
+	 * the single result row or null. The value is bound with
+	 * {@link java.sql.PreparedStatement#setInt(int, int)}.
+	 * 
+	 * @see #get(long)
+	 * 
+	 * @param input the operation's input
+	 * @return the result row
+	 */
+	OutputType get(final int input);
+	
+	/**
+	 * Executes the operation for many inputs, returning the
+	 * single result row of each input which produced one.
+	 * <p>
+	 * If the operation declares a set-based companion with
+	 * {@link BatchLookup}, the companion is executed once per
+	 * {@link BatchLookup#chunkSize()} distinct inputs. Otherwise,
+	 * the operation's statement is executed once per distinct
+	 * input, all on the same connection and re-using the prepared
+	 * statement as long as the statement text doesn't change.
+	 * <p>
+	 * Null inputs are ignored.
+	 * 
+	 * @param inputs the inputs to look up
+	 * @return the rows by input, in the inputs' iteration order
+	 */
+	java.util.Map<InputType, OutputType> getAll(final java.util.Collection<? extends InputType> inputs);
 }
@@ -0,0 +1,31 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Makes iterate() (and thus collection()) fetch and map the
+ * output rows on a background thread, overlapping the JDBC
+ * driver's work and the row mapping with the consumer's
+ * processing of earlier rows.
+ * <p>
+ * The background thread stays ahead of the consumer by at
+ * most {@link #bufferSize()} rows. If the consumer stops
+ * early or fails, the background thread is stopped before
+ * the result set is closed. Errors raised while fetching
+ * are re-thrown to the consumer once it reaches the row
+ * which failed.
+ * <p>
+ * Only worthwhile for large result sets whose consumers do
+ * substantial work per row. The background threads are
+ * owned by the {@link org.phlo.tuplez.Executor}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface PipelinedFetch {
+	/**
+	 * Maximal number of rows fetched ahead of the consumer.
+	 * Rounded up to the next power of two.
+	 */
+	int bufferSize() default 256;
+}
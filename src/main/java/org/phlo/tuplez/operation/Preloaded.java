@@ -0,0 +1,55 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks a single-row lookup (see {@link OperationReturnsSingleRow})
+ * of a small, slowly changing table as preloaded.
+ * <p>
+ * The executor loads all rows of the table once, by executing the
+ * operation's {@link #value() companion}, and indexes them by their
+ * {@link #key()} property. {@link OperationReturnsSingleRow#get(Object)}
+ * and {@link OperationReturnsSingleRow#getAll(java.util.Collection)}
+ * are then served from that index, without executing the lookup's
+ * statement. The index is reloaded in the background every
+ * {@link #refreshMillis()} milliseconds, and replaced as a whole once
+ * the reload completed. Lookups may thus return rows which are up to
+ * that long out of date, e.g.
+ *<blockquote><pre>{@literal
+ *@Statement("SELECT code, name FROM country")
+ *public interface GetCountries extends Operation<Void, Country> {}
+ *
+ *@Statement("SELECT code, name FROM country WHERE code = :in")
+ *@Preloaded(value=GetCountries.class, key="code")
+ *public interface GetCountry extends OperationReturnsSingleRow<String, Country> {}
+ *}</pre></blockquote>
+ * The index is loaded by the first lookup, or when the executor is
+ * initialized if the lookup is listed in
+ * {@link org.phlo.tuplez.Executor#setPreloadedOperations(java.util.List)}.
+ *
+ * @see org.phlo.tuplez.Executor#getPreloadedTableStatistics(Class)
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Preloaded {
+	/**
+	 * The companion operation which returns all rows. Its
+	 * output type is the lookup's output type, its input
+	 * is ignored.
+	 */
+	Class<? extends Operation<?,?>> value();
+	
+	/**
+	 * Name of the output property (e.g. <b>id</b> for a getter
+	 * <b>getId()</b>) matched against the inputs. The default,
+	 * the empty string, matches the output itself.
+	 */
+	String key() default "";
+	
+	/**
+	 * Time between two loads of the rows in milliseconds,
+	 * zero to load them only once.
+	 */
+	long refreshMillis() default 60000;
+}
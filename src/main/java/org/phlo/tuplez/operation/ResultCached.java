@@ -0,0 +1,46 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks an expensive query whose results are stored in the
+ * executor's persistent result cache, see
+ * {@link org.phlo.tuplez.Executor#setResultCacheDirectory(java.io.File)}.
+ * <p>
+ * Results are cached per statement text and parameter values,
+ * and returned by {@link Operation#iterate(IteratorProcessor)},
+ * {@link Operation#collection()} and
+ * {@link OperationReturnsSingleRow#get()} without executing the
+ * statement until they are {@link #ttlMillis()} milliseconds old.
+ * Writes do <b>not</b> invalidate cached results, so the operation
+ * may return results which are up to that long out of date, e.g.
+ *<blockquote><pre>{@literal
+ *@Statement("SELECT region, SUM(amount) AS total FROM sales GROUP BY region")
+ *@ResultCached(ttlMillis=3600000)
+ *public interface GetSalesByRegion extends Operation<Void, RegionTotal> {}
+ *}</pre></blockquote>
+ * The cache is stored in files, and therefore survives restarts.
+ * Results cached before the operation's output type changed are
+ * ignored. Changes which the output type doesn't reflect (e.g. a
+ * changed table definition) require a new {@link #schema()}.
+ * <p>
+ * Only complete results are cached, i.e. results whose rows were
+ * all consumed. Results containing values which aren't
+ * {@link java.io.Serializable} aren't cached. Executions within
+ * transactions or {@link org.phlo.tuplez.Session}s bypass the cache.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface ResultCached {
+	/**
+	 * Time cached results are returned for, in milliseconds.
+	 */
+	long ttlMillis() default 600000;
+
+	/**
+	 * Version of the schema the operation reads. Results cached
+	 * under a different version are ignored.
+	 */
+	String schema() default "";
+}
@@ -0,0 +1,24 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Marks the getter of an input type which returns the
+ * shard key, i.e. the value a
+ * {@link org.phlo.tuplez.ShardedExecutor} uses to pick the
+ * shard an execution is routed to.
+ * <p>
+ * Inputs without such a getter are their own shard key
+ * when they are passed to single-shard methods like
+ * {@link OperationReturnsSingleRow#get(Object)} or
+ * {@link Operation#execute(Object)}. Methods which may read
+ * from all shards, like {@link Operation#collection(Object)},
+ * read from all shards unless the input has a non-null
+ * shard key.
+ *
+ * @see org.phlo.tuplez.ShardedExecutor
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface ShardKey {
+}
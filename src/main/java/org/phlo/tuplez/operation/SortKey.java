@@ -0,0 +1,33 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares the order of an operation's output rows, which
+ * allows a {@link org.phlo.tuplez.ShardedExecutor} to merge
+ * the rows read from several shards into a single ordered
+ * sequence. The operation's statement must return the rows
+ * of each shard in that order, typically by an
+ * <b>ORDER BY</b> clause on the same columns.
+ * <p>
+ * Operations without this annotation return the rows of
+ * one shard after the other.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface SortKey {
+	/**
+	 * Names of the output properties (e.g. <b>id</b> for a getter
+	 * <b>getId()</b>) rows are ordered by, most significant first.
+	 * The properties' values must be {@link Comparable}, nulls
+	 * come first. An empty name refers to the row itself, for
+	 * operations whose output type is a scalar.
+	 */
+	String[] value() default { "" };
+	
+	/**
+	 * Whether the rows are in descending order
+	 */
+	boolean descending() default false;
+}
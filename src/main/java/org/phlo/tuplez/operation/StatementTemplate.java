@@ -0,0 +1,57 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Specifies the underlying statement of {@link Operation}s
+ * whose statement depends on the input, as a template.
+ * <p>
+ * Besides ordinary SQL with parameter references, a template
+ * may contain
+ * <ul>
+ * <li><b>Optional clauses</b> enclosed in square brackets, e.g.
+ *     {@code [AND str = :in.str]}. An optional clause is included
+ *     only if none of the parameters it references is null, or, for
+ *     list parameters (see {@link Statement}), empty. E.g.
+ *     {@code [AND id IN (:in.ids)]} is omitted for a null or empty
+ *     list. Optional clauses cannot be nested.</li>
+ * <li><b>Choices</b> enclosed in curly braces, e.g.
+ *     {@code {:in.order|id=ORDER BY id|name=ORDER BY name, id}}.
+ *     The referenced parameter's value (enums are converted
+ *     to their name) selects one of the listed SQL fragments.
+ *     If the value is null, nothing is included. A value not
+ *     matching any of the listed keys is an error.</li>
+ * </ul>
+ * Square brackets and curly braces inside quoted strings,
+ * quoted identifiers and comments are not treated specially.
+ * <p>
+ * {@link #maxRows()} optionally names a parameter which limits
+ * the number of rows returned, see
+ * {@link java.sql.Statement#setMaxRows(int)}.
+ * <p>
+ * The template is compiled once, the statements resulting from
+ * the different combinations of included clauses and selected
+ * choices are parsed once and then cached. Templates thus avoid
+ * the string building and statement parsing that implementing
+ * {@link OperationStatementIsComputed} implies.
+ * <p>
+ * An operation must carry either a {@link Statement} annotation,
+ * a {@link StatementTemplate} annotation, or implement
+ * {@link OperationStatementIsComputed}.
+ *
+ * @see Statement
+ * @see OperationStatementIsComputed
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface StatementTemplate {
+	String value();
+
+	/**
+	 * Name of the parameter (e.g. <b>in.limit</b>) containing the
+	 * maximal number of rows to return. A null value means no limit.
+	 * Defaults to no limit.
+	 */
+	String maxRows() default "";
+}
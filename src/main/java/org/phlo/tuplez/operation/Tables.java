@@ -0,0 +1,22 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Declares the tables an operation reads or writes.
+ * <p>
+ * Used by the identity cache of {@link org.phlo.tuplez.Session}s
+ * (see {@link org.phlo.tuplez.Executor#setIdentityCacheEnabled(boolean)}).
+ * A write only invalidates the cached rows of lookups which
+ * declare a table the write declares. Writes without this
+ * annotation invalidate all cached rows, and lookups without
+ * this annotation are invalidated by all writes.
+ * <p>
+ * Table names are compared case-insensitively.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Tables {
+	String[] value();
+}
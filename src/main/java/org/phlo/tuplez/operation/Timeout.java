@@ -0,0 +1,33 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Limits the time a single execution of an operation may take.
+ * <p>
+ * The timeout is passed to the JDBC driver with
+ * {@link java.sql.Statement#setQueryTimeout(int)} (rounded up to
+ * whole seconds), and additionally enforced by a watchdog which
+ * calls {@link java.sql.Statement#cancel()} once it expires. The
+ * timeout covers the whole execution, including the processing
+ * of the rows by e.g. an {@link org.phlo.tuplez.IteratorProcessor}.
+ * Expired executions fail with an
+ * {@link org.phlo.tuplez.OperationTimeoutException}.
+ * <p>
+ * Overrides the executor's default timeout (see
+ * {@link org.phlo.tuplez.Executor#setDefaultTimeoutMillis(long)}),
+ * and is overridden by a deadline set with
+ * {@link org.phlo.tuplez.Executor#with(Class, long, TimeUnit)}.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface Timeout {
+	/**
+	 * The timeout, in units of {@link #unit()}
+	 */
+	long value();
+	
+	TimeUnit unit() default TimeUnit.MILLISECONDS;
+}
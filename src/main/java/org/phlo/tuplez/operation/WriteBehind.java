@@ -0,0 +1,40 @@
+package org.phlo.tuplez.operation;
+
+import java.lang.annotation.*;
+
+/**
+ * Configures the write-behind sink of an operation,
+ * see {@link org.phlo.tuplez.Executor#writeBehind(Class)}.
+ * <p>
+ * Operations without this annotation use the defaults.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+@Inherited
+public @interface WriteBehind {
+	/**
+	 * Maximal number of inputs queued. Writers block
+	 * once the queue is full.
+	 */
+	int capacity() default 10000;
+	
+	/**
+	 * Maximal number of inputs written by one JDBC batch
+	 */
+	int batchSize() default 500;
+	
+	/**
+	 * Maximal time in milliseconds an input waits for
+	 * further inputs to fill its batch.
+	 */
+	int flushMillis() default 50;
+	
+	/**
+	 * Name of an input property (e.g. <b>id</b> for a getter
+	 * <b>getId()</b>). If set, only the last of several inputs
+	 * with the same key within a batch is written, i.e. updates
+	 * of the same row are coalesced. Defaults to the empty
+	 * string, which disables coalescing.
+	 */
+	String coalesceKey() default "";
+}
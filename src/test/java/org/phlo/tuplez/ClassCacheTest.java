@@ -0,0 +1,115 @@
+package org.phlo.tuplez;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.*;
+
+import org.phlo.tuplez.operation.*;
+
+public class ClassCacheTest {
+	final static int ThreadCount = 16;
+	final static int Rounds = 50;
+	
+	@Statement("VALUES 1")
+	public interface StressOperation extends Operation<Void, Integer> {}
+	
+	/**
+	 * Runs task on ThreadCount threads at once, and
+	 * returns the results
+	 */
+	private static <T> List<T> runConcurrently(final Callable<T> task) throws Exception {
+		final ExecutorService threads = Executors.newFixedThreadPool(ThreadCount);
+		try {
+			final CyclicBarrier start = new CyclicBarrier(ThreadCount);
+			final List<Future<T>> futures = new ArrayList<Future<T>>();
+			for(int i=0; i < ThreadCount; ++i) {
+				futures.add(threads.submit(new Callable<T>() {
+					@Override public T call() throws Exception {
+						start.await();
+						return task.call();
+					}
+				}));
+			}
+			
+			final List<T> results = new ArrayList<T>();
+			for(final Future<T> future: futures)
+				results.add(future.get());
+			return results;
+		}
+		finally {
+			threads.shutdown();
+		}
+	}
+	
+	@Test
+	public void testSingleConstruction() throws Exception {
+		for(int round=0; round < Rounds; ++round) {
+			final AtomicInteger constructions = new AtomicInteger();
+			final ClassCache<Object> cache = new ClassCache<Object>() {
+				@Override protected Object create(final Class<?> type, final Class<?> key, final Object context) {
+					constructions.incrementAndGet();
+					/* Widen the window for duplicate constructions */
+					Thread.yield();
+					return new Object();
+				}
+			};
+			
+			final List<Object> values = runConcurrently(new Callable<Object>() {
+				@Override public Object call() {
+					return cache.get(String.class, Integer.class);
+				}
+			});
+			
+			Assert.assertEquals(1, constructions.get());
+			for(final Object value: values)
+				Assert.assertSame(values.get(0), value);
+			
+			/* Other keys of the same class get their own value */
+			Assert.assertNotSame(values.get(0), cache.get(String.class, Long.class));
+			Assert.assertNotSame(values.get(0), cache.get(String.class));
+			Assert.assertSame(values.get(0), cache.get(String.class, Integer.class));
+			Assert.assertEquals(3, constructions.get());
+		}
+	}
+	
+	@Test
+	public void testFailedConstructionIsRetried() {
+		final AtomicInteger constructions = new AtomicInteger();
+		final ClassCache<Object> cache = new ClassCache<Object>() {
+			@Override protected Object create(final Class<?> type, final Class<?> key, final Object context) {
+				if (constructions.incrementAndGet() == 1)
+					throw new IllegalStateException("first construction fails");
+				return context;
+			}
+		};
+		
+		try {
+			cache.get(String.class, null, "value");
+			Assert.fail("construction didn't fail");
+		}
+		catch (IllegalStateException e) {
+		}
+		Assert.assertEquals("value", cache.get(String.class, null, "value"));
+		Assert.assertEquals("value", cache.get(String.class));
+		Assert.assertEquals(2, constructions.get());
+	}
+	
+	@Test
+	public void testSingleFactory() throws Exception {
+		final List<OperationFactory<StressOperation>> factories = runConcurrently(new Callable<OperationFactory<StressOperation>>() {
+			@Override public OperationFactory<StressOperation> call() {
+				return OperationFactory.getFactory(StressOperation.class);
+			}
+		});
+		
+		for(final OperationFactory<StressOperation> factory: factories)
+			Assert.assertSame(factories.get(0), factory);
+	}
+}
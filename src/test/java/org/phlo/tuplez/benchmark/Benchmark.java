@@ -0,0 +1,377 @@
+package org.phlo.tuplez.benchmark;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.phlo.tuplez.Executor;
+
+/**
+ * Macro benchmark measuring throughput and latency of tuplez
+ * under concurrent load.
+ * <p>
+ * The benchmark generates a synthetic table (see {@link DatasetGenerator}),
+ * and then drives a weighted mix of calls (see {@link Workload}) with
+ * an increasing number of threads. For every thread count it reports
+ * the throughput and the p50, p99 and p999 latencies, overall and per
+ * call kind. The report is written as JSON with a stable key order,
+ * so that reports of two runs can be diffed.
+ * <p>
+ * Options are passed as {@code --name=value} arguments
+ * <ul>
+ * <li><b>url</b> JDBC URL of the database. Defaults to an in-memory
+ *     embedded Derby database.
+ * <li><b>network</b> If true, an in-process Derby network server is
+ *     started on localhost and the benchmark connects through the
+ *     Derby client driver. Requires derbynet and derbyclient on the
+ *     classpath (see the <b>benchmark</b> profile in pom.xml).
+ * <li><b>port</b> Port of the Derby network server. Defaults to 1527.
+ * <li><b>rows</b>, <b>payloadWidth</b>, <b>groups</b>, <b>seed</b>
+ *     Shape of the synthetic dataset.
+ * <li><b>threads</b> Comma-separated list of thread counts.
+ *     Defaults to 1,2,4,8,16,32,64.
+ * <li><b>warmup</b>, <b>duration</b> Warm-up and measurement time
+ *     per thread count, in seconds.
+ * <li><b>mix</b> Weighted call mix, e.g. {@code get=50,collection=10,execute=20,key=15,batch=5}
+ * <li><b>batchSize</b> Number of statements per batch call.
+ * <li><b>output</b> File to write the JSON report to. Defaults to stdout.
+ * </ul>
+ * The benchmark is most easily run through maven with
+ *<blockquote><pre>{@literal
+ *mvn -Pbenchmark test-compile exec:java -Dexec.args="--rows=100000 --threads=1,8,64"
+ *}</pre></blockquote>
+ */
+public final class Benchmark {
+	private static final double[] s_percentiles = new double[] {50.0, 99.0, 99.9};
+	private static final String[] s_percentileNames = new String[] {"p50", "p99", "p999"};
+
+	private final Map<String, String> m_options;
+
+	private Benchmark(final Map<String, String> options) {
+		m_options = options;
+	}
+
+	public static void main(String[] args) throws Exception {
+		Map<String, String> options = new java.util.TreeMap<String, String>();
+		options.put("url", "jdbc:derby:memory:bench;create=true");
+		options.put("network", "false");
+		options.put("port", "1527");
+		options.put("rows", "100000");
+		options.put("payloadWidth", "100");
+		options.put("groups", "1000");
+		options.put("seed", "42");
+		options.put("threads", "1,2,4,8,16,32,64");
+		options.put("warmup", "2");
+		options.put("duration", "10");
+		options.put("mix", "get=50,collection=10,execute=20,key=15,batch=5");
+		options.put("batchSize", "10");
+		options.put("output", "-");
+
+		for(String arg: args) {
+			int eq = arg.indexOf('=');
+			if (!arg.startsWith("--") || (eq < 0))
+				throw new IllegalArgumentException("invalid argument " + arg + ", expected --name=value");
+			String name = arg.substring(2, eq);
+			if (!options.containsKey(name))
+				throw new IllegalArgumentException("unknown option " + name);
+			options.put(name, arg.substring(eq + 1));
+		}
+
+		new Benchmark(options).run();
+	}
+
+	private void run() throws Exception {
+		final List<Integer> threadCounts = new java.util.ArrayList<Integer>();
+		int maxThreads = 1;
+		for(String threads: m_options.get("threads").split(",")) {
+			int count = Integer.parseInt(threads.trim());
+			if ((count < 1) || (count > 64))
+				throw new IllegalArgumentException("thread counts must be between 1 and 64");
+			threadCounts.add(count);
+			maxThreads = Math.max(maxThreads, count);
+		}
+
+		final Map<Workload.CallKind, Integer> weights = parseMix(m_options.get("mix"));
+		final DatasetGenerator dataset = new DatasetGenerator(
+			Long.parseLong(m_options.get("rows")),
+			Integer.parseInt(m_options.get("payloadWidth")),
+			Integer.parseInt(m_options.get("groups")),
+			Long.parseLong(m_options.get("seed"))
+		);
+
+		/* Start the network server if requested, and open the pool */
+		final boolean network = Boolean.parseBoolean(m_options.get("network"));
+		final Object networkServer;
+		final String url;
+		if (network) {
+			networkServer = startNetworkServer(Integer.parseInt(m_options.get("port")));
+			Class.forName("org.apache.derby.jdbc.ClientDriver");
+			url = "jdbc:derby://localhost:" + m_options.get("port") + "/memory:bench;create=true";
+		}
+		else {
+			networkServer = null;
+			Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+			url = m_options.get("url");
+		}
+
+		final BenchmarkDataSource dataSource = new BenchmarkDataSource(url, maxThreads);
+		try {
+			final Executor executor = new Executor(dataSource);
+			executor.setDefaultInput(dataset);
+
+			log("generating " + dataset.getRows() + " rows");
+			dataset.generate(executor);
+
+			final Workload workload = new Workload(
+				executor,
+				dataSource,
+				dataset,
+				weights,
+				Integer.parseInt(m_options.get("batchSize"))
+			);
+
+			final List<LevelResult> results = new java.util.ArrayList<LevelResult>();
+			for(int threads: threadCounts) {
+				log("running with " + threads + " thread(s)");
+				results.add(runLevel(workload, threads));
+			}
+
+			writeReport(dataset, workload, network, results);
+		}
+		finally {
+			dataSource.close();
+			if (networkServer != null)
+				networkServer.getClass().getMethod("shutdown").invoke(networkServer);
+		}
+	}
+
+	/**
+	 * Result of running the workload with a certain number of threads
+	 */
+	private static final class LevelResult {
+		int threads;
+		long elapsedNanos;
+		long errors;
+		final LatencyHistogram overall = new LatencyHistogram();
+		final Map<Workload.CallKind, LatencyHistogram> perKind =
+			new EnumMap<Workload.CallKind, LatencyHistogram>(Workload.CallKind.class);
+	}
+
+	private LevelResult runLevel(final Workload workload, final int threads) throws InterruptedException {
+		final long warmupNanos = Long.parseLong(m_options.get("warmup")) * 1000000000L;
+		final long durationNanos = Long.parseLong(m_options.get("duration")) * 1000000000L;
+		final long seed = Long.parseLong(m_options.get("seed"));
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicLong errors = new AtomicLong();
+		final List<Map<Workload.CallKind, LatencyHistogram>> histograms =
+			new java.util.ArrayList<Map<Workload.CallKind, LatencyHistogram>>();
+		final long[] startNanos = new long[1];
+
+		for(int t = 0; t < threads; ++t) {
+			final Map<Workload.CallKind, LatencyHistogram> threadHistograms =
+				new EnumMap<Workload.CallKind, LatencyHistogram>(Workload.CallKind.class);
+			for(Workload.CallKind kind: Workload.CallKind.values())
+				threadHistograms.put(kind, new LatencyHistogram());
+			histograms.add(threadHistograms);
+
+			final Random random = new Random(seed * 31 + t);
+			Thread worker = new Thread("tuplez-benchmark-" + threads + "-" + t) {
+				@Override
+				public void run() {
+					try {
+						start.await();
+						final long measureFrom = startNanos[0] + warmupNanos;
+						final long measureUntil = measureFrom + durationNanos;
+						while (true) {
+							final Workload.CallKind kind = workload.pick(random);
+							final long before = System.nanoTime();
+							if (before >= measureUntil)
+								break;
+							try {
+								workload.run(kind, random);
+							}
+							catch (RuntimeException e) {
+								if (before >= measureFrom)
+									errors.incrementAndGet();
+								continue;
+							}
+							if (before >= measureFrom)
+								threadHistograms.get(kind).record(System.nanoTime() - before);
+						}
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					finally {
+						done.countDown();
+					}
+				}
+			};
+			worker.setDaemon(true);
+			worker.start();
+		}
+
+		startNanos[0] = System.nanoTime();
+		start.countDown();
+		done.await();
+
+		LevelResult result = new LevelResult();
+		result.threads = threads;
+		result.elapsedNanos = durationNanos;
+		result.errors = errors.get();
+		for(Workload.CallKind kind: Workload.CallKind.values())
+			result.perKind.put(kind, new LatencyHistogram());
+		for(Map<Workload.CallKind, LatencyHistogram> threadHistograms: histograms) {
+			for(Map.Entry<Workload.CallKind, LatencyHistogram> e: threadHistograms.entrySet()) {
+				result.perKind.get(e.getKey()).add(e.getValue());
+				result.overall.add(e.getValue());
+			}
+		}
+		return result;
+	}
+
+	private static Map<Workload.CallKind, Integer> parseMix(final String mix) {
+		Map<Workload.CallKind, Integer> weights = new EnumMap<Workload.CallKind, Integer>(Workload.CallKind.class);
+		for(String entry: mix.split(",")) {
+			String[] kv = entry.split("=");
+			if (kv.length != 2)
+				throw new IllegalArgumentException("invalid mix entry " + entry + ", expected kind=weight");
+			Workload.CallKind kind = Workload.CallKind.valueOf(kv[0].trim().toUpperCase(Locale.ENGLISH));
+			weights.put(kind, Integer.parseInt(kv[1].trim()));
+		}
+		return weights;
+	}
+
+	/**
+	 * Starts an in-process Derby network server. Uses reflection,
+	 * since derbynet is only available in the benchmark profile.
+	 */
+	private static Object startNetworkServer(final int port) throws Exception {
+		Class<?> serverClass = Class.forName("org.apache.derby.drda.NetworkServerControl");
+		Object server = serverClass
+			.getConstructor(InetAddress.class, Integer.TYPE)
+			.newInstance(InetAddress.getByName("localhost"), port);
+		serverClass.getMethod("start", PrintWriter.class).invoke(server, (PrintWriter)null);
+
+		/* Wait until the server accepts connections */
+		for(int attempt = 0; ; ++attempt) {
+			try {
+				serverClass.getMethod("ping").invoke(server);
+				return server;
+			}
+			catch (java.lang.reflect.InvocationTargetException e) {
+				if (attempt >= 50)
+					throw new IllegalStateException("Derby network server did not start", e.getTargetException());
+				Thread.sleep(100);
+			}
+		}
+	}
+
+	private void writeReport(
+		final DatasetGenerator dataset,
+		final Workload workload,
+		final boolean network,
+		final List<LevelResult> results
+	) throws IOException {
+		final String output = m_options.get("output");
+		final Writer writer = output.equals("-")
+			? new OutputStreamWriter(System.out, "UTF-8")
+			: new OutputStreamWriter(new FileOutputStream(output), "UTF-8");
+		final PrintWriter out = new PrintWriter(writer);
+
+		out.println("{");
+		out.println("  \"benchmark\": \"tuplez-macro\",");
+		out.println("  \"environment\": {");
+		out.println("    \"java.version\": " + quote(System.getProperty("java.version")) + ",");
+		out.println("    \"os.name\": " + quote(System.getProperty("os.name")) + ",");
+		out.println("    \"processors\": " + Runtime.getRuntime().availableProcessors());
+		out.println("  },");
+		out.println("  \"config\": {");
+		out.println("    \"database\": " + quote(network ? "derby-network" : "derby-embedded") + ",");
+		out.println("    \"rows\": " + dataset.getRows() + ",");
+		out.println("    \"payloadWidth\": " + dataset.getPayloadWidth() + ",");
+		out.println("    \"groups\": " + dataset.getGroups() + ",");
+		out.println("    \"seed\": " + dataset.getSeed() + ",");
+		out.println("    \"warmupSeconds\": " + m_options.get("warmup") + ",");
+		out.println("    \"durationSeconds\": " + m_options.get("duration") + ",");
+		out.println("    \"batchSize\": " + workload.getBatchSize() + ",");
+		out.print("    \"mix\": {");
+		boolean first = true;
+		for(Workload.CallKind kind: Workload.CallKind.values()) {
+			Integer weight = workload.getWeights().get(kind);
+			out.print((first ? "" : ", ") + quote(kind.name().toLowerCase(Locale.ENGLISH)) + ": " + ((weight != null) ? weight : 0));
+			first = false;
+		}
+		out.println("}");
+		out.println("  },");
+		out.println("  \"results\": [");
+		for(int i = 0; i < results.size(); ++i) {
+			LevelResult result = results.get(i);
+			out.println("    {");
+			out.println("      \"threads\": " + result.threads + ",");
+			out.println("      \"errors\": " + result.errors + ",");
+			out.println("      \"overall\": " + formatHistogram(result.overall, result.elapsedNanos) + ",");
+			out.println("      \"calls\": {");
+			int k = 0;
+			for(Workload.CallKind kind: Workload.CallKind.values()) {
+				++k;
+				out.println(
+					"        " + quote(kind.name().toLowerCase(Locale.ENGLISH)) + ": " +
+					formatHistogram(result.perKind.get(kind), result.elapsedNanos) +
+					((k < Workload.CallKind.values().length) ? "," : "")
+				);
+			}
+			out.println("      }");
+			out.println("    }" + ((i < results.size() - 1) ? "," : ""));
+		}
+		out.println("  ]");
+		out.println("}");
+		out.flush();
+		if (!output.equals("-"))
+			out.close();
+	}
+
+	private static String formatHistogram(final LatencyHistogram histogram, final long elapsedNanos) {
+		StringBuilder b = new StringBuilder();
+		b.append("{\"count\": ").append(histogram.getTotalCount());
+		b.append(", \"throughput\": ").append(String.format(Locale.ENGLISH, "%.1f",
+			histogram.getTotalCount() * 1e9 / Math.max(1, elapsedNanos)
+		));
+		for(int i = 0; i < s_percentiles.length; ++i) {
+			b.append(", \"").append(s_percentileNames[i]).append("Micros\": ");
+			b.append(String.format(Locale.ENGLISH, "%.1f", histogram.getValueAtPercentile(s_percentiles[i]) / 1000.0));
+		}
+		b.append(", \"maxMicros\": ").append(String.format(Locale.ENGLISH, "%.1f", histogram.getMax() / 1000.0));
+		b.append("}");
+		return b.toString();
+	}
+
+	private static String quote(final String s) {
+		StringBuilder b = new StringBuilder("\"");
+		for(char c: s.toCharArray()) {
+			if ((c == '"') || (c == '\\'))
+				b.append('\\').append(c);
+			else if (c < 0x20)
+				b.append(String.format("\\u%04x", (int)c));
+			else
+				b.append(c);
+		}
+		return b.append('"').toString();
+	}
+
+	private static void log(final String message) {
+		System.err.println("[tuplez-benchmark] " + message);
+	}
+}
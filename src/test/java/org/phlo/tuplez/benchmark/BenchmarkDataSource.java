@@ -0,0 +1,138 @@
+package org.phlo.tuplez.benchmark;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+
+import javax.sql.DataSource;
+
+/**
+ * Minimal fixed-size connection pool used by the benchmark.
+ * <p>
+ * The pool opens all its connections up-front, so that connection
+ * setup costs don't show up in the measured latencies. Connections
+ * handed out are proxies whose close() returns the underlying
+ * connection to the pool instead of closing it.
+ */
+final class BenchmarkDataSource implements DataSource {
+	private final List<Connection> m_connections;
+	private final BlockingQueue<Connection> m_idle;
+
+	BenchmarkDataSource(final String url, final int size) throws SQLException {
+		m_connections = new java.util.ArrayList<Connection>(size);
+		m_idle = new java.util.concurrent.ArrayBlockingQueue<Connection>(size);
+		for(int i = 0; i < size; ++i) {
+			Connection connection = DriverManager.getConnection(url);
+			m_connections.add(connection);
+			m_idle.add(connection);
+		}
+	}
+
+	/**
+	 * Closes all pooled connections.
+	 */
+	void close() {
+		for(Connection connection: m_connections) {
+			try {
+				connection.close();
+			}
+			catch (SQLException e) {
+				/* Ignore, we're shutting down anyway */
+			}
+		}
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		final Connection target;
+		try {
+			target = m_idle.take();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("interrupted while waiting for a connection");
+		}
+
+		return (Connection)Proxy.newProxyInstance(
+			Connection.class.getClassLoader(),
+			new Class<?>[] {Connection.class},
+			new InvocationHandler() {
+				private boolean m_closed = false;
+
+				@Override
+				public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+					final String methodName = method.getName();
+					if (methodName.equals("close") && (method.getParameterTypes().length == 0)) {
+						if (!m_closed) {
+							m_closed = true;
+							if (!target.getAutoCommit())
+								target.rollback();
+							target.setAutoCommit(true);
+							m_idle.add(target);
+						}
+						return null;
+					}
+					else if (methodName.equals("isClosed") && (method.getParameterTypes().length == 0)) {
+						return m_closed || target.isClosed();
+					}
+					else if (m_closed) {
+						throw new SQLException("connection was returned to the pool");
+					}
+
+					try {
+						return method.invoke(target, args);
+					}
+					catch (InvocationTargetException e) {
+						throw e.getTargetException();
+					}
+				}
+			}
+		);
+	}
+
+	@Override
+	public Connection getConnection(String username, String password) throws SQLException {
+		throw new SQLFeatureNotSupportedException("pooled connections use the URL's credentials");
+	}
+
+	@Override
+	public PrintWriter getLogWriter() throws SQLException {
+		return null;
+	}
+
+	@Override
+	public void setLogWriter(PrintWriter out) throws SQLException {
+	}
+
+	@Override
+	public void setLoginTimeout(int seconds) throws SQLException {
+	}
+
+	@Override
+	public int getLoginTimeout() throws SQLException {
+		return 0;
+	}
+
+	@Override
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new SQLException(getClass().getName() + " does not wrap " + iface.getName());
+	}
+
+	@Override
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		return false;
+	}
+
+	/* Declared by DataSource as of JDBC 4.1 */
+	public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+		throw new SQLFeatureNotSupportedException();
+	}
+}
@@ -0,0 +1,89 @@
+package org.phlo.tuplez.benchmark;
+
+import java.math.BigDecimal;
+
+import org.phlo.tuplez.operation.*;
+
+/**
+ * Operations executed by the benchmark. The table they
+ * work on is populated by {@link DatasetGenerator}.
+ */
+public class BenchmarkOperations {
+	public interface TableShape {
+		Long getRows();
+		Integer getPayloadWidth();
+	}
+
+	public interface ItemNew {
+		Integer getGrp();
+		String getName();
+		BigDecimal getAmount();
+		String getPayload();
+	}
+
+	public interface Item extends ItemNew {
+		Long getId();
+	}
+
+	public interface ItemAmount {
+		Long getId();
+		BigDecimal getAmount();
+	}
+
+
+	public static abstract class CreateItems implements
+		OperationStatementIsComputed<TableShape, Void>
+	{
+		@Override
+		public String getStatement(TableShape input) {
+			/* Generated keys start after the synthetic rows, since
+			 * DatasetGenerator inserts those with explicit ids
+			 */
+			return
+				"CREATE TABLE bench_item (" +
+					"id BIGINT GENERATED BY DEFAULT AS IDENTITY (START WITH " + (input.getRows() + 1) + ") NOT NULL PRIMARY KEY, " +
+					"grp INTEGER NOT NULL, " +
+					"name VARCHAR(64), " +
+					"amount DECIMAL(19,4), " +
+					"payload VARCHAR(" + Math.max(1, input.getPayloadWidth()) + ")" +
+				")";
+		}
+	}
+
+
+	@Statement("CREATE INDEX bench_item_grp ON bench_item (grp)")
+	public interface CreateItemsGroupIndex extends Operation<Void, Void> {}
+
+
+	@Statement("DROP TABLE bench_item")
+	public interface DropItems extends Operation<Void, Void> {}
+
+
+	@Statement("INSERT INTO bench_item (" +
+			"id, grp, name, amount, payload" +
+		") VALUES (" +
+			":in.id, :in.grp, :in.name, :in.amount, :in.payload" +
+	")")
+	public interface InsertItem extends Operation<Item, Void> {}
+
+
+	@Statement("INSERT INTO bench_item (" +
+			"grp, name, amount, payload" +
+		") VALUES (" +
+			":in.grp, :in.name, :in.amount, :in.payload" +
+	")")
+	@KeyColumn("ID")
+	public interface InsertItemGenerateId extends OperationGeneratesKey<ItemNew, Long> {}
+
+
+	@Statement("SELECT id, grp, name, amount, payload FROM bench_item WHERE id = :in")
+	public interface ItemById extends OperationReturnsSingleRow<Long, Item> {}
+
+
+	@Statement("SELECT id, grp, name, amount, payload FROM bench_item WHERE grp = :in")
+	public interface ItemsByGroup extends Operation<Integer, Item> {}
+
+
+	@Statement("UPDATE bench_item SET amount = :in.amount WHERE id = :in.id")
+	public interface UpdateItemAmount extends Operation<ItemAmount, Void> {}
+}
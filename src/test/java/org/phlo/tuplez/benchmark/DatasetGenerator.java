@@ -0,0 +1,156 @@
+package org.phlo.tuplez.benchmark;
+
+import java.math.BigDecimal;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+
+import org.springframework.dao.DataAccessException;
+import org.springframework.jdbc.core.BatchPreparedStatementSetter;
+
+import org.phlo.tuplez.Executor;
+
+/**
+ * Generates the synthetic table the benchmark runs against.
+ * <p>
+ * The generated data is a pure function of the configured
+ * row count, payload width, group count and seed, so that
+ * two benchmark runs with the same configuration see the
+ * same dataset.
+ */
+public final class DatasetGenerator {
+	/* Rows inserted per JDBC batch while populating the table */
+	private static final int s_insertBatchSize = 1000;
+
+	private static final char[] s_payloadAlphabet =
+		"abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789".toCharArray();
+
+	private final long m_rows;
+	private final int m_payloadWidth;
+	private final int m_groups;
+	private final long m_seed;
+
+	/**
+	 * Creates a generator for a table with the given shape.
+	 *
+	 * @param rows number of rows to generate
+	 * @param payloadWidth width of the payload column in characters
+	 * @param groups number of distinct values of the grp column
+	 * @param seed seed of the pseudo-random generator
+	 */
+	public DatasetGenerator(final long rows, final int payloadWidth, final int groups, final long seed) {
+		if (rows < 1)
+			throw new IllegalArgumentException("rows must be positive");
+		if (payloadWidth < 1)
+			throw new IllegalArgumentException("payload width must be positive");
+		if (groups < 1)
+			throw new IllegalArgumentException("groups must be positive");
+
+		m_rows = rows;
+		m_payloadWidth = payloadWidth;
+		m_groups = groups;
+		m_seed = seed;
+	}
+
+	public long getRows() {
+		return m_rows;
+	}
+
+	public int getPayloadWidth() {
+		return m_payloadWidth;
+	}
+
+	public int getGroups() {
+		return m_groups;
+	}
+
+	public long getSeed() {
+		return m_seed;
+	}
+
+	/**
+	 * Returns the group of the row with the given id.
+	 *
+	 * @param id row id
+	 * @return the row's group
+	 */
+	public int groupOf(final long id) {
+		return (int)(id % m_groups);
+	}
+
+	/**
+	 * Returns a payload string of the configured width.
+	 *
+	 * @param random source of randomness
+	 * @return payload string
+	 */
+	public String payload(final Random random) {
+		char[] payload = new char[m_payloadWidth];
+		for(int i = 0; i < payload.length; ++i)
+			payload[i] = s_payloadAlphabet[random.nextInt(s_payloadAlphabet.length)];
+		return new String(payload);
+	}
+
+	/**
+	 * Returns an amount value.
+	 *
+	 * @param random source of randomness
+	 * @return amount value
+	 */
+	public BigDecimal amount(final Random random) {
+		return BigDecimal.valueOf(random.nextInt(100000000), 4);
+	}
+
+	/**
+	 * (Re-)creates the table bench_item and fills it with
+	 * the configured number of rows.
+	 *
+	 * @param executor executor to create the table with
+	 */
+	public void generate(final Executor executor) {
+		/* Drop the table left behind by previous runs, if any */
+		try {
+			executor.with(BenchmarkOperations.DropItems.class).execute();
+		}
+		catch (DataAccessException e) {
+			/* Table did not exist */
+		}
+
+		executor.with(BenchmarkOperations.CreateItems.class).execute(new BenchmarkOperations.TableShape() {
+			@Override public Long getRows() { return m_rows; }
+			@Override public Integer getPayloadWidth() { return m_payloadWidth; }
+		});
+
+		/* Populate with plain JDBC batches. That's much faster than
+		 * going through the operation API, and populating the table
+		 * isn't what we want to measure.
+		 */
+		final Random random = new Random(m_seed);
+		for(long first = 1; first <= m_rows; first += s_insertBatchSize) {
+			final long batchFirst = first;
+			final int batchSize = (int)Math.min(s_insertBatchSize, m_rows - first + 1);
+
+			executor.getNpJdbcTemplate().getJdbcOperations().batchUpdate(
+				"INSERT INTO bench_item (id, grp, name, amount, payload) VALUES (?, ?, ?, ?, ?)",
+				new BatchPreparedStatementSetter() {
+					@Override
+					public void setValues(PreparedStatement ps, int i) throws SQLException {
+						final long id = batchFirst + i;
+						ps.setLong(1, id);
+						ps.setInt(2, groupOf(id));
+						ps.setString(3, "item " + id);
+						ps.setBigDecimal(4, amount(random));
+						ps.setString(5, payload(random));
+					}
+
+					@Override
+					public int getBatchSize() {
+						return batchSize;
+					}
+				}
+			);
+		}
+
+		executor.with(BenchmarkOperations.CreateItemsGroupIndex.class).execute();
+	}
+}
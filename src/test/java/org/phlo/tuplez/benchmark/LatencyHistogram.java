@@ -0,0 +1,95 @@
+package org.phlo.tuplez.benchmark;
+
+/**
+ * Log-linear latency histogram.
+ * <p>
+ * Values are bucketed by their power of two, and each power
+ * of two is divided into {@link #s_subBuckets} linear sub-buckets.
+ * The relative error of reported percentiles is thus bounded by
+ * 1/{@link #s_subBuckets}, independent of the value's magnitude.
+ * <p>
+ * Instances are not thread-safe, the benchmark records into one
+ * histogram per worker thread and merges them afterwards.
+ */
+final class LatencyHistogram {
+	/* log2 of the number of sub-buckets per power of two */
+	private static final int s_subBucketBits = 6;
+
+	private static final int s_subBuckets = 1 << s_subBucketBits;
+
+	/* Values up to 2^s_maxExponent nanoseconds (about 18 minutes) are tracked */
+	private static final int s_maxExponent = 40;
+
+	private final long[] m_counts = new long[(s_maxExponent + 1) * s_subBuckets];
+
+	private long m_totalCount = 0;
+
+	private long m_max = 0;
+
+	void record(final long nanos) {
+		final long value = Math.max(0, nanos);
+		m_counts[bucketOf(value)] += 1;
+		m_totalCount += 1;
+		m_max = Math.max(m_max, value);
+	}
+
+	void add(final LatencyHistogram other) {
+		for(int i = 0; i < m_counts.length; ++i)
+			m_counts[i] += other.m_counts[i];
+		m_totalCount += other.m_totalCount;
+		m_max = Math.max(m_max, other.m_max);
+	}
+
+	long getTotalCount() {
+		return m_totalCount;
+	}
+
+	long getMax() {
+		return m_max;
+	}
+
+	/**
+	 * Returns the value at the given percentile. The returned
+	 * value is the upper bound of the bucket the percentile
+	 * falls into.
+	 *
+	 * @param percentile percentile between 0 and 100
+	 * @return value at the percentile in nanoseconds
+	 */
+	long getValueAtPercentile(final double percentile) {
+		if (m_totalCount == 0)
+			return 0;
+
+		final long rank = Math.max(1, (long)Math.ceil(percentile / 100.0 * m_totalCount));
+		long seen = 0;
+		for(int i = 0; i < m_counts.length; ++i) {
+			seen += m_counts[i];
+			if (seen >= rank)
+				return Math.min(m_max, upperBoundOf(i));
+		}
+		return m_max;
+	}
+
+	private static int bucketOf(final long value) {
+		if (value < s_subBuckets)
+			return (int)value;
+
+		final int exponent = 63 - Long.numberOfLeadingZeros(value);
+		if (exponent > s_maxExponent)
+			return (s_maxExponent + 1) * s_subBuckets - 1;
+
+		/* The top s_subBucketBits bits below the leading one select the sub-bucket */
+		final int subBucket = (int)((value >>> (exponent - s_subBucketBits)) & (s_subBuckets - 1));
+		return (exponent - s_subBucketBits + 1) * s_subBuckets + subBucket;
+	}
+
+	private static long upperBoundOf(final int bucket) {
+		if (bucket < s_subBuckets)
+			return bucket;
+
+		final int exponent = bucket / s_subBuckets + s_subBucketBits - 1;
+		final long subBucket = bucket % s_subBuckets;
+		final long width = 1L << (exponent - s_subBucketBits);
+		return (1L << exponent) + (subBucket + 1) * width - 1;
+	}
+}
@@ -0,0 +1,156 @@
+package org.phlo.tuplez.benchmark;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import org.phlo.tuplez.Executor;
+
+/**
+ * A weighted mix of operation calls.
+ * <p>
+ * Each call kind exercises a different execution path of tuplez.
+ * {@link #pick(Random)} chooses the next call kind according to
+ * the configured weights, {@link #run(CallKind, Random)} performs
+ * a single call of that kind.
+ */
+final class Workload {
+	/**
+	 * The different kinds of calls a workload is made of.
+	 */
+	enum CallKind {
+		/* OperationReturnsSingleRow.get() by primary key */
+		GET,
+		/* Operation.collection() over one group */
+		COLLECTION,
+		/* Operation.execute() of a single-row UPDATE */
+		EXECUTE,
+		/* OperationGeneratesKey.keyAsLong() of an INSERT */
+		KEY,
+		/* A block of Operation.execute() calls in one transaction */
+		BATCH
+	}
+
+	private final Executor m_executor;
+	private final DatasetGenerator m_dataset;
+	private final TransactionTemplate m_transactionTemplate;
+	private final int m_batchSize;
+
+	/* Cumulative weights, indexed by CallKind.ordinal() */
+	private final int[] m_cumulativeWeights = new int[CallKind.values().length];
+	private final Map<CallKind, Integer> m_weights;
+
+	Workload(
+		final Executor executor,
+		final DataSource dataSource,
+		final DatasetGenerator dataset,
+		final Map<CallKind, Integer> weights,
+		final int batchSize
+	) {
+		m_executor = executor;
+		m_dataset = dataset;
+		m_transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+		m_batchSize = batchSize;
+		m_weights = weights;
+
+		int total = 0;
+		for(CallKind kind: CallKind.values()) {
+			Integer weight = weights.get(kind);
+			total += (weight != null) ? weight : 0;
+			m_cumulativeWeights[kind.ordinal()] = total;
+		}
+		if (total <= 0)
+			throw new IllegalArgumentException("workload mix must contain at least one call kind with positive weight");
+	}
+
+	Map<CallKind, Integer> getWeights() {
+		return m_weights;
+	}
+
+	int getBatchSize() {
+		return m_batchSize;
+	}
+
+	CallKind pick(final Random random) {
+		final int total = m_cumulativeWeights[m_cumulativeWeights.length - 1];
+		final int r = random.nextInt(total);
+		for(CallKind kind: CallKind.values()) {
+			if (r < m_cumulativeWeights[kind.ordinal()])
+				return kind;
+		}
+		throw new RuntimeException("weight selection failed unexpectedly");
+	}
+
+	void run(final CallKind kind, final Random random) {
+		switch (kind) {
+			case GET: {
+				final long id = randomId(random);
+				if (m_executor.with(BenchmarkOperations.ItemById.class).get(id) == null)
+					throw new IllegalStateException("row " + id + " not found");
+				break;
+			}
+
+			case COLLECTION: {
+				m_executor.with(BenchmarkOperations.ItemsByGroup.class).collection(random.nextInt(m_dataset.getGroups()));
+				break;
+			}
+
+			case EXECUTE: {
+				m_executor.with(BenchmarkOperations.UpdateItemAmount.class).execute(amountUpdate(random));
+				break;
+			}
+
+			case KEY: {
+				final int grp = random.nextInt(m_dataset.getGroups());
+				final BigDecimal amount = m_dataset.amount(random);
+				final String payload = m_dataset.payload(random);
+				m_executor.with(BenchmarkOperations.InsertItemGenerateId.class).keyAsLong(new BenchmarkOperations.ItemNew() {
+					@Override public Integer getGrp() { return grp; }
+					@Override public String getName() { return "generated"; }
+					@Override public BigDecimal getAmount() { return amount; }
+					@Override public String getPayload() { return payload; }
+				});
+				break;
+			}
+
+			case BATCH: {
+				m_transactionTemplate.execute(new TransactionCallback<Void>() {
+					@Override
+					public Void doInTransaction(TransactionStatus status) {
+						final List<BenchmarkOperations.ItemAmount> updates = new ArrayList<BenchmarkOperations.ItemAmount>(m_batchSize);
+						for(int i = 0; i < m_batchSize; ++i)
+							updates.add(amountUpdate(random));
+						m_executor.with(BenchmarkOperations.UpdateItemAmount.class).executeBatch(updates);
+						return null;
+					}
+				});
+				break;
+			}
+
+			default:
+				throw new RuntimeException("unhandled call kind " + kind);
+		}
+	}
+
+	private long randomId(final Random random) {
+		return 1 + (long)(random.nextDouble() * m_dataset.getRows());
+	}
+
+	private BenchmarkOperations.ItemAmount amountUpdate(final Random random) {
+		final long id = randomId(random);
+		final BigDecimal amount = m_dataset.amount(random);
+		return new BenchmarkOperations.ItemAmount() {
+			@Override public Long getId() { return id; }
+			@Override public BigDecimal getAmount() { return amount; }
+		};
+	}
+}
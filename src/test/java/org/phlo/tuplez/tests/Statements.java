@@ -24,6 +24,35 @@ public class Statements {
 	public interface TestFull extends TestNew {
 		Long getId();
 	}
+	
+	public interface TestAudit {
+		Long getId();
+		String getMsg();
+	}
+	
+	public interface TestShardItem {
+		@ShardKey Long getId();
+		String getName();
+	}
+	
+	public interface TestRef {
+		Integer getId();
+		String getName();
+	}
+	
+	public interface TestIds {
+		java.util.Collection<Long> getIds();
+		long[] getExcludedIds();
+	}
+	
+	public enum Order { ID, ID_DESC }
+	
+	public interface TestFilter {
+		String getStr();
+		Integer getIdx();
+		Order getOrder();
+		Integer getLimit();
+	}
 
 	
 	@Statement("CREATE TABLE test (" +
@@ -38,6 +67,44 @@ public class Statements {
 	public interface CreateTest extends Operation<Void, Void> {}
 	
 	
+	@Statement("CREATE TABLE audit (id BIGINT NOT NULL PRIMARY KEY, msg VARCHAR(256))")
+	public interface CreateAudit extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE ref (id INT NOT NULL PRIMARY KEY, name VARCHAR(256))")
+	public interface CreateRef extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE kv (id INT NOT NULL PRIMARY KEY, val VARCHAR(256))")
+	public interface CreateKv extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE sales (region VARCHAR(256) NOT NULL, amount INT NOT NULL)")
+	public interface CreateSales extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE member (id INT NOT NULL PRIMARY KEY, name VARCHAR(256))")
+	public interface CreateMember extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE quote (id INT NOT NULL PRIMARY KEY, text VARCHAR(256))")
+	public interface CreateQuote extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE ticket (id INT GENERATED ALWAYS AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY, name VARCHAR(256))")
+	public interface CreateTicket extends Operation<Void, Void> {}
+	
+	@Statement("CREATE TABLE serial (id BIGINT GENERATED ALWAYS AS IDENTITY (START WITH 1) NOT NULL PRIMARY KEY, name VARCHAR(256))")
+	public interface CreateSerial extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE loaded (id INT NOT NULL PRIMARY KEY, text VARCHAR(256))")
+	public interface CreateLoaded extends Operation<Void, Void> {}
+	
+	@Statement("CREATE TABLE copied (id INT NOT NULL PRIMARY KEY, text VARCHAR(256))")
+	public interface CreateCopied extends Operation<Void, Void> {}
+	
+	
 	@Statement("CREATE TABLE SINGLE (unit INT GENERATED BY DEFAULT AS IDENTITY (START WITH 1) NOT NULL)")
 	public interface CreateSingle extends Operation<Void, Void> {}
 
@@ -119,9 +186,235 @@ public class Statements {
 	public interface TestIdToFull extends OperationReturnsSingleRow<Integer, TestFull> {}
 	
 	
+	@Statement("SELECT id FROM test WHERE id IN (:in.ids) AND id NOT IN (:in.excludedIds) ORDER BY id")
+	public interface TestIdsIn extends Operation<TestIds, Long> {}
+	
+	
+	@Statement("SELECT str FROM test WHERE id IN (:in) ORDER BY id")
+	public interface TestIdArrayToStr extends Operation<Long[], String> {}
+	
+	
+	@StatementTemplate(value="SELECT id FROM test WHERE 1 = 1 " +
+		"[AND str = :in.str] " +
+		"[AND idx = :in.idx] " +
+		"{:in.order|ID=ORDER BY id|ID_DESC=ORDER BY id DESC}",
+		maxRows="in.limit"
+	)
+	public interface TestTemplate extends Operation<TestFilter, Long> {}
+	
+	@StatementTemplate("SELECT id FROM test WHERE 1 = 1 " +
+		"[AND id IN (:in.ids)] " +
+		"[AND id NOT IN (:in.excludedIds)] " +
+		"ORDER BY id"
+	)
+	public interface TestTemplateIds extends Operation<TestIds, Long> {}
+	
+	
 	@Statement("SELECT id, str, dez, day, idx, des as \"description\", kind FROM test ORDER BY id")
 	public static abstract class TestAllFull implements Operation<Void, TestFull> {}
 	
+	@PipelinedFetch(bufferSize=2)
+	public static abstract class TestAllFullPipelined extends TestAllFull {}
+	
+	@Bulkhead(value="reports", lane=Lane.BATCH)
+	public static abstract class TestAllFullReport extends TestAllFull {}
+	
+	@Timeout(50)
+	public static abstract class TestAllFullTimeout extends TestAllFull {}
+	
+	public static abstract class TestAllFullAdaptive extends TestAllFull {}
+	
+	
+	@Statement("SELECT id, str, dez, day, idx, des as \"description\", kind FROM test WHERE id IN (:in)")
+	public interface TestFullByIds extends Operation<Long[], TestFull> {}
+	
+	@Statement("SELECT id, str, dez, day, idx, des as \"description\", kind FROM test WHERE id = :in")
+	@BatchLookup(value=TestFullByIds.class, key="id", chunkSize=2)
+	@Coalesced(windowMicros=5000)
+	public interface TestFullByIdCoalesced extends OperationReturnsSingleRow<Long, TestFull> {}
+	
+	@Statement("SELECT id, str, dez, day, idx, des as \"description\", kind FROM test WHERE id = :in")
+	public interface TestFullById extends OperationReturnsSingleRow<Long, TestFull> {}
+	
+	
+	@Statement("INSERT INTO audit (id, msg) VALUES (:in.id, :in.msg)")
+	@WriteBehind(batchSize=4, flushMillis=20)
+	public interface TestAuditInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("INSERT INTO audit (id, msg) VALUES (:in.id, :in.msg)")
+	@WriteBehind(capacity=2, batchSize=1, flushMillis=0)
+	public interface TestAuditInsertBounded extends Operation<TestAudit, Void> {}
+	
+	@Statement("UPDATE audit SET msg = :in.msg WHERE id = :in.id")
+	@WriteBehind(batchSize=100, flushMillis=60000, coalesceKey="id")
+	public interface TestAuditUpdate extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT msg FROM audit WHERE id = :in")
+	public interface TestAuditMsg extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("SELECT id FROM audit ORDER BY id")
+	public interface TestAuditIds extends Operation<Void, Long> {}
+	
+	
+	@Statement("INSERT INTO ref (id, name) VALUES (:in.id, :in.msg)")
+	public interface TestRefInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT id, name FROM ref")
+	public interface TestRefAll extends Operation<Void, TestRef> {}
+	
+	@Statement("SELECT id, name FROM ref WHERE id = :in")
+	@Preloaded(value=TestRefAll.class, key="id", refreshMillis=20)
+	public interface TestRefById extends OperationReturnsSingleRow<Long, TestRef> {}
+	
+	
+	@Statement("INSERT INTO kv (id, val) VALUES (:in.id, :in.msg)")
+	@Tables("kv")
+	public interface TestKvInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("UPDATE kv SET val = :in.msg WHERE id = :in.id")
+	@Tables("KV")
+	public interface TestKvUpdate extends Operation<TestAudit, Void> {}
+	
+	@Statement("UPDATE kv SET val = :in.msg WHERE id = :in.id")
+	public interface TestKvUpdateUndeclared extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT val FROM kv WHERE id = :in")
+	@Tables("kv")
+	public interface TestKvById extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("SELECT val FROM kv WHERE id = :in.id")
+	@Tables("kv")
+	public interface TestKvByAudit extends OperationReturnsSingleRow<TestAudit, String> {}
+	
+	@Statement("DELETE FROM audit WHERE id = :in")
+	@Tables("audit")
+	public interface TestAuditDelete extends Operation<Long, Void> {}
+	
+	
+	public interface TestRegionTotal {
+		String getRegion();
+		Integer getTotal();
+	}
+	
+	@Statement("INSERT INTO sales (region, amount) VALUES (:in.msg, :in.id)")
+	public interface TestSalesInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT region, SUM(amount) AS total FROM sales GROUP BY region ORDER BY region")
+	@ResultCached(ttlMillis=60000)
+	public interface TestSalesByRegion extends Operation<Void, TestRegionTotal> {}
+	
+	@Statement("SELECT SUM(amount) FROM sales WHERE region = :in")
+	@ResultCached(ttlMillis=60000)
+	public interface TestSalesTotal extends OperationReturnsSingleRow<String, Integer> {}
+	
+	@Statement("SELECT SUM(amount) FROM sales WHERE region = :in")
+	@ResultCached(ttlMillis=1)
+	public interface TestSalesTotalShortLived extends OperationReturnsSingleRow<String, Integer> {}
+	
+	@Statement("SELECT CAST(:in AS TIMESTAMP) FROM SINGLE")
+	public interface TestEchoTime extends OperationReturnsSingleRow<java.util.Date, java.sql.Timestamp> {}
+	
+	@Statement("SELECT CAST(:in AS TIMESTAMP) FROM SINGLE")
+	@ResultCached(ttlMillis=60000)
+	public interface TestEchoTimeCached extends OperationReturnsSingleRow<java.util.Date, java.sql.Timestamp> {}
+	
+	
+	@Statement("SELECT id FROM member")
+	public interface TestMemberIds extends Operation<Void, Integer> {}
+	
+	@Statement("SELECT name FROM member WHERE id = :in")
+	@ExistenceFilter(value=TestMemberIds.class, rebuildMillis=0)
+	public interface TestMemberById extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("INSERT INTO member (id, name) VALUES (:in.id, :in.msg)")
+	@AddsKeys(value=TestMemberById.class, key="id")
+	public interface TestMemberInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("INSERT INTO member (id, name) VALUES (:in.id, :in.msg)")
+	public interface TestMemberInsertUntracked extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT id FROM ticket")
+	public interface TestTicketIds extends Operation<Void, Integer> {}
+	
+	@Statement("SELECT name FROM ticket WHERE id = :in")
+	@ExistenceFilter(value=TestTicketIds.class, rebuildMillis=0)
+	public interface TestTicketById extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("INSERT INTO ticket (name) VALUES (:in)")
+	@AddsKeys(TestTicketById.class)
+	@KeyColumn("ID")
+	public interface TestTicketInsert extends OperationGeneratesKey<String, Integer> {}
+	
+	@Statement("INSERT INTO serial (name) VALUES (:in)")
+	@KeyColumn("ID")
+	public interface TestSerialInsert extends OperationGeneratesKey<String, Long> {}
+	
+	@Statement("SELECT name FROM serial WHERE id = :in")
+	public interface TestSerialById extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("INSERT INTO quote (id, text) VALUES (:in.id, :in.msg)")
+	public interface TestQuoteInsert extends Operation<TestAudit, Void> {}
+	
+	@Statement("SELECT text FROM quote WHERE id = :in")
+	public interface TestQuoteById extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("SELECT id FROM quote ORDER BY id")
+	public interface TestQuoteIds extends Operation<Void, Long> {}
+	
+	public interface TestQuote {
+		Long getId();
+		String getText();
+	}
+	
+	@Statement("SELECT id, text FROM quote WHERE id >= :in ORDER BY id")
+	public interface TestQuotesFrom extends Operation<Long, TestQuote> {}
+	
+	public interface TestExportValue {
+		java.math.BigDecimal getAmount();
+		java.sql.Timestamp getStamp();
+	}
+	
+	@Statement("SELECT CAST(0.0000000001 AS DECIMAL(31,10)) AS amount, TIMESTAMP('2020-01-02 03:04:05.123456789') AS stamp FROM SINGLE")
+	public interface TestExportValues extends Operation<Void, TestExportValue> {}
+	
+	@Statement("INSERT INTO loaded (id, text) VALUES (:in.id, :in.text)")
+	public interface TestLoadedInsert extends Operation<TestQuote, Void> {}
+	
+	@Statement("SELECT id, text FROM loaded ORDER BY id")
+	public interface TestLoadedAll extends Operation<Void, TestQuote> {}
+	
+	@Statement("SELECT text FROM loaded WHERE id = :in")
+	public interface TestLoadedText extends OperationReturnsSingleRow<Long, String> {}
+	
+	@Statement("DELETE FROM loaded")
+	public interface TestLoadedDelete extends Operation<Void, Void> {}
+	
+	@Statement("INSERT INTO copied (id, text) VALUES (:in.id, :in.text)")
+	public interface TestCopiedInsert extends Operation<TestQuote, Void> {}
+	
+	@Statement("SELECT id, text FROM copied ORDER BY id")
+	public interface TestCopiedAll extends Operation<Void, TestQuote> {}
+	
+	@Statement("DELETE FROM copied")
+	public interface TestCopiedDelete extends Operation<Void, Void> {}
+	
+	
+	@Statement("CREATE TABLE shard_item (id BIGINT NOT NULL PRIMARY KEY, name VARCHAR(256))")
+	public interface CreateShardItem extends Operation<Void, Void> {}
+	
+	@Statement("INSERT INTO shard_item (id, name) VALUES (:in.id, :in.name)")
+	public interface TestShardItemInsert extends Operation<TestShardItem, Void> {}
+	
+	@Statement("SELECT id, name FROM shard_item WHERE id = :in")
+	public interface TestShardItemById extends OperationReturnsSingleRow<Long, TestShardItem> {}
+	
+	@Statement("SELECT id, name FROM shard_item ORDER BY id DESC")
+	@SortKey(value="id", descending=true)
+	public interface TestShardItemsSorted extends Operation<Void, TestShardItem> {}
+	
+	@Statement("SELECT id FROM shard_item ORDER BY id")
+	public interface TestShardItemIds extends Operation<Void, Long> {}
+	
 	
 	public static abstract class TestResultSize implements
 		OperationReturnsSingleRow<Integer, String>,
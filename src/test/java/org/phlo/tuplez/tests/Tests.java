@@ -29,6 +29,16 @@ public class Tests {
 		/* Create Schema */
 		executor.with(Statements.CreateTest.class).execute();
 		executor.with(Statements.CreateSingle.class).execute();
+		executor.with(Statements.CreateAudit.class).execute();
+		executor.with(Statements.CreateRef.class).execute();
+		executor.with(Statements.CreateKv.class).execute();
+		executor.with(Statements.CreateSales.class).execute();
+		executor.with(Statements.CreateMember.class).execute();
+		executor.with(Statements.CreateQuote.class).execute();
+		executor.with(Statements.CreateTicket.class).execute();
+		executor.with(Statements.CreateSerial.class).execute();
+		executor.with(Statements.CreateLoaded.class).execute();
+		executor.with(Statements.CreateCopied.class).execute();
 		Integer id = executor.with(Statements.InsertSingle.class).key();
 		Assert.assertEquals(1, (int)id);
 	}
@@ -179,6 +189,16 @@ public class Tests {
 		Assert.assertEquals(1000L, (long)id);
 	}
 	
+	@Test
+	public void testPrimitiveKey() {
+		final long first = executor.with(Statements.TestSerialInsert.class).keyAsLong("first");
+		final int second = executor.with(Statements.TestSerialInsert.class).keyAsInt("second");
+		
+		Assert.assertEquals(first + 1, second);
+		Assert.assertEquals("first", executor.with(Statements.TestSerialById.class).get(first));
+		Assert.assertEquals("second", executor.with(Statements.TestSerialById.class).get((long)second));
+	}
+	
 	@Test
 	public void testIdToStr() {
 		Assert.assertEquals("foo", executor.with(Statements.TestIdToStr.class).get(1L));
@@ -186,6 +206,23 @@ public class Tests {
 		Assert.assertEquals(null, executor.with(Statements.TestIdToStr.class).get(3L));
 	}
 	
+	@Test
+	public void testPrimitiveInput() {
+		/* Bound directly */
+		Assert.assertEquals("foo", executor.with(Statements.TestIdToStr.class).get(1));
+		Assert.assertEquals(ValuesStr[1], executor.with(Statements.TestIdToFull.class).get(2L).getStr());
+		executor.with(Statements.TestInsertId.class).execute(4);
+		Assert.assertEquals(4L, (long)executor.with(Statements.TestIdToFull.class).get(4).getId());
+		
+		/* Computed statement, converted to the input type */
+		Assert.assertEquals("Row 1", executor.with(Statements.TestResultSize.class).get(1L));
+	}
+	
+	@Test(expected=InvalidOperationExecutionException.class)
+	public void testPrimitiveInputNotNumeric() {
+		executor.with(Statements.TestFromFull.class).get(1L);
+	}
+	
 	@Test
 	public void testAllFull() {
 		long expectedId = 1;
@@ -196,6 +233,1402 @@ public class Tests {
 		}
 	}
 	
+	@Test
+	public void testFold() {
+		final String strs = executor.with(Statements.TestAllFull.class).fold("", new Accumulator<String, Statements.TestFull>() {
+			@Override public String accumulate(String accumulated, Statements.TestFull row) {
+				return accumulated + row.getId() + "=" + row.getStr() + ";";
+			}
+		});
+		Assert.assertEquals("1=foo;2=bar;3=null;", strs);
+		
+		final long idxSum = executor.with(Statements.TestAllFull.class).foldLong("idx", 0, new LongAccumulator() {
+			@Override public long accumulate(long accumulated, long value) {
+				return accumulated + value;
+			}
+		});
+		Assert.assertEquals(ValuesIdx[0] + ValuesIdx[1], idxSum);
+		
+		final double dezMax = executor.with(Statements.TestAllFull.class).foldDouble("dez", Double.NEGATIVE_INFINITY, new DoubleAccumulator() {
+			@Override public double accumulate(double accumulated, double value) {
+				return Math.max(accumulated, value);
+			}
+		});
+		Assert.assertEquals(ValuesDez[0].doubleValue(), dezMax, 1e-9);
+		
+		final long count = executor.with(Statements.TestIdToStr.class).fold(1L, 0L, new Accumulator<Long, String>() {
+			@Override public Long accumulate(Long accumulated, String row) {
+				return accumulated + 1;
+			}
+		});
+		Assert.assertEquals(1L, count);
+	}
+	
+	@Test
+	public void testCursor() {
+		final java.util.List<Statements.TestFull> copies = executor.with(Statements.TestAllFull.class).cursor(
+			new CursorProcessor<Statements.TestFull, java.util.List<Statements.TestFull>>() {
+				@Override public java.util.List<Statements.TestFull> processCursor(Cursor<Statements.TestFull> cursor) {
+					final java.util.List<Statements.TestFull> copies = new java.util.ArrayList<Statements.TestFull>();
+					Statements.TestFull first = null;
+					long expectedId = 1;
+					while (cursor.next()) {
+						if (first == null)
+							first = cursor.row();
+						
+						/* The row instance is re-used, and re-filled in place */
+						Assert.assertSame(first, cursor.row());
+						Assert.assertEquals(expectedId, (long)cursor.row().getId());
+						copies.add(cursor.copy());
+						++expectedId;
+					}
+					Assert.assertEquals(ValuesCount + 2, expectedId);
+					return copies;
+				}
+			}
+		);
+		
+		final java.util.List<Statements.TestFull> expected = new java.util.ArrayList<Statements.TestFull>(
+			executor.with(Statements.TestAllFull.class).collection()
+		);
+		Assert.assertEquals(expected, copies);
+	}
+	
+	@Test
+	public void testPipelinedFetch() {
+		final java.util.List<Statements.TestFull> expected = new java.util.ArrayList<Statements.TestFull>(
+			executor.with(Statements.TestAllFull.class).collection()
+		);
+		Assert.assertEquals(
+			expected,
+			new java.util.ArrayList<Statements.TestFull>(
+				executor.with(Statements.TestAllFullPipelined.class).collection()
+			)
+		);
+		
+		/* Stopping early must stop the fetch thread before the result set is closed */
+		for(int i=0; i < 10; ++i) {
+			final Statements.TestFull first = executor.with(Statements.TestAllFullPipelined.class).iterate(
+				new IteratorProcessor<Statements.TestFull, Statements.TestFull>() {
+					@Override public Statements.TestFull processIterator(Iterator<Statements.TestFull> iterator) {
+						return iterator.next();
+					}
+				}
+			);
+			Assert.assertEquals(expected.get(0), first);
+		}
+	}
+	
+	@Test
+	public void testCoalesced() throws Exception {
+		final java.util.List<Statements.TestFull> expected = new java.util.ArrayList<Statements.TestFull>(
+			executor.with(Statements.TestAllFull.class).collection()
+		);
+		
+		final int threadCount = 8;
+		final java.util.concurrent.ExecutorService threads = java.util.concurrent.Executors.newFixedThreadPool(threadCount);
+		try {
+			final java.util.List<java.util.concurrent.Future<Statements.TestFull>> results =
+				new java.util.ArrayList<java.util.concurrent.Future<Statements.TestFull>>();
+			for(int i=0; i < threadCount * 4; ++i) {
+				/* The last id doesn't exist */
+				final long id = 1 + (i % (ValuesCount + 2));
+				results.add(threads.submit(new java.util.concurrent.Callable<Statements.TestFull>() {
+					@Override public Statements.TestFull call() {
+						return executor.with(Statements.TestFullByIdCoalesced.class).get(id);
+					}
+				}));
+			}
+			
+			for(int i=0; i < results.size(); ++i) {
+				final int idx = i % (ValuesCount + 2);
+				Assert.assertEquals((idx < expected.size()) ? expected.get(idx) : null, results.get(i).get());
+			}
+		}
+		finally {
+			threads.shutdown();
+		}
+	}
+	
+	@Test
+	public void testGetAll() {
+		final java.util.List<Statements.TestFull> all = new java.util.ArrayList<Statements.TestFull>(
+			executor.with(Statements.TestAllFull.class).collection()
+		);
+		
+		/* Includes a duplicate, a null and a non-existing id */
+		final java.util.List<Long> ids = java.util.Arrays.asList(2L, 1L, null, 2L, 99L);
+		final java.util.Map<Long, Statements.TestFull> expected = new java.util.LinkedHashMap<Long, Statements.TestFull>();
+		expected.put(2L, all.get(1));
+		expected.put(1L, all.get(0));
+		
+		/* Chunked execution of the companion operation */
+		final java.util.Map<Long, Statements.TestFull> batched = executor.with(Statements.TestFullByIdCoalesced.class).getAll(ids);
+		Assert.assertEquals(expected, batched);
+		Assert.assertEquals(new java.util.ArrayList<Long>(expected.keySet()), new java.util.ArrayList<Long>(batched.keySet()));
+		
+		/* Individual execution of the single-row statement */
+		final java.util.Map<Long, Statements.TestFull> individual = executor.with(Statements.TestFullById.class).getAll(ids);
+		Assert.assertEquals(expected, individual);
+		Assert.assertEquals(new java.util.ArrayList<Long>(expected.keySet()), new java.util.ArrayList<Long>(individual.keySet()));
+	}
+	
+	@Test
+	public void testBulkheads() {
+		final Executor limited = new Executor(executor.getDataSource());
+		limited.setDefaultInput(executor.getDefaultInput());
+		limited.setMaxConcurrentExecutions(2);
+		limited.setReservedInteractiveExecutions(1);
+		limited.setQueueTimeoutMillis(0);
+		
+		limited.with(Statements.TestAllFullReport.class).iterate(new IteratorProcessor<Statements.TestFull, Void>() {
+			@Override public Void processIterator(Iterator<Statements.TestFull> iterator) {
+				/* The batch lane is full, but one execution is reserved for interactive operations */
+				limited.with(Statements.TestAllFull.class).collection();
+				try {
+					limited.with(Statements.TestAllFullReport.class).collection();
+					Assert.fail("batch lane limit not enforced");
+				}
+				catch (BulkheadFullException e) {
+					Assert.assertEquals("lane:BATCH", e.getBulkhead());
+				}
+				return null;
+			}
+		});
+		
+		final BulkheadStatistics laneStatistics = limited.getBulkheadStatistics("lane:BATCH");
+		Assert.assertEquals(1, laneStatistics.getLimit());
+		Assert.assertEquals(0, laneStatistics.getActive());
+		Assert.assertEquals(1, laneStatistics.getAcquisitions());
+		Assert.assertEquals(1, laneStatistics.getRejections());
+		Assert.assertEquals(2, limited.getBulkheadStatistics("total").getAcquisitions());
+		
+		limited.setBulkheadLimit("reports", 1);
+		limited.with(Statements.TestAllFullReport.class).iterate(new IteratorProcessor<Statements.TestFull, Void>() {
+			@Override public Void processIterator(Iterator<Statements.TestFull> iterator) {
+				try {
+					limited.with(Statements.TestAllFullReport.class).collection();
+					Assert.fail("group limit not enforced");
+				}
+				catch (BulkheadFullException e) {
+					Assert.assertEquals("reports", e.getBulkhead());
+				}
+				return null;
+			}
+		});
+		Assert.assertEquals(1, limited.getBulkheadStatistics("reports").getRejections());
+		Assert.assertNull(limited.getBulkheadStatistics("no such group"));
+	}
+	
+	@Test
+	public void testTimeout() {
+		/* Executions starting after the deadline fail immediately */
+		try {
+			executor.with(Statements.TestAllFull.class, 0, java.util.concurrent.TimeUnit.MILLISECONDS).collection();
+			Assert.fail("deadline not enforced");
+		}
+		catch (OperationTimeoutException e) {
+			Assert.assertEquals(Statements.TestAllFull.class, e.getOperation());
+		}
+		try {
+			executor.with(Statements.TestIdToStr.class, 0, java.util.concurrent.TimeUnit.MILLISECONDS).getAll(java.util.Arrays.asList(1L, 2L));
+			Assert.fail("deadline not enforced by getAll()");
+		}
+		catch (OperationTimeoutException e) {
+			Assert.assertEquals(Statements.TestIdToStr.class, e.getOperation());
+		}
+		try {
+			executor.with(Statements.TestAuditInsert.class, 0, java.util.concurrent.TimeUnit.MILLISECONDS).executeBatch(java.util.Arrays.asList(
+				getTestAudit(40, "late")
+			));
+			Assert.fail("deadline not enforced by executeBatch()");
+		}
+		catch (OperationTimeoutException e) {
+			Assert.assertEquals(Statements.TestAuditInsert.class, e.getOperation());
+		}
+		Assert.assertNull(executor.with(Statements.TestAuditMsg.class).get(40L));
+		
+		/* The watchdog covers the processing of the rows, and a processor
+		 * failing after the timeout expired reports a timeout
+		 */
+		try {
+			executor.with(Statements.TestAllFullTimeout.class).iterate(new IteratorProcessor<Statements.TestFull, Void>() {
+				@Override public Void processIterator(Iterator<Statements.TestFull> iterator) {
+					try {
+						Thread.sleep(250);
+					}
+					catch (InterruptedException e) {
+						throw new RuntimeException(e);
+					}
+					throw new IllegalStateException("processing failed");
+				}
+			});
+			Assert.fail("timeout not enforced");
+		}
+		catch (OperationTimeoutException e) {
+			Assert.assertEquals(IllegalStateException.class, e.getCause().getClass());
+		}
+		
+		/* Within the timeout, executions aren't affected, also after an early stop */
+		Assert.assertEquals(
+			executor.with(Statements.TestAllFull.class).collection(),
+			executor.with(Statements.TestAllFullTimeout.class).collection()
+		);
+		Assert.assertEquals(
+			executor.with(Statements.TestAllFull.class).collection(),
+			executor.with(Statements.TestAllFull.class, 1, java.util.concurrent.TimeUnit.MINUTES).collection()
+		);
+	}
+	
+	@Test
+	public void testAdaptiveFetchSize() {
+		final Executor adaptive = new Executor(executor.getDataSource());
+		adaptive.setDefaultInput(executor.getDefaultInput());
+		adaptive.setFetchBudgetBytes(1024 * 1024);
+		
+		FetchSizeStatistics statistics = adaptive.getFetchSizeStatistics(Statements.TestAllFullAdaptive.class);
+		Assert.assertEquals(0, statistics.getRows());
+		Assert.assertEquals(0, statistics.getFetchSize());
+		
+		final java.util.Collection<Statements.TestFull> rows = adaptive.with(Statements.TestAllFullAdaptive.class).collection();
+		Assert.assertEquals(rows, adaptive.with(Statements.TestAllFullAdaptive.class).collection());
+		
+		statistics = adaptive.getFetchSizeStatistics(Statements.TestAllFullAdaptive.class);
+		Assert.assertEquals(2 * rows.size(), statistics.getRows());
+		Assert.assertEquals(2, statistics.getExecutions());
+		Assert.assertTrue(statistics.getAvgRowBytes() > 0);
+		Assert.assertTrue(statistics.getFetchSize() > 0);
+		
+		/* Without a budget, the fetch size isn't touched */
+		Assert.assertEquals(0, executor.getFetchSizeStatistics(Statements.TestAllFullAdaptive.class).getFetchSize());
+		
+		/* Rows of operations never executed with a budget aren't counted */
+		Assert.assertEquals(ValuesStr[0], executor.with(Statements.TestIdToStr.class).get(1L));
+		Assert.assertEquals(0, executor.getFetchSizeStatistics(Statements.TestIdToStr.class).getRows());
+	}
+	
+	public Statements.TestAudit getTestAudit(final long id, final String msg) {
+		return new Statements.TestAudit() {
+			@Override public Long getId() { return id; }
+			@Override public String getMsg() { return msg; }
+		};
+	}
+	
+	@Test
+	public void testWriteBehind() {
+		/* Synchronous batch */
+		final int[] updateCounts = executor.with(Statements.TestAuditInsert.class).executeBatch(java.util.Arrays.asList(
+			getTestAudit(1, "one"), getTestAudit(2, "two"), getTestAudit(3, "three")
+		));
+		Assert.assertArrayEquals(new int[] {1, 1, 1}, updateCounts);
+		
+		/* Batches of at most four inputs */
+		final WriteBehindSink<Statements.TestAudit> inserts = executor.writeBehind(Statements.TestAuditInsert.class);
+		Assert.assertSame(inserts, executor.writeBehind(Statements.TestAuditInsert.class));
+		for(long id=10; id < 20; ++id)
+			inserts.write(getTestAudit(id, "inserted"));
+		inserts.flush();
+		
+		WriteBehindStatistics statistics = inserts.getStatistics();
+		Assert.assertEquals(0, statistics.getQueueDepth());
+		Assert.assertEquals(10, statistics.getAccepted());
+		Assert.assertEquals(10, statistics.getWritten());
+		Assert.assertTrue(statistics.getBatches() >= 3);
+		Assert.assertEquals(13, executor.with(Statements.TestAuditIds.class).collection().size());
+		
+		/* Updates of the same row within a batch are coalesced */
+		final WriteBehindSink<Statements.TestAudit> updates = executor.writeBehind(Statements.TestAuditUpdate.class);
+		updates.write(getTestAudit(10, "a"));
+		updates.write(getTestAudit(11, "b"));
+		updates.write(getTestAudit(10, "c"));
+		updates.flush();
+		
+		statistics = updates.getStatistics();
+		Assert.assertEquals(3, statistics.getAccepted());
+		Assert.assertEquals(2, statistics.getWritten());
+		Assert.assertEquals(1, statistics.getCoalesced());
+		Assert.assertEquals(1, statistics.getBatches());
+		Assert.assertEquals("c", executor.with(Statements.TestAuditMsg.class).get(10L));
+		Assert.assertEquals("b", executor.with(Statements.TestAuditMsg.class).get(11L));
+		
+		/* Inputs of different classes implementing the input type are coalesced as well */
+		updates.write(getTestAudit(10, "d"));
+		updates.write(new Statements.TestAudit() {
+			@Override public Long getId() { return 10L; }
+			@Override public String getMsg() { return "e"; }
+		});
+		updates.flush();
+		
+		statistics = updates.getStatistics();
+		Assert.assertEquals(0, statistics.getFailed());
+		Assert.assertEquals(3, statistics.getWritten());
+		Assert.assertEquals(2, statistics.getCoalesced());
+		Assert.assertEquals("e", executor.with(Statements.TestAuditMsg.class).get(10L));
+		
+		/* Failures are counted, not thrown */
+		Assert.assertTrue(inserts.offer(getTestAudit(1, "duplicate"), 1, java.util.concurrent.TimeUnit.SECONDS));
+		inserts.flush();
+		statistics = inserts.getStatistics();
+		Assert.assertEquals(1, statistics.getFailed());
+		Assert.assertEquals(1, statistics.getFailedBatches());
+		Assert.assertNotNull(inserts.getLastError());
+		
+		/* Closed sinks reject inputs and are replaced */
+		inserts.write(getTestAudit(20, "closing"));
+		inserts.close();
+		Assert.assertEquals(14, executor.with(Statements.TestAuditIds.class).collection().size());
+		try {
+			inserts.write(getTestAudit(21, "closed"));
+			Assert.fail("closed sink accepted input");
+		}
+		catch (IllegalStateException e) {
+			/* Expected */
+		}
+		Assert.assertNotSame(inserts, executor.writeBehind(Statements.TestAuditInsert.class));
+	}
+	
+	@Test(timeout=60000)
+	public void testWriteBehindErrors() {
+		final Executor broken = new Executor(new org.springframework.jdbc.datasource.DriverManagerDataSource("jdbc:derby:memory:test") {
+			@Override public java.sql.Connection getConnection() {
+				throw new AssertionError("no connection");
+			}
+		});
+		broken.setDefaultInput(executor.getDefaultInput());
+		try {
+			/* Errors fail their batches, but neither stop the flusher nor block writers */
+			final WriteBehindSink<Statements.TestAudit> inserts = broken.writeBehind(Statements.TestAuditInsertBounded.class);
+			for(long id=30; id < 35; ++id)
+				inserts.write(getTestAudit(id, "failing"));
+			inserts.flush();
+			
+			final WriteBehindStatistics statistics = inserts.getStatistics();
+			Assert.assertEquals(5, statistics.getFailed());
+			Assert.assertEquals(0, statistics.getWritten());
+			Assert.assertTrue(inserts.getLastError() instanceof AssertionError);
+		}
+		finally {
+			broken.destroy();
+		}
+	}
+	
+	@Test
+	public void testPreloaded() throws Exception {
+		executor.with(Statements.TestRefInsert.class).execute(getTestAudit(1, "one"));
+		executor.with(Statements.TestRefInsert.class).execute(getTestAudit(2, "two"));
+		
+		final Executor preloading = new Executor(executor.getDataSource());
+		preloading.setDefaultInput(executor.getDefaultInput());
+		preloading.setPreloadedOperations(java.util.Collections.<Class<? extends Operation<?,?>>>singletonList(Statements.TestRefById.class));
+		preloading.afterPropertiesSet();
+		try {
+			PreloadedTableStatistics statistics = preloading.getPreloadedTableStatistics(Statements.TestRefById.class);
+			Assert.assertTrue(statistics.getLoads() >= 1);
+			Assert.assertEquals(2, statistics.getSize());
+			
+			/* Long inputs match the Integer key property */
+			Assert.assertEquals("one", preloading.with(Statements.TestRefById.class).get(1L).getName());
+			Assert.assertEquals("two", preloading.with(Statements.TestRefById.class).get(2).getName());
+			Assert.assertNull(preloading.with(Statements.TestRefById.class).get(3L));
+			Assert.assertEquals(
+				java.util.Arrays.asList(2L, 1L),
+				new java.util.ArrayList<Long>(preloading.with(Statements.TestRefById.class).getAll(java.util.Arrays.asList(2L, 3L, 1L)).keySet())
+			);
+			
+			/* Changes become visible once the background refresh reloaded the rows */
+			final long loads = preloading.getPreloadedTableStatistics(Statements.TestRefById.class).getLoads();
+			executor.with(Statements.TestRefInsert.class).execute(getTestAudit(3, "three"));
+			for(int i=0; (i < 500) && (preloading.getPreloadedTableStatistics(Statements.TestRefById.class).getLoads() <= loads + 1); ++i)
+				Thread.sleep(10);
+			Assert.assertEquals("three", preloading.with(Statements.TestRefById.class).get(3L).getName());
+			
+			statistics = preloading.getPreloadedTableStatistics(Statements.TestRefById.class);
+			Assert.assertEquals(3, statistics.getSize());
+			Assert.assertEquals(0, statistics.getFailedLoads());
+			Assert.assertTrue(statistics.getHits() >= 6);
+			Assert.assertTrue(statistics.getLastLoadedAt() > 0);
+		}
+		finally {
+			preloading.destroy();
+		}
+	}
+	
+	public Statements.TestShardItem getTestShardItem(final long id) {
+		return new Statements.TestShardItem() {
+			@Override public Long getId() { return id; }
+			@Override public String getName() { return "item " + id; }
+		};
+	}
+	
+	@Test
+	public void testSharded() {
+		final ShardedExecutor sharded = new ShardedExecutor(java.util.Arrays.<javax.sql.DataSource>asList(
+			new SingleConnectionDataSource("jdbc:derby:memory:shard0;create=true", false),
+			new SingleConnectionDataSource("jdbc:derby:memory:shard1;create=true", false),
+			new SingleConnectionDataSource("jdbc:derby:memory:shard2;create=true", false)
+		));
+		sharded.setDefaultInput(executor.getDefaultInput());
+		try {
+			/* Without an input, execute() runs on all shards */
+			sharded.with(Statements.CreateShardItem.class).execute();
+			
+			/* Inputs are routed by their @ShardKey */
+			for(long id=1; id <= 10; ++id)
+				sharded.with(Statements.TestShardItemInsert.class).execute(getTestShardItem(id));
+			Assert.assertArrayEquals(
+				new int[] {1, 1, 1, 1},
+				sharded.with(Statements.TestShardItemInsert.class).executeBatch(java.util.Arrays.asList(
+					getTestShardItem(11), getTestShardItem(12), getTestShardItem(13), getTestShardItem(14)
+				))
+			);
+			for(int shard=0; shard < 3; ++shard) {
+				for(final Long id: sharded.getShard(shard).with(Statements.TestShardItemIds.class).collection())
+					Assert.assertEquals(shard, id % 3);
+			}
+			Assert.assertEquals(4, sharded.on(Statements.TestShardItemIds.class, 3L).collection().size());
+			
+			Assert.assertEquals("item 7", sharded.with(Statements.TestShardItemById.class).get(7L).getName());
+			Assert.assertNull(sharded.with(Statements.TestShardItemById.class).get(99L));
+			Assert.assertEquals(
+				java.util.Arrays.asList(5L, 6L),
+				new java.util.ArrayList<Long>(sharded.with(Statements.TestShardItemById.class).getAll(java.util.Arrays.asList(5L, 99L, 6L)).keySet())
+			);
+			
+			/* Scatter-gather, merged by the sort key */
+			final java.util.List<Long> ids = new java.util.ArrayList<Long>();
+			for(final Statements.TestShardItem item: sharded.with(Statements.TestShardItemsSorted.class).collection())
+				ids.add(item.getId());
+			for(int i=0; i < ids.size(); ++i)
+				Assert.assertEquals(14L - i, (long)ids.get(i));
+			Assert.assertEquals(14, ids.size());
+			
+			/* Stopping early stops reading the shards */
+			final long firstThree = sharded.with(Statements.TestShardItemsSorted.class).iterate(new IteratorProcessor<Statements.TestShardItem, Long>() {
+				@Override public Long processIterator(Iterator<Statements.TestShardItem> iterator) {
+					long sum = 0;
+					for(int i=0; i < 3; ++i)
+						sum += iterator.next().getId();
+					return sum;
+				}
+			});
+			Assert.assertEquals(14L + 13L + 12L, firstThree);
+			
+			/* Without a sort key, the shards follow each other */
+			final java.util.Collection<Long> unordered = sharded.with(Statements.TestShardItemIds.class).collection();
+			Assert.assertEquals(14, unordered.size());
+			Assert.assertEquals(new java.util.HashSet<Long>(ids), new java.util.HashSet<Long>(unordered));
+			Assert.assertEquals(
+				105L,
+				sharded.with(Statements.TestShardItemIds.class).foldLong("id", 0L, new LongAccumulator() {
+					@Override public long accumulate(long accumulated, long value) { return accumulated + value; }
+				})
+			);
+		}
+		finally {
+			sharded.destroy();
+		}
+	}
+	
+	public Statements.TestIds getTestIds(final Long[] ids, final long[] excludedIds) {
+		return new Statements.TestIds() {
+			@Override public java.util.Collection<Long> getIds() { return (ids != null) ? java.util.Arrays.asList(ids) : null; }
+			@Override public long[] getExcludedIds() { return excludedIds; }
+		};
+	}
+	
+	@Test
+	public void testListParameters() {
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 2L, 3L),
+			new java.util.ArrayList<Long>(executor.with(Statements.TestIdsIn.class).collection(
+				getTestIds(new Long[] {3L, 1L, 2L}, new long[] {-1L})
+			))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 3L),
+			new java.util.ArrayList<Long>(executor.with(Statements.TestIdsIn.class).collection(
+				getTestIds(new Long[] {1L, 2L, 3L, 4L, 5L}, new long[] {2L})
+			))
+		);
+		Assert.assertTrue(executor.with(Statements.TestIdsIn.class).collection(
+			getTestIds(new Long[] {}, new long[] {-1L})
+		).isEmpty());
+		
+		/* An empty NOT IN list would match nothing instead of everything */
+		try {
+			executor.with(Statements.TestIdsIn.class).collection(getTestIds(new Long[] {1L}, new long[] {}));
+			Assert.fail("empty NOT IN list wasn't rejected");
+		}
+		catch (InvalidOperationExecutionException e) {
+			Assert.assertTrue(e.getMessage().contains("in.excludedIds"));
+		}
+		
+		Assert.assertEquals(
+			java.util.Arrays.asList("foo", "bar"),
+			new java.util.ArrayList<String>(executor.with(Statements.TestIdArrayToStr.class).collection(
+				new Long[] {2L, 1L}
+			))
+		);
+	}
+
+	public Statements.TestFilter getTestFilter(final String str, final Integer idx, final Statements.Order order, final Integer limit) {
+		return new Statements.TestFilter() {
+			@Override public String getStr() { return str; }
+			@Override public Integer getIdx() { return idx; }
+			@Override public Statements.Order getOrder() { return order; }
+			@Override public Integer getLimit() { return limit; }
+		};
+	}
+	
+	@Test
+	public void testStatementTemplateLists() {
+		/* Null and empty lists omit their optional clauses */
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 2L, 3L),
+			executor.with(Statements.TestTemplateIds.class).collection(getTestIds(null, null))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 2L, 3L),
+			executor.with(Statements.TestTemplateIds.class).collection(getTestIds(new Long[] {}, new long[] {}))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(2L, 3L),
+			executor.with(Statements.TestTemplateIds.class).collection(getTestIds(new Long[] {2L, 3L}, new long[] {}))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 3L),
+			executor.with(Statements.TestTemplateIds.class).collection(getTestIds(null, new long[] {2L}))
+		);
+	}
+	
+	@Test
+	public void testStatementTemplate() {
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L, 2L, 3L),
+			executor.with(Statements.TestTemplate.class).collection(getTestFilter(null, null, Statements.Order.ID, null))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(1L),
+			executor.with(Statements.TestTemplate.class).collection(getTestFilter(ValuesStr[0], null, null, null))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(2L),
+			executor.with(Statements.TestTemplate.class).collection(getTestFilter(null, ValuesIdx[1], Statements.Order.ID, null))
+		);
+		Assert.assertEquals(
+			java.util.Arrays.asList(3L, 2L),
+			executor.with(Statements.TestTemplate.class).collection(getTestFilter(null, null, Statements.Order.ID_DESC, 2))
+		);
+		
+		final Statements.TestTemplate op = executor.with(Statements.TestTemplate.class);
+		op.setInput(getTestFilter("x", null, Statements.Order.ID_DESC, null));
+		Assert.assertEquals("SELECT id FROM test WHERE 1 = 1 AND str = :in.str  ORDER BY id DESC", op.getStatement());
+	}
+	
+	@Test
+	public void testStatementCache() {
+		executor.setStatementCacheSize(16);
+		try {
+			final StatementCacheStatistics before = executor.getStatementCacheStatistics();
+
+			final Session session = executor.openSession();
+			try {
+				for(int r = 0; r < 3; ++r) {
+					for(int i = 0; i < ValuesCount; ++i)
+						Assert.assertEquals(ValuesStr[i], session.with(Statements.TestIdToStr.class).get((long)(i+1)));
+				}
+			}
+			finally {
+				session.close();
+			}
+			Assert.assertTrue(session.isClosed());
+
+			final StatementCacheStatistics after = executor.getStatementCacheStatistics();
+			Assert.assertEquals(1, after.getMisses() - before.getMisses());
+			Assert.assertEquals(3 * ValuesCount - 1, after.getHits() - before.getHits());
+		}
+		finally {
+			executor.setStatementCacheSize(0);
+		}
+	}
+
+	/* Delegates to a JDBC object, failing setQueryTimeout() of the statements it prepares */
+	private static Object failingQueryTimeouts(final Object target, final Class<?> iface) {
+		return java.lang.reflect.Proxy.newProxyInstance(Tests.class.getClassLoader(), new Class<?>[] { iface }, new java.lang.reflect.InvocationHandler() {
+			@Override public Object invoke(final Object proxy, final java.lang.reflect.Method method, final Object[] args) throws Throwable {
+				if (method.getName().equals("equals") && (args != null) && (args.length == 1))
+					return proxy == args[0];
+				if (method.getName().equals("hashCode") && (args == null))
+					return System.identityHashCode(proxy);
+				if (method.getName().equals("setQueryTimeout"))
+					throw new java.sql.SQLException("statement broken");
+				
+				final Object result;
+				try {
+					result = method.invoke(target, args);
+				}
+				catch (java.lang.reflect.InvocationTargetException e) {
+					throw e.getCause();
+				}
+				return (result instanceof java.sql.PreparedStatement) ? failingQueryTimeouts(result, java.sql.PreparedStatement.class) : result;
+			}
+		});
+	}
+	
+	@Test
+	public void testStatementResetFailure() throws Exception {
+		final Executor failing = new Executor(new SingleConnectionDataSource(
+			(java.sql.Connection)failingQueryTimeouts(executor.getDataSource().getConnection(), java.sql.Connection.class),
+			true
+		));
+		failing.setDefaultInput(executor.getDefaultInput());
+		failing.setStatementCacheSize(16);
+		
+		/* Statements which can't be reset after their execution don't fail it, but aren't cached again */
+		for(int r = 0; r < 3; ++r)
+			Assert.assertEquals(ValuesStr[0], failing.with(Statements.TestIdToStr.class).get(1L));
+		final java.util.Map<Long, String> all = failing.with(Statements.TestIdToStr.class).getAll(java.util.Arrays.asList(1L, 2L));
+		Assert.assertEquals(ValuesStr[0], all.get(1L));
+		Assert.assertEquals(ValuesStr[1], all.get(2L));
+		Assert.assertEquals(0, failing.getStatementCacheStatistics().getHits());
+	}
+
+	private static Executor openResultCache(final java.io.File directory) {
+		final Executor caching = new Executor(executor.getDataSource());
+		caching.setDefaultInput(executor.getDefaultInput());
+		caching.setResultCacheDirectory(directory);
+		caching.setResultCacheMaxBytes(65536);
+		return caching;
+	}
+	
+	@Test
+	public void testResultCache() throws Exception {
+		final java.io.File directory = java.io.File.createTempFile("tuplez-results", "");
+		Assert.assertTrue(directory.delete());
+		
+		executor.with(Statements.TestSalesInsert.class).execute(getTestAudit(1, "north"));
+		executor.with(Statements.TestSalesInsert.class).execute(getTestAudit(2, "north"));
+		executor.with(Statements.TestSalesInsert.class).execute(getTestAudit(5, "south"));
+		
+		Executor caching = openResultCache(directory);
+		try {
+			Assert.assertEquals("[north 3, south 5]", regionTotals(caching));
+			Assert.assertEquals(3, (int)caching.with(Statements.TestSalesTotal.class).get("north"));
+			
+			/* Cached results are returned until they expire, even if the tables change */
+			executor.with(Statements.TestSalesInsert.class).execute(getTestAudit(4, "north"));
+			Assert.assertEquals("[north 3, south 5]", regionTotals(caching));
+			Assert.assertEquals(3, (int)caching.with(Statements.TestSalesTotal.class).get("north"));
+			Assert.assertEquals(5, (int)caching.with(Statements.TestSalesTotal.class).get("south"));
+			
+			/* Expired results are fetched again */
+			Assert.assertEquals(7, (int)caching.with(Statements.TestSalesTotalShortLived.class).get("north"));
+			Thread.sleep(10);
+			Assert.assertEquals(7, (int)caching.with(Statements.TestSalesTotalShortLived.class).get("north"));
+			
+			final ResultCacheStatistics statistics = caching.getResultCacheStatistics();
+			Assert.assertEquals(2, statistics.getHits());
+			Assert.assertEquals(5, statistics.getMisses());
+			Assert.assertEquals(5, statistics.getPuts());
+			Assert.assertEquals(1, statistics.getExpirations());
+			Assert.assertEquals(0, statistics.getRecovered());
+		}
+		finally {
+			caching.destroy();
+		}
+		
+		/* The results survive reopening the cache */
+		caching = openResultCache(directory);
+		try {
+			Assert.assertEquals(3, caching.getResultCacheStatistics().getRecovered());
+			Assert.assertEquals("[north 3, south 5]", regionTotals(caching));
+			Assert.assertEquals(3, (int)caching.with(Statements.TestSalesTotal.class).get("north"));
+			Assert.assertEquals(2, caching.getResultCacheStatistics().getHits());
+			
+			/* The oldest results are evicted once the files are full */
+			for(int i=0; i < 600; ++i)
+				Assert.assertNull(caching.with(Statements.TestSalesTotal.class).get("region " + i));
+			final ResultCacheStatistics statistics = caching.getResultCacheStatistics();
+			Assert.assertTrue(statistics.getEvictions() > 0);
+			Assert.assertTrue(statistics.getEntries() < 600);
+			Assert.assertTrue(statistics.getUsedBytes() <= 65536);
+			
+			caching.clearResultCache();
+			Assert.assertEquals(0, caching.getResultCacheStatistics().getEntries());
+			Assert.assertEquals(7, (int)caching.with(Statements.TestSalesTotal.class).get("north"));
+		}
+		finally {
+			caching.destroy();
+		}
+		
+		/* A corrupt record ends the recovery of its file */
+		for(final java.io.File file: directory.listFiles()) {
+			if (!file.getName().endsWith(".seg"))
+				continue;
+			final java.io.RandomAccessFile raf = new java.io.RandomAccessFile(file, "rw");
+			try {
+				raf.seek(16);
+				if (raf.readInt() != 0) {
+					raf.seek(40);
+					final int b = raf.read();
+					raf.seek(40);
+					raf.write(b ^ 0xff);
+				}
+			}
+			finally {
+				raf.close();
+			}
+		}
+		caching = openResultCache(directory);
+		try {
+			Assert.assertEquals(0, caching.getResultCacheStatistics().getRecovered());
+			Assert.assertEquals(1, caching.getResultCacheStatistics().getDiscarded());
+			Assert.assertEquals(7, (int)caching.with(Statements.TestSalesTotal.class).get("north"));
+		}
+		finally {
+			caching.destroy();
+			for(final java.io.File file: directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+	
+	@Test
+	public void testResultCacheSession() throws Exception {
+		final java.io.File directory = java.io.File.createTempFile("tuplez-results", "");
+		Assert.assertTrue(directory.delete());
+		
+		final Executor caching = openResultCache(directory);
+		try {
+			/* Reads in a session see its uncommitted writes, which mustn't be cached */
+			final Session session = caching.openSession();
+			try {
+				session.setAutoCommit(false);
+				session.with(Statements.TestSalesInsert.class).execute(getTestAudit(9, "east"));
+				Assert.assertEquals(9, (int)session.with(Statements.TestSalesTotal.class).get("east"));
+				session.rollback();
+			}
+			finally {
+				session.close();
+			}
+			
+			Assert.assertNull(caching.with(Statements.TestSalesTotal.class).get("east"));
+			Assert.assertEquals(0, caching.getResultCacheStatistics().getHits());
+			Assert.assertEquals(1, caching.getResultCacheStatistics().getPuts());
+		}
+		finally {
+			caching.destroy();
+			for(final java.io.File file: directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+	}
+	
+	private static String regionTotals(final Executor caching) {
+		final java.util.List<String> totals = new java.util.ArrayList<String>();
+		for(final Statements.TestRegionTotal total: caching.with(Statements.TestSalesByRegion.class).collection())
+			totals.add(total.getRegion() + " " + total.getTotal());
+		return totals.toString();
+	}
+	
+	@Test
+	public void testFingerprintDates() throws Exception {
+		/* Dates which differ only in their milliseconds, and thus have the same toString() */
+		final java.util.Date[] dates = { new java.util.Date(1000000000000L), new java.util.Date(1000000000123L) };
+		Assert.assertEquals(dates[0].toString(), dates[1].toString());
+		
+		final java.io.File directory = java.io.File.createTempFile("tuplez-results", "");
+		Assert.assertTrue(directory.delete());
+		final Executor caching = openResultCache(directory);
+		try {
+			for(final java.util.Date date: dates)
+				Assert.assertEquals(date.getTime(), caching.with(Statements.TestEchoTimeCached.class).get(date).getTime());
+			for(final java.util.Date date: dates)
+				Assert.assertEquals(date.getTime(), caching.with(Statements.TestEchoTimeCached.class).get(date).getTime());
+			Assert.assertEquals(2, caching.getResultCacheStatistics().getPuts());
+			Assert.assertEquals(2, caching.getResultCacheStatistics().getHits());
+		}
+		finally {
+			caching.destroy();
+			for(final java.io.File file: directory.listFiles())
+				file.delete();
+			directory.delete();
+		}
+		
+		/* Concurrent reads of either date return their own row */
+		final Executor sharing = new Executor(executor.getDataSource());
+		sharing.setDefaultInput(executor.getDefaultInput());
+		sharing.setSingleFlightEnabled(true);
+		final java.util.concurrent.ExecutorService threads = java.util.concurrent.Executors.newFixedThreadPool(8);
+		try {
+			final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+			final java.util.List<java.util.concurrent.Future<Void>> results = new java.util.ArrayList<java.util.concurrent.Future<Void>>();
+			for(int t=0; t < 8; ++t) {
+				final int thread = t;
+				results.add(threads.submit(new java.util.concurrent.Callable<Void>() {
+					@Override public Void call() throws Exception {
+						start.await();
+						for(int i=0; i < 100; ++i) {
+							final java.util.Date date = dates[(thread + i) % 2];
+							Assert.assertEquals(date.getTime(), sharing.with(Statements.TestEchoTime.class).get(date).getTime());
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for(final java.util.concurrent.Future<Void> result: results)
+				result.get();
+		}
+		finally {
+			threads.shutdown();
+			sharing.destroy();
+		}
+	}
+	
+	@Test
+	public void testSingleFlight() throws Exception {
+		for(int id=1; id <= 20; ++id)
+			executor.with(Statements.TestQuoteInsert.class).execute(getTestAudit(id, "quote " + id));
+		
+		final Executor sharing = new Executor(executor.getDataSource());
+		sharing.setDefaultInput(executor.getDefaultInput());
+		sharing.setSingleFlightEnabled(true);
+		final java.util.concurrent.ExecutorService threads = java.util.concurrent.Executors.newFixedThreadPool(8);
+		try {
+			final java.util.concurrent.CountDownLatch start = new java.util.concurrent.CountDownLatch(1);
+			final java.util.List<java.util.concurrent.Future<Void>> results = new java.util.ArrayList<java.util.concurrent.Future<Void>>();
+			for(int t=0; t < 8; ++t) {
+				results.add(threads.submit(new java.util.concurrent.Callable<Void>() {
+					@Override public Void call() throws Exception {
+						start.await();
+						for(int i=0; i < 50; ++i) {
+							final long id = 1 + (i % 4);
+							Assert.assertEquals("quote " + id, sharing.with(Statements.TestQuoteById.class).get(id));
+							Assert.assertEquals(20, sharing.with(Statements.TestQuoteIds.class).collection().size());
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for(final java.util.concurrent.Future<Void> result: results)
+				result.get();
+			
+			/* Every call either executed, was served by an identical call, or executed after waiting */
+			final SingleFlightStatistics statistics = sharing.getSingleFlightStatistics();
+			Assert.assertEquals(800, statistics.getExecutions() + statistics.getCoalesced() + statistics.getFallbacks());
+			Assert.assertEquals(0, statistics.getFallbacks());
+			Assert.assertEquals(0, statistics.getInFlight());
+			Assert.assertEquals(0, statistics.getWaiting());
+			Assert.assertTrue(statistics.getMaxWaiters() <= 7);
+			
+			/* Reads of sessions aren't shared */
+			final Session session = sharing.openSession();
+			try {
+				Assert.assertEquals("quote 1", session.with(Statements.TestQuoteById.class).get(1L));
+			}
+			finally {
+				session.close();
+			}
+			Assert.assertEquals(800, sharing.getSingleFlightStatistics().getExecutions() + sharing.getSingleFlightStatistics().getCoalesced());
+			
+			/* Callers waiting for an identical read don't wait past their deadline */
+			final java.util.concurrent.CountDownLatch leading = new java.util.concurrent.CountDownLatch(1);
+			final java.util.concurrent.Future<Integer> leader = threads.submit(new java.util.concurrent.Callable<Integer>() {
+				@Override public Integer call() throws Exception {
+					return sharing.with(Statements.TestQuoteIds.class).iterate(new IteratorProcessor<Long, Integer>() {
+						@Override public Integer processIterator(final Iterator<Long> iterator) {
+							leading.countDown();
+							try {
+								Thread.sleep(2000);
+							}
+							catch (InterruptedException e) {
+								throw new RuntimeException(e);
+							}
+							int rows = 0;
+							for(; iterator.hasNext(); iterator.next())
+								++rows;
+							return rows;
+						}
+					});
+				}
+			});
+			leading.await();
+			final long waitStart = System.nanoTime();
+			try {
+				sharing.with(Statements.TestQuoteIds.class, 100, java.util.concurrent.TimeUnit.MILLISECONDS).collection();
+				Assert.fail("deadline not enforced while waiting");
+			}
+			catch (OperationTimeoutException e) {
+				Assert.assertEquals(Statements.TestQuoteIds.class, e.getOperation());
+			}
+			Assert.assertTrue(System.nanoTime() - waitStart < java.util.concurrent.TimeUnit.MILLISECONDS.toNanos(1500));
+			Assert.assertEquals(20, (int)leader.get());
+		}
+		finally {
+			threads.shutdown();
+			sharing.destroy();
+		}
+	}
+	
+	@Test
+	public void testExport() throws Exception {
+		final String[] texts = {"plain", "a,b", "say \"hi\"", "line\nbreak", "gr\u00fc\u00dfe \u20ac", null};
+		for(int i=0; i < texts.length; ++i)
+			executor.with(Statements.TestQuoteInsert.class).execute(getTestAudit(101 + i, texts[i]));
+		
+		final Executor exporting = new Executor(executor.getDataSource());
+		exporting.setDefaultInput(executor.getDefaultInput());
+		final java.io.File file = java.io.File.createTempFile("tuplez-export", "");
+		try {
+			final String expected =
+				"ID,TEXT\r\n" +
+				"101,plain\r\n" +
+				"102,\"a,b\"\r\n" +
+				"103,\"say \"\"hi\"\"\"\r\n" +
+				"104,\"line\nbreak\"\r\n" +
+				"105,gr\u00fc\u00dfe \u20ac\r\n" +
+				"106,\r\n";
+			Assert.assertEquals(6, export(exporting, file, ExportFormat.CSV));
+			Assert.assertEquals(expected, new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8"));
+			
+			/* Chunks encoded in parallel are written in order */
+			exporting.setExportChunkRows(1);
+			exporting.setExportParallelism(4);
+			Assert.assertEquals(6, export(exporting, file, ExportFormat.CSV));
+			Assert.assertEquals(expected, new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8"));
+			
+			/* Columnar files hold a chunk of four and a chunk of two rows */
+			exporting.setExportChunkRows(4);
+			Assert.assertEquals(6, export(exporting, file, ExportFormat.COLUMNAR));
+			final java.io.DataInputStream in = new java.io.DataInputStream(new java.io.FileInputStream(file));
+			try {
+				Assert.assertEquals(0x54504c43, in.readInt());
+				Assert.assertEquals(2, in.readInt());
+				Assert.assertEquals(2, in.readInt());
+				Assert.assertEquals(5, in.readByte());
+				Assert.assertEquals("ID", readColumnarString(in));
+				Assert.assertEquals(10, in.readByte());
+				Assert.assertEquals("TEXT", readColumnarString(in));
+				
+				final java.util.List<Long> ids = new java.util.ArrayList<Long>();
+				final java.util.List<String> strings = new java.util.ArrayList<String>();
+				for(final int rows: new int[] {4, 2}) {
+					Assert.assertEquals(rows, in.readInt());
+					Assert.assertEquals(1 + rows * 8, in.readInt());
+					Assert.assertEquals(0, in.readByte());
+					for(int row=0; row < rows; ++row)
+						ids.add(in.readLong());
+					
+					in.readInt();
+					final int nulls = in.readByte();
+					for(int row=0; row < rows; ++row)
+						strings.add(((nulls & (1 << row)) != 0) ? null : readColumnarString(in));
+				}
+				Assert.assertEquals(0, in.readInt());
+				Assert.assertEquals(6, in.readLong());
+				Assert.assertEquals(-1, in.read());
+				
+				Assert.assertEquals(java.util.Arrays.asList(101L, 102L, 103L, 104L, 105L, 106L), ids);
+				Assert.assertEquals(java.util.Arrays.asList(texts), strings);
+			}
+			finally {
+				in.close();
+			}
+			
+			/* Decimals are written without an exponent, timestamps with their nanos */
+			java.nio.channels.FileChannel channel = new java.io.FileOutputStream(file).getChannel();
+			try {
+				Assert.assertEquals(1, exporting.with(Statements.TestExportValues.class).exportTo(channel, ExportFormat.CSV));
+			}
+			finally {
+				channel.close();
+			}
+			Assert.assertEquals(
+				"AMOUNT,STAMP\r\n" +
+				"0.0000000001,2020-01-02 03:04:05.123456789\r\n",
+				new String(java.nio.file.Files.readAllBytes(file.toPath()), "UTF-8")
+			);
+			
+			channel = new java.io.FileOutputStream(file).getChannel();
+			try {
+				Assert.assertEquals(1, exporting.with(Statements.TestExportValues.class).exportTo(channel, ExportFormat.COLUMNAR));
+			}
+			finally {
+				channel.close();
+			}
+			final java.io.DataInputStream values = new java.io.DataInputStream(new java.io.FileInputStream(file));
+			try {
+				values.skipBytes(12);
+				Assert.assertEquals(10, values.readByte());
+				Assert.assertEquals("AMOUNT", readColumnarString(values));
+				Assert.assertEquals(8, values.readByte());
+				Assert.assertEquals("STAMP", readColumnarString(values));
+				Assert.assertEquals(1, values.readInt());
+				
+				values.readInt();
+				Assert.assertEquals(0, values.readByte());
+				Assert.assertEquals("0.0000000001", readColumnarString(values));
+				
+				Assert.assertEquals(1 + 8 + 4, values.readInt());
+				Assert.assertEquals(0, values.readByte());
+				final java.sql.Timestamp stamp = new java.sql.Timestamp(values.readLong());
+				stamp.setNanos(stamp.getNanos() + values.readInt());
+				Assert.assertEquals(java.sql.Timestamp.valueOf("2020-01-02 03:04:05.123456789"), stamp);
+			}
+			finally {
+				values.close();
+			}
+		}
+		finally {
+			exporting.destroy();
+			file.delete();
+		}
+	}
+	
+	private static long export(final Executor exporting, final java.io.File file, final ExportFormat format) throws java.io.IOException {
+		final java.nio.channels.FileChannel channel = new java.io.FileOutputStream(file).getChannel();
+		try {
+			return exporting.with(Statements.TestQuotesFrom.class).exportTo(101L, channel, format);
+		}
+		finally {
+			channel.close();
+		}
+	}
+	
+	private static String readColumnarString(final java.io.DataInputStream in) throws java.io.IOException {
+		final byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		return new String(bytes, "UTF-8");
+	}
+	
+	@Test
+	public void testBulkLoad() throws Exception {
+		/* Workers need connections of their own */
+		final Executor loading = new Executor(new org.springframework.jdbc.datasource.DriverManagerDataSource("jdbc:derby:memory:test"));
+		loading.setDefaultInput(executor.getDefaultInput());
+		final java.io.File file = java.io.File.createTempFile("tuplez-load", "");
+		try {
+			final StringBuilder csv = new StringBuilder("ID,Text\n");
+			for(int id=1; id <= 1000; ++id)
+				csv.append(id).append(",").append((id % 7 == 0) ? "\"row, \"\"" + id + "\"\"\nnext line\"" : "row " + id).append("\r\n");
+			java.nio.file.Files.write(file.toPath(), csv.toString().getBytes("UTF-8"));
+			
+			final BulkLoader<Statements.TestQuote> loader = loading.bulkLoader(Statements.TestLoadedInsert.class);
+			loader.setParallelism(3);
+			loader.setBatchSize(50);
+			loader.setCommitRows(120);
+			BulkLoadStatistics statistics = loader.load(file, ExportFormat.CSV);
+			Assert.assertEquals(1000, statistics.getLoadedRows());
+			Assert.assertEquals(0, statistics.getFailedRows());
+			Assert.assertFalse(statistics.isRunning());
+			Assert.assertEquals(1.0, statistics.getProgress(), 0.01);
+			Assert.assertEquals(1000, loading.with(Statements.TestLoadedAll.class).collection().size());
+			Assert.assertEquals("row 1", loading.with(Statements.TestLoadedText.class).get(1L));
+			Assert.assertEquals("row, \"14\"\nnext line", loading.with(Statements.TestLoadedText.class).get(14L));
+			
+			/* Columnar exports load the same rows */
+			final java.nio.channels.FileChannel out = new java.io.FileOutputStream(file).getChannel();
+			try {
+				loading.with(Statements.TestLoadedAll.class).exportTo(out, ExportFormat.COLUMNAR);
+			}
+			finally {
+				out.close();
+			}
+			loading.with(Statements.TestLoadedDelete.class).execute();
+			statistics = loader.load(file, ExportFormat.COLUMNAR);
+			Assert.assertEquals(1000, statistics.getLoadedRows());
+			Assert.assertEquals("row, \"14\"\nnext line", loading.with(Statements.TestLoadedText.class).get(14L));
+			
+			/* Failed rows are reported, the others are loaded. With a single
+			 * worker the rows execute in order, so the duplicate key fails */
+			loading.with(Statements.TestLoadedDelete.class).execute();
+			java.nio.file.Files.write(file.toPath(), "id,text\n1,a\nx,b\n3,c\n1,d\n5,e\n".getBytes("UTF-8"));
+			loader.setParallelism(1);
+			loader.setMaxErrors(2);
+			statistics = loader.load(file, ExportFormat.CSV);
+			Assert.assertEquals(3, statistics.getLoadedRows());
+			Assert.assertEquals(2, statistics.getFailedRows());
+			final java.util.List<Long> failedRows = new java.util.ArrayList<Long>();
+			for(final BulkLoadError error: statistics.getErrors())
+				failedRows.add(error.getRow());
+			java.util.Collections.sort(failedRows);
+			Assert.assertEquals(java.util.Arrays.asList(2L, 4L), failedRows);
+			Assert.assertEquals("a", loading.with(Statements.TestLoadedText.class).get(1L));
+			Assert.assertEquals("e", loading.with(Statements.TestLoadedText.class).get(5L));
+			
+			/* Too many failed rows abort the load */
+			loading.with(Statements.TestLoadedDelete.class).execute();
+			loader.setMaxErrors(0);
+			try {
+				loader.load(file, ExportFormat.CSV);
+				Assert.fail("load wasn't aborted");
+			}
+			catch (BulkLoadAbortedException e) {
+				Assert.assertTrue(e.getStatistics().isAborted());
+				Assert.assertEquals(1, e.getStatistics().getFailedRows());
+			}
+		}
+		finally {
+			loading.with(Statements.TestLoadedDelete.class).execute();
+			file.delete();
+		}
+	}
+	
+	@Test
+	public void testCopy() {
+		final java.util.List<Statements.TestQuote> rows = new java.util.ArrayList<Statements.TestQuote>();
+		for(int i=1; i <= 500; ++i) {
+			final long id = i;
+			rows.add(new Statements.TestQuote() {
+				@Override public Long getId() { return id; }
+				@Override public String getText() { return "row " + id; }
+			});
+		}
+		executor.with(Statements.TestLoadedInsert.class).executeBatch(rows);
+		
+		/* The writer needs a connection of its own */
+		final Executor source = new Executor(executor.getDataSource());
+		source.setDefaultInput(executor.getDefaultInput());
+		source.setCopyBatchSize(7);
+		source.setCopyBufferBatches(2);
+		final Executor target = new Executor(new org.springframework.jdbc.datasource.DriverManagerDataSource("jdbc:derby:memory:test"));
+		target.setDefaultInput(executor.getDefaultInput());
+		try {
+			/* Skipped rows aren't written */
+			final CopyStatistics statistics = source.copy(
+				Statements.TestLoadedAll.class,
+				target, Statements.TestCopiedInsert.class,
+				new RowTransform<Statements.TestQuote, Statements.TestQuote>() {
+					@Override public Statements.TestQuote transform(final Statements.TestQuote row) {
+						if (row.getId() % 10 == 0)
+							return null;
+						final long id = row.getId() + 1000;
+						final String text = row.getText().toUpperCase(Locale.ENGLISH);
+						return new Statements.TestQuote() {
+							@Override public Long getId() { return id; }
+							@Override public String getText() { return text; }
+						};
+					}
+				}
+			);
+			Assert.assertEquals(500, statistics.getReadRows());
+			Assert.assertEquals(50, statistics.getSkippedRows());
+			Assert.assertEquals(450, statistics.getWrittenRows());
+			Assert.assertEquals(65, statistics.getBatches());
+			Assert.assertTrue(statistics.getRowsPerSecond() > 0);
+			
+			final java.util.List<Statements.TestQuote> copied = new java.util.ArrayList<Statements.TestQuote>(
+				executor.with(Statements.TestCopiedAll.class).collection()
+			);
+			Assert.assertEquals(450, copied.size());
+			Assert.assertEquals(1001L, (long)copied.get(0).getId());
+			Assert.assertEquals("ROW 1", copied.get(0).getText());
+			Assert.assertEquals(1499L, (long)copied.get(449).getId());
+			
+			/* Without a transform rows are written unchanged */
+			executor.with(Statements.TestCopiedDelete.class).execute();
+			Assert.assertEquals(500, source.copy(
+				Statements.TestLoadedAll.class,
+				target, Statements.TestCopiedInsert.class,
+				null
+			).getWrittenRows());
+			
+			/* Failed writes stop the copy */
+			try {
+				source.copy(
+					Statements.TestLoadedAll.class,
+					target, Statements.TestCopiedInsert.class,
+					null
+				);
+				Assert.fail("copy of duplicate keys didn't fail");
+			}
+			catch (org.springframework.dao.DataIntegrityViolationException e) {
+				/* Expected */
+			}
+			Assert.assertEquals(500, executor.with(Statements.TestCopiedAll.class).collection().size());
+			
+			/* Errors of the writer are thrown as well */
+			final Executor broken = new Executor(new org.springframework.jdbc.datasource.DriverManagerDataSource("jdbc:derby:memory:test") {
+				@Override public java.sql.Connection getConnection() {
+					throw new AssertionError("no connection");
+				}
+			});
+			broken.setDefaultInput(executor.getDefaultInput());
+			try {
+				source.copy(Statements.TestLoadedAll.class, broken, Statements.TestCopiedInsert.class, null);
+				Assert.fail("copy without a writer didn't fail");
+			}
+			catch (AssertionError e) {
+				Assert.assertEquals("no connection", e.getMessage());
+			}
+		}
+		finally {
+			executor.with(Statements.TestCopiedDelete.class).execute();
+			executor.with(Statements.TestLoadedDelete.class).execute();
+		}
+	}
+	
+	@Test
+	public void testExistenceFilter() {
+		for(int id=2; id <= 200; id += 2)
+			executor.with(Statements.TestMemberInsertUntracked.class).execute(getTestAudit(id, "member " + id));
+		
+		final Executor filtering = new Executor(executor.getDataSource());
+		filtering.setDefaultInput(executor.getDefaultInput());
+		try {
+			/* Existing keys are never ruled out, most missing keys are */
+			for(int id=1; id <= 200; ++id) {
+				final String name = filtering.with(Statements.TestMemberById.class).get(id);
+				if ((id % 2) == 0)
+					Assert.assertEquals("member " + id, name);
+				else
+					Assert.assertNull(name);
+			}
+			ExistenceFilterStatistics statistics = filtering.getExistenceFilterStatistics(Statements.TestMemberById.class);
+			Assert.assertEquals(1, statistics.getLoads());
+			Assert.assertEquals(100, statistics.getKeys());
+			Assert.assertEquals(200, statistics.getLookups());
+			Assert.assertEquals(100, statistics.getRejected() + statistics.getFalsePositives());
+			Assert.assertTrue(statistics.getRejected() >= 90);
+			Assert.assertTrue(statistics.getExpectedFalsePositiveRate() < 0.05);
+			Assert.assertTrue(statistics.getObservedFalsePositiveRate() < 0.1);
+			
+			/* Inserts of operations with @AddsKeys are found immediately */
+			filtering.with(Statements.TestMemberInsert.class).execute(getTestAudit(1001, "member 1001"));
+			filtering.with(Statements.TestMemberInsert.class).executeBatch(java.util.Arrays.asList(
+				getTestAudit(1003, "member 1003"),
+				getTestAudit(1005, "member 1005")
+			));
+			Assert.assertEquals("member 1001", filtering.with(Statements.TestMemberById.class).get(1001L));
+			Assert.assertEquals("member 1005", filtering.with(Statements.TestMemberById.class).get(1005L));
+			Assert.assertEquals(
+				java.util.Arrays.asList(2L, 1003L),
+				new java.util.ArrayList<Long>(filtering.with(Statements.TestMemberById.class).getAll(java.util.Arrays.asList(2L, 3L, 1003L, 2L)).keySet())
+			);
+			
+			/* Other inserts are found once the filter was rebuilt */
+			executor.with(Statements.TestMemberInsertUntracked.class).execute(getTestAudit(1007, "member 1007"));
+			filtering.rebuildExistenceFilter(Statements.TestMemberById.class);
+			Assert.assertEquals("member 1007", filtering.with(Statements.TestMemberById.class).get(1007L));
+			
+			statistics = filtering.getExistenceFilterStatistics(Statements.TestMemberById.class);
+			Assert.assertEquals(2, statistics.getLoads());
+			Assert.assertEquals(104, statistics.getKeys());
+		}
+		finally {
+			filtering.destroy();
+		}
+	}
+	
+	@Test
+	public void testExistenceFilterGeneratedKeys() {
+		final Executor filtering = new Executor(executor.getDataSource());
+		filtering.setDefaultInput(executor.getDefaultInput());
+		try {
+			Assert.assertNull(filtering.with(Statements.TestTicketById.class).get(1L));
+			
+			/* The generated keys are added, whichever way the inserts execute */
+			filtering.with(Statements.TestTicketInsert.class).execute("first");
+			filtering.with(Statements.TestTicketInsert.class).executeBatch(java.util.Arrays.asList("second", "third"));
+			Assert.assertEquals(4, filtering.with(Statements.TestTicketInsert.class).key("fourth").intValue());
+			Assert.assertEquals(
+				java.util.Arrays.asList("first", "second", "third", "fourth"),
+				new java.util.ArrayList<String>(filtering.with(Statements.TestTicketById.class).getAll(java.util.Arrays.asList(1L, 2L, 3L, 4L)).values())
+			);
+			Assert.assertEquals(1, filtering.getExistenceFilterStatistics(Statements.TestTicketById.class).getLoads());
+		}
+		finally {
+			filtering.destroy();
+		}
+	}
+	
+	@Test
+	public void testIdentityCache() {
+		executor.with(Statements.TestKvInsert.class).execute(getTestAudit(1, "a"));
+		
+		executor.setIdentityCacheEnabled(true);
+		try {
+			final Session session = executor.openSession();
+			try {
+				Assert.assertEquals("a", session.with(Statements.TestKvById.class).get(1L));
+				Assert.assertEquals("a", session.with(Statements.TestKvById.class).get(1));
+				Assert.assertNull(session.with(Statements.TestKvById.class).get(2L));
+				Assert.assertNull(session.with(Statements.TestKvById.class).get(2L));
+				Assert.assertEquals(2, session.getIdentityCacheHits());
+				Assert.assertEquals(2, session.getIdentityCacheMisses());
+				
+				/* Writes outside the session aren't seen */
+				executor.with(Statements.TestKvUpdate.class).execute(getTestAudit(1, "b"));
+				Assert.assertEquals("a", session.with(Statements.TestKvById.class).get(1L));
+				
+				/* Writes of other tables don't invalidate */
+				session.with(Statements.TestAuditDelete.class).execute(-1L);
+				Assert.assertEquals("a", session.with(Statements.TestKvById.class).get(1L));
+				
+				/* Writes of the same table do */
+				session.with(Statements.TestKvUpdate.class).execute(getTestAudit(1, "c"));
+				Assert.assertEquals("c", session.with(Statements.TestKvById.class).get(1L));
+				
+				/* Writes without declared tables invalidate everything */
+				executor.with(Statements.TestKvUpdate.class).execute(getTestAudit(1, "d"));
+				session.with(Statements.TestKvUpdateUndeclared.class).execute(getTestAudit(-1, "x"));
+				Assert.assertEquals("d", session.with(Statements.TestKvById.class).get(1L));
+				
+				/* getAll() consults and fills the cache as well */
+				final long hits = session.getIdentityCacheHits();
+				Assert.assertEquals(
+					java.util.Collections.singletonMap(1L, "d"),
+					session.with(Statements.TestKvById.class).getAll(java.util.Arrays.asList(1L, 3L))
+				);
+				Assert.assertEquals(hits + 1, session.getIdentityCacheHits());
+				Assert.assertEquals(
+					java.util.Arrays.asList(1L),
+					new java.util.ArrayList<Long>(session.with(Statements.TestKvById.class).getAll(java.util.Arrays.asList(3L, 1L)).keySet())
+				);
+				Assert.assertEquals(hits + 3, session.getIdentityCacheHits());
+				
+				/* Rows are cached by the values bound, not by the input object */
+				session.with(Statements.TestKvInsert.class).execute(getTestAudit(2, "e"));
+				final long[] id = { 1 };
+				final Statements.TestAudit mutable = new Statements.TestAudit() {
+					@Override public Long getId() { return id[0]; }
+					@Override public String getMsg() { return null; }
+				};
+				Assert.assertEquals("d", session.with(Statements.TestKvByAudit.class).get(mutable));
+				id[0] = 2;
+				Assert.assertEquals("e", session.with(Statements.TestKvByAudit.class).get(mutable));
+				Assert.assertEquals(hits + 3, session.getIdentityCacheHits());
+				Assert.assertEquals("e", session.with(Statements.TestKvByAudit.class).get(getTestAudit(2, "other")));
+				Assert.assertEquals(hits + 4, session.getIdentityCacheHits());
+			}
+			finally {
+				session.close();
+			}
+		}
+		finally {
+			executor.setIdentityCacheEnabled(false);
+		}
+		
+		/* Sessions opened without the cache execute every lookup */
+		final Session session = executor.openSession();
+		try {
+			Assert.assertEquals("d", session.with(Statements.TestKvById.class).get(1L));
+			Assert.assertEquals(0, session.getIdentityCacheHits());
+		}
+		finally {
+			session.close();
+		}
+	}
+	
+	@Test(expected=IllegalStateException.class)
+	public void testClosedSession() {
+		final Session session = executor.openSession();
+		session.close();
+		session.with(Statements.TestIdToStr.class);
+	}
+
 	@Test(expected=java.util.NoSuchElementException.class)
 	public void testIterationExceed() {
 		executor.with(Statements.TestResultSize.class).iterate(1, new IteratorProcessor<String, Void>() {